@@ -0,0 +1,225 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.benchmarks;
+
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+import com.khulnasoft.collection.*;
+import com.khulnasoft.reflect.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Per-element cost of reading a member by name: Method.invoke (how
+ * ReflectiveComparator, ReflectiveFilter, MethodValueCache and EntityStore
+ * read values before Accessor) against a compiled Accessor, with a direct
+ * method reference as the floor.  Sorts are by an int member and by a
+ * String member; the predicate is an int equality test.  Divide the sort
+ * scores by n log2 n and the filter scores by n for a per-comparison and
+ * per-test cost.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class AccessorBenchmark
+{
+
+  @Param({ "1000000" })
+  public int size;
+
+  private BenchmarkEntity[] entities;
+  private BenchmarkEntity[] work;
+  private Method            scoreMethod;
+  private Method            nameMethod;
+  private Method            categoryMethod;
+  private Accessor          scoreAccessor;
+  private Accessor          nameAccessor;
+  private Accessor          categoryAccessor;
+  private Integer           category;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception
+  {
+    final Random random = new Random(1);
+    entities = new BenchmarkEntity[size];
+    for (int i = 0; i < size; i++)
+    {
+      final BenchmarkEntity entity = new BenchmarkEntity();
+      entity.setId(i + 1);
+      entity.setName("Name " + random.nextInt(size));
+      entity.setCategory(random.nextInt(BenchmarkFixture.CATEGORIES));
+      entity.setScore(random.nextInt(1_000_000));
+      entities[i] = entity;
+    }
+    work = new BenchmarkEntity[size];
+
+    scoreMethod = BenchmarkEntity.class.getMethod("getScore");
+    nameMethod = BenchmarkEntity.class.getMethod("getName");
+    categoryMethod = BenchmarkEntity.class.getMethod("getCategory");
+    scoreAccessor = Accessor.method(BenchmarkEntity.class, "getScore");
+    nameAccessor = Accessor.method(BenchmarkEntity.class, "getName");
+    categoryAccessor = Accessor.method(BenchmarkEntity.class, "getCategory");
+    category = 3;
+  }
+
+  @Setup(Level.Invocation)
+  public void copy()
+  {
+    System.arraycopy(entities, 0, work, 0, size);
+  }
+
+  //
+  // Sorts by an int member.
+  //
+
+  @Benchmark
+  public BenchmarkEntity[] sortIntReflection()
+  {
+    Arrays.sort(work, reflective(scoreMethod));
+    return work;
+  }
+
+  @Benchmark
+  public BenchmarkEntity[] sortIntAccessor()
+  {
+    Arrays.sort(work, scoreAccessor.<BenchmarkEntity>comparator(false, false));
+    return work;
+  }
+
+  @Benchmark
+  public BenchmarkEntity[] sortIntReflectiveComparator()
+  {
+    Arrays.sort(work, new ReflectiveComparator<BenchmarkEntity>("getScore", 
+        BenchmarkEntity.class, ReflectiveComparator.BY_METHOD));
+    return work;
+  }
+
+  @Benchmark
+  public BenchmarkEntity[] sortIntDirect()
+  {
+    Arrays.sort(work, Comparator.comparingInt(BenchmarkEntity::getScore));
+    return work;
+  }
+
+  //
+  // Sorts by a String member.
+  //
+
+  @Benchmark
+  public BenchmarkEntity[] sortStringReflection()
+  {
+    Arrays.sort(work, reflective(nameMethod));
+    return work;
+  }
+
+  @Benchmark
+  public BenchmarkEntity[] sortStringAccessor()
+  {
+    Arrays.sort(work, nameAccessor.<BenchmarkEntity>comparator(false, false));
+    return work;
+  }
+
+  @Benchmark
+  public BenchmarkEntity[] sortStringDirect()
+  {
+    Arrays.sort(work, Comparator.comparing(BenchmarkEntity::getName));
+    return work;
+  }
+
+  //
+  // Equality predicates on an int member.
+  //
+
+  @Benchmark
+  public int filterReflection() throws Exception
+  {
+    int matches = 0;
+    for (BenchmarkEntity entity : entities)
+    {
+      if (Objects.equals(category, categoryMethod.invoke(entity)))
+      {
+        matches++;
+      }
+    }
+    return matches;
+  }
+
+  @Benchmark
+  public int filterAccessor()
+  {
+    final Predicate<BenchmarkEntity> predicate = categoryAccessor.equalTo(category);
+    int matches = 0;
+    for (BenchmarkEntity entity : entities)
+    {
+      if (predicate.test(entity))
+      {
+        matches++;
+      }
+    }
+    return matches;
+  }
+
+  @Benchmark
+  public int filterDirect()
+  {
+    final int expected = category;
+    int matches = 0;
+    for (BenchmarkEntity entity : entities)
+    {
+      if (entity.getCategory() == expected)
+      {
+        matches++;
+      }
+    }
+    return matches;
+  }
+
+  /**
+   * A comparator that reads values with Method.invoke.
+   */
+  @SuppressWarnings("unchecked")
+  private static Comparator<BenchmarkEntity> reflective(Method method)
+  {
+    return (o1, o2) -> {
+      try
+      {
+        return ((Comparable<Object>)method.invoke(o1)).compareTo(method.invoke(o2));
+      }
+      catch (IllegalAccessException | InvocationTargetException exc)
+      {
+        throw new IllegalStateException(exc);
+      }
+    };
+  }
+
+}   // End AccessorBenchmark.
@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.benchmarks;
+
+import java.io.*;
+import java.util.*;
+
+import com.fasterxml.jackson.databind.*;
+
+/**
+ * Compares a JMH results file written with {@code -rf json} against a
+ * stored baseline in the same format, so that CI can fail a build on a
+ * performance regression.  Results are matched by benchmark name, mode and
+ * parameters.  A result regresses when it is worse than the baseline by
+ * more than the threshold percentage <i>and</i> by more than the two
+ * scores' combined error, which keeps noisy benchmarks from failing the
+ * build on their own.
+ * <p>
+ * Usage: {@code BaselineComparator baseline.json results.json [threshold%]}.
+ * The exit status is 1 if any result regressed, 2 on bad input, 0 otherwise.
+ */
+public class BaselineComparator
+{
+
+  //
+  // Constants.
+  //
+
+  public static final double DEFAULT_THRESHOLD_PERCENT = 10d;
+
+  //
+  // Static methods.
+  //
+
+  public static void main(String[] args) throws IOException
+  {
+    if (args.length < 2)
+    {
+      System.err.println("Usage: BaselineComparator baseline.json results.json [threshold%]");
+      System.exit(2);
+    }
+    final double threshold = args.length > 2 
+        ? Double.parseDouble(args[2]) 
+        : DEFAULT_THRESHOLD_PERCENT;
+
+    final Map<String, Result> baseline = read(new File(args[0]));
+    final Map<String, Result> current = read(new File(args[1]));
+    final int regressions = compare(baseline, current, threshold, System.out);
+    System.exit(regressions > 0 ? 1 : 0);
+  }
+
+  /**
+   * Reads a JMH JSON results file into a map keyed by benchmark, mode and
+   * parameters.
+   */
+  public static Map<String, Result> read(File file) throws IOException
+  {
+    final Map<String, Result> results = new TreeMap<>();
+    for (JsonNode node : new ObjectMapper().readTree(file))
+    {
+      final Result result = new Result(node);
+      results.put(result.key, result);
+    }
+    return results;
+  }
+
+  /**
+   * Writes one line per result to the provided stream and returns the
+   * number of regressions found.  Benchmarks missing from either side are
+   * reported but do not count as regressions.
+   */
+  public static int compare(Map<String, Result> baseline, 
+      Map<String, Result> current, double thresholdPercent, PrintStream out)
+  {
+    int regressions = 0;
+    for (Result result : current.values())
+    {
+      final Result base = baseline.get(result.key);
+      if (base == null)
+      {
+        out.printf("NEW        %s: %.3f %s%n", result.key, result.score, result.unit);
+        continue;
+      }
+
+      // Positive change is always "worse", whichever way the mode scores.
+      final double change = base.score == 0d 
+          ? 0d
+          : (result.score - base.score) / base.score * 100d 
+            * (result.higherIsBetter() ? -1d : 1d);
+      final double error = safe(result.error) + safe(base.error);
+      final boolean regressed = change > thresholdPercent
+          && Math.abs(result.score - base.score) > error;
+      if (regressed)
+      {
+        regressions++;
+      }
+      out.printf("%-10s %s: %.3f -> %.3f %s (%+.1f%% worse)%n", 
+          regressed ? "REGRESSED" : "ok", result.key, base.score, 
+          result.score, result.unit, change);
+    }
+    for (String key : baseline.keySet())
+    {
+      if (!current.containsKey(key))
+      {
+        out.printf("MISSING    %s%n", key);
+      }
+    }
+    out.printf("%d regression(s) beyond %.1f%%.%n", regressions, thresholdPercent);
+    return regressions;
+  }
+
+  private static double safe(double value)
+  {
+    return Double.isNaN(value) ? 0d : value;
+  }
+
+  /**
+   * One benchmark result.
+   */
+  public static class Result
+  {
+    public final String key;
+    public final String mode;
+    public final double score;
+    public final double error;
+    public final String unit;
+
+    public Result(JsonNode node)
+    {
+      final StringBuilder key = new StringBuilder(node.path("benchmark").asText())
+          .append(" [")
+          .append(node.path("mode").asText());
+      final JsonNode params = node.path("params");
+      final List<String> names = new ArrayList<>();
+      params.fieldNames().forEachRemaining(names::add);
+      Collections.sort(names);
+      for (String name : names)
+      {
+        key.append(", ").append(name).append('=').append(params.get(name).asText());
+      }
+      key.append(", threads=").append(node.path("threads").asInt()).append(']');
+
+      final JsonNode metric = node.path("primaryMetric");
+      this.key = key.toString();
+      this.mode = node.path("mode").asText();
+      this.score = metric.path("score").asDouble();
+      this.error = metric.path("scoreError").asDouble(Double.NaN);
+      this.unit = metric.path("scoreUnit").asText();
+    }
+
+    /**
+     * Throughput is the only JMH mode where a larger score is better.
+     */
+    public boolean higherIsBetter()
+    {
+      return "thrpt".equals(mode);
+    }
+  }
+
+}   // End BaselineComparator.
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.benchmarks;
+
+import java.util.*;
+
+import com.khulnasoft.util.*;
+
+/**
+ * A synthetic entity used by the benchmarks.  Its fields cover the column
+ * types that typical application entities map: strings, ints, a boolean
+ * and a date.  Instances are mapped to the "benchmarkentity" table by the
+ * usual EntityGroup conventions.
+ */
+public class BenchmarkEntity
+     extends BasicIdentifiable
+{
+
+  //
+  // Member variables.
+  //
+
+  private String  name;
+  private String  email;
+  private int     category;
+  private int     score;
+  private boolean active;
+  private Date    created;
+
+  //
+  // Member methods.
+  //
+
+  public String getName()
+  {
+    return name;
+  }
+
+  public void setName(String name)
+  {
+    this.name = name;
+  }
+
+  public String getEmail()
+  {
+    return email;
+  }
+
+  public void setEmail(String email)
+  {
+    this.email = email;
+  }
+
+  public int getCategory()
+  {
+    return category;
+  }
+
+  public void setCategory(int category)
+  {
+    this.category = category;
+  }
+
+  public int getScore()
+  {
+    return score;
+  }
+
+  public void setScore(int score)
+  {
+    this.score = score;
+  }
+
+  public boolean isActive()
+  {
+    return active;
+  }
+
+  public void setActive(boolean active)
+  {
+    this.active = active;
+  }
+
+  public Date getCreated()
+  {
+    return created;
+  }
+
+  public void setCreated(Date created)
+  {
+    this.created = created;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "BenchmarkEntity [" + getId() + "; " + name + "]";
+  }
+
+}   // End BenchmarkEntity.
@@ -0,0 +1,189 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.benchmarks;
+
+import java.sql.*;
+import java.util.*;
+
+import com.khulnasoft.*;
+import com.khulnasoft.cache.*;
+import com.khulnasoft.data.*;
+
+/**
+ * Builds the shared test bed for the data-layer benchmarks: an embedded
+ * database holding a "benchmarkentity" table of synthetic rows, and an
+ * EntityStore with that table registered as a CacheGroup.  Data is
+ * generated from a fixed seed so that every run, and every fork within a
+ * run, sees identical rows.
+ */
+public class BenchmarkFixture
+  implements AutoCloseable
+{
+
+  //
+  // Constants.
+  //
+
+  public static final long   SEED       = 0x6E6D696E6547L;
+  public static final int    CATEGORIES = 100;
+  public static final String TABLE      = "benchmarkentity";
+
+  private static final String[] WORDS = {
+      "alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf",
+      "hotel", "india", "juliet", "kilo", "lima", "mike", "november",
+      "oscar", "papa", "quebec", "romeo", "sierra", "tango" };
+
+  //
+  // Member variables.
+  //
+
+  private final EmbeddedConnectorFactory connectorFactory;
+  private final EntityStore              store;
+  private final int                      rows;
+
+  //
+  // Member methods.
+  //
+
+  /**
+   * Constructor.  Creates and fills the table and registers the group.  The
+   * group is initialized from the database before this returns.
+   *
+   * @param rows the number of rows to generate.
+   */
+  public BenchmarkFixture(int rows) throws SQLException
+  {
+    this.rows = rows;
+    this.connectorFactory = new EmbeddedConnectorFactory();
+    this.connectorFactory.execute(
+        "CREATE TABLE \"" + TABLE + "\" ("
+        + "\"id\" BIGINT PRIMARY KEY, "
+        + "\"name\" VARCHAR(100), "
+        + "\"email\" VARCHAR(100), "
+        + "\"category\" INT, "
+        + "\"score\" INT, "
+        + "\"active\" BOOLEAN, "
+        + "\"created\" TIMESTAMP)");
+    insert(entities(rows));
+
+    this.store = new EntityStore(new KhulnaSoftApplication(), connectorFactory);
+    this.store.register(CacheGroup.of(BenchmarkEntity.class));
+    // Load the group now rather than inside the first measured call.
+    this.store.list(BenchmarkEntity.class);
+  }
+
+  /**
+   * Generates the provided number of synthetic entities, with identities
+   * 1 through count.  The same count always yields the same entities.
+   */
+  public static List<BenchmarkEntity> entities(int count)
+  {
+    final SplittableRandom random = new SplittableRandom(SEED);
+    final List<BenchmarkEntity> entities = new ArrayList<>(count);
+    final long epoch = 1_500_000_000_000L;
+    for (int i = 1; i <= count; i++)
+    {
+      final BenchmarkEntity entity = new BenchmarkEntity();
+      final String first = WORDS[random.nextInt(WORDS.length)];
+      final String last = WORDS[random.nextInt(WORDS.length)];
+      entity.setId(i);
+      entity.setName(first + " " + last + " " + i);
+      entity.setEmail(first + "." + i + "@" + last + ".example.com");
+      entity.setCategory(random.nextInt(CATEGORIES));
+      entity.setScore(random.nextInt(1_000_000));
+      entity.setActive(random.nextInt(4) != 0);
+      entity.setCreated(new java.util.Date(epoch + random.nextLong(200_000_000_000L)));
+      entities.add(entity);
+    }
+    return entities;
+  }
+
+  /**
+   * Writes the provided entities straight to the table in batches,
+   * bypassing Gemini, so that setup cost is not confused with the code
+   * being measured.
+   */
+  private void insert(List<BenchmarkEntity> entities) throws SQLException
+  {
+    try (
+        ConnectionMonitor monitor = connectorFactory.getConnectionMonitor();
+        PreparedStatement statement = monitor.getConnection().prepareStatement(
+            "INSERT INTO \"" + TABLE + "\" VALUES (?, ?, ?, ?, ?, ?, ?)")
+        )
+    {
+      int batched = 0;
+      for (BenchmarkEntity entity : entities)
+      {
+        statement.setLong(1, entity.getId());
+        statement.setString(2, entity.getName());
+        statement.setString(3, entity.getEmail());
+        statement.setInt(4, entity.getCategory());
+        statement.setInt(5, entity.getScore());
+        statement.setBoolean(6, entity.isActive());
+        statement.setTimestamp(7, new Timestamp(entity.getCreated().getTime()));
+        statement.addBatch();
+        if (++batched % 1000 == 0)
+        {
+          statement.executeBatch();
+        }
+      }
+      statement.executeBatch();
+    }
+  }
+
+  /**
+   * Gets the EntityStore.
+   */
+  public EntityStore getStore()
+  {
+    return store;
+  }
+
+  /**
+   * Gets the ConnectorFactory for the embedded database.
+   */
+  public EmbeddedConnectorFactory getConnectorFactory()
+  {
+    return connectorFactory;
+  }
+
+  /**
+   * Gets the number of rows generated.
+   */
+  public int getRows()
+  {
+    return rows;
+  }
+
+  @Override
+  public void close()
+  {
+    connectorFactory.close();
+  }
+
+}   // End BenchmarkFixture.
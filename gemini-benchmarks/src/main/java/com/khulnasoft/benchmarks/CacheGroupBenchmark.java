@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.benchmarks;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.khulnasoft.cache.*;
+import com.khulnasoft.collection.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+/**
+ * Read paths of a CacheGroup: identity lookups, the ordered list, and
+ * filtered, sorted and paged queries through EntityQuery.  Lookups are
+ * run at 1 and 8 threads because CacheGroup reads are expected to scale.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CacheGroupBenchmark
+{
+
+  @Param({ "1000", "100000" })
+  public int size;
+
+  private BenchmarkFixture fixture;
+  private EntityStore      store;
+  private CacheGroup<BenchmarkEntity> group;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception
+  {
+    fixture = new BenchmarkFixture(size);
+    store = fixture.getStore();
+    group = (CacheGroup<BenchmarkEntity>)store.getGroup(BenchmarkEntity.class);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+  {
+    fixture.close();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public BenchmarkEntity get()
+  {
+    return group.get(1 + ThreadLocalRandom.current().nextInt(size));
+  }
+
+  @Benchmark
+  @Threads(8)
+  public BenchmarkEntity getContended()
+  {
+    return group.get(1 + ThreadLocalRandom.current().nextInt(size));
+  }
+
+  @Benchmark
+  public List<BenchmarkEntity> list()
+  {
+    return group.list();
+  }
+
+  @Benchmark
+  public void iterate(Blackhole blackhole)
+  {
+    for (BenchmarkEntity entity : group.list())
+    {
+      blackhole.consume(entity.getScore());
+    }
+  }
+
+  @Benchmark
+  public List<BenchmarkEntity> queryByCategory()
+  {
+    return store.query(BenchmarkEntity.class)
+        .where("getCategory", ThreadLocalRandom.current().nextInt(BenchmarkFixture.CATEGORIES))
+        .list();
+  }
+
+  @Benchmark
+  public List<BenchmarkEntity> queryTopTen()
+  {
+    return store.query(BenchmarkEntity.class)
+        .where(BenchmarkEntity::isActive)
+        .orderBy(BenchmarkEntity::getScore)
+        .descending()
+        .limit(10)
+        .list();
+  }
+
+  @Benchmark
+  public List<BenchmarkEntity> sortedListByName()
+  {
+    return store.sortedList(BenchmarkEntity.class, "getName",
+        ReflectiveComparator.BY_METHOD);
+  }
+
+}   // End CacheGroupBenchmark.
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.benchmarks;
+
+import java.text.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.khulnasoft.helper.*;
+import com.khulnasoft.text.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Date and number formatting through DateHelper, SynchronizedSimpleDateFormat
+ * and SynchronizedDecimalFormat, alone and with 32 threads sharing one
+ * instance.  The "locked" benchmarks share a SimpleDateFormat behind a
+ * monitor, as SynchronizedSimpleDateFormat used to, as a reference point
+ * for how much contention the shared formatters avoid.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class DateFormatBenchmark
+{
+
+  private static final SynchronizedSimpleDateFormat SHARED 
+      = new SynchronizedSimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+  private static final SynchronizedDecimalFormat    NUMBER 
+      = new SynchronizedDecimalFormat("#,##0.00");
+
+  private final SimpleDateFormat locked = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+  private Date[]   dates;
+  private String[] parseable;
+
+  @Setup(Level.Trial)
+  public void setUp()
+  {
+    final List<BenchmarkEntity> entities = BenchmarkFixture.entities(1024);
+    final List<SimpleDateFormat> formatters = DateHelper.getDefaultDateFormatters();
+    dates = new Date[entities.size()];
+    parseable = new String[entities.size()];
+    for (int i = 0; i < dates.length; i++)
+    {
+      dates[i] = entities.get(i).getCreated();
+      // Cycle through the permitted formats so the parser's hint is not
+      // always right.
+      parseable[i] = formatters.get((i * 7) % formatters.size())
+          .format(dates[i]);
+    }
+  }
+
+  private Date date()
+  {
+    return dates[ThreadLocalRandom.current().nextInt(dates.length)];
+  }
+
+  @Benchmark
+  @Threads(1)
+  public String format()
+  {
+    return SHARED.format(date());
+  }
+
+  @Benchmark
+  @Threads(32)
+  public String formatContended()
+  {
+    return SHARED.format(date());
+  }
+
+  @Benchmark
+  @Threads(1)
+  public String formatLocked()
+  {
+    synchronized (locked)
+    {
+      return locked.format(date());
+    }
+  }
+
+  @Benchmark
+  @Threads(32)
+  public String formatLockedContended()
+  {
+    synchronized (locked)
+    {
+      return locked.format(date());
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public String dateHelperFormat()
+  {
+    return DateHelper.format(date());
+  }
+
+  @Benchmark
+  @Threads(32)
+  public String dateHelperFormatContended()
+  {
+    return DateHelper.format(date());
+  }
+
+  @Benchmark
+  @Threads(1)
+  public Calendar dateHelperParse()
+  {
+    return DateHelper.parse(parseable[ThreadLocalRandom.current().nextInt(parseable.length)]);
+  }
+
+  @Benchmark
+  @Threads(32)
+  public Calendar dateHelperParseContended()
+  {
+    return DateHelper.parse(parseable[ThreadLocalRandom.current().nextInt(parseable.length)]);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public String decimalFormat()
+  {
+    return NUMBER.format(ThreadLocalRandom.current().nextDouble(1_000_000d));
+  }
+
+  @Benchmark
+  @Threads(32)
+  public String decimalFormatContended()
+  {
+    return NUMBER.format(ThreadLocalRandom.current().nextDouble(1_000_000d));
+  }
+
+}   // End DateFormatBenchmark.
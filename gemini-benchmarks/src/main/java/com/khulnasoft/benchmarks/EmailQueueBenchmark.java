@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.benchmarks;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+import com.khulnasoft.data.*;
+import com.khulnasoft.gemini.*;
+import com.khulnasoft.gemini.email.*;
+import com.khulnasoft.gemini.email.outbound.*;
+import com.khulnasoft.gemini.monitor.*;
+import com.khulnasoft.gemini.mustache.*;
+import com.khulnasoft.gemini.session.*;
+import com.khulnasoft.util.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Sustained throughput of outbound e-mail through EmailServicer: each
+ * invocation queues a batch of e-mails across all priority lanes with
+ * sendMail and waits until the servicer's sender threads have delivered
+ * them, without a journal and with an unsynced journal.  Delivery is to a
+ * transport that accepts everything, so the score is the rate of the
+ * queue, the sender threads and the journal rather than of SMTP.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class EmailQueueBenchmark
+{
+
+  private static final int BATCH = 256;
+
+  @Param({ "false", "true" })
+  public boolean journaled;
+
+  private BenchmarkApplication application;
+  private EmailServicer        servicer;
+  private Path                 directory;
+  private EmailPackage[]       emails;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException
+  {
+    application = new BenchmarkApplication();
+    servicer = application.getEmailServicer();
+    final EnhancedProperties props = new EnhancedProperties();
+    if (journaled)
+    {
+      directory = Files.createTempDirectory("gemini-email-journal");
+      props.put("OutboundEmail.JournalDirectory", directory.toString());
+    }
+    servicer.configure(props);
+
+    final EmailPriority[] priorities = EmailPriority.values();
+    emails = new EmailPackage[1024];
+    for (int i = 0; i < emails.length; i++)
+    {
+      emails[i] = new EmailPackage("Subject " + i, 
+          "Body of message " + i + ".", 
+          "recipient" + i + "@domain" + (i % 16) + ".example.com",
+          "sender@example.com");
+      emails[i].setPriority(priorities[i % priorities.length]);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException
+  {
+    servicer.end();
+    if (directory != null)
+    {
+      try (java.util.stream.Stream<Path> paths = Files.walk(directory))
+      {
+        paths.sorted(Comparator.reverseOrder())
+             .map(Path::toFile)
+             .forEach(File::delete);
+      }
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public int sendAndDeliver()
+  {
+    final int target = servicer.getSentCount() + BATCH;
+    final int offset = ThreadLocalRandom.current().nextInt(emails.length);
+    for (int i = 0; i < BATCH; i++)
+    {
+      servicer.sendMail(emails[(offset + i) % emails.length]);
+    }
+    while (servicer.getSentCount() < target)
+    {
+      LockSupport.parkNanos(10_000L);
+    }
+    return target;
+  }
+
+  /**
+   * The least application that provides an EmailServicer, with a transport
+   * that delivers nowhere.  Components this benchmark does not use are 
+   * left null.
+   */
+  static final class BenchmarkApplication
+    extends GeminiApplication
+  {
+    @Override
+    protected EmailTransport constructEmailTransport()
+    {
+      return new EmailTransport(this) {
+        @Override
+        public boolean sendEmail(EmailPackage email)
+        {
+          return true;
+        }
+
+        @Override
+        public boolean isOutboundEnabled()
+        {
+          return true;
+        }
+      };
+    }
+
+    @Override
+    protected Dispatcher constructDispatcher()
+    {
+      return null;
+    }
+
+    @Override
+    protected ConnectorFactory constructConnectorFactory()
+    {
+      return null;
+    }
+
+    @Override
+    protected MustacheManager constructMustacheManager()
+    {
+      return null;
+    }
+
+    @Override
+    protected SessionManager constructSessionManager()
+    {
+      return null;
+    }
+
+    @Override
+    protected GeminiMonitor constructMonitor()
+    {
+      return null;
+    }
+
+    @Override
+    public Context getContext(Request request)
+    {
+      return null;
+    }
+  }
+
+}   // End EmailQueueBenchmark.
@@ -0,0 +1,228 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.benchmarks;
+
+import java.io.*;
+import java.sql.*;
+import java.util.concurrent.atomic.*;
+
+import com.khulnasoft.data.*;
+import com.khulnasoft.util.*;
+import org.h2.jdbcx.*;
+
+/**
+ * A ConnectorFactory backed by a pooled, in-memory H2 database, so that the
+ * data-layer benchmarks measure Gemini's own work rather than the network
+ * and disk of an external server.  Each instance gets a database of its
+ * own, which lives until {@link #close()} is called.
+ */
+public class EmbeddedConnectorFactory
+  implements ConnectorFactory, Closeable
+{
+
+  //
+  // Constants.
+  //
+
+  private static final AtomicInteger DATABASE_SEQUENCE = new AtomicInteger();
+
+  //
+  // Member variables.
+  //
+
+  private final JdbcConnectionPool pool;
+  private String identifierQuoteString = "\"";
+
+  //
+  // Member methods.
+  //
+
+  /**
+   * Constructor.  Creates a new, empty in-memory database.
+   */
+  public EmbeddedConnectorFactory()
+  {
+    this.pool = JdbcConnectionPool.create(
+        "jdbc:h2:mem:gemini" + DATABASE_SEQUENCE.incrementAndGet()
+        + ";DB_CLOSE_DELAY=-1", "sa", "");
+    this.pool.setMaxConnections(64);
+    determineIdentifierQuoteString();
+  }
+
+  /**
+   * Runs the provided SQL statements, typically DDL, in order.
+   */
+  public void execute(String... statements) throws SQLException
+  {
+    try (
+        Connection connection = pool.getConnection();
+        Statement statement = connection.createStatement()
+        )
+    {
+      for (String sql : statements)
+      {
+        statement.execute(sql);
+      }
+    }
+  }
+
+  @Override
+  public void configure(EnhancedProperties props)
+  {
+    // Nothing to configure.
+  }
+
+  @Override
+  public ConnectionMonitor getConnectionMonitor() throws SQLException
+  {
+    return new Monitor(pool.getConnection());
+  }
+
+  @Override
+  public void determineIdentifierQuoteString()
+  {
+    try (Connection connection = pool.getConnection())
+    {
+      identifierQuoteString = connection.getMetaData().getIdentifierQuoteString();
+    }
+    catch (SQLException e)
+    {
+      throw new IllegalStateException("Unable to reach the embedded database.", e);
+    }
+  }
+
+  @Override
+  public String getIdentifierQuoteString()
+  {
+    return identifierQuoteString;
+  }
+
+  @Override
+  public DatabaseAffinity getDatabaseAffinity()
+  {
+    // H2's dialect is closest to PostgreSQL's among the supported affinities.
+    return DatabaseAffinity.POSTGRESQL;
+  }
+
+  @Override
+  public boolean isEnabled()
+  {
+    return true;
+  }
+
+  /**
+   * Drops the database and releases its connections.
+   */
+  @Override
+  public void close()
+  {
+    try
+    {
+      execute("SHUTDOWN");
+    }
+    catch (SQLException e)
+    {
+      // Already gone.
+    }
+    pool.dispose();
+  }
+
+  /**
+   * Returns pooled connections to the pool when closed.
+   */
+  private static class Monitor implements ConnectionMonitor
+  {
+    private final Connection connection;
+
+    public Monitor(Connection connection)
+    {
+      this.connection = connection;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException
+    {
+      return this.connection;
+    }
+
+    @Override
+    public void close() throws SQLException
+    {
+      this.connection.close();
+    }
+
+    @Override
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException
+    {
+      throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException
+    {
+      throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException
+    {
+      throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException
+    {
+      throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException
+    {
+      throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException
+    {
+      throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException
+    {
+      throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException
+    {
+      throw new SQLFeatureNotSupportedException();
+    }
+  }
+
+}   // End EmbeddedConnectorFactory.
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.benchmarks;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.khulnasoft.data.*;
+import org.h2.tools.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+/**
+ * The uncached data layer.  {@code make} measures row-to-entity mapping
+ * alone against an in-memory ResultSet; the remaining benchmarks go through
+ * a plain EntityGroup to the embedded database and so include H2's own
+ * cost, which is stable between runs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class EntityGroupBenchmark
+{
+
+  private static final int MAKE_BATCH = 1000;
+
+  @Param({ "1000", "10000" })
+  public int size;
+
+  private BenchmarkFixture fixture;
+  private EntityGroup<BenchmarkEntity> group;
+  private SimpleResultSet resultSet;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception
+  {
+    fixture = new BenchmarkFixture(size);
+    group = EntityGroup.of(BenchmarkEntity.class)
+        .table(BenchmarkFixture.TABLE)
+        .build(fixture.getStore());
+
+    resultSet = new SimpleResultSet();
+    resultSet.setAutoClose(false);
+    resultSet.addColumn("id", Types.BIGINT, 19, 0);
+    resultSet.addColumn("name", Types.VARCHAR, 100, 0);
+    resultSet.addColumn("email", Types.VARCHAR, 100, 0);
+    resultSet.addColumn("category", Types.INTEGER, 10, 0);
+    resultSet.addColumn("score", Types.INTEGER, 10, 0);
+    resultSet.addColumn("active", Types.BOOLEAN, 1, 0);
+    resultSet.addColumn("created", Types.TIMESTAMP, 26, 0);
+    for (BenchmarkEntity entity : BenchmarkFixture.entities(MAKE_BATCH))
+    {
+      resultSet.addRow(entity.getId(), entity.getName(), entity.getEmail(),
+          entity.getCategory(), entity.getScore(), entity.isActive(),
+          new Timestamp(entity.getCreated().getTime()));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+  {
+    fixture.close();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(MAKE_BATCH)
+  public void make(Blackhole blackhole) throws SQLException
+  {
+    resultSet.beforeFirst();
+    while (resultSet.next())
+    {
+      blackhole.consume(group.make(resultSet));
+    }
+  }
+
+  @Benchmark
+  public List<BenchmarkEntity> list()
+  {
+    return group.list();
+  }
+
+  @Benchmark
+  public BenchmarkEntity get()
+  {
+    return group.get(1 + ThreadLocalRandom.current().nextInt(size));
+  }
+
+  @Benchmark
+  public int update()
+  {
+    final BenchmarkEntity entity = group.get(1 + ThreadLocalRandom.current().nextInt(size));
+    entity.setScore(entity.getScore() + 1);
+    return group.put(entity);
+  }
+
+}   // End EntityGroupBenchmark.
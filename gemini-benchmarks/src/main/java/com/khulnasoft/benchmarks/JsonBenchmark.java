@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.benchmarks;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.khulnasoft.js.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * JacksonJavaScriptWriter serializing a single entity, a page of entities
+ * and a map-shaped response, both to a String and to a reused Writer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class JsonBenchmark
+{
+
+  @Param({ "20", "1000" })
+  public int size;
+
+  private JacksonJavaScriptWriter writer;
+  private BenchmarkEntity         single;
+  private List<BenchmarkEntity>   page;
+  private Map<String, Object>     response;
+  private StringWriter            buffer;
+
+  @Setup(Level.Trial)
+  public void setUp()
+  {
+    writer = new JacksonJavaScriptWriter();
+    page = BenchmarkFixture.entities(size);
+    single = page.get(0);
+    response = new LinkedHashMap<>();
+    response.put("success", true);
+    response.put("total", size);
+    response.put("offset", 0);
+    response.put("items", page);
+    buffer = new StringWriter(size * 200);
+  }
+
+  @Benchmark
+  public String writeSingle()
+  {
+    return writer.write(single);
+  }
+
+  @Benchmark
+  public String writeList()
+  {
+    return writer.write(page);
+  }
+
+  @Benchmark
+  public String writeResponse()
+  {
+    return writer.write(response);
+  }
+
+  @Benchmark
+  public int writeResponseToWriter() throws IOException
+  {
+    buffer.getBuffer().setLength(0);
+    writer.write(response, buffer);
+    return buffer.getBuffer().length();
+  }
+
+}   // End JsonBenchmark.
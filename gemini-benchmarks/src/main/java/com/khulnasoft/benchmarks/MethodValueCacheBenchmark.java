@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.benchmarks;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.khulnasoft.cache.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * MethodValueCache lookups by a unique value (e-mail address) and by a
+ * shared value (category), against a linear scan of the group for
+ * comparison.  Updates measure the cost of keeping the cache current when
+ * an entity changes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MethodValueCacheBenchmark
+{
+
+  @Param({ "1000", "100000" })
+  public int size;
+
+  private BenchmarkFixture fixture;
+  private EntityStore      store;
+  private MethodValueCache<BenchmarkEntity> cache;
+  private String[]         emails;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception
+  {
+    fixture = new BenchmarkFixture(size);
+    store = fixture.getStore();
+    cache = new MethodValueCache<>(store, BenchmarkEntity.class);
+    emails = new String[size];
+    for (BenchmarkEntity entity : store.list(BenchmarkEntity.class))
+    {
+      emails[(int)entity.getId() - 1] = entity.getEmail();
+    }
+    // Populate the per-method maps before measuring.
+    cache.getObject("getEmail", emails[0]);
+    cache.getObjects("getCategory", 0);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+  {
+    fixture.close();
+  }
+
+  @Benchmark
+  public BenchmarkEntity getObjectUnique()
+  {
+    return cache.getObject("getEmail", emails[ThreadLocalRandom.current().nextInt(size)]);
+  }
+
+  @Benchmark
+  @Threads(8)
+  public BenchmarkEntity getObjectUniqueContended()
+  {
+    return cache.getObject("getEmail", emails[ThreadLocalRandom.current().nextInt(size)]);
+  }
+
+  @Benchmark
+  public List<BenchmarkEntity> getObjectsShared()
+  {
+    return cache.getObjects("getCategory", 
+        ThreadLocalRandom.current().nextInt(BenchmarkFixture.CATEGORIES));
+  }
+
+  @Benchmark
+  public BenchmarkEntity linearScan()
+  {
+    final String email = emails[ThreadLocalRandom.current().nextInt(size)];
+    for (BenchmarkEntity entity : store.list(BenchmarkEntity.class))
+    {
+      if (email.equals(entity.getEmail()))
+      {
+        return entity;
+      }
+    }
+    return null;
+  }
+
+  @Benchmark
+  public void update()
+  {
+    cache.update(1 + ThreadLocalRandom.current().nextInt(size));
+  }
+
+}   // End MethodValueCacheBenchmark.
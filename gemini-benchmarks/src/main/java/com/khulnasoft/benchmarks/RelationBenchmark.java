@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.benchmarks;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.khulnasoft.collection.relation.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+/**
+ * The primitive relation collections behind cached relations: membership
+ * tests, fetching the values related to one side, iteration, and churn
+ * (add then remove).  Each left value is related to ten right values on
+ * average.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class RelationBenchmark
+{
+
+  private static final int FAN_OUT = 10;
+
+  @Param({ "10000", "1000000" })
+  public int pairs;
+
+  private ManyToManyIntegerRelation intRelation;
+  private ManyToManyLongRelation    longRelation;
+  private ManyToOneIntegerRelation  manyToOne;
+  private int lefts;
+  private int rights;
+
+  @Setup(Level.Trial)
+  public void setUp()
+  {
+    final SplittableRandom random = new SplittableRandom(BenchmarkFixture.SEED);
+    lefts = Math.max(1, pairs / FAN_OUT);
+    rights = lefts;
+    intRelation = new ManyToManyIntegerRelation(true);
+    longRelation = new ManyToManyLongRelation(true);
+    manyToOne = new ManyToOneIntegerRelation(true);
+    for (int i = 0; i < pairs; i++)
+    {
+      final int left = random.nextInt(lefts);
+      final int right = random.nextInt(rights);
+      intRelation.add(left, right);
+      longRelation.add(left, right);
+      manyToOne.add(i, right);
+    }
+  }
+
+  @Benchmark
+  public boolean contains()
+  {
+    final ThreadLocalRandom random = ThreadLocalRandom.current();
+    return intRelation.contains(random.nextInt(lefts), random.nextInt(rights));
+  }
+
+  @Benchmark
+  public int[] rightValues()
+  {
+    return intRelation.rightValues(ThreadLocalRandom.current().nextInt(lefts));
+  }
+
+  @Benchmark
+  public int[] leftValues()
+  {
+    return intRelation.leftValues(ThreadLocalRandom.current().nextInt(rights));
+  }
+
+  @Benchmark
+  public long[] rightValuesLong()
+  {
+    return longRelation.rightValues(ThreadLocalRandom.current().nextInt(lefts));
+  }
+
+  @Benchmark
+  public int[] manyToOneLeftValues()
+  {
+    return manyToOne.leftValues(ThreadLocalRandom.current().nextInt(rights));
+  }
+
+  @Benchmark
+  public boolean churn()
+  {
+    final ThreadLocalRandom random = ThreadLocalRandom.current();
+    final int left = lefts + random.nextInt(lefts);
+    final int right = random.nextInt(rights);
+    intRelation.add(left, right);
+    return intRelation.remove(left, right);
+  }
+
+  @Benchmark
+  @Fork(1)
+  @Measurement(iterations = 3, time = 1)
+  public void iterate(Blackhole blackhole)
+  {
+    final IntegerRelationIterator iterator = intRelation.iterator();
+    while (iterator.hasNext())
+    {
+      iterator.next();
+      blackhole.consume(iterator.left() + iterator.right());
+    }
+  }
+
+}   // End RelationBenchmark.
@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.benchmarks;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.esotericsoftware.reflectasm.*;
+import com.khulnasoft.gemini.*;
+import com.khulnasoft.gemini.Request.*;
+import com.khulnasoft.gemini.path.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Route resolution in MethodUriHandler's PathUriTree: splitting the URI
+ * into PathSegments and searching the tree for an exact, variable or
+ * wildcard match.  The tree is filled with a realistic handful of routes
+ * plus "routes" filler sections, so lookups walk a node with many siblings.
+ * The tree is part of MethodUriHandler's protected API, so it is reached
+ * through {@link Routes}, a handler subclass.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class RoutingBenchmark
+{
+
+  @Param({ "10", "200" })
+  public int routes;
+
+  private Routes.Table table;
+  private String[]     exactUris;
+  private String[]     variableUris;
+  private String[]     wildcardUris;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception
+  {
+    table = new Routes.Table();
+    table.add("list", "users");
+    table.add("item", "users/{id}");
+    table.add("item", "users/{id}/posts");
+    table.add("child", "users/{id}/posts/{postId}");
+    table.add("list", "static/*");
+    for (int i = 0; i < routes; i++)
+    {
+      table.add("list", "section" + i + "/items");
+      table.add("item", "section" + i + "/items/{id}");
+    }
+
+    exactUris = new String[routes];
+    variableUris = new String[routes];
+    wildcardUris = new String[routes];
+    for (int i = 0; i < routes; i++)
+    {
+      exactUris[i] = "/section" + i + "/items";
+      variableUris[i] = "/users/" + i + "/posts/" + (i * 7);
+      wildcardUris[i] = "/static/css/site" + i + ".css";
+    }
+  }
+
+  @Benchmark
+  public Object exact()
+  {
+    return table.search(exactUris[ThreadLocalRandom.current().nextInt(routes)]);
+  }
+
+  @Benchmark
+  public Object variable()
+  {
+    return table.search(variableUris[ThreadLocalRandom.current().nextInt(routes)]);
+  }
+
+  @Benchmark
+  public Object wildcard()
+  {
+    return table.search(wildcardUris[ThreadLocalRandom.current().nextInt(routes)]);
+  }
+
+  @Benchmark
+  public Object miss()
+  {
+    return table.search("/nowhere/to/be/found");
+  }
+
+  /**
+   * A handler subclass, never instantiated, whose methods stand in for
+   * routes.  Only their signatures matter.  Its Table reaches the route
+   * tree that MethodUriHandler exposes to subclasses.
+   */
+  public abstract static class Routes
+    extends MethodUriHandler<Context>
+  {
+    private Routes()
+    {
+      super(null);
+    }
+
+    public boolean list()
+    {
+      return true;
+    }
+
+    public boolean item(int id)
+    {
+      return true;
+    }
+
+    public boolean child(int id, int childId)
+    {
+      return true;
+    }
+
+    /**
+     * A PathUriTree of Routes methods.
+     */
+    static final class Table
+    {
+      private final MethodAccess access = MethodAccess.get(Routes.class);
+      private final PathUriTree  tree   = new PathUriTree();
+
+      void add(String methodName, String uri) throws NoSuchMethodException
+      {
+        final Class<?>[] parameters = new Class<?>[uri.split("\\{", -1).length - 1];
+        Arrays.fill(parameters, int.class);
+        tree.addMethod(new PathUriMethod(Routes.class.getMethod(methodName, parameters),
+            uri, HttpMethod.GET, access));
+      }
+
+      Object search(String uri)
+      {
+        return tree.search(new PathSegments(uri));
+      }
+    }
+  }
+
+}   // End RoutingBenchmark.
@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.benchmarks;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.khulnasoft.helper.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The StringHelper methods that sit on request paths: macro expansion,
+ * substring replacement, splitting, case-insensitive search, truncation and
+ * joining.  Inputs are short (a form field) or long (a page of text).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class StringHelperBenchmark
+{
+
+  @Param({ "80", "8000" })
+  public int length;
+
+  private String              text;
+  private String              template;
+  private String              csv;
+  private Map<String, String> macros;
+  private List<String>        words;
+
+  @Setup(Level.Trial)
+  public void setUp()
+  {
+    final StringBuilder sb = new StringBuilder(length + 16);
+    final SplittableRandom random = new SplittableRandom(BenchmarkFixture.SEED);
+    while (sb.length() < length)
+    {
+      sb.append(random.nextInt(4) == 0 ? "Gemini" : "lorem")
+        .append(random.nextInt(8) == 0 ? ", " : " ");
+    }
+    text = sb.substring(0, length);
+
+    macros = new HashMap<>();
+    macros.put("$NAME", "Ada Lovelace");
+    macros.put("$APP", "Gemini");
+    macros.put("$DATE", "2018-06-01");
+    template = text.replace("Gemini", "$APP").replace("lorem,", "$NAME,");
+
+    csv = text.replace(' ', ',');
+    words = Arrays.asList(StringHelper.splitIntoWords(text));
+  }
+
+  @Benchmark
+  public String macroExpand()
+  {
+    return StringHelper.macroExpand(macros, template);
+  }
+
+  @Benchmark
+  public String replaceSubstrings()
+  {
+    return StringHelper.replaceSubstrings(text, "gemini", "Resin");
+  }
+
+  @Benchmark
+  public String[] splitAndTrim()
+  {
+    return StringHelper.splitAndTrim(csv, ",");
+  }
+
+  @Benchmark
+  public boolean containsIgnoreCase()
+  {
+    return StringHelper.containsIgnoreCase(text, "GEMINI LOREM");
+  }
+
+  @Benchmark
+  public String truncateEllipsis()
+  {
+    return StringHelper.truncateEllipsis(text, 40);
+  }
+
+  @Benchmark
+  public String join()
+  {
+    return StringHelper.join(" ", words);
+  }
+
+}   // End StringHelperBenchmark.
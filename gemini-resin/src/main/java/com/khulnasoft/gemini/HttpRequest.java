@@ -576,6 +576,18 @@ public class HttpRequest
   @Override
   public void setCookie(String name, String value, String domain, String path,
       int age, boolean secure)
+  {
+    setCookie(name, value, domain, path, age, secure, false);
+  }
+
+  /**
+   * Sends a cookie to the response, optionally marked HttpOnly.
+   *
+   * @param httpOnly the cookie should not be visible to scripts.
+   */
+  @Override
+  public void setCookie(String name, String value, String domain, String path,
+      int age, boolean secure, boolean httpOnly)
   {
     //log.debug("Set a new cookie to value " + value);
     final javax.servlet.http.Cookie targetCookie = 
@@ -589,6 +601,7 @@ public class HttpRequest
       targetCookie.setPath(path);
     }
     targetCookie.setSecure(secure);
+    targetCookie.setHttpOnly(httpOnly);
     //if (secure) { this.log.debug("Cookie " + name + " set as secure.", LogLevel.DEBUG); }
     targetCookie.setMaxAge(age);
     response.addCookie(targetCookie);
@@ -964,6 +977,46 @@ public class HttpRequest
     }
   }
   
+  /**
+   * Determines whether the client's cached copy of a file is current, per
+   * If-None-Match or, absent that, If-Modified-Since.
+   */
+  private boolean isNotModified(String etag, long lastModified)
+  {
+    final String ifNoneMatch = this.request.getHeader("If-None-Match");
+    if (ifNoneMatch != null)
+    {
+      for (String candidate : ifNoneMatch.split(","))
+      {
+        candidate = candidate.trim();
+        if (candidate.equals("*") || candidate.equals(etag)
+            || candidate.equals("W/" + etag))
+        {
+          return true;
+        }
+      }
+      return false;
+    }
+    final long ifModifiedSince = getDateHeader("If-Modified-Since");
+    return ifModifiedSince >= 0L
+        && lastModified / 1000L <= ifModifiedSince / 1000L;
+  }
+  
+  /**
+   * Gets a date header, or -1 if it is absent or malformed.
+   */
+  private long getDateHeader(String name)
+  {
+    try
+    {
+      return this.request.getDateHeader(name);
+    }
+    catch (IllegalArgumentException iaexc)
+    {
+      return -1L;
+    }
+  }
+  
   /**
    * Writes a file to the response.  This method should be using similar to 
    * "includeJSP" - at the end of a handler method.
@@ -1020,19 +1073,57 @@ public class HttpRequest
           "attachment; filename=\""  + fileName + "\"");
     }
     
-    byte[] buffer = new byte[4096];
-    try (
-        FileInputStream fis = new FileInputStream(file);
-        OutputStream os = getOutputStream();
-        )
+    // Validators allow clients to revalidate cached copies and to resume
+    // interrupted downloads with a Range request.
+    final long length = file.length();
+    final long lastModified = file.lastModified();
+    final String etag = "\"" + Long.toHexString(length) + "-"
+        + Long.toHexString(lastModified) + "\"";
+    this.response.setHeader("Accept-Ranges", "bytes");
+    this.response.setHeader("ETag", etag);
+    this.response.setDateHeader("Last-Modified", lastModified);
+    
+    // Conditional and range requests apply only to retrievals; a file 
+    // included in answer to any other method is sent whole.
+    final boolean retrieval = isGet() || isHead();
+    if (retrieval && isNotModified(etag, lastModified))
     {
-      // Write out the file.
-      int read;
-      while (fis.available() > 0)
-      {
-        read = fis.read(buffer);
-        os.write(buffer, 0, read);
-      }
+      this.response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return true;
+    }
+    
+    // A Range is honored only if an If-Range validator, when present, 
+    // still matches.  Multiple ranges are answered with the whole file.
+    final ByteRange range = retrieval
+        ? ByteRange.parse(this.request.getHeader("Range"), 
+            this.request.getHeader("If-Range"), etag, lastModified, length)
+        : null;
+    if (range == ByteRange.UNSATISFIABLE)
+    {
+      this.response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+      this.response.setHeader("Content-Range", range.toContentRange(length));
+      return true;
+    }
+    
+    final long offset = (range != null ? range.start : 0L);
+    final long count = (range != null ? range.length() : length);
+    if (range != null)
+    {
+      this.response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+      this.response.setHeader("Content-Range", range.toContentRange(length));
+    }
+    this.response.setHeader("Content-Length", Long.toString(count));
+    
+    if (isHead())
+    {
+      return true;
+    }
+    
+    try (OutputStream os = getOutputStream())
+    {
+      // Write out the file, through a FileChannel transfer when the 
+      // container's stream permits.
+      FileHelper.transferFile(file, offset, count, os);
     }
     catch (IOException e)
     {
@@ -35,6 +35,8 @@ import javax.servlet.*;
 import javax.servlet.http.*;
 
 import com.khulnasoft.helper.*;
+import com.khulnasoft.security.*;
+import com.khulnasoft.util.*;
 
 /*
   To use, put this in your web.xml:
@@ -58,6 +60,22 @@ import com.khulnasoft.helper.*;
       <param-name>UnthrottledUris</param-name>
       <param-value>/images/,/css/,/js/,/favicon.ico</param-value>
     </init-param>
+    <init-param>
+      <param-name>UnthrottledIpAddressPatterns</param-name>
+      <param-value>127.0.0.1,10.0.0.0/8</param-value>
+    </init-param>
+    <init-param>
+      <param-name>MaxRequestsPerWindow</param-name>
+      <param-value>120</param-value>
+    </init-param>
+    <init-param>
+      <param-name>WindowSeconds</param-name>
+      <param-value>60</param-value>
+    </init-param>
+    <init-param>
+      <param-name>RateLimitByRoute</param-name>
+      <param-value>false</param-value>
+    </init-param>
     <init-param>
       <param-name>DebugEnabled</param-name>
       <param-value>false</param-value>
@@ -72,6 +90,14 @@ import com.khulnasoft.helper.*;
 /**
  * Limits concurrent requests, except for configured User-Agents and URIs that
  * we don't want to throttle.
+ *   <p>
+ * IP address patterns may be CIDR blocks (e.g., 10.0.0.0/8) or, as before,
+ * substrings of the address.  User-Agent and URI lists are case-insensitive
+ * substrings.  All lists are compiled once at initialization.
+ *   <p>
+ * If MaxRequestsPerWindow is set, each IP address (or, with RateLimitByRoute,
+ * each IP address and URI pair) is additionally limited to that many requests
+ * per sliding window of WindowSeconds; requests over the limit receive a 429.
  */
 public class ThrottleFilter
      extends BasicFilter
@@ -80,11 +106,13 @@ public class ThrottleFilter
   private final ConcurrentHashMap<String, AtomicInteger> addressCache      
               = new ConcurrentHashMap<>();
   private int                  maxConcurrentRequests    = 2;
-  private String[]             welcomeIpAddressPatterns = null;
-  private String[]             welcomeAbuserUserAgents  = null;
-  private String[]             welcomeAbuserUris        = null;
-  private String[]             bannedUserAgents         = null;
-  private String[]             bannedIpAddressPatterns  = null;
+  private AddressMatcher       welcomeIpAddressPatterns = new AddressMatcher();
+  private SubstringMatcher     welcomeAbuserUserAgents  = SubstringMatcher.of();
+  private SubstringMatcher     welcomeAbuserUris        = SubstringMatcher.of();
+  private SubstringMatcher     bannedUserAgents         = SubstringMatcher.of();
+  private AddressMatcher       bannedIpAddressPatterns  = new AddressMatcher();
+  private RateLimiter          rateLimiter              = null;
+  private boolean              rateLimitByRoute         = false;
 
   @Override
   public void init(FilterConfig config)
@@ -95,76 +123,99 @@ public class ThrottleFilter
     log.info("max concurrent requests: {}", maxConcurrentRequests);
     
     String unthrottledIpAddressPatterns = getInitParameter(config, "UnthrottledIpAddressPatterns", null);
-    welcomeIpAddressPatterns = StringHelper.splitTrimAndLower(unthrottledIpAddressPatterns, ",");
-    if (CollectionHelper.isNonEmpty(welcomeIpAddressPatterns))
+    final String[] welcomeIpAddressPatternsConfig = StringHelper.splitTrimAndLower(unthrottledIpAddressPatterns, ",");
+    if (CollectionHelper.isNonEmpty(welcomeIpAddressPatternsConfig))
     {
-      for (int i = 0; i < welcomeIpAddressPatterns.length; i++)
+      for (int i = 0; i < welcomeIpAddressPatternsConfig.length; i++)
       {
-        log.info("will not throttle this IP address pattern: {}", welcomeIpAddressPatterns[i]);
+        log.info("will not throttle this IP address pattern: {}", welcomeIpAddressPatternsConfig[i]);
       }
     }
     else
     {
       log.info("will throttle all IP address patterns.");
     }
+    welcomeIpAddressPatterns = new AddressMatcher(welcomeIpAddressPatternsConfig);
 
     String unthrottledUserAgentConfig = getInitParameter(config,
       "UnthrottledUserAgents", null);
-    welcomeAbuserUserAgents = StringHelper.splitTrimAndLower(unthrottledUserAgentConfig, ",");
-    if (CollectionHelper.isNonEmpty(welcomeAbuserUserAgents))
+    final String[] welcomeAbuserUserAgentsConfig = StringHelper.splitTrimAndLower(unthrottledUserAgentConfig, ",");
+    if (CollectionHelper.isNonEmpty(welcomeAbuserUserAgentsConfig))
     {
-      for (int i = 0; i < welcomeAbuserUserAgents.length; i++)
+      for (int i = 0; i < welcomeAbuserUserAgentsConfig.length; i++)
       {
-        log.info("will not throttle this User-Agent: {}", welcomeAbuserUserAgents[i]);
+        log.info("will not throttle this User-Agent: {}", welcomeAbuserUserAgentsConfig[i]);
       }
     }
     else
     {
       log.info("will throttle all User-Agents.");
     }
+    welcomeAbuserUserAgents = SubstringMatcher.of(welcomeAbuserUserAgentsConfig);
 
     String bannedUserAgentConfig = getInitParameter(config,
       "BannedUserAgents", null);
-    bannedUserAgents = StringHelper.splitTrimAndLower(bannedUserAgentConfig, ",");
-    if (CollectionHelper.isNonEmpty(bannedUserAgents))
+    final String[] bannedUserAgentsConfig = StringHelper.splitTrimAndLower(bannedUserAgentConfig, ",");
+    if (CollectionHelper.isNonEmpty(bannedUserAgentsConfig))
     {
-      for (int i = 0; i < bannedUserAgents.length; i++)
+      for (int i = 0; i < bannedUserAgentsConfig.length; i++)
       {
-        log.info("will ban this User-Agent: {}", bannedUserAgents[i]);
+        log.info("will ban this User-Agent: {}", bannedUserAgentsConfig[i]);
       }
     }
     else
     {
       log.info("will not ban any User-Agents.");
     }
+    bannedUserAgents = SubstringMatcher.of(bannedUserAgentsConfig);
 
     String bannedIpAddressConfig = getInitParameter(config, "BannedIpAddressPatterns", null);
-    bannedIpAddressPatterns = StringHelper.splitTrimAndLower(bannedIpAddressConfig, ",");
-    if (CollectionHelper.isNonEmpty(bannedIpAddressPatterns))
+    final String[] bannedIpAddressPatternsConfig = StringHelper.splitTrimAndLower(bannedIpAddressConfig, ",");
+    if (CollectionHelper.isNonEmpty(bannedIpAddressPatternsConfig))
     {
-      for (int i = 0; i < bannedIpAddressPatterns.length; i++)
+      for (int i = 0; i < bannedIpAddressPatternsConfig.length; i++)
       {
-        log.info("will ban this IP address pattern: {}", bannedIpAddressPatterns[i]);
+        log.info("will ban this IP address pattern: {}", bannedIpAddressPatternsConfig[i]);
       }
     }
     else
     {
       log.info("will not ban any IP address patterns.");
     }
+    bannedIpAddressPatterns = new AddressMatcher(bannedIpAddressPatternsConfig);
 
     String unthrottledUriConfig = getInitParameter(config, "UnthrottledUris", null);
-    welcomeAbuserUris = StringHelper.splitTrimAndLower(unthrottledUriConfig, ",");
-    if (CollectionHelper.isNonEmpty(welcomeAbuserUris))
+    final String[] welcomeAbuserUrisConfig = StringHelper.splitTrimAndLower(unthrottledUriConfig, ",");
+    if (CollectionHelper.isNonEmpty(welcomeAbuserUrisConfig))
     {
-      for (int i = 0; i < welcomeAbuserUris.length; i++)
+      for (int i = 0; i < welcomeAbuserUrisConfig.length; i++)
       {
-        log.info("will not throttle this URI: {}", welcomeAbuserUris[i]);
+        log.info("will not throttle this URI: {}", welcomeAbuserUrisConfig[i]);
       }
     }
     else
     {
       log.info("will throttle all URIs.");
     }
+    welcomeAbuserUris = SubstringMatcher.of(welcomeAbuserUrisConfig);
+
+    final int maxRequestsPerWindow = (int)getInitParameter(config, 
+      "MaxRequestsPerWindow", 0);
+    if (maxRequestsPerWindow > 0)
+    {
+      final long windowSeconds = getInitParameter(config, "WindowSeconds", 60);
+      rateLimitByRoute = getInitParameter(config, "RateLimitByRoute", false);
+      rateLimiter = new RateLimiter("ThrottleFilter", maxRequestsPerWindow,
+        windowSeconds * UtilityConstants.SECOND);
+      log.info("will rate limit to {} requests per {} seconds per {}.",
+        maxRequestsPerWindow, windowSeconds, 
+        rateLimitByRoute ? "IP address and URI" : "IP address");
+    }
+    else
+    {
+      rateLimiter = null;
+      log.info("will not rate limit requests.");
+    }
   }
 
   @Override
@@ -226,6 +277,18 @@ public class ThrottleFilter
     {
       log.debug("{} has banned User-Agent: {}", ipAddress, userAgent);
     }
+    else if (  (rateLimiter != null)
+            && (!rateLimiter.tryAcquire(rateLimitByRoute 
+                  ? ipAddress + " " + request.getRequestURI() 
+                  : ipAddress))
+            )
+    {
+      log.debug("{} - {} - {} - rate limiting request for {}",
+          System.currentTimeMillis(), StringHelper.padSpace(ipAddress, 15),
+          userAgent, requestSignature);
+      response.sendError(429);
+      return;
+    }
     else
     {
       int count = 0;
@@ -294,7 +357,7 @@ public class ThrottleFilter
     
     // We don't increment here because this request
     // is going to get throttled and return immediately.
-    log.info("{} - {} - {} - throttling request for {}",
+    log.debug("{} - {} - {} - throttling request for {}",
         System.currentTimeMillis(), StringHelper.padSpace(ipAddress, 15),
         userAgent, requestSignature);
     
@@ -307,40 +370,18 @@ public class ThrottleFilter
    */
   private boolean isWelcomeIpAddressPattern(String ipAddress)
   {
-    if (ipAddress != null)
-    {
-      final String lower = ipAddress.toLowerCase();          
-      for (int i = 0; i < welcomeIpAddressPatterns.length; i++)
-      {
-        if (lower.contains(welcomeIpAddressPatterns[i]))
-        {
-          return true;
-        }
-      }
-    }
-    return false;
+    return welcomeIpAddressPatterns.matches(ipAddress);
   }
 
   /**
    * Is the given User-Agent in our list of abusers that we welcome and never
    * throttle?
    * <p>
-   * Note: Case sensitive.
+   * Note: Case insensitive.
    */
   private boolean isWelcomeAbuser(String userAgent)
   {
-    if (userAgent != null)
-    {
-      final String lower = userAgent.toLowerCase();
-      for (int i = 0; i < welcomeAbuserUserAgents.length; i++)
-      {
-        if (lower.contains(welcomeAbuserUserAgents[i]))
-        {
-          return true;
-        }
-      }
-    }
-    return false;
+    return welcomeAbuserUserAgents.matches(userAgent);
   }
 
   /**
@@ -350,18 +391,7 @@ public class ThrottleFilter
    */
   private boolean isBannedUserAgent(String userAgent)
   {
-    if (userAgent != null)
-    {
-      final String lower = userAgent.toLowerCase();
-      for (int i = 0; i < bannedUserAgents.length; i++)
-      {
-        if (lower.contains(bannedUserAgents[i]))
-        {
-          return true;
-        }
-      }
-    }
-    return false;
+    return bannedUserAgents.matches(userAgent);
   }
 
   /**
@@ -369,40 +399,18 @@ public class ThrottleFilter
    */
   private boolean isBannedIpAddress(String ipAddress)
   {
-    if (ipAddress != null)
-    {
-      final String lower = ipAddress.toLowerCase();
-      for (int i = 0; i < bannedIpAddressPatterns.length; i++)
-      {
-        if (lower.contains(bannedIpAddressPatterns[i]))
-        {
-          return true;
-        }
-      }
-    }
-    return false;
+    return bannedIpAddressPatterns.matches(ipAddress);
   }
 
   /**
    * Is the given URI in our list of abusers that we welcome and never
    * throttle?
    * <p>
-   * Note: Case sensitive.
+   * Note: Case insensitive.
    */
   private boolean isWelcomeAbuserUri(String uri)
   {
-    if (uri != null)
-    {
-      final String lower = uri.toLowerCase();
-      for (int i = 0; i < welcomeAbuserUris.length; i++)
-      {
-        if (lower.contains(welcomeAbuserUris[i]))
-        {
-          return true;
-        }
-      }
-    }
-    return false;
+    return welcomeAbuserUris.matches(uri);
   }
 
   /**
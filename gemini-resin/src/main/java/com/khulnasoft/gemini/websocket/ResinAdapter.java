@@ -139,7 +139,7 @@ public class   ResinAdapter
     }
 
     @Override
-    public void sendText(String toSend)
+    public synchronized void sendText(String toSend)
         throws IOException
     {
       try (PrintWriter writer = wsc.startTextMessage())
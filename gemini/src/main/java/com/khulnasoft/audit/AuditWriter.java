@@ -0,0 +1,979 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.audit;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import com.khulnasoft.asynchronous.*;
+import com.khulnasoft.data.*;
+import com.khulnasoft.util.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes audit rows to a database table in JDBC batches on a background
+ * thread, so that committing an AuditSession does not wait on the database.
+ * Rows are handed to a bounded queue; the writer thread flushes a batch once
+ * it has the batch size or the flush interval has passed since the first
+ * row of the batch arrived.  Rows with different custom attribute columns
+ * are batched separately.
+ *   <p>
+ * When the queue is full, or the database is unavailable, rows are appended
+ * to a spill file in the spill directory, if one is set, and written once
+ * the queue is idle and the database is reachable again.  Only transient
+ * failures, such as a lost connection or a rolled-back transaction, make
+ * the writer back off.  When a batch fails for any other reason, its rows
+ * are written one at a time, and any row the database rejects on its own 
+ * is appended to a dead letter file in the spill directory rather than 
+ * retried.  Without a spill directory, such rows are dropped and counted.
+ * Stopping the writer flushes the queue and the spill file, waiting up to 
+ * the shutdown timeout.
+ *   <p>
+ * Used by BasicDatabaseAuditListener.
+ */
+public class AuditWriter
+  implements Asynchronous
+{
+  
+  //
+  // Constants.
+  //
+  
+  public static final int    DEFAULT_QUEUE_CAPACITY    = 10000;
+  public static final int    DEFAULT_BATCH_SIZE        = 200;
+  public static final long   DEFAULT_FLUSH_MILLIS      = UtilityConstants.SECOND;
+  public static final long   DEFAULT_SHUTDOWN_MILLIS   = 30 * UtilityConstants.SECOND;
+  public static final long   DEFAULT_RETRY_MILLIS      = 5 * UtilityConstants.SECOND;
+  public static final String SPILL_FILE_NAME           = "audit-spill.dat";
+  public static final String DEAD_LETTER_FILE_NAME     = "audit-dead-letter.dat";
+  
+  private static final String DRAINING_SUFFIX = ".draining";
+  private static final String COLUMNS = 
+      "Type,AuditTime,Affected,AffectedTypeID,Cause,CauseTypeID,AttributeID,OriginalValue,NewValue";
+  
+  //
+  // Member variables.
+  //
+  
+  private final Logger              log = LoggerFactory.getLogger(getClass());
+  private final ConnectorFactory    connFactory;
+  private final BlockingQueue<Row>  queue;
+  private final Object              spillLock = new Object();
+  private final AtomicLong          written   = new AtomicLong();
+  private final AtomicLong          batches   = new AtomicLong();
+  private final AtomicLong          batchMillis = new AtomicLong();
+  private final AtomicLong          spilled   = new AtomicLong();
+  private final AtomicLong          dropped   = new AtomicLong();
+  private final AtomicLong          deadLettered = new AtomicLong();
+  private final AtomicLong          failedBatches = new AtomicLong();
+  
+  private volatile String           auditTable     = "Audit";
+  private volatile int              batchSize      = DEFAULT_BATCH_SIZE;
+  private volatile long             flushMillis    = DEFAULT_FLUSH_MILLIS;
+  private volatile long             shutdownMillis = DEFAULT_SHUTDOWN_MILLIS;
+  private volatile File             spillDirectory;
+  private volatile long             retryAfter;
+  private volatile boolean          running;
+  private Thread                    thread;
+  
+  //
+  // Member methods.
+  //
+  
+  /**
+   * Constructor.
+   */
+  public AuditWriter(ConnectorFactory connectorFactory, int queueCapacity)
+  {
+    this.connFactory = connectorFactory;
+    this.queue = new ArrayBlockingQueue<>(queueCapacity);
+  }
+  
+  /**
+   * Constructor.  Uses the default queue capacity.
+   */
+  public AuditWriter(ConnectorFactory connectorFactory)
+  {
+    this(connectorFactory, DEFAULT_QUEUE_CAPACITY);
+  }
+  
+  /**
+   * Sets the name of the audit table.
+   */
+  public AuditWriter setAuditTable(String auditTable)
+  {
+    this.auditTable = auditTable;
+    return this;
+  }
+  
+  /**
+   * Sets the maximum number of rows written in one batch.
+   */
+  public AuditWriter setBatchSize(int batchSize)
+  {
+    this.batchSize = Math.max(1, batchSize);
+    return this;
+  }
+  
+  /**
+   * Sets the longest time, in milliseconds, a row waits for its batch to
+   * fill before the batch is written anyway.
+   */
+  public AuditWriter setFlushMillis(long flushMillis)
+  {
+    this.flushMillis = Math.max(1L, flushMillis);
+    return this;
+  }
+  
+  /**
+   * Sets the longest time, in milliseconds, that stopping the writer waits
+   * for queued and spilled rows to be written.
+   */
+  public AuditWriter setShutdownMillis(long shutdownMillis)
+  {
+    this.shutdownMillis = shutdownMillis;
+    return this;
+  }
+  
+  /**
+   * Sets a directory in which to spill rows when the queue is full or the
+   * database is unavailable.  Rows left in the spill file by a previous run
+   * are written once the writer starts.
+   */
+  public AuditWriter setSpillDirectory(File spillDirectory)
+  {
+    this.spillDirectory = spillDirectory;
+    if (spillDirectory != null && !spillDirectory.isDirectory()
+        && !spillDirectory.mkdirs())
+    {
+      log.error("Unable to create audit spill directory {}.", spillDirectory);
+    }
+    return this;
+  }
+  
+  /**
+   * Starts the writer thread, if it is not already running.
+   */
+  @Override
+  public synchronized void begin()
+  {
+    if (!running)
+    {
+      running = true;
+      thread = new Thread(this::run, "Audit Writer");
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+  
+  /**
+   * Stops the writer thread after it has written the queued rows, and then
+   * writes any spilled rows, waiting up to the shutdown timeout in total.
+   */
+  @Override
+  public void end()
+  {
+    final Thread stopping;
+    synchronized (this)
+    {
+      running = false;
+      stopping = thread;
+      thread = null;
+    }
+    
+    final long deadline = System.currentTimeMillis() + shutdownMillis;
+    if (stopping != null)
+    {
+      try
+      {
+        stopping.join(shutdownMillis);
+      }
+      catch (InterruptedException iexc)
+      {
+        Thread.currentThread().interrupt();
+      }
+    }
+    
+    // Write rows the thread did not get to, spilling any that cannot be 
+    // written in time.
+    retryAfter = 0L;
+    final List<Row> remaining = new ArrayList<>();
+    queue.drainTo(remaining);
+    if (System.currentTimeMillis() < deadline)
+    {
+      write(remaining);
+      writeSpilled(deadline);
+    }
+    else
+    {
+      spill(remaining);
+    }
+    log.info("Audit writer stopped. {}", this);
+  }
+  
+  /**
+   * Queues rows for writing, starting the writer thread if necessary.  
+   * Never blocks: rows that do not fit in the queue are spilled or dropped.
+   */
+  public void enqueue(List<Row> rows)
+  {
+    if (!running)
+    {
+      begin();
+    }
+    List<Row> overflow = null;
+    for (Row row : rows)
+    {
+      if (!queue.offer(row))
+      {
+        if (overflow == null)
+        {
+          overflow = new ArrayList<>();
+        }
+        overflow.add(row);
+      }
+    }
+    if (overflow != null)
+    {
+      spill(overflow);
+    }
+  }
+  
+  /**
+   * Writes rows to the audit table immediately on the calling thread, one
+   * JDBC batch per distinct set of columns.
+   */
+  public void insert(List<Row> rows)
+    throws SQLException
+  {
+    if (rows.isEmpty())
+    {
+      return;
+    }
+    
+    try (ConnectionMonitor monitor = this.connFactory.getConnectionMonitor())
+    {
+      final Connection connection = monitor.getConnection();
+      for (List<Row> group : groupByColumns(rows))
+      {
+        insertGroup(connection, group);
+      }
+    }
+  }
+  
+  /**
+   * Gets the number of rows waiting in the queue.
+   */
+  public int getQueueDepth()
+  {
+    return queue.size();
+  }
+  
+  /**
+   * Gets the number of rows written.
+   */
+  public long getWrittenCount()
+  {
+    return written.get();
+  }
+  
+  /**
+   * Gets the number of rows spilled to disk.
+   */
+  public long getSpilledCount()
+  {
+    return spilled.get();
+  }
+  
+  /**
+   * Gets the number of rows dropped because they could neither be queued
+   * nor spilled.
+   */
+  public long getDroppedCount()
+  {
+    return dropped.get();
+  }
+  
+  /**
+   * Gets the number of rows the database rejected on their own, which were
+   * appended to the dead letter file, or dropped if there is no spill
+   * directory.
+   */
+  public long getDeadLetteredCount()
+  {
+    return deadLettered.get();
+  }
+  
+  /**
+   * Gets the number of batches that failed to write.
+   */
+  public long getFailedBatchCount()
+  {
+    return failedBatches.get();
+  }
+  
+  /**
+   * Gets the average time, in milliseconds, to write a batch.
+   */
+  public long getAverageBatchMillis()
+  {
+    final long count = batches.get();
+    return count == 0L ? 0L : batchMillis.get() / count;
+  }
+  
+  /**
+   * The writer thread's loop.
+   */
+  private void run()
+  {
+    final List<Row> batch = new ArrayList<>();
+    while (running)
+    {
+      try
+      {
+        final Row first = queue.poll(flushMillis, TimeUnit.MILLISECONDS);
+        if (first == null)
+        {
+          // Idle; catch up on spilled rows.
+          writeSpilled(Long.MAX_VALUE);
+          continue;
+        }
+        
+        // Fill the batch until it is full or the flush interval passes.
+        batch.add(first);
+        final long deadline = System.currentTimeMillis() + flushMillis;
+        while (batch.size() < batchSize)
+        {
+          queue.drainTo(batch, batchSize - batch.size());
+          final long wait = deadline - System.currentTimeMillis();
+          if (batch.size() >= batchSize || wait <= 0L)
+          {
+            break;
+          }
+          final Row next = queue.poll(wait, TimeUnit.MILLISECONDS);
+          if (next == null)
+          {
+            break;
+          }
+          batch.add(next);
+        }
+        
+        write(batch);
+        batch.clear();
+      }
+      catch (InterruptedException iexc)
+      {
+        break;
+      }
+      catch (RuntimeException exc)
+      {
+        log.error("Exception in audit writer.", exc);
+        spill(batch);
+        batch.clear();
+      }
+    }
+  }
+  
+  /**
+   * Writes rows, spilling them if the database is unavailable.  After a
+   * transient failure, rows are spilled without an attempt until the retry
+   * delay passes.
+   */
+  private void write(List<Row> rows)
+  {
+    if (rows.isEmpty())
+    {
+      return;
+    }
+    if (System.currentTimeMillis() < retryAfter)
+    {
+      spill(rows);
+      return;
+    }
+    
+    boolean connected = false;
+    try (ConnectionMonitor monitor = this.connFactory.getConnectionMonitor())
+    {
+      final Connection connection = monitor.getConnection();
+      connected = true;
+      for (List<Row> group : groupByColumns(rows))
+      {
+        writeGroup(connection, group);
+      }
+    }
+    catch (SQLException exc)
+    {
+      if (connected)
+      {
+        // The rows have been written or spilled; only the release failed.
+        log.warn("Unable to release audit writer connection.", exc);
+      }
+      else
+      {
+        failedBatches.incrementAndGet();
+        backOff();
+        log.error("Unable to connect to persist {} audits.", rows.size(), exc);
+        spill(rows);
+      }
+    }
+  }
+  
+  /**
+   * Writes rows sharing one column list as a batch.  If the batch fails
+   * transiently, the rows are spilled; otherwise the rows the batch did not
+   * write are retried one at a time.
+   */
+  private void writeGroup(Connection connection, List<Row> rows)
+  {
+    if (System.currentTimeMillis() < retryAfter)
+    {
+      spill(rows);
+      return;
+    }
+    
+    final long start = System.currentTimeMillis();
+    try
+    {
+      insertGroup(connection, rows);
+      written.addAndGet(rows.size());
+      batches.incrementAndGet();
+      batchMillis.addAndGet(System.currentTimeMillis() - start);
+    }
+    catch (SQLException exc)
+    {
+      failedBatches.incrementAndGet();
+      if (isTransient(exc))
+      {
+        backOff();
+        log.error("Unable to persist {} audits.", rows.size(), exc);
+        spill(rows);
+      }
+      else
+      {
+        log.warn("Batch of {} audits failed; writing them one at a time.", 
+            rows.size(), exc);
+        writeIndividually(connection, rows, exc);
+      }
+    }
+  }
+  
+  /**
+   * Writes the rows of a failed batch one at a time, skipping those the
+   * batch's update counts show were written.  Rows rejected on their own 
+   * are dead-lettered; after a transient failure the rest are spilled.
+   */
+  private void writeIndividually(Connection connection, List<Row> rows, 
+      SQLException batchException)
+  {
+    // A driver that stops at the first failure reports fewer counts than
+    // rows; the rows before the failure were written.
+    final int[] counts = (batchException instanceof BatchUpdateException)
+        ? ((BatchUpdateException)batchException).getUpdateCounts()
+        : null;
+    final List<Row> remaining = new ArrayList<>();
+    final List<Row> rejected = new ArrayList<>();
+    SQLException firstRejection = null;
+    for (int i = 0; i < rows.size(); i++)
+    {
+      final Row row = rows.get(i);
+      if (counts != null && i < counts.length 
+          && counts[i] != Statement.EXECUTE_FAILED)
+      {
+        written.incrementAndGet();
+        continue;
+      }
+      if (System.currentTimeMillis() < retryAfter)
+      {
+        remaining.add(row);
+        continue;
+      }
+      
+      try
+      {
+        insertGroup(connection, Collections.singletonList(row));
+        written.incrementAndGet();
+      }
+      catch (SQLException exc)
+      {
+        if (isTransient(exc))
+        {
+          backOff();
+          log.error("Unable to persist audits.", exc);
+          remaining.add(row);
+        }
+        else
+        {
+          if (firstRejection == null)
+          {
+            firstRejection = exc;
+          }
+          rejected.add(row);
+        }
+      }
+    }
+    
+    spill(remaining);
+    if (!rejected.isEmpty())
+    {
+      log.error("Database rejected {} audits; dead-lettering them.", 
+          rejected.size(), firstRejection);
+      deadLetter(rejected);
+    }
+  }
+  
+  /**
+   * Stops writing until the retry delay passes.
+   */
+  private void backOff()
+  {
+    retryAfter = System.currentTimeMillis() + DEFAULT_RETRY_MILLIS;
+  }
+  
+  /**
+   * Determines whether an exception, or any exception chained to it, 
+   * reports a failure of the connection or transaction rather than of the 
+   * rows, such that the same rows may succeed if retried later.
+   */
+  static boolean isTransient(SQLException exc)
+  {
+    for (SQLException current = exc; current != null; 
+        current = current.getNextException())
+    {
+      if (current instanceof SQLTransientException
+          || current instanceof SQLRecoverableException
+          || current instanceof SQLNonTransientConnectionException)
+      {
+        return true;
+      }
+      // SQL state classes 08 and 40: connection exception and transaction
+      // rollback.
+      final String state = current.getSQLState();
+      if (state != null && (state.startsWith("08") || state.startsWith("40")))
+      {
+        return true;
+      }
+      if (current.getNextException() == current)
+      {
+        break;
+      }
+    }
+    return false;
+  }
+  
+  /**
+   * Groups rows by column list, preserving order within each group.
+   */
+  private static Collection<List<Row>> groupByColumns(List<Row> rows)
+  {
+    final Map<String, List<Row>> byColumns = new LinkedHashMap<>();
+    for (Row row : rows)
+    {
+      byColumns.computeIfAbsent(row.columns(), key -> new ArrayList<>()).add(row);
+    }
+    return byColumns.values();
+  }
+  
+  /**
+   * Inserts rows sharing one column list in a single JDBC batch.
+   */
+  private void insertGroup(Connection connection, List<Row> rows)
+    throws SQLException
+  {
+    final Row first = rows.get(0);
+    final int columnCount = first.columnCount();
+    final StringBuilder query = new StringBuilder(128)
+        .append("INSERT INTO ").append(auditTable)
+        .append(" (").append(first.columns()).append(") VALUES (");
+    for (int i = 0; i < columnCount; i++)
+    {
+      query.append(i == 0 ? "?" : ",?");
+    }
+    query.append(')');
+    
+    try (PreparedStatement statement = connection.prepareStatement(query.toString()))
+    {
+      for (Row row : rows)
+      {
+        row.bind(statement);
+        statement.addBatch();
+      }
+      statement.executeBatch();
+    }
+  }
+  
+  /**
+   * Appends rows to the spill file, or drops them if there is no spill 
+   * directory.
+   */
+  private void spill(List<Row> rows)
+  {
+    if (rows.isEmpty())
+    {
+      return;
+    }
+    final File directory = spillDirectory;
+    if (directory == null)
+    {
+      dropped.addAndGet(rows.size());
+      log.error("Audit queue full or database unavailable; {} audits dropped.", rows.size());
+      return;
+    }
+    if (append(new File(directory, SPILL_FILE_NAME), rows))
+    {
+      spilled.addAndGet(rows.size());
+    }
+  }
+  
+  /**
+   * Appends rows the database rejected to the dead letter file, or drops
+   * them if there is no spill directory.  The dead letter file is never
+   * read back by the writer; its rows are kept for an administrator.
+   */
+  private void deadLetter(List<Row> rows)
+  {
+    deadLettered.addAndGet(rows.size());
+    final File directory = spillDirectory;
+    if (directory == null)
+    {
+      dropped.addAndGet(rows.size());
+      return;
+    }
+    append(new File(directory, DEAD_LETTER_FILE_NAME), rows);
+  }
+  
+  /**
+   * Appends rows to a file in the spill format, counting them as dropped
+   * if the file cannot be written.
+   */
+  private boolean append(File file, List<Row> rows)
+  {
+    synchronized (spillLock)
+    {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+          new FileOutputStream(file, true))))
+      {
+        for (Row row : rows)
+        {
+          row.writeTo(out);
+        }
+        return true;
+      }
+      catch (IOException ioexc)
+      {
+        dropped.addAndGet(rows.size());
+        log.error("Unable to append {} audits to {}.", rows.size(), file, ioexc);
+        return false;
+      }
+    }
+  }
+  
+  /**
+   * Writes spilled rows.  The spill file is renamed before it is read so 
+   * that rows spilled meanwhile go to a new file.  Rows that still cannot 
+   * be written are spilled again.
+   */
+  private void writeSpilled(long deadline)
+  {
+    final File directory = spillDirectory;
+    if (directory == null || System.currentTimeMillis() < retryAfter)
+    {
+      return;
+    }
+    
+    final File draining = new File(directory, SPILL_FILE_NAME + DRAINING_SUFFIX);
+    synchronized (spillLock)
+    {
+      // A draining file left by a crash is written before the spill file.
+      final File spill = new File(directory, SPILL_FILE_NAME);
+      if (!draining.exists())
+      {
+        if (!spill.exists() || !spill.renameTo(draining))
+        {
+          return;
+        }
+      }
+    }
+    
+    int count = 0;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(draining))))
+    {
+      final List<Row> batch = new ArrayList<>(batchSize);
+      final List<Row> leftover = new ArrayList<>();
+      Row row;
+      while ((row = Row.readFrom(in)) != null)
+      {
+        // Out of time, or the database has failed again: spill the rest 
+        // back for the next attempt.
+        if (System.currentTimeMillis() >= deadline 
+            || System.currentTimeMillis() < retryAfter)
+        {
+          leftover.add(row);
+          continue;
+        }
+        
+        batch.add(row);
+        count++;
+        if (batch.size() >= batchSize)
+        {
+          write(batch);
+          batch.clear();
+        }
+      }
+      write(batch);
+      spill(leftover);
+    }
+    catch (IOException ioexc)
+    {
+      log.error("Unable to read spilled audits from {}; the file is kept.", draining, ioexc);
+      return;
+    }
+    
+    if (!draining.delete())
+    {
+      log.error("Unable to delete {}.", draining);
+    }
+    else if (count > 0)
+    {
+      log.info("Retried {} spilled audits.", count);
+    }
+  }
+  
+  /**
+   * Standard Java toString.
+   */
+  @Override
+  public String toString()
+  {
+    return "AuditWriter [" + getWrittenCount() + " written"
+        + "; " + getQueueDepth() + " queued"
+        + "; " + getSpilledCount() + " spilled"
+        + "; " + getDroppedCount() + " dropped"
+        + "; " + getDeadLetteredCount() + " dead-lettered"
+        + "; " + getFailedBatchCount() + " failed batches"
+        + "; " + getAverageBatchMillis() + "ms/batch"
+        + "]";
+  }
+  
+  /**
+   * An immutable audit table row, captured when an audit is committed.
+   */
+  public static final class Row
+  {
+    private final int       type;
+    private final long      time;
+    private final long      affected;
+    private final int       affectedTypeID;
+    private final long      cause;
+    private final int       causeTypeID;
+    private final int       attributeID;
+    private final String    originalValue;
+    private final String    newValue;
+    private final String[]  customNames;
+    private final String[]  customValues;
+    
+    /**
+     * Constructor.
+     */
+    public Row(AuditSession session, Audit audit)
+    {
+      this.type = audit.getType();
+      this.time = audit.getTimestamp().getTime();
+      this.affected = audit.getAffected().getId();
+      this.affectedTypeID = audit.getAffected().getAuditableTypeID();
+      this.cause = session.getCause().getId();
+      this.causeTypeID = session.getCause().getAuditableTypeID();
+      this.attributeID = audit.getAttributeID();
+      this.originalValue = audit.getOriginalValue();
+      this.newValue = audit.getNewValue();
+      
+      if (audit.hasCustom())
+      {
+        final Map<String, String> custom = new TreeMap<>(audit.getCustomAttributes());
+        this.customNames = custom.keySet().toArray(new String[custom.size()]);
+        this.customValues = custom.values().toArray(new String[custom.size()]);
+      }
+      else
+      {
+        this.customNames = new String[0];
+        this.customValues = new String[0];
+      }
+    }
+    
+    private Row(int type, long time, long affected, int affectedTypeID, 
+        long cause, int causeTypeID, int attributeID, String originalValue, 
+        String newValue, String[] customNames, String[] customValues)
+    {
+      this.type = type;
+      this.time = time;
+      this.affected = affected;
+      this.affectedTypeID = affectedTypeID;
+      this.cause = cause;
+      this.causeTypeID = causeTypeID;
+      this.attributeID = attributeID;
+      this.originalValue = originalValue;
+      this.newValue = newValue;
+      this.customNames = customNames;
+      this.customValues = customValues;
+    }
+    
+    /**
+     * Gets the comma-separated column list for this row.
+     */
+    String columns()
+    {
+      if (customNames.length == 0)
+      {
+        return COLUMNS;
+      }
+      return COLUMNS + "," + String.join(",", customNames);
+    }
+    
+    /**
+     * Gets the number of columns for this row.
+     */
+    int columnCount()
+    {
+      return 9 + customNames.length;
+    }
+    
+    /**
+     * Binds this row's values to an INSERT statement's parameters.
+     */
+    void bind(PreparedStatement statement)
+      throws SQLException
+    {
+      statement.setInt(1, type);
+      statement.setTimestamp(2, new Timestamp(time));
+      statement.setLong(3, affected);
+      statement.setInt(4, affectedTypeID);
+      statement.setLong(5, cause);
+      statement.setInt(6, causeTypeID);
+      statement.setInt(7, attributeID);
+      statement.setString(8, originalValue);
+      statement.setString(9, newValue);
+      for (int i = 0; i < customValues.length; i++)
+      {
+        statement.setString(10 + i, customValues[i]);
+      }
+    }
+    
+    /**
+     * Writes this row to a spill file.
+     */
+    void writeTo(DataOutputStream out)
+      throws IOException
+    {
+      out.writeInt(type);
+      out.writeLong(time);
+      out.writeLong(affected);
+      out.writeInt(affectedTypeID);
+      out.writeLong(cause);
+      out.writeInt(causeTypeID);
+      out.writeInt(attributeID);
+      writeString(originalValue, out);
+      writeString(newValue, out);
+      out.writeInt(customNames.length);
+      for (int i = 0; i < customNames.length; i++)
+      {
+        writeString(customNames[i], out);
+        writeString(customValues[i], out);
+      }
+    }
+    
+    /**
+     * Reads a row from a spill file, returning null at the end of the file
+     * or at a row truncated by a crash.
+     */
+    static Row readFrom(DataInputStream in)
+      throws IOException
+    {
+      try
+      {
+        final int type = in.readInt();
+        final long time = in.readLong();
+        final long affected = in.readLong();
+        final int affectedTypeID = in.readInt();
+        final long cause = in.readLong();
+        final int causeTypeID = in.readInt();
+        final int attributeID = in.readInt();
+        final String originalValue = readString(in);
+        final String newValue = readString(in);
+        final int customCount = in.readInt();
+        final String[] customNames = new String[customCount];
+        final String[] customValues = new String[customCount];
+        for (int i = 0; i < customCount; i++)
+        {
+          customNames[i] = readString(in);
+          customValues[i] = readString(in);
+        }
+        return new Row(type, time, affected, affectedTypeID, cause, 
+            causeTypeID, attributeID, originalValue, newValue, customNames, 
+            customValues);
+      }
+      catch (EOFException eofexc)
+      {
+        return null;
+      }
+    }
+    
+    private static void writeString(String value, DataOutputStream out)
+      throws IOException
+    {
+      if (value == null)
+      {
+        out.writeInt(-1);
+      }
+      else
+      {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+    }
+    
+    private static String readString(DataInputStream in)
+      throws IOException
+    {
+      final int length = in.readInt();
+      if (length < 0)
+      {
+        return null;
+      }
+      final byte[] bytes = new byte[length];
+      in.readFully(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+  }
+  
+}  // End AuditWriter.
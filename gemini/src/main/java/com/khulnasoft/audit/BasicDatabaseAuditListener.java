@@ -32,15 +32,17 @@ import java.util.*;
 
 import com.khulnasoft.*;
 import com.khulnasoft.data.*;
-import com.khulnasoft.helper.*;
-import com.khulnasoft.util.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * A basic database audit listener that uses a BasicConnectorFactory and
- * runs simple INSERT queries to insert audits.  The standard schema for
- * the Audit table is below:
+ * runs parameterized INSERT queries to insert audits.  By default, the 
+ * audits of each committed AuditSession are handed to an AuditWriter, which
+ * writes them in batches on a background thread, so that committing does
+ * not wait on the database.  Call setAsynchronous(false) to instead write
+ * each session's audits as one batch on the committing thread.  The 
+ * standard schema for the Audit table is below:
  * <p>
  * <pre>{@code
  * CREATE TABLE Audit (
@@ -65,9 +67,10 @@ public class BasicDatabaseAuditListener
   // Member variables.
   //
   
-  private final ConnectorFactory       connFactory;
   private final Logger                 log        = LoggerFactory.getLogger(getClass());
+  private final AuditWriter            writer;
   private       String                 auditTable = "Audit";
+  private       boolean                asynchronous = true;
   
   //
   // Member methods.
@@ -79,7 +82,10 @@ public class BasicDatabaseAuditListener
   public BasicDatabaseAuditListener(KhulnaSoftApplication application,
     ConnectorFactory connectorFactory)
   {
-    this.connFactory = connectorFactory;
+    this.writer = new AuditWriter(connectorFactory);
+    
+    // Start the writer with the application, and flush it at shutdown.
+    application.addAsynchronous(this.writer);
   }
   
   /**
@@ -96,6 +102,33 @@ public class BasicDatabaseAuditListener
   public void setAuditTable(String auditTable)
   {
     this.auditTable = auditTable;
+    this.writer.setAuditTable(auditTable);
+  }
+  
+  /**
+   * Gets the AuditWriter, which may be used to adjust batching and spilling
+   * and to read its counters.
+   */
+  public AuditWriter getWriter()
+  {
+    return this.writer;
+  }
+  
+  /**
+   * Are audits written on a background thread?
+   */
+  public boolean isAsynchronous()
+  {
+    return this.asynchronous;
+  }
+  
+  /**
+   * Sets whether audits are written on a background thread (the default)
+   * or on the thread committing the AuditSession.
+   */
+  public void setAsynchronous(boolean asynchronous)
+  {
+    this.asynchronous = asynchronous;
   }
   
   @Override
@@ -107,67 +140,52 @@ public class BasicDatabaseAuditListener
   @Override
   public void auditCommitted(AuditSession session, Audit audit)
   {
-    if (audit.getAffected() == null
-        || session.getCause() == null)
+    // Does nothing; the session's audits are written together once the
+    // commit is complete.
+  }
+
+  @Override
+  public void auditSessionCommitComplete(AuditSession session)
+  {
+    if (session.getCause() == null)
     {
-      log.debug(
-          "Unexpected input to auditCommitted.  " +
-              "Session: {}, Audit: {}, Affected: {}, Cause: {}.",
-          session, audit, audit.getAffected(), session.getCause());
+      log.debug("Unexpected input to auditSessionCommitComplete.  " +
+          "Session: {}, Cause: null.", session);
       return;
     }
-
-    StringList fields = new StringList();
-    StringList values = new StringList();
-    
-    // Convert the timestamp.
-    java.sql.Timestamp time = new java.sql.Timestamp(audit.getTimestamp().getTime());
     
-    // Add the fields.
-    fields.add("Type,AuditTime,Affected,AffectedTypeID,Cause,CauseTypeID,AttributeID,OriginalValue,NewValue");
-    values.add("" + audit.getType());
-    values.add("'" + time.toString() + "'");
-    values.add("" + audit.getAffected().getId());
-    values.add("" + audit.getAffected().getAuditableTypeID());
-    values.add("" + session.getCause().getId());
-    values.add("" + session.getCause().getAuditableTypeID());
-    values.add("" + audit.getAttributeID());
-    values.add((audit.getOriginalValue() == null) ? "NULL" : DatabaseHelper.prepare(audit.getOriginalValue()));
-    values.add((audit.getNewValue() == null) ? "NULL" : DatabaseHelper.prepare(audit.getNewValue()));
-
-    // Look at custom attributes.
-    if (audit.hasCustom())
+    final List<AuditWriter.Row> rows = new ArrayList<>(session.size());
+    for (int i = 0; i < session.size(); i++)
     {
-      Map<String,String> customAttributes = audit.getCustomAttributes();
-      for (Map.Entry<String, String> entry : customAttributes.entrySet())
+      final Audit audit = session.get(i);
+      if (audit.getAffected() == null)
+      {
+        log.debug("Unexpected input to auditSessionCommitComplete.  " +
+            "Session: {}, Audit: {}, Affected: null.", session, audit);
+      }
+      else
       {
-        fields.add(entry.getKey());
-        values.add(DatabaseHelper.prepare(entry.getValue()));
+        rows.add(new AuditWriter.Row(session, audit));
       }
     }
     
-    String query = "INSERT INTO " + auditTable
-      + " (" + fields + ") VALUES (" + values + ");";
-
-    try (ConnectionMonitor monitor = this.connFactory.getConnectionMonitor())
+    if (asynchronous)
     {
-      try (PreparedStatement statement = monitor.getConnection().prepareStatement(query))
-      {
-        statement.executeUpdate();
-      }
+      writer.enqueue(rows);
     }
-    catch (SQLException exc)
+    else
     {
-      log.error("Unable to persist audit.", exc);
+      try
+      {
+        writer.insert(rows);
+      }
+      catch (SQLException exc)
+      {
+        log.error("Unable to persist audits.", exc);
+      }
     }
   }
 
-  @Override
-  public void auditSessionCommitComplete(AuditSession session)
-  {
-    // Does nothing.
-  }
-
   @Override
   public void auditsCleared(AuditSession session)
   {
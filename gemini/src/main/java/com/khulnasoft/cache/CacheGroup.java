@@ -27,12 +27,15 @@
 
 package com.khulnasoft.cache;
 
+import gnu.trove.list.array.*;
 import gnu.trove.map.*;
 import gnu.trove.map.hash.*;
+import gnu.trove.set.hash.*;
 
 import java.lang.reflect.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.*;
 
 import com.khulnasoft.data.*;
 import com.khulnasoft.helper.*;
@@ -73,6 +76,11 @@ public class CacheGroup<T extends Identifiable>
   private boolean                 errorOnInitialize   = false;
   private long                    lowestIdentity      = Long.MAX_VALUE;
   private long                    highestIdentity     = 0;
+  private final String            versionColumn;
+  private final boolean           reconcileRemovals;
+  private volatile Object         versionMark         = null;
+  private final DeltaSyncStatistics syncStatistics    = new DeltaSyncStatistics();
+  private final ConcurrentMap<String, MaterializedView<T>> views = new ConcurrentHashMap<>();
 
   //
   // Member methods.
@@ -91,9 +99,38 @@ public class CacheGroup<T extends Identifiable>
       String[] whereArguments,
       boolean readOnly,
       boolean distribute)
+  {
+    this(controller, type, table, id, maker, comparator,
+        where, whereArguments, readOnly, distribute, null, true);
+  }
+
+  /**
+   * Constructor for a group that optionally tracks a version column.
+   *
+   * @param versionColumn The name of a column whose value increases
+   *        monotonically across the table whenever a row is changed (a
+   *        last-modified timestamp or a value from a global sequence), or
+   *        null if this group is not versioned.
+   * @param reconcileRemovals Whether delta synchronizations should also
+   *        detect rows that have been deleted.
+   */
+  protected CacheGroup(EntityStore controller,
+      Class<T> type, 
+      String table, 
+      String id, 
+      EntityMaker<T> maker, 
+      Comparator<? super T> comparator,
+      String where, 
+      String[] whereArguments,
+      boolean readOnly,
+      boolean distribute,
+      String versionColumn,
+      boolean reconcileRemovals)
   {
     super(controller, type, table, id, maker, comparator,
         where, whereArguments, readOnly, distribute);
+    this.versionColumn = versionColumn;
+    this.reconcileRemovals = reconcileRemovals;
   }
 
   /**
@@ -166,7 +203,10 @@ public class CacheGroup<T extends Identifiable>
         }
 
         // If we're setting objects from somewhere else, we should assume
-        // that this is initializing the cache group.
+        // that this is initializing the cache group.  We don't know how
+        // current the provided objects are, so the next delta sync will
+        // need to re-read everything.
+        this.versionMark = null;
         setInitialized(true);
       }
       
@@ -604,6 +644,13 @@ public class CacheGroup<T extends Identifiable>
   {
     synchronized (this)
     {
+      // Capture the version mark before reading the rows so that anything
+      // changed while we're reading will be picked up by the next delta
+      // sync.
+      if (isVersioned())
+      {
+        this.versionMark = columnMaximum(this.versionColumn);
+      }
       List<T> allObjects = fetchAllPersistedObjects();
       // Avoid maintaining the sorted list if not needed.
       if (comparator() != EntityGroup.NO_COMPARATOR)
@@ -799,11 +846,6 @@ public class CacheGroup<T extends Identifiable>
       return;
     }
 
-    // Grab references.
-    final ConcurrentMap<Long, T> map = this.objects;
-    final List<T> orderedList = this.objectsInOrder;
-    final Comparator<? super T> comparator = comparator();
-
     synchronized (this)
     {
       // Fetch the new objects.
@@ -811,38 +853,174 @@ public class CacheGroup<T extends Identifiable>
       
       for (long id : ids)
       {
-        // Remove the object with this id from the cache, if it's there.
-        if (comparator == EntityGroup.NO_COMPARATOR)
+        replaceInCache(id, objectsMap.get(id));
+      }
+    }
+  }
+
+  /**
+   * Replaces the cached object with the given id by the provided object,
+   * maintaining the ordered list if sorting is desired.  If the provided
+   * object is null, the cached object is simply removed.  Callers must hold
+   * the lock on this group.
+   */
+  private void replaceInCache(long id, T object)
+  {
+    // Grab references.
+    final ConcurrentMap<Long, T> map = this.objects;
+    final List<T> orderedList = this.objectsInOrder;
+    final Comparator<? super T> comparator = comparator();
+
+    // Remove the object with this id from the cache, if it's there.
+    if (comparator == EntityGroup.NO_COMPARATOR)
+    {
+      map.remove(id);
+    }
+    else
+    {
+      // Only update orderedList if sorting is desired.
+      orderedList.remove(map.remove(id));
+    }
+    
+    // Put the newly loaded object into the cache.
+    if (object != null)
+    {
+      map.put(id, object);
+      // Only update orderedList if sorting is desired.
+      if (comparator != EntityGroup.NO_COMPARATOR)
+      {
+        // Use the comparator to insert it at the appropriate position.
+        int search = Collections.binarySearch(orderedList, object, comparator);
+        if (search < 0)
         {
-          map.remove(id);
+          orderedList.add(-search - 1, object);
         }
         else
         {
-          // Only update orderedList if sorting is desired.
-          orderedList.remove(map.remove(id));
+          orderedList.add(object);
         }
-        final T object = objectsMap.get(id);
-        
-        // Put the newly loaded object into the cache.
-        if (object != null)
+      }
+    }
+  }
+
+  /**
+   * Returns whether this group tracks a version column and can therefore
+   * be brought up to date with {@link #deltaSync()} rather than a full
+   * reset.
+   */
+  public boolean isVersioned()
+  {
+    return this.versionColumn != null;
+  }
+
+  /**
+   * Returns the name of the version column, or null if this group is not
+   * versioned.
+   */
+  public String versionColumn()
+  {
+    return this.versionColumn;
+  }
+
+  /**
+   * Returns the version mark as of the most recent initialization or delta
+   * sync: the maximum value of the version column observed at that time.
+   * Returns null if the group is not versioned or has no mark yet.
+   */
+  public Object getVersionMark()
+  {
+    return this.versionMark;
+  }
+
+  /**
+   * Returns this node's reconciliation statistics for this group.
+   */
+  public DeltaSyncStatistics getSyncStatistics()
+  {
+    return this.syncStatistics;
+  }
+
+  /**
+   * Brings this versioned group up to date by re-reading only the rows that
+   * have changed since the current version mark, rather than discarding and
+   * reloading the entire group.  If the group was configured to reconcile
+   * removals, the identities present in the database are also compared
+   * against the cache so that deleted rows are dropped.
+   *   <p>
+   * If the group has not been initialized yet, there is nothing to bring up
+   * to date and an empty result is returned; the group will be fully loaded
+   * on first use as usual.
+   *
+   * @return The identities that were updated and removed.
+   * @throws EntityException if this group is not versioned.
+   */
+  public DeltaSyncResult deltaSync()
+  {
+    if (!isVersioned())
+    {
+      throw new EntityException("EntityGroup for " + name()
+          + " is not versioned. The \"deltaSync\" method is not permitted.");
+    }
+
+    synchronized (this)
+    {
+      if (!this.initialized)
+      {
+        return DeltaSyncResult.EMPTY;
+      }
+
+      final long start = System.currentTimeMillis();
+      final Object since = this.versionMark;
+      final Object mark = columnMaximum(this.versionColumn);
+
+      // Without a mark, we can't know what has changed, so everything has.
+      final List<T> changed;
+      if (since == null)
+      {
+        changed = fetchAllPersistedObjects();
+        this.syncStatistics.recordFullReload();
+      }
+      else
+      {
+        changed = rawListSince(this.versionColumn, since);
+      }
+
+      final long[] updated = new long[changed.size()];
+      int index = 0;
+      for (T object : changed)
+      {
+        replaceInCache(object.getId(), object);
+        updated[index++] = object.getId();
+      }
+
+      long[] removed = DeltaSyncResult.NONE;
+      if (this.reconcileRemovals)
+      {
+        final TLongHashSet persisted = new TLongHashSet(rawIds());
+        final TLongArrayList missing = new TLongArrayList();
+        for (Long id : this.objects.keySet())
         {
-          map.put(id, object);
-          // Only update orderedList if sorting is desired.
-          if (comparator != EntityGroup.NO_COMPARATOR)
+          if (!persisted.contains(id))
           {
-            // Use the comparator to insert it at the appropriate position.
-            int search = Collections.binarySearch(orderedList, object, comparator);
-            if (search < 0)
-            {
-              orderedList.add(-search - 1, object);
-            }
-            else
-            {
-              orderedList.add(object);
-            }
+            missing.add(id);
           }
         }
+        removed = missing.toArray();
+        for (long id : removed)
+        {
+          replaceInCache(id, null);
+        }
       }
+
+      if (mark != null)
+      {
+        this.versionMark = mark;
+      }
+      calculateHighLowIdentitiesRecalc();
+
+      this.syncStatistics.recordSync(updated.length, removed.length, 
+          System.currentTimeMillis() - start);
+      return new DeltaSyncResult(updated, removed);
     }
   }
 
@@ -910,6 +1088,70 @@ public class CacheGroup<T extends Identifiable>
     }
   }
 
+  /**
+   * Registers a named {@link MaterializedView} of this group: the entities
+   * passing a filter, in an order, maintained incrementally as the group
+   * changes.  Replaces any view previously registered with the same name.
+   *
+   * @param name The name of the view.
+   * @param filter The entities to include, or null to include all.
+   * @param order The order of the view.
+   */
+  public MaterializedView<T> registerView(String name, 
+      Predicate<? super T> filter, Comparator<? super T> order)
+  {
+    final MaterializedView<T> view = new MaterializedView<>(this, name, filter, order);
+    final MaterializedView<T> previous = this.views.put(name, view);
+    if (previous != null)
+    {
+      entityStore().removeListener(previous);
+    }
+    entityStore().addListener(view);
+    return view;
+  }
+
+  /**
+   * Removes a named view.
+   */
+  public void unregisterView(String name)
+  {
+    final MaterializedView<T> view = this.views.remove(name);
+    if (view != null)
+    {
+      entityStore().removeListener(view);
+    }
+  }
+
+  /**
+   * Gets a named view, or null if no such view is registered.
+   */
+  public MaterializedView<T> getView(String name)
+  {
+    return this.views.get(name);
+  }
+
+  /**
+   * Gets all views registered on this group.
+   */
+  public Collection<MaterializedView<T>> getViews()
+  {
+    return Collections.unmodifiableCollection(this.views.values());
+  }
+
+  /**
+   * Gets an estimate of the memory retained by this group's views, in
+   * bytes.
+   */
+  public long getViewEstimatedBytes()
+  {
+    long bytes = 0L;
+    for (MaterializedView<T> view : this.views.values())
+    {
+      bytes += view.getEstimatedBytes();
+    }
+    return bytes;
+  }
+
   @Override
   public String toString()
   {
@@ -985,12 +1227,57 @@ public class CacheGroup<T extends Identifiable>
   // Inner classes.
   // 
 
+  /**
+   * The identities affected by a call to {@link CacheGroup#deltaSync()}.
+   */
+  public static final class DeltaSyncResult
+  {
+    private static final long[] NONE = new long[0];
+    private static final DeltaSyncResult EMPTY = new DeltaSyncResult(NONE, NONE);
+
+    private final long[] updated;
+    private final long[] removed;
+
+    private DeltaSyncResult(long[] updated, long[] removed)
+    {
+      this.updated = updated;
+      this.removed = removed;
+    }
+
+    /**
+     * The identities of the entities that were re-read from the database.
+     */
+    public long[] getUpdated()
+    {
+      return this.updated.clone();
+    }
+
+    /**
+     * The identities of the entities that were removed from the cache
+     * because they no longer exist in the database.
+     */
+    public long[] getRemoved()
+    {
+      return this.removed.clone();
+    }
+
+    @Override
+    public String toString()
+    {
+      return "DeltaSyncResult [updated: " + this.updated.length
+          + "; removed: " + this.removed.length + "]";
+    }
+  }
+
   /**
    * Creates new instances of {@code CacheGroup}.
    */
   public static class Builder<T extends Identifiable>
       extends EntityGroup.Builder<T>
   {
+    protected String versionColumn;
+    protected boolean reconcileRemovals = true;
+
     protected Builder(Class<T> type)
     {
       super(type);
@@ -1020,7 +1307,37 @@ public class CacheGroup<T extends Identifiable>
           this.where,
           this.whereArguments,
           this.readOnly,
-          this.distribute);
+          this.distribute,
+          this.versionColumn,
+          this.reconcileRemovals);
+    }
+
+    /**
+     * Sets the name of a column whose value increases monotonically across
+     * the table whenever a row is inserted or changed, such as a
+     * last-modified timestamp maintained by the database or a value drawn
+     * from a global sequence.  A per-row counter is not sufficient.  When a
+     * version column is specified, the group can be brought up to date with
+     * {@link CacheGroup#deltaSync()} instead of being reset and reloaded in
+     * full, which is what cluster peers will do upon receiving a group reset.
+     */
+    public Builder<T> versionColumn(String columnName)
+    {
+      this.versionColumn = columnName;
+      return this;
+    }
+
+    /**
+     * Sets whether delta synchronizations should also compare the identities
+     * in the database against the cache in order to drop deleted rows.  The
+     * default is true.  Applications that never delete rows from a versioned
+     * table (or that soft-delete by updating the version column) may disable
+     * this to avoid reading the identity column.
+     */
+    public Builder<T> reconcileRemovals(boolean reconcile)
+    {
+      this.reconcileRemovals = reconcile;
+      return this;
     }
 
     @Override
@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.cache;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * Per-node reconciliation counters for a versioned {@link CacheGroup}.  Each
+ * delta synchronization records how many rows were re-read from the
+ * database and how many cached entities were found to have been deleted,
+ * which makes it possible to see how much work the cluster is doing to stay
+ * consistent and how many full reloads were avoided.
+ *   <p>
+ * Instances are safe for concurrent use.
+ */
+public class DeltaSyncStatistics
+{
+
+  //
+  // Member variables.
+  //
+
+  private final AtomicLong syncs           = new AtomicLong();
+  private final AtomicLong rowsApplied     = new AtomicLong();
+  private final AtomicLong rowsRemoved     = new AtomicLong();
+  private final AtomicLong fullReloads     = new AtomicLong();
+  private final AtomicLong totalDurationMs = new AtomicLong();
+  private volatile long    lastSyncTime    = 0L;
+  private volatile long    lastDurationMs  = 0L;
+
+  //
+  // Member methods.
+  //
+
+  /**
+   * Records a completed delta synchronization.
+   *
+   * @param applied The number of changed rows applied to the cache.
+   * @param removed The number of deleted entities removed from the cache.
+   * @param durationMs The time taken by the synchronization.
+   */
+  public void recordSync(int applied, int removed, long durationMs)
+  {
+    this.syncs.incrementAndGet();
+    this.rowsApplied.addAndGet(applied);
+    this.rowsRemoved.addAndGet(removed);
+    this.totalDurationMs.addAndGet(durationMs);
+    this.lastDurationMs = durationMs;
+    this.lastSyncTime = System.currentTimeMillis();
+  }
+
+  /**
+   * Records that a full reload was required because no version mark was
+   * available (e.g., the group was populated by setObjects).
+   */
+  public void recordFullReload()
+  {
+    this.fullReloads.incrementAndGet();
+  }
+
+  /**
+   * Gets the number of delta synchronizations performed.
+   */
+  public long getSyncs()
+  {
+    return this.syncs.get();
+  }
+
+  /**
+   * Gets the total number of changed rows applied to the cache.
+   */
+  public long getRowsApplied()
+  {
+    return this.rowsApplied.get();
+  }
+
+  /**
+   * Gets the total number of deleted entities removed from the cache.
+   */
+  public long getRowsRemoved()
+  {
+    return this.rowsRemoved.get();
+  }
+
+  /**
+   * Gets the number of synchronizations that fell back to a full reload.
+   */
+  public long getFullReloads()
+  {
+    return this.fullReloads.get();
+  }
+
+  /**
+   * Gets the total time spent in delta synchronizations, in milliseconds.
+   */
+  public long getTotalDurationMs()
+  {
+    return this.totalDurationMs.get();
+  }
+
+  /**
+   * Gets the duration of the most recent synchronization, in milliseconds.
+   */
+  public long getLastDurationMs()
+  {
+    return this.lastDurationMs;
+  }
+
+  /**
+   * Gets the time of the most recent synchronization (as milliseconds since
+   * the epoch), or 0 if no synchronization has occurred.
+   */
+  public long getLastSyncTime()
+  {
+    return this.lastSyncTime;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "DeltaSyncStatistics [syncs: " + getSyncs()
+        + "; applied: " + getRowsApplied()
+        + "; removed: " + getRowsRemoved()
+        + "; full reloads: " + getFullReloads()
+        + "; total ms: " + getTotalDurationMs()
+        + "; last ms: " + getLastDurationMs()
+        + "]";
+  }
+
+}   // End DeltaSyncStatistics.
@@ -0,0 +1,476 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.cache;
+
+import java.util.*;
+import java.util.function.*;
+import java.util.stream.*;
+
+import com.khulnasoft.data.*;
+import com.khulnasoft.reflect.*;
+import com.khulnasoft.util.*;
+
+/**
+ * A typed query over the entities of one group in an {@link EntityStore}.
+ * Queries are created by {@link EntityStore#query(Class)} and built up
+ * fluently before being executed by {@link #list()}, {@link #first()} or
+ * {@link #count()}:
+ *   <p>
+ * <pre>
+ *   List&lt;Item&gt; newest = store.query(Item.class)
+ *       .where("getCategoryId", categoryId)
+ *       .where(Item::isActive)
+ *       .orderBy(Item::getCreated).descending()
+ *       .limit(20)
+ *       .list();
+ * </pre>
+ *   <p>
+ * Execution proceeds as follows:
+ * <ul>
+ *   <li>If any equality criterion names a method that is indexed by the
+ *       store's {@link MethodValueCache}, the matching entities are taken
+ *       from the index rather than from a scan of the whole group.</li>
+ *   <li>Predicates are evaluated through typed lambdas or method references.
+ *       Equality criteria given by method name are resolved once per query
+ *       to an {@link Accessor} rather than invoked reflectively per
+ *       entity.</li>
+ *   <li>When a limit is given, only the best offset + limit entities are
+ *       retained in a bounded heap, which is O(n log k) rather than a full
+ *       O(n log n) sort.</li>
+ *   <li>Candidate sets of at least the store's parallel threshold are
+ *       filtered and reduced on the common ForkJoin pool.  Full sorts go
+ *       through the store's {@link ParallelOperations}.</li>
+ * </ul>
+ *   <p>
+ * A query reads a snapshot of the group taken when it is executed.  Query
+ * objects are not thread-safe but may be executed repeatedly.
+ */
+public class EntityQuery<T extends Identifiable>
+{
+
+  //
+  // Member variables.
+  //
+
+  private final EntityStore               store;
+  private final Class<T>                  type;
+  private final Map<String, Object>       equalities = new LinkedHashMap<>();
+  private final List<Predicate<? super T>> predicates = new ArrayList<>();
+  private Comparator<? super T>           comparator;
+  private int                             offset = 0;
+  private int                             limit = -1;
+
+  //
+  // Member methods.
+  //
+
+  /**
+   * Constructor.  Use {@link EntityStore#query(Class)}.
+   */
+  protected EntityQuery(EntityStore store, Class<T> type)
+  {
+    this.store = store;
+    this.type = type;
+  }
+
+  /**
+   * Adds a criterion: the value returned by a named no-argument method must
+   * equal the given value.  Criteria on indexed methods are answered from the
+   * index.
+   */
+  public EntityQuery<T> where(String methodName, Object value)
+  {
+    this.equalities.put(methodName, value);
+    return this;
+  }
+
+  /**
+   * Adds a criterion: the value returned by an accessor must equal the given
+   * value.
+   */
+  public <V> EntityQuery<T> where(Function<? super T, V> accessor, V value)
+  {
+    return where(entity -> Objects.equals(accessor.apply(entity), value));
+  }
+
+  /**
+   * Adds a criterion: entities must satisfy the predicate.
+   */
+  public EntityQuery<T> where(Predicate<? super T> predicate)
+  {
+    this.predicates.add(predicate);
+    return this;
+  }
+
+  /**
+   * Orders results by a Comparator.  Without an ordering, results follow
+   * the group's own ordering, by its comparator, or are unordered if the 
+   * group uses {@link EntityGroup#NO_COMPARATOR} or the type is not an 
+   * EntityGroup.
+   */
+  public EntityQuery<T> orderBy(Comparator<? super T> order)
+  {
+    this.comparator = order;
+    return this;
+  }
+
+  /**
+   * Orders results by the natural ordering of an accessor's values, with
+   * nulls last.
+   */
+  public <V extends Comparable<? super V>> EntityQuery<T> orderBy(
+      Function<? super T, ? extends V> accessor)
+  {
+    return orderBy(Comparator.comparing(accessor, 
+        Comparator.nullsLast(Comparator.<V>naturalOrder())));
+  }
+
+  /**
+   * Adds a secondary ordering used when the current ordering considers two
+   * entities equal.
+   */
+  public <V extends Comparable<? super V>> EntityQuery<T> thenBy(
+      Function<? super T, ? extends V> accessor)
+  {
+    if (this.comparator == null)
+    {
+      return orderBy(accessor);
+    }
+    final Comparator<? super T> primary = this.comparator;
+    final Comparator<T> secondary = Comparator.comparing(accessor,
+        Comparator.nullsLast(Comparator.<V>naturalOrder()));
+    return orderBy((T a, T b) -> {
+      final int result = primary.compare(a, b);
+      return result != 0 ? result : secondary.compare(a, b);
+    });
+  }
+
+  /**
+   * Reverses the current ordering.
+   */
+  public EntityQuery<T> descending()
+  {
+    if (this.comparator == null)
+    {
+      throw new IllegalStateException("descending() requires an ordering.");
+    }
+    this.comparator = Collections.reverseOrder(this.comparator);
+    return this;
+  }
+
+  /**
+   * Skips the first n results.
+   */
+  public EntityQuery<T> offset(int n)
+  {
+    this.offset = Math.max(0, n);
+    return this;
+  }
+
+  /**
+   * Returns at most n results.  A negative value removes the limit.
+   */
+  public EntityQuery<T> limit(int n)
+  {
+    this.limit = n;
+    return this;
+  }
+
+  /**
+   * Selects one page of results, numbered from 1.
+   */
+  public EntityQuery<T> page(int pageNumber, int pageSize)
+  {
+    return offset(Math.max(0, pageNumber - 1) * pageSize).limit(pageSize);
+  }
+
+  /**
+   * Executes the query, returning a new mutable list of results.
+   */
+  public List<T> list()
+  {
+    final String indexedMethod = indexedMethod();
+    final List<T> candidates = candidates(indexedMethod);
+    final Predicate<T> predicate = predicate();
+    final boolean parallel = candidates.size() >= this.store.getQueryParallelThreshold();
+    
+    // Entities taken from an index arrive in no particular order, so they
+    // are put in the group's order unless the query gives its own.
+    final Comparator<? super T> order = (this.comparator == null 
+        && indexedMethod != null) 
+        ? groupOrder() 
+        : this.comparator;
+
+    // Bounded top-N when both an ordering and a limit are present and the
+    // bound is smaller than the candidates; otherwise, a full sort.  The 
+    // bound is computed as a long since offset + limit may overflow.
+    if (order != null && this.limit >= 0)
+    {
+      final long bound = (long)this.offset + this.limit;
+      if (bound == 0)
+      {
+        return new ArrayList<>(0);
+      }
+      if (bound < candidates.size())
+      {
+        final Stream<T> stream = stream(candidates, parallel);
+        final TopN<T> top = (predicate == null ? stream : stream.filter(predicate))
+            .collect(() -> new TopN<>(order, (int)bound), TopN::add, TopN::addAll);
+        return page(top.sorted());
+      }
+    }
+
+    // Filter only.
+    List<T> results = candidates;
+    if (predicate != null)
+    {
+      if (order == null && this.limit >= 0 && !parallel)
+      {
+        // Without an ordering, stop as soon as the page is complete.
+        results = stream(candidates, false).filter(predicate)
+            .skip(this.offset).limit(this.limit)
+            .collect(Collectors.toCollection(ArrayList::new));
+        return results;
+      }
+      results = stream(candidates, parallel).filter(predicate)
+          .collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    // Full sort, in parallel for large results.
+    if (order != null)
+    {
+      this.store.getParallelOperations().sort(
+          this.type.getSimpleName() + ".query", results, order);
+    }
+    return page(results);
+  }
+
+  /**
+   * Executes the query, returning the first result or null if there are no
+   * results.
+   */
+  public T first()
+  {
+    final int previous = this.limit;
+    this.limit = 1;
+    try
+    {
+      final List<T> results = list();
+      return results.isEmpty() ? null : results.get(0);
+    }
+    finally
+    {
+      this.limit = previous;
+    }
+  }
+
+  /**
+   * Executes the query, returning the number of matching entities,
+   * disregarding offset and limit.
+   */
+  public int count()
+  {
+    final List<T> candidates = candidates(indexedMethod());
+    final Predicate<T> predicate = predicate();
+    if (predicate == null)
+    {
+      return candidates.size();
+    }
+    return (int)stream(candidates,
+        candidates.size() >= this.store.getQueryParallelThreshold())
+        .filter(predicate).count();
+  }
+
+  @Override
+  public String toString()
+  {
+    return "EntityQuery [" + this.type.getSimpleName() 
+        + "; equalities: " + this.equalities
+        + "; predicates: " + this.predicates.size()
+        + "; ordered: " + (this.comparator != null)
+        + "; offset: " + this.offset
+        + "; limit: " + this.limit + "]";
+  }
+
+  /**
+   * Gets the method of the first indexed equality criterion, or null if 
+   * there is none.
+   */
+  private String indexedMethod()
+  {
+    for (String methodName : this.equalities.keySet())
+    {
+      if (this.store.isIndexed(this.type, methodName))
+      {
+        return methodName;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Gets the entities to be filtered: those matching the indexed equality
+   * criterion if there is one, or else the whole group.
+   */
+  private List<T> candidates(String indexedMethod)
+  {
+    if (indexedMethod != null)
+    {
+      return this.store.list(this.type, indexedMethod, 
+          this.equalities.get(indexedMethod));
+    }
+    return this.store.list(this.type);
+  }
+
+  /**
+   * Gets the group's comparator, or null if the group does not sort.
+   */
+  private Comparator<? super T> groupOrder()
+  {
+    final EntityGroup<T> group = this.store.getGroup(this.type);
+    if (group == null || group.comparator() == EntityGroup.NO_COMPARATOR)
+    {
+      return null;
+    }
+    return group.comparator();
+  }
+
+  /**
+   * Combines all criteria into one predicate, or null if there are none.
+   * Equality criteria answered by the index are still checked, which is
+   * cheap and guards against an index that is behind the group.
+   */
+  private Predicate<T> predicate()
+  {
+    Predicate<T> combined = null;
+    for (Map.Entry<String, Object> equality : this.equalities.entrySet())
+    {
+      combined = and(combined, equals(equality.getKey(), equality.getValue()));
+    }
+    for (Predicate<? super T> predicate : this.predicates)
+    {
+      combined = and(combined, predicate);
+    }
+    return combined;
+  }
+
+  private static <T> Predicate<T> and(Predicate<T> first, Predicate<? super T> second)
+  {
+    if (first == null)
+    {
+      return second::test;
+    }
+    return entity -> first.test(entity) && second.test(entity);
+  }
+
+  /**
+   * Creates an equality predicate for a named method, resolved once to a
+   * compiled Accessor.
+   */
+  private Predicate<T> equals(String methodName, Object value)
+  {
+    try
+    {
+      return Accessor.method(this.type, methodName).equalTo(value);
+    }
+    catch (IllegalArgumentException exc)
+    {
+      throw new ControllerError("Method cannot be accessed: " + methodName, exc);
+    }
+  }
+
+  private static <T> Stream<T> stream(List<T> list, boolean parallel)
+  {
+    return parallel ? list.parallelStream() : list.stream();
+  }
+
+  /**
+   * Applies offset and limit to sorted results.
+   */
+  private List<T> page(List<T> sorted)
+  {
+    final int from = Math.min(this.offset, sorted.size());
+    final int to = (this.limit < 0) 
+        ? sorted.size()
+        : (int)Math.min(sorted.size(), (long)from + this.limit);
+    if (from == 0 && to == sorted.size())
+    {
+      return sorted;
+    }
+    return new ArrayList<>(sorted.subList(from, to));
+  }
+
+  /**
+   * Retains the best "bound" elements seen according to a Comparator.  The
+   * heap is ordered worst-first so that the worst retained element can be
+   * compared against and evicted in O(log k).
+   */
+  private static final class TopN<T>
+  {
+    private final Comparator<? super T> comparator;
+    private final PriorityQueue<T>      heap;
+    private final int                   bound;
+
+    private TopN(Comparator<? super T> comparator, int bound)
+    {
+      this.comparator = comparator;
+      this.bound = bound;
+      this.heap = new PriorityQueue<>(Math.min(bound, 1024) + 1,
+          Collections.reverseOrder(comparator));
+    }
+
+    private void add(T element)
+    {
+      if (this.heap.size() < this.bound)
+      {
+        this.heap.add(element);
+      }
+      else if (this.comparator.compare(element, this.heap.peek()) < 0)
+      {
+        this.heap.poll();
+        this.heap.add(element);
+      }
+    }
+
+    private void addAll(TopN<T> other)
+    {
+      for (T element : other.heap)
+      {
+        add(element);
+      }
+    }
+
+    private List<T> sorted()
+    {
+      final List<T> result = new ArrayList<>(this.heap);
+      result.sort(this.comparator);
+      return result;
+    }
+  }
+
+}   // End EntityQuery.
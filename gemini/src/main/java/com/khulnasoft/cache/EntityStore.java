@@ -30,6 +30,7 @@ package com.khulnasoft.cache;
 import java.lang.reflect.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.*;
 import org.reflections.*;
 import org.slf4j.*;
 import com.google.common.primitives.*;
@@ -68,6 +69,13 @@ import gnu.trove.map.hash.*;
  * <li>EntityStore.CacheMethodValues - Cache the values of objects 
  * queried by reflection (in getObjectByMethod, etc.), which can improve the 
  * performance of future lookups at the cost of memory?  Default is no.</li>
+ * <li>EntityStore.QueryParallelThreshold - The number of candidate entities
+ * at or above which an {@link EntityQuery} filters on the common ForkJoin
+ * pool.  Default 50000.</li>
+ * <li>EntityStore.Parallel.Threshold, EntityStore.Parallel.Threads and
+ * EntityStore.Parallel.ChunkSize - Control when and where group-wide sorts,
+ * filters and map-reduce operations run in parallel.  See
+ * {@link ParallelOperations}.</li>
  * </ul>
  */
 public class EntityStore
@@ -83,6 +91,7 @@ public class EntityStore
   private static final int        INITIAL_GROUPS_SIZE = 20;
   private static final String     ERROR_METHOD_ACCESS = "Method cannot be accessed: ";
   private static final String     ERROR_FIELD_ACCESS = "Field cannot be accessed: ";
+  public static final int         DEFAULT_QUERY_PARALLEL_THRESHOLD = 50000;
 
   //
   // Member variables.
@@ -99,6 +108,7 @@ public class EntityStore
   private Reflections     reflections       = null;
   private boolean         initialized       = false;
   private boolean         cacheMethodValues = false;
+  private int             queryParallelThreshold = DEFAULT_QUERY_PARALLEL_THRESHOLD;
 
   /**
    * Whether to expect the return value from Statement.executeUpdate() to indicate
@@ -137,7 +147,21 @@ public class EntityStore
    */
   private final ConcurrentMap<Class<EntityRelationDescriptor<? extends Identifiable, ? extends Identifiable>>, EntityRelation<? extends Identifiable, ? extends Identifiable>> relationsMap = new ConcurrentHashMap<>();
 
-  private ConcurrentMap<String, String> cachedResponses = new ConcurrentHashMap<>();
+  /**
+   * Caches rendered responses; see {@link #getCachedResponse(String)}.
+   */
+  private final ResponseCache responseCache = new ResponseCache();
+
+  /**
+   * Caches the identities produced by {@link EntityGroup#cachedQuery}.
+   */
+  private final QueryCache queryCache = new QueryCache();
+
+  /**
+   * Runs group-wide sorts, filters and map-reduce operations, in parallel
+   * for large groups.
+   */
+  private final ParallelOperations parallelOperations = new ParallelOperations();
 
   /**
    * Keeps track of the methods that are annotated with either @Indexed or 
@@ -176,6 +200,8 @@ public class EntityStore
     this.connectorFactory = connectorFactory;
     this.groups           = new HashMap<>(INITIAL_GROUPS_SIZE);
     this.listeners        = new CacheListener[0];
+    addListener(this.queryCache);
+    addListener(this.responseCache);
 
     // Start constructing Reflections on a new thread since it takes a
     // bit of time.
@@ -214,6 +240,22 @@ public class EntityStore
       log.warn("EntityStore.UseAffectedRows is enabled, which REQUIRES that the database connection be configured so update statements return the count of affected rows. If unsure, disable this.");
     }
 
+    queryParallelThreshold = props.getInt("EntityStore.QueryParallelThreshold", 
+        DEFAULT_QUERY_PARALLEL_THRESHOLD);
+    parallelOperations.configure(
+        props.getInt("EntityStore.Parallel.Threshold", queryParallelThreshold),
+        props.getInt("EntityStore.Parallel.Threads", 0),
+        props.getInt("EntityStore.Parallel.ChunkSize", ParallelOperations.DEFAULT_CHUNK_SIZE));
+
+    queryCache.configure(
+        props.getInt("EntityStore.QueryCache.MaximumSize", QueryCache.DEFAULT_MAXIMUM_SIZE),
+        props.getLong("EntityStore.QueryCache.TtlSeconds", QueryCache.DEFAULT_TTL_SECONDS));
+    responseCache.configure(
+        props.getLong("EntityStore.ResponseCache.MaximumBytes", ResponseCache.DEFAULT_MAXIMUM_BYTES),
+        props.getLong("EntityStore.ResponseCache.TtlSeconds", ResponseCache.DEFAULT_TTL_SECONDS),
+        props.getLong("EntityStore.ResponseCache.StaleSeconds", ResponseCache.DEFAULT_STALE_SECONDS),
+        props.getLong("EntityStore.ResponseCache.RenderWaitSeconds", ResponseCache.DEFAULT_RENDER_WAIT_SECONDS));
+
     methodValueCaches = new HashMap<>();
     
     // This should only happen when the application is reconfigured.
@@ -417,6 +459,85 @@ public class EntityStore
     }
   }
 
+  /**
+   * Brings the entity group specified by type up to date with the database.
+   * If the group is a versioned CacheGroup (see
+   * {@link CacheGroup.Builder#versionColumn(String)}), only the rows changed
+   * since the group's version mark are re-read and applied, and listeners
+   * are notified of the individual objects affected.  Otherwise, this is
+   * equivalent to {@link #reset(Class, boolean, boolean)}.
+   *   <p>
+   * This is what cluster peers do in response to a group reset, and it
+   * avoids having every instance reload an entire group from the database
+   * at the same time.
+   *
+   * @param type the object type of the entity group to synchronize.
+   * @param notifyDistributionListeners Whether to notify any
+   *        DistributionListeners.
+   * @return true if a delta synchronization was performed; false if the
+   *         group was reset instead.
+   */
+  @SuppressWarnings("unchecked")
+  public <T extends Identifiable> boolean deltaSync(Class<T> type,
+      boolean notifyDistributionListeners)
+  {
+    final EntityGroup<T> group = getGroup(type);
+    if (!(group instanceof CacheGroup)
+        || !((CacheGroup<T>)group).isVersioned())
+    {
+      reset(type, true, notifyDistributionListeners);
+      return false;
+    }
+
+    final CacheGroup<T> cacheGroup = (CacheGroup<T>)group;
+    final CacheGroup.DeltaSyncResult result = cacheGroup.deltaSync();
+    final long[] updated = result.getUpdated();
+    final long[] removed = result.getRemoved();
+    log.info("Delta sync of {}: {}; {}", type.getSimpleName(), result,
+        cacheGroup.getSyncStatistics());
+
+    // Relations are not touched here.  Like the handling of a distributed
+    // removal, relation changes arrive through their own notifications.
+    methodValueCacheUpdate(type, updated);
+    methodValueCacheDelete(type, removed);
+
+    final CacheListener[] toNotify = listeners;
+    for (CacheListener listener : toNotify)
+    {
+      if (!(listener instanceof DistributionListener)
+          || notifyDistributionListeners)
+      {
+        for (long id : updated)
+        {
+          listener.cacheObjectExpired(type, id);
+        }
+        for (long id : removed)
+        {
+          listener.removeFromCache(type, id);
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Brings every versioned CacheGroup up to date with the database by way
+   * of {@link #deltaSync(Class, boolean)}.  Unversioned groups are left
+   * alone.  This is useful after a period during which cache notifications
+   * may have been missed, such as a lost connection to the cluster.
+   */
+  public void deltaSyncVersionedGroups(boolean notifyDistributionListeners)
+  {
+    for (EntityGroup<?> group : getGroupList())
+    {
+      if (group instanceof CacheGroup
+          && ((CacheGroup<?>)group).isVersioned())
+      {
+        deltaSync(group.type(), notifyDistributionListeners);
+      }
+    }
+  }
+
   /**
    * Adds a CacheListener to be notified of cache events.
    */
@@ -649,6 +770,26 @@ public class EntityStore
     return getGroupSafe(type).size();
   }
 
+  /**
+   * Begin a typed query over the entity group specified by type.  See
+   * {@link EntityQuery}.  Throws ControllerError if no such group is 
+   * registered.
+   */
+  public <T extends Identifiable> EntityQuery<T> query(Class<T> type)
+  {
+    getGroupSafe(type);
+    return new EntityQuery<>(this, type);
+  }
+
+  /**
+   * Gets the number of candidate entities at or above which queries run
+   * in parallel.
+   */
+  public int getQueryParallelThreshold()
+  {
+    return queryParallelThreshold;
+  }
+
   /**
    * Return all the objects contained in the entity group specified by 
    * type.  Throws ControllerError if no such group is registered.
@@ -738,6 +879,42 @@ public class EntityStore
 
     if (CollectionHelper.isNonEmpty(objects))
     {
+      // A no-argument method is read through a compiled Accessor.
+      if ( (paramTypes == null || paramTypes.length == 0)
+        && (args == null || args.length == 0)
+        )
+      {
+        final Accessor accessor;
+        try
+        {
+          accessor = Accessor.method(type, methodName);
+        }
+        catch (IllegalArgumentException exc)
+        {
+          throw new ControllerError("No method found: " + methodName, exc);
+        }
+
+        final Predicate<T> matches = accessor.equalTo(value);
+        for (T object : objects)
+        {
+          if (matches.test(object))
+          {
+            toReturn.add(object);
+          }
+          else if (loose)
+          {
+            final Object objValue = accessor.get(object);
+            if ( (objValue != null) 
+              && (value.equals(objValue.toString()))
+              )
+            {
+              toReturn.add(object);
+            }
+          }
+        }
+        return toReturn;
+      }
+
       // Try to get the method.
       Method method;
       try
@@ -866,8 +1043,8 @@ public class EntityStore
           sortField, comparisonType, ordering);
       comparator.setIgnoreCase(ignoreCase);
 
-      // Sort the results.
-      Collections.sort(results, comparator);
+      // Sort the results, in parallel for large collections.
+      parallelOperations.sort("sortedList", results, comparator);
 
       return results;
     }
@@ -964,6 +1141,32 @@ public class EntityStore
     return sortedList(list(type), sortField, comparisonType, ordering);
   }
 
+  /**
+   * Returns the entities of a group that pass a filter, in the group's
+   * order.  Large groups are filtered in parallel; see
+   * {@link ParallelOperations}.
+   */
+  public <T extends Identifiable> List<T> filter(Class<T> type, 
+      Predicate<? super T> predicate)
+  {
+    return parallelOperations.filter(type.getSimpleName() + ".filter", 
+        list(type), predicate);
+  }
+
+  /**
+   * Maps each entity of a group to a value and reduces the values, for
+   * example to total a column for a report.  Large groups are processed in
+   * parallel; see {@link ParallelOperations}.  The reducer must be 
+   * associative and the identity must be an identity for it.
+   */
+  public <T extends Identifiable, R> R mapReduce(Class<T> type, 
+      Function<? super T, ? extends R> mapper, R identity, 
+      BinaryOperator<R> reducer)
+  {
+    return parallelOperations.mapReduce(type.getSimpleName() + ".mapReduce", 
+        list(type), mapper, identity, reducer);
+  }
+
   /**
    * Return a particular IdentifiableObject contained in the entity group 
    * based on a field value and object type.  Returns null in the event of an
@@ -974,32 +1177,31 @@ public class EntityStore
    */
   public <T extends Identifiable> T getByField(Class<T> type, String fieldName, Object value)
   {
-    Field field = null;
     final List<T> list = list(type);
+    if (list.isEmpty())
+    {
+      return null;
+    }
 
+    final Predicate<T> matches;
     try
     {
-      for (T object : list)
-      {
-        // Cache a reference to the Field if not yet done so.
-        if (field == null)
-        {
-          field = object.getClass().getDeclaredField(fieldName);
-        }
-
-        // Check the value of the field within this object.
-        Object objValue = field.get(object);
-        if (value.equals(objValue))
-        {
-          return object;
-        }
-      }
+      matches = Accessor.field(type, fieldName).equalTo(value);
     }
-    catch (NoSuchFieldException | SecurityException | IllegalAccessException e)
+    catch (IllegalArgumentException e)
     {
       throw new ControllerError(ERROR_FIELD_ACCESS + fieldName, e);
     }
 
+    for (T object : list)
+    {
+      // Check the value of the field within this object.
+      if (matches.test(object))
+      {
+        return object;
+      }
+    }
+
     // If we get here, return null.
     return null;
   }
@@ -1024,33 +1226,31 @@ public class EntityStore
       }
     }
     
-    Method method = null;
     final List<T> list = list(type);
+    if (list.isEmpty())
+    {
+      return null;
+    }
 
+    final Predicate<T> matches;
     try
     {
-      for (T object : list)
-      {
-        // Cache a reference to the Method if not yet done so.
-        if (method == null)
-        {
-          method = object.getClass().getMethod(methodName, NO_PARAMETERS);
-        }
-
-        // Check the value of the field within this object.
-        final Object objValue = method.invoke(object, NO_VALUES);
-        
-        if (Objects.equals(value, objValue))
-        {
-          return object;
-        }
-      }
+      matches = Accessor.method(type, methodName).equalTo(value);
     }
-    catch (NoSuchMethodException | SecurityException | IllegalAccessException | InvocationTargetException e)
+    catch (IllegalArgumentException e)
     {
       throw new ControllerError(ERROR_METHOD_ACCESS + methodName, e);
     }
 
+    for (T object : list)
+    {
+      // Check the value of the method within this object.
+      if (matches.test(object))
+      {
+        return object;
+      }
+    }
+
     // If we get here, return null.
     return null;
   }
@@ -1094,6 +1294,48 @@ public class EntityStore
     }
   }
 
+  /**
+   * CacheMessageManager needs this in order to notify listeners about specific
+   * objects being removed.
+   * 
+   * @param notifyDistributionListeners Whether to notify distribution listeners.
+   *                                    CacheMessageManager would pass false to
+   *                                    this.
+   * @param type
+   * @param ids
+   */
+  public void notifyListenersRemoveFromCache(boolean notifyDistributionListeners, Class<? extends Identifiable> type,
+      long... ids)
+  {
+    final CacheListener[] toNotify = listeners;
+    for (CacheListener listener : toNotify) {
+      if (!(listener instanceof DistributionListener) || notifyDistributionListeners) {
+        for (long id : ids) {
+          listener.removeFromCache(type, id);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the cache of query results used by
+   * {@link EntityGroup#cachedQuery(String, Object...)}.
+   */
+  public QueryCache getQueryCache()
+  {
+    return queryCache;
+  }
+
+  /**
+   * Returns the executor of group-wide sorts, filters and map-reduce
+   * operations, which also reports which operations ran in parallel and
+   * how long they took.
+   */
+  public ParallelOperations getParallelOperations()
+  {
+    return parallelOperations;
+  }
+
   /**
    * Puts a data entity into the database/data-store.  This will also cache
    * the entity if a cache is in use.  If the entity is new and is assigned
@@ -1302,7 +1544,12 @@ public class EntityStore
             }
             else
             {
-              builder = CacheGroup.of((Class<? extends Identifiable>)clazz);
+              final CacheGroup.Builder<?> cacheBuilder = CacheGroup.of((Class<? extends Identifiable>)clazz);
+              if (!annotation.versionColumn().isEmpty())
+              {
+                cacheBuilder.versionColumn(annotation.versionColumn());
+              }
+              builder = cacheBuilder;
             }
             
             if (!annotation.table().isEmpty())
@@ -1515,7 +1762,7 @@ public class EntityStore
    */
   public String getCachedResponse(String parameterKeys)
   {
-    return cachedResponses.get(parameterKeys);
+    return responseCache.get(parameterKeys);
   }
   
   /**   
@@ -1526,24 +1773,25 @@ public class EntityStore
    */
   public void setCachedResponse(String parameterKeys, String responseText)
   {
-    // Remove the previous.
-    cachedResponses.remove(parameterKeys);
-    // Try to put it in.
-    cachedResponses.putIfAbsent(parameterKeys, responseText);
-    // This is inherently NOT thread-safe, but in cases where this
-    // comes up, we don't really care: some other thread put a response
-    // value in at or around the same time we removed and tried to put.
-    // If out put returns their value, then w/e. If it returns null, then
-    // we can assume ours was there first.
+    responseCache.put(parameterKeys, responseText);
   }
   
   /**
-   * Clears all cached responses (in memory and on disk).
+   * Clears all cached responses.
    */
   public void clearCachedResponses()
   {
-    // Brand new one, let the old one get garbage collected.
-    cachedResponses = new ConcurrentHashMap<>();
+    responseCache.invalidateAll();
+  }
+
+  /**
+   * Returns the bounded response cache backing 
+   * {@link #getCachedResponse(String)}, which additionally supports
+   * coalesced rendering and invalidation by entity type.
+   */
+  public ResponseCache getResponseCache()
+  {
+    return responseCache;
   }
 
   /**
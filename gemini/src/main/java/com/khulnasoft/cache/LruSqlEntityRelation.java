@@ -36,14 +36,62 @@ public class LruSqlEntityRelation<L extends Identifiable, R extends Identifiable
   private final Cache<Long, Set<Long>> rightMap;
   private final Collection<CachedRelationListener> listeners = new ArrayList<>();
 
+  /**
+   * Whether empty results are cached.  Without this, every lookup of a value that has no mappings
+   * goes to the database.
+   */
+  private final boolean cacheEmptySets;
+
   /**
    * Constructor.
    */
   protected LruSqlEntityRelation(EntityStore store, Class<L> leftType, Class<R> rightType,
       String tableName, String leftColumn, String rightColumn, int lruCacheSize) {
+    this(store, leftType, rightType, tableName, leftColumn, rightColumn, lruCacheSize, 0L, true);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param lruCacheWeight if greater than zero, the caches are bounded by the total number of IDs
+   *     they hold (plus one per entry) rather than by their number of entries, which keeps a few
+   *     very large sets from occupying unbounded memory.
+   * @param cacheEmptySets whether lookups yielding no mappings should be cached.
+   */
+  protected LruSqlEntityRelation(EntityStore store, Class<L> leftType, Class<R> rightType,
+      String tableName, String leftColumn, String rightColumn, int lruCacheSize,
+      long lruCacheWeight, boolean cacheEmptySets) {
     super(store, leftType, rightType, tableName, leftColumn, rightColumn);
-    this.leftMap = CacheBuilder.newBuilder().maximumSize(lruCacheSize).build();
-    this.rightMap = CacheBuilder.newBuilder().maximumSize(lruCacheSize).build();
+    this.leftMap = newCache(lruCacheSize, lruCacheWeight);
+    this.rightMap = newCache(lruCacheSize, lruCacheWeight);
+    this.cacheEmptySets = cacheEmptySets;
+  }
+
+  private static Cache<Long, Set<Long>> newCache(int lruCacheSize, long lruCacheWeight) {
+    final CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().recordStats();
+    if (lruCacheWeight > 0) {
+      return builder
+          .maximumWeight(lruCacheWeight)
+          .weigher((Long key, Set<Long> value) -> value.size() + 1)
+          .build();
+    }
+    return builder.maximumSize(lruCacheSize).build();
+  }
+
+  /**
+   * Caches a result read from the database.  Cached sets are unmodifiable since they are shared
+   * between all callers.
+   */
+  private Set<Long> cache(Cache<Long, Set<Long>> map, long key, Set<Long> values) {
+    if (values.isEmpty()) {
+      if (this.cacheEmptySets) {
+        map.put(key, Collections.emptySet());
+      }
+      return values;
+    }
+    final Set<Long> unmodifiable = Collections.unmodifiableSet(values);
+    map.put(key, unmodifiable);
+    return unmodifiable;
   }
 
   /**
@@ -55,12 +103,65 @@ public class LruSqlEntityRelation<L extends Identifiable, R extends Identifiable
     if (rightSet != null) {
       return rightSet;
     } else {
-      rightSet = super.rightIDs(leftID);
-      if (!rightSet.isEmpty()) {
-        leftMap.put(leftID, rightSet);
+      return cache(leftMap, leftID, super.rightIDs(leftID));
+    }
+  }
+
+  /**
+   * Satisfies as many of the requested left IDs as possible from the LRU cache, then fetches all
+   * of the remainder from the database in a single round trip and caches them.
+   */
+  @Override
+  public Map<Long, Set<Long>> rightIDsForMany(long... leftIDs) {
+    return forMany(leftMap, leftIDs, true);
+  }
+
+  /**
+   * Satisfies as many of the requested right IDs as possible from the LRU cache, then fetches all
+   * of the remainder from the database in a single round trip and caches them.
+   */
+  @Override
+  public Map<Long, Set<Long>> leftIDsForMany(long... rightIDs) {
+    return forMany(rightMap, rightIDs, false);
+  }
+
+  private Map<Long, Set<Long>> forMany(Cache<Long, Set<Long>> map, long[] keys, boolean left) {
+    final Map<Long, Set<Long>> result = new HashMap<>(keys.length * 2);
+    final long[] misses = new long[keys.length];
+    int missCount = 0;
+    for (long key : keys) {
+      if (!result.containsKey(key)) {
+        final Set<Long> cached = map.getIfPresent(key);
+        result.put(key, cached);
+        if (cached == null) {
+          misses[missCount++] = key;
+        }
+      }
+    }
+    if (missCount > 0) {
+      final long[] toFetch = Arrays.copyOf(misses, missCount);
+      final Map<Long, Set<Long>> fetched = left
+          ? super.rightIDsForMany(toFetch)
+          : super.leftIDsForMany(toFetch);
+      for (Map.Entry<Long, Set<Long>> entry : fetched.entrySet()) {
+        result.put(entry.getKey(), cache(map, entry.getKey(), entry.getValue()));
       }
-      return rightSet;
     }
+    return result;
+  }
+
+  /**
+   * Returns hit and miss statistics for the left-to-right cache.
+   */
+  public CacheStats leftCacheStats() {
+    return this.leftMap.stats();
+  }
+
+  /**
+   * Returns hit and miss statistics for the right-to-left cache.
+   */
+  public CacheStats rightCacheStats() {
+    return this.rightMap.stats();
   }
 
   /**
@@ -72,11 +173,7 @@ public class LruSqlEntityRelation<L extends Identifiable, R extends Identifiable
     if (leftSet != null) {
       return leftSet;
     } else {
-      leftSet = super.leftIDs(rightID);
-      if (!leftSet.isEmpty()) {
-        rightMap.put(rightID, leftSet);
-      }
-      return leftSet;
+      return cache(rightMap, rightID, super.leftIDs(rightID));
     }
   }
 
@@ -117,17 +214,16 @@ public class LruSqlEntityRelation<L extends Identifiable, R extends Identifiable
     boolean toReturn = false; // Not important for this to be strictly accurate.
     // Invalidate relevant values in our LRU cache.
     Set<Long> rightValues = this.leftMap.getIfPresent(leftID);
-    if (rightValues != null && !rightValues.isEmpty()) {
-      for (Long rightId : rightValues) {
-        Set<Long> leftValues = this.rightMap.getIfPresent(rightId);
-        leftValues.remove(leftID);
-        if (leftValues.isEmpty()) {
-          this.rightMap.invalidate(rightId);
-        }
-      }
-      this.leftMap.invalidate(leftID);
+    if (rightValues == null) {
+      // We don't know which reverse entries mention this value, so find them in the reverse cache.
+      // The database cannot be asked because a peer may already have removed the rows.
+      this.rightMap.asMap().values().removeIf(values -> values.contains(leftID));
+    } else if (!rightValues.isEmpty()) {
+      // The reverse entries are shared and unmodifiable, so drop them rather than editing them.
+      this.rightMap.invalidateAll(rightValues);
       toReturn = true;
     }
+    this.leftMap.invalidate(leftID);
     if (updateDatabase) {
       toReturn = super.removeLeftValue(leftID);
     }
@@ -156,17 +252,16 @@ public class LruSqlEntityRelation<L extends Identifiable, R extends Identifiable
     boolean toReturn = false; // Not important for this to be strictly accurate.
     // Invalidate relevant values in our LRU cache.
     Set<Long> leftValues = this.rightMap.getIfPresent(rightID);
-    if (leftValues != null && !leftValues.isEmpty()) {
-      for (Long leftId : leftValues) {
-        Set<Long> rightValues = this.leftMap.getIfPresent(leftId);
-        rightValues.remove(rightID);
-        if (rightValues.isEmpty()) {
-          this.leftMap.invalidate(leftId);
-        }
-      }
-      this.rightMap.invalidate(rightID);
+    if (leftValues == null) {
+      // We don't know which reverse entries mention this value, so find them in the reverse cache.
+      // The database cannot be asked because a peer may already have removed the rows.
+      this.leftMap.asMap().values().removeIf(values -> values.contains(rightID));
+    } else if (!leftValues.isEmpty()) {
+      // The reverse entries are shared and unmodifiable, so drop them rather than editing them.
+      this.leftMap.invalidateAll(leftValues);
       toReturn = true;
     }
+    this.rightMap.invalidate(rightID);
     if (updateDatabase) {
       toReturn = super.removeRightValue(rightID);
     }
@@ -415,6 +510,8 @@ public class LruSqlEntityRelation<L extends Identifiable, R extends Identifiable
      */
     public static final int DEFAULT_SIZE = 10000;
     protected int lruCacheSize = DEFAULT_SIZE;
+    protected long lruCacheWeight = 0L;
+    protected boolean cacheEmptySets = true;
 
     /**
      * Returns a new builder of {@link LruSqlEntityRelation} instances.
@@ -430,7 +527,8 @@ public class LruSqlEntityRelation<L extends Identifiable, R extends Identifiable
     public LruSqlEntityRelation<L, R> build(EntityStore store) {
       Objects.requireNonNull(store);
       return new LruSqlEntityRelation<>(store, this.leftType, this.rightType, this.table,
-          this.leftColumn, this.rightColumn, this.lruCacheSize);
+          this.leftColumn, this.rightColumn, this.lruCacheSize, this.lruCacheWeight,
+          this.cacheEmptySets);
     }
 
     /**
@@ -440,6 +538,23 @@ public class LruSqlEntityRelation<L extends Identifiable, R extends Identifiable
       this.lruCacheSize = size;
       return this;
     }
+
+    /**
+     * Bounds each LRU cache by the total number of IDs held rather than by its number of entries.
+     * When set to a positive value, this takes precedence over {@link #lruCacheSize(int)}.
+     */
+    public Builder<L, R> lruCacheWeight(long weight) {
+      this.lruCacheWeight = weight;
+      return this;
+    }
+
+    /**
+     * Whether lookups that find no mappings are cached.  Defaults to true.
+     */
+    public Builder<L, R> cacheEmptySets(boolean cacheEmptySets) {
+      this.cacheEmptySets = cacheEmptySets;
+      return this;
+    }
   }
 
 }
@@ -0,0 +1,352 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.cache;
+
+import java.util.*;
+import java.util.function.*;
+
+import com.khulnasoft.util.*;
+
+/**
+ * A named, filtered and sorted view of the entities of a {@link CacheGroup},
+ * maintained incrementally as the group changes.  Views are registered with
+ * {@link CacheGroup#registerView(String, Predicate, Comparator)}:
+ *   <p>
+ * <pre>
+ *   MaterializedView&lt;Item&gt; active = itemGroup.registerView("active-by-score",
+ *       Item::isActive, Comparator.comparingInt(Item::getScore).reversed());
+ *   ...
+ *   List&lt;Item&gt; top = active.page(0, 20);
+ * </pre>
+ *   <p>
+ * A view is a CacheListener on the group's EntityStore.  When an entity is
+ * put or refreshed, its previous position is removed and it is re-inserted
+ * by binary search if it still passes the filter; when it is removed it is
+ * dropped; and when the group or the entire cache is reset, the view is
+ * marked stale and rebuilt from the group on next read.  Because the
+ * CacheMessageManager notifies local listeners after applying changes
+ * received from peers, views also follow cluster invalidations.
+ *   <p>
+ * Reads never lock: the view's contents are an immutable array that is
+ * replaced as a whole on each change, so {@link #list()} is O(1) and
+ * {@link #page(int, int)} is O(k).  Changes are applied under the view's
+ * monitor and cost O(n) to copy the array, which suits groups that are read
+ * far more often than they are written.
+ */
+public class MaterializedView<T extends Identifiable>
+  implements CacheListener
+{
+
+  //
+  // Constants.
+  //
+
+  private static final Object[] EMPTY = new Object[0];
+
+  //
+  // Member variables.
+  //
+
+  private final CacheGroup<T>          group;
+  private final String                 name;
+  private final Predicate<? super T>   filter;
+  private final Comparator<? super T>  order;
+  private volatile Object[]            contents = null;
+  private volatile long                updates = 0L;
+  private volatile long                rebuilds = 0L;
+
+  //
+  // Member methods.
+  //
+
+  /**
+   * Constructor.  Use {@link CacheGroup#registerView}.
+   */
+  protected MaterializedView(CacheGroup<T> group, String name,
+      Predicate<? super T> filter, Comparator<? super T> order)
+  {
+    this.group = group;
+    this.name = name;
+    this.filter = (filter != null ? filter : entity -> true);
+    this.order = Objects.requireNonNull(order, "Order cannot be null.");
+  }
+
+  /**
+   * Gets the name of this view.
+   */
+  public String getName()
+  {
+    return this.name;
+  }
+
+  /**
+   * Gets the group this is a view of.
+   */
+  public CacheGroup<T> getGroup()
+  {
+    return this.group;
+  }
+
+  /**
+   * Gets the current contents of the view as an immutable list.  The list
+   * does not change as the view is updated.
+   */
+  @SuppressWarnings("unchecked")
+  public List<T> list()
+  {
+    return (List<T>)(List<?>)Collections.unmodifiableList(Arrays.asList(snapshot()));
+  }
+
+  /**
+   * Gets up to count entities starting at offset.
+   */
+  @SuppressWarnings("unchecked")
+  public List<T> page(int offset, int count)
+  {
+    final Object[] current = snapshot();
+    final int from = Math.max(0, Math.min(offset, current.length));
+    final int to = Math.min(current.length, from + Math.max(0, count));
+    final List<T> result = new ArrayList<>(to - from);
+    for (int i = from; i < to; i++)
+    {
+      result.add((T)current[i]);
+    }
+    return result;
+  }
+
+  /**
+   * Gets the entity at a position in the view, or null if there is none.
+   */
+  @SuppressWarnings("unchecked")
+  public T get(int index)
+  {
+    final Object[] current = snapshot();
+    return (index >= 0 && index < current.length) ? (T)current[index] : null;
+  }
+
+  /**
+   * Gets the number of entities in the view.
+   */
+  public int size()
+  {
+    return snapshot().length;
+  }
+
+  /**
+   * Gets the position of an entity in the view, or -1 if it is not present.
+   */
+  public int indexOf(long id)
+  {
+    return indexOf(snapshot(), id);
+  }
+
+  /**
+   * Gets an estimate of the memory retained by the view itself, in bytes: 
+   * its array of references.  The entities are shared with the group and 
+   * are not counted.
+   */
+  public long getEstimatedBytes()
+  {
+    final Object[] current = this.contents;
+    return current == null ? 0L : 16L + 8L * current.length;
+  }
+
+  /**
+   * Gets the number of incremental changes applied to the view.
+   */
+  public long getUpdateCount()
+  {
+    return this.updates;
+  }
+
+  /**
+   * Gets the number of times the view has been rebuilt from its group.
+   */
+  public long getRebuildCount()
+  {
+    return this.rebuilds;
+  }
+
+  /**
+   * Marks the view stale so that it is rebuilt on next read.
+   */
+  public synchronized void invalidate()
+  {
+    this.contents = null;
+  }
+
+  @Override
+  public void cacheFullReset()
+  {
+    invalidate();
+  }
+
+  @Override
+  public <C extends Identifiable> void cacheTypeReset(Class<C> type)
+  {
+    if (type == this.group.type())
+    {
+      invalidate();
+    }
+  }
+
+  @Override
+  public <C extends Identifiable> void cacheObjectExpired(Class<C> type, long identifier)
+  {
+    if (type == this.group.type())
+    {
+      update(identifier, this.group.get(identifier));
+    }
+  }
+
+  @Override
+  public <C extends Identifiable> void removeFromCache(Class<C> type, long identifier)
+  {
+    if (type == this.group.type())
+    {
+      update(identifier, null);
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    final Object[] current = this.contents;
+    return "MaterializedView [" + this.group.name() + "/" + this.name
+        + "; size: " + (current == null ? "stale" : current.length)
+        + "; updates: " + this.updates
+        + "; rebuilds: " + this.rebuilds + "]";
+  }
+
+  /**
+   * Gets the current contents, rebuilding them from the group if the view
+   * is stale.
+   */
+  private Object[] snapshot()
+  {
+    final Object[] current = this.contents;
+    return current != null ? current : rebuild();
+  }
+
+  /**
+   * Rebuilds the view from the group.
+   */
+  private synchronized Object[] rebuild()
+  {
+    if (this.contents != null)
+    {
+      return this.contents;
+    }
+    final List<T> matching = new ArrayList<>();
+    for (T entity : this.group.list())
+    {
+      if (this.filter.test(entity))
+      {
+        matching.add(entity);
+      }
+    }
+    matching.sort(this.order);
+    this.contents = matching.toArray();
+    this.rebuilds++;
+    return this.contents;
+  }
+
+  /**
+   * Replaces an entity's position in the view with its current state, or
+   * removes it if entity is null or no longer passes the filter.  Entities 
+   * may have been modified in place, so their previous position is found by
+   * identity rather than by binary search.
+   */
+  @SuppressWarnings("unchecked")
+  private synchronized void update(long id, T entity)
+  {
+    final Object[] current = this.contents;
+    if (current == null)
+    {
+      // Stale; the next read rebuilds from the group's current state.
+      return;
+    }
+
+    final int previous = indexOf(current, id);
+    final boolean include = entity != null && this.filter.test(entity);
+    if (previous < 0 && !include)
+    {
+      return;
+    }
+
+    // Remove the previous position.
+    Object[] next = current;
+    if (previous >= 0)
+    {
+      next = (current.length == 1) ? EMPTY : new Object[current.length - 1];
+      System.arraycopy(current, 0, next, 0, previous);
+      System.arraycopy(current, previous + 1, next, previous, 
+          current.length - previous - 1);
+    }
+
+    // Insert at the entity's new position.
+    if (include)
+    {
+      int low = 0;
+      int high = next.length;
+      while (low < high)
+      {
+        final int mid = (low + high) >>> 1;
+        if (this.order.compare((T)next[mid], entity) <= 0)
+        {
+          low = mid + 1;
+        }
+        else
+        {
+          high = mid;
+        }
+      }
+      final Object[] inserted = new Object[next.length + 1];
+      System.arraycopy(next, 0, inserted, 0, low);
+      inserted[low] = entity;
+      System.arraycopy(next, low, inserted, low + 1, next.length - low);
+      next = inserted;
+    }
+
+    this.contents = next;
+    this.updates++;
+  }
+
+  private static int indexOf(Object[] array, long id)
+  {
+    for (int i = 0; i < array.length; i++)
+    {
+      if (((Identifiable)array[i]).getId() == id)
+      {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+}   // End MaterializedView.
@@ -32,10 +32,10 @@ import gnu.trove.map.hash.*;
 import gnu.trove.set.*;
 import gnu.trove.set.hash.*;
 
-import java.lang.reflect.*;
 import java.util.*;
 import java.util.concurrent.locks.*;
 
+import com.khulnasoft.reflect.*;
 import com.khulnasoft.util.*;
 
 /**
@@ -63,7 +63,7 @@ public class MethodValueCache<T extends Identifiable>
       = new HashMap<>();
   private final Map<String, TLongObjectMap<Object>> mapMethodNameToIdToValue
       = new HashMap<>();
-  private final Map<String, Method> mapMethodNameToMethod 
+  private final Map<String, Accessor> mapMethodNameToAccessor 
       = new HashMap<>();
   private boolean loaded = false;
   
@@ -99,7 +99,7 @@ public class MethodValueCache<T extends Identifiable>
     this.lock.writeLock().lock();
     try
     {
-      for (String methodName : this.mapMethodNameToMethod.keySet())
+      for (String methodName : this.mapMethodNameToAccessor.keySet())
       {
         TLongObjectMap<Object> mapIdToValue = this.mapMethodNameToIdToValue.get(methodName);
         Map<Object, TLongSet> mapValueToIds = this.mapMethodNameToValueToIds.get(methodName);
@@ -276,7 +276,7 @@ public class MethodValueCache<T extends Identifiable>
       T object = this.cache.get(this.type, id);
       
       // Clear out the previous id/value mappings.
-      for (String methodName : this.mapMethodNameToMethod.keySet())
+      for (String methodName : this.mapMethodNameToAccessor.keySet())
       {
         TLongObjectMap<Object> mapIdToValue = this.mapMethodNameToIdToValue.get(methodName);
         Map<Object, TLongSet> mapValueToIds = this.mapMethodNameToValueToIds.get(methodName);
@@ -322,19 +322,12 @@ public class MethodValueCache<T extends Identifiable>
    */
   protected void addMethod(String methodName)
   {
-    try
-    {
-      Method method = this.type.getMethod(methodName);
-      this.mapMethodNameToMethod.put(methodName, method);
-      this.mapMethodNameToValueToIds.put(methodName, new HashMap<Object, TLongSet>());
-      this.mapMethodNameToIdToValue.put(methodName, new TLongObjectHashMap<>());
-      
-      indexMethod(methodName);
-    }
-    catch (NoSuchMethodException e)
-    {
-      throw new IllegalArgumentException(e);
-    }
+    Accessor accessor = Accessor.method(this.type, methodName);
+    this.mapMethodNameToAccessor.put(methodName, accessor);
+    this.mapMethodNameToValueToIds.put(methodName, new HashMap<Object, TLongSet>());
+    this.mapMethodNameToIdToValue.put(methodName, new TLongObjectHashMap<>());
+    
+    indexMethod(methodName);
   }
 
   /**
@@ -367,9 +360,10 @@ public class MethodValueCache<T extends Identifiable>
       mapValueToIds.clear();
     }
     
+    Accessor accessor = this.mapMethodNameToAccessor.get(methodName);
     for (T object : this.cache.list(this.type))
     {
-      Object value = invokeMethod(object, methodName);
+      Object value = invokeMethod(object, accessor);
       long id = object.getId();
       mapIdToValue.put(id, value);
 
@@ -391,16 +385,21 @@ public class MethodValueCache<T extends Identifiable>
    * @return The return value of the invoked method.
    */
   protected Object invokeMethod(T object, String methodName)
+  {
+    return invokeMethod(object, this.mapMethodNameToAccessor.get(methodName));
+  }
+  
+  /**
+   * Reads a value from the given object through an accessor.  Returns null
+   * if the underlying method throws.
+   */
+  private static Object invokeMethod(Object object, Accessor accessor)
   {
     try
     {
-      return this.mapMethodNameToMethod.get(methodName).invoke(object);
-    }
-    catch (IllegalAccessException e)
-    {
-      return null;
+      return accessor.get(object);
     }
-    catch (InvocationTargetException e)
+    catch (RuntimeException e)
     {
       return null;
     }
@@ -420,7 +419,7 @@ public class MethodValueCache<T extends Identifiable>
         return;
       }
       
-      for (String methodName : this.mapMethodNameToMethod.keySet())
+      for (String methodName : this.mapMethodNameToAccessor.keySet())
       {
         indexMethod(methodName);
       }
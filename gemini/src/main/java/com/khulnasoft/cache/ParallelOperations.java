@@ -0,0 +1,897 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.cache;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+import org.slf4j.*;
+
+/**
+ * Runs group-wide sorts, filters and map-reduce operations over large lists
+ * of entities, in parallel on a ForkJoinPool once a list reaches a size
+ * threshold and sequentially below it.  An {@link EntityStore} owns one
+ * instance; see {@link EntityStore#getParallelOperations()}.  The store uses
+ * it for {@link EntityStore#sortedList}, {@link EntityStore#filter} and
+ * {@link EntityStore#mapReduce}, and groups use it to order the rows they
+ * load (which is how a CacheGroup builds its ordered list).
+ *   <p>
+ * Operations split a snapshot of the list into chunks of a configurable
+ * size.  Sorts order each chunk with Arrays.sort and merge the chunks
+ * pairwise; a merge larger than a chunk is itself split around a pivot
+ * found by binary search and merged in parallel, leaving only the copy
+ * back from the scratch array serial at each level.  Both steps are
+ * stable, so results match a sequential Collections.sort.  The sort is
+ * written out here, rather than left to Arrays.parallelSort, so that it
+ * runs on the configured pool with the configured chunk size and checks
+ * for cancellation between comparisons.
+ *   <p>
+ * Parallel work is cooperatively cancellable.  Workers periodically check a
+ * {@link Cancellation}: by default, the one bound to the calling thread by
+ * {@link Cancellation#bind()}, or failing that, the interrupt status of
+ * the calling thread.  So an abandoned request stops burning cores once
+ * its thread is interrupted or its bound Cancellation is cancelled or
+ * times out.  A cancelled operation throws CancellationException.
+ *   <p>
+ * Every operation is counted by name, recording whether it ran in parallel
+ * and how long it took; see {@link #getStatistics()}.  Parallel runs are
+ * also logged at debug level.
+ *   <p>
+ * Configurable options:
+ * <ul>
+ *   <li>EntityStore.Parallel.Threshold - The number of elements at or above
+ *       which operations run in parallel.  Defaults to
+ *       EntityStore.QueryParallelThreshold.</li>
+ *   <li>EntityStore.Parallel.Threads - The parallelism of a dedicated pool
+ *       for these operations.  Default 0, which uses the common ForkJoin
+ *       pool.</li>
+ *   <li>EntityStore.Parallel.ChunkSize - The number of elements processed
+ *       by each task.  Default 8192.</li>
+ * </ul>
+ */
+public class ParallelOperations
+{
+
+  //
+  // Constants.
+  //
+
+  public static final int DEFAULT_THRESHOLD  = EntityStore.DEFAULT_QUERY_PARALLEL_THRESHOLD;
+  public static final int DEFAULT_CHUNK_SIZE = 8192;
+
+  /**
+   * Each task checks for cancellation once per this many elements or 
+   * comparisons it has processed.  Must be a power of two less one.
+   */
+  private static final int CHECK_MASK = 4095;
+
+  //
+  // Member variables.
+  //
+
+  private final Logger log = LoggerFactory.getLogger(getClass());
+  private final ConcurrentMap<String, Statistics> statistics = new ConcurrentHashMap<>();
+
+  private volatile ForkJoinPool pool      = ForkJoinPool.commonPool();
+  private volatile int          threshold = DEFAULT_THRESHOLD;
+  private volatile int          chunkSize = DEFAULT_CHUNK_SIZE;
+
+  //
+  // Member methods.
+  //
+
+  /**
+   * Configures the thresholds and pool.  A previously created dedicated
+   * pool is shut down once its running operations complete.
+   *
+   * @param threshold The number of elements at or above which operations
+   *        run in parallel.
+   * @param threads The parallelism of a dedicated pool, or 0 to use the
+   *        common ForkJoin pool.
+   * @param chunkSize The number of elements per task.
+   */
+  public void configure(int threshold, int threads, int chunkSize)
+  {
+    this.threshold = threshold;
+    this.chunkSize = Math.max(1, chunkSize);
+
+    final ForkJoinPool previous = this.pool;
+    this.pool = (threads > 0) 
+        ? new ForkJoinPool(threads) 
+        : ForkJoinPool.commonPool();
+    if (previous != ForkJoinPool.commonPool())
+    {
+      previous.shutdown();
+    }
+  }
+
+  /**
+   * Gets the number of elements at or above which operations run in
+   * parallel.
+   */
+  public int getThreshold()
+  {
+    return this.threshold;
+  }
+
+  /**
+   * Gets the number of elements per task.
+   */
+  public int getChunkSize()
+  {
+    return this.chunkSize;
+  }
+
+  /**
+   * Gets the parallelism of the pool used for parallel operations.
+   */
+  public int getParallelism()
+  {
+    return this.pool.getParallelism();
+  }
+
+  /**
+   * Returns true if an operation over the given number of elements would
+   * run in parallel.
+   */
+  public boolean isParallel(int size)
+  {
+    return (size >= this.threshold) && (this.pool.getParallelism() > 1);
+  }
+
+  /**
+   * Sorts a list in place.  The sort is cancellable through the calling
+   * thread's Cancellation; see {@link Cancellation#current()}.
+   *
+   * @param operation A name for the operation, for statistics.
+   * @param list The list to sort.
+   * @param comparator The order.
+   */
+  public <T> void sort(String operation, List<T> list, 
+      Comparator<? super T> comparator)
+  {
+    sort(operation, list, comparator, Cancellation.current());
+  }
+
+  /**
+   * Sorts a list in place.
+   *
+   * @param operation A name for the operation, for statistics.
+   * @param list The list to sort.
+   * @param comparator The order.
+   * @param cancellation A Cancellation to check while sorting, or null if 
+   *        the sort should not be cancellable.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> void sort(String operation, List<T> list, 
+      Comparator<? super T> comparator, Cancellation cancellation)
+  {
+    final int size = list.size();
+    if (!isParallel(size))
+    {
+      final long start = System.nanoTime();
+      list.sort(comparator);
+      statisticsFor(operation).sequential(size, System.nanoTime() - start);
+      return;
+    }
+
+    final Run run = new Run(cancellation);
+    final T[] array = (T[])list.toArray();
+    runParallel(operation, size, run, new MergeSort<T>(array, 
+        (T[])new Object[size], comparator, run, this.chunkSize, 0, size));
+
+    final ListIterator<T> iterator = list.listIterator();
+    for (T element : array)
+    {
+      iterator.next();
+      iterator.set(element);
+    }
+  }
+
+  /**
+   * Returns the elements of a collection that pass a filter, in their
+   * original order.  Cancellable through the calling thread's Cancellation.
+   *
+   * @param operation A name for the operation, for statistics.
+   * @param source The elements to filter.
+   * @param predicate The filter.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> List<T> filter(String operation, Collection<? extends T> source,
+      Predicate<? super T> predicate)
+  {
+    final int size = source.size();
+    if (!isParallel(size))
+    {
+      final long start = System.nanoTime();
+      final List<T> result = new ArrayList<>();
+      for (T element : source)
+      {
+        if (predicate.test(element))
+        {
+          result.add(element);
+        }
+      }
+      statisticsFor(operation).sequential(size, System.nanoTime() - start);
+      return result;
+    }
+
+    final Object[] items = source.toArray();
+    final Run run = new Run(Cancellation.current());
+    final List<Object[]> segments = runParallel(operation, size, run,
+        new Chunks<List<Object[]>>(items, this.chunkSize, run,
+            (from, to) -> {
+              final List<Object> passed = new ArrayList<>();
+              int ticks = 0;
+              for (int i = from; i < to; i++)
+              {
+                run.tick(++ticks);
+                if (predicate.test((T)items[i]))
+                {
+                  passed.add(items[i]);
+                }
+              }
+              return Collections.singletonList(passed.toArray());
+            },
+            (left, right) -> {
+              final List<Object[]> joined = new ArrayList<>(left.size() + right.size());
+              joined.addAll(left);
+              joined.addAll(right);
+              return joined;
+            }));
+
+    int total = 0;
+    for (Object[] segment : segments)
+    {
+      total += segment.length;
+    }
+    final List<T> result = new ArrayList<>(total);
+    for (Object[] segment : segments)
+    {
+      result.addAll((List<T>)Arrays.asList(segment));
+    }
+    return result;
+  }
+
+  /**
+   * Maps each element of a collection to a value and reduces the values.
+   * The reducer must be associative and the identity must be an identity
+   * for it, because chunks are reduced independently and then combined.
+   * Cancellable through the calling thread's Cancellation.
+   *
+   * @param operation A name for the operation, for statistics.
+   * @param source The elements to map.
+   * @param mapper Maps an element to a value.
+   * @param identity The identity value of the reducer.
+   * @param reducer Combines two values.
+   */
+  @SuppressWarnings("unchecked")
+  public <T, R> R mapReduce(String operation, Collection<? extends T> source,
+      Function<? super T, ? extends R> mapper, R identity, 
+      BinaryOperator<R> reducer)
+  {
+    final int size = source.size();
+    if (!isParallel(size))
+    {
+      final long start = System.nanoTime();
+      R result = identity;
+      for (T element : source)
+      {
+        result = reducer.apply(result, mapper.apply(element));
+      }
+      statisticsFor(operation).sequential(size, System.nanoTime() - start);
+      return result;
+    }
+
+    final Object[] items = source.toArray();
+    final Run run = new Run(Cancellation.current());
+    return runParallel(operation, size, run,
+        new Chunks<R>(items, this.chunkSize, run,
+            (from, to) -> {
+              R result = identity;
+              int ticks = 0;
+              for (int i = from; i < to; i++)
+              {
+                run.tick(++ticks);
+                result = reducer.apply(result, mapper.apply((T)items[i]));
+              }
+              return result;
+            },
+            reducer));
+  }
+
+  /**
+   * Returns statistics, keyed by operation name.
+   */
+  public Map<String, Statistics> getStatistics()
+  {
+    return new HashMap<>(this.statistics);
+  }
+
+  /**
+   * Clears the statistics.
+   */
+  public void resetStatistics()
+  {
+    this.statistics.clear();
+  }
+
+  /**
+   * Runs a task on the pool, recording statistics.
+   */
+  private <R> R runParallel(String operation, int size, Run run, 
+      ForkJoinTask<R> task)
+  {
+    final ForkJoinPool executor = this.pool;
+    final long start = System.nanoTime();
+    try
+    {
+      run.check();
+      final R result = executor.invoke(task);
+      // Tasks check only periodically, so a cancellation requested after
+      // the last check would otherwise go unnoticed.
+      run.check();
+      final long elapsed = System.nanoTime() - start;
+      statisticsFor(operation).parallel(size, elapsed);
+      log.debug("{} ran in parallel over {} elements on {} threads in {}ms.",
+          operation, size, executor.getParallelism(), 
+          TimeUnit.NANOSECONDS.toMillis(elapsed));
+      return result;
+    }
+    catch (CancellationException exc)
+    {
+      statisticsFor(operation).cancelled();
+      log.debug("{} cancelled after {}ms.", operation, 
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      throw exc;
+    }
+  }
+
+  private Statistics statisticsFor(String operation)
+  {
+    final Statistics stats = this.statistics.get(operation);
+    return stats != null
+        ? stats
+        : this.statistics.computeIfAbsent(operation, o -> new Statistics());
+  }
+
+  //
+  // Inner classes.
+  //
+
+  /**
+   * A cooperative cancellation signal for parallel operations.  Request 
+   * code can create one, bind it to the request thread for the duration of
+   * the work that might be abandoned, and cancel it from elsewhere (or give
+   * it a timeout):
+   *   <p>
+   * <pre>
+   *   Cancellation cancellation = new Cancellation(30, TimeUnit.SECONDS);
+   *   cancellation.bind();
+   *   try
+   *   {
+   *     return store.sortedList(Order.class, "getTotal", BY_METHOD);
+   *   }
+   *   finally
+   *   {
+   *     cancellation.unbind();
+   *   }
+   * </pre>
+   */
+  public static final class Cancellation
+  {
+    private static final ThreadLocal<Cancellation> BOUND = new ThreadLocal<>();
+
+    private final Thread   watched;
+    private final long     deadline;
+    private final boolean  timed;
+    private volatile boolean cancelled;
+
+    /**
+     * Creates a Cancellation that is cancelled only by {@link #cancel()}.
+     */
+    public Cancellation()
+    {
+      this(null, 0L, false);
+    }
+
+    /**
+     * Creates a Cancellation that is also cancelled once a timeout elapses.
+     */
+    public Cancellation(long timeout, TimeUnit unit)
+    {
+      this(null, System.nanoTime() + unit.toNanos(timeout), true);
+    }
+
+    private Cancellation(Thread watched, long deadline, boolean timed)
+    {
+      this.watched = watched;
+      this.deadline = deadline;
+      this.timed = timed;
+    }
+
+    /**
+     * Gets the Cancellation bound to the current thread or, if none is
+     * bound, one that is cancelled when the current thread is interrupted.
+     */
+    public static Cancellation current()
+    {
+      final Cancellation bound = BOUND.get();
+      return (bound != null)
+          ? bound
+          : new Cancellation(Thread.currentThread(), 0L, false);
+    }
+
+    /**
+     * Binds this Cancellation to the current thread, so that operations
+     * started by the thread check it.
+     */
+    public void bind()
+    {
+      BOUND.set(this);
+    }
+
+    /**
+     * Unbinds this Cancellation from the current thread.
+     */
+    public void unbind()
+    {
+      if (BOUND.get() == this)
+      {
+        BOUND.remove();
+      }
+    }
+
+    /**
+     * Cancels operations checking this Cancellation.
+     */
+    public void cancel()
+    {
+      this.cancelled = true;
+    }
+
+    /**
+     * Returns true if this has been cancelled, has timed out, or watches a
+     * thread that has been interrupted.
+     */
+    public boolean isCancelled()
+    {
+      return this.cancelled
+          || (this.timed && System.nanoTime() - this.deadline >= 0)
+          || (this.watched != null && this.watched.isInterrupted());
+    }
+  }
+
+  /**
+   * Operation counts and timings for one operation name.
+   */
+  public static final class Statistics
+  {
+    private final AtomicLong sequential      = new AtomicLong();
+    private final AtomicLong parallel        = new AtomicLong();
+    private final AtomicLong cancelled       = new AtomicLong();
+    private final AtomicLong elements        = new AtomicLong();
+    private final AtomicLong sequentialNanos = new AtomicLong();
+    private final AtomicLong parallelNanos   = new AtomicLong();
+    private final LongAccumulator maxParallelNanos = new LongAccumulator(Math::max, 0L);
+
+    private void sequential(int size, long nanos)
+    {
+      this.sequential.incrementAndGet();
+      this.elements.addAndGet(size);
+      this.sequentialNanos.addAndGet(nanos);
+    }
+
+    private void parallel(int size, long nanos)
+    {
+      this.parallel.incrementAndGet();
+      this.elements.addAndGet(size);
+      this.parallelNanos.addAndGet(nanos);
+      this.maxParallelNanos.accumulate(nanos);
+    }
+
+    private void cancelled()
+    {
+      this.cancelled.incrementAndGet();
+    }
+
+    /**
+     * The number of runs below the threshold, run on the calling thread.
+     */
+    public long getSequentialCount()
+    {
+      return this.sequential.get();
+    }
+
+    /**
+     * The number of runs that completed in parallel.
+     */
+    public long getParallelCount()
+    {
+      return this.parallel.get();
+    }
+
+    /**
+     * The number of parallel runs that were cancelled.
+     */
+    public long getCancelledCount()
+    {
+      return this.cancelled.get();
+    }
+
+    /**
+     * The total number of elements processed by completed runs.
+     */
+    public long getElements()
+    {
+      return this.elements.get();
+    }
+
+    /**
+     * The total time spent in sequential runs, in milliseconds.
+     */
+    public long getSequentialMillis()
+    {
+      return TimeUnit.NANOSECONDS.toMillis(this.sequentialNanos.get());
+    }
+
+    /**
+     * The total time spent in parallel runs, in milliseconds.
+     */
+    public long getParallelMillis()
+    {
+      return TimeUnit.NANOSECONDS.toMillis(this.parallelNanos.get());
+    }
+
+    /**
+     * The longest parallel run, in milliseconds.
+     */
+    public long getMaxParallelMillis()
+    {
+      return TimeUnit.NANOSECONDS.toMillis(this.maxParallelNanos.get());
+    }
+
+    @Override
+    public String toString()
+    {
+      return "Statistics [sequential: " + getSequentialCount() 
+          + " (" + getSequentialMillis() + "ms); parallel: " + getParallelCount()
+          + " (" + getParallelMillis() + "ms, max " + getMaxParallelMillis()
+          + "ms); cancelled: " + getCancelledCount() 
+          + "; elements: " + getElements() + "]";
+    }
+  }
+
+  /**
+   * The state of one parallel run shared by its workers.  Each task counts
+   * its own elements and comparisons in a local variable and passes the
+   * count to tick, so no counter is shared between threads.
+   */
+  private static final class Run
+  {
+    private final Cancellation cancellation;
+
+    private Run(Cancellation cancellation)
+    {
+      this.cancellation = cancellation;
+    }
+
+    /**
+     * Returns true if the run can be cancelled, so that tasks need to count.
+     */
+    private boolean isCancellable()
+    {
+      return this.cancellation != null;
+    }
+
+    /**
+     * Checks for cancellation once per CHECK_MASK + 1 of a task's ticks.
+     *
+     * @param ticks The number of elements or comparisons the calling task
+     *        has processed so far.
+     */
+    private void tick(int ticks)
+    {
+      if ((ticks & CHECK_MASK) == 0)
+      {
+        check();
+      }
+    }
+
+    private void check()
+    {
+      if (this.cancellation != null && this.cancellation.isCancelled())
+      {
+        throw new CancellationException("Parallel operation cancelled.");
+      }
+    }
+  }
+
+  /**
+   * Processes a range of element chunks, splitting it in halves until one
+   * chunk remains.
+   */
+  private static final class Chunks<R>
+    extends RecursiveTask<R>
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final transient Object[]  items;
+    private final int                 chunkSize;
+    private final transient Run       run;
+    private final transient Leaf<R>   leaf;
+    private final transient BinaryOperator<R> combiner;
+    private final int                 fromChunk;
+    private final int                 toChunk;
+
+    private Chunks(Object[] items, int chunkSize, Run run, Leaf<R> leaf,
+        BinaryOperator<R> combiner)
+    {
+      this(items, chunkSize, run, leaf, combiner, 0, 
+          (items.length + chunkSize - 1) / chunkSize);
+    }
+
+    private Chunks(Object[] items, int chunkSize, Run run, Leaf<R> leaf,
+        BinaryOperator<R> combiner, int fromChunk, int toChunk)
+    {
+      this.items = items;
+      this.chunkSize = chunkSize;
+      this.run = run;
+      this.leaf = leaf;
+      this.combiner = combiner;
+      this.fromChunk = fromChunk;
+      this.toChunk = toChunk;
+    }
+
+    @Override
+    protected R compute()
+    {
+      if (this.toChunk - this.fromChunk <= 1)
+      {
+        this.run.check();
+        final int from = this.fromChunk * this.chunkSize;
+        final int to = Math.min(this.items.length, from + this.chunkSize);
+        return this.leaf.apply(from, to);
+      }
+
+      final int middle = (this.fromChunk + this.toChunk) >>> 1;
+      final Chunks<R> left = new Chunks<>(this.items, this.chunkSize, 
+          this.run, this.leaf, this.combiner, this.fromChunk, middle);
+      left.fork();
+      final R right = new Chunks<>(this.items, this.chunkSize, 
+          this.run, this.leaf, this.combiner, middle, this.toChunk).compute();
+      return this.combiner.apply(left.join(), right);
+    }
+  }
+
+  /**
+   * A stable merge sort that sorts chunks with Arrays.sort and merges
+   * adjacent ranges through a scratch array.
+   */
+  private static final class MergeSort<T>
+    extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final transient T[]   items;
+    private final transient T[]   scratch;
+    private final transient Comparator<? super T> comparator;
+    private final transient Run   run;
+    private final int             chunkSize;
+    private final int             from;
+    private final int             to;
+
+    private MergeSort(T[] items, T[] scratch, Comparator<? super T> comparator,
+        Run run, int chunkSize, int from, int to)
+    {
+      this.items = items;
+      this.scratch = scratch;
+      this.comparator = comparator;
+      this.run = run;
+      this.chunkSize = chunkSize;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute()
+    {
+      if (this.to - this.from <= this.chunkSize)
+      {
+        this.run.check();
+        if (this.run.isCancellable())
+        {
+          final int[] ticks = new int[1];
+          Arrays.sort(this.items, this.from, this.to, (o1, o2) -> {
+            this.run.tick(++ticks[0]);
+            return this.comparator.compare(o1, o2);
+          });
+        }
+        else
+        {
+          Arrays.sort(this.items, this.from, this.to, this.comparator);
+        }
+        return;
+      }
+
+      final int middle = (this.from + this.to) >>> 1;
+      invokeAll(
+          new MergeSort<>(this.items, this.scratch, this.comparator, 
+              this.run, this.chunkSize, this.from, middle),
+          new MergeSort<>(this.items, this.scratch, this.comparator, 
+              this.run, this.chunkSize, middle, this.to));
+
+      // Nothing to do if the ranges are already in order.
+      if (this.comparator.compare(this.items[middle - 1], this.items[middle]) <= 0)
+      {
+        return;
+      }
+      new Merge<>(this.items, this.scratch, this.comparator, this.run, 
+          this.chunkSize, this.from, middle, middle, this.to, this.from)
+          .compute();
+      System.arraycopy(this.scratch, this.from, this.items, this.from, 
+          this.to - this.from);
+    }
+  }
+
+  /**
+   * Stably merges two sorted ranges of an array into a scratch array, 
+   * preferring the left range on ties.  A merge of more than one chunk is
+   * split around the middle element of its longer range, with the matching
+   * position in the shorter range found by binary search, and the two 
+   * halves are merged in parallel.
+   */
+  private static final class Merge<T>
+    extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final transient T[]   items;
+    private final transient T[]   scratch;
+    private final transient Comparator<? super T> comparator;
+    private final transient Run   run;
+    private final int             chunkSize;
+    private final int             leftFrom;
+    private final int             leftTo;
+    private final int             rightFrom;
+    private final int             rightTo;
+    private final int             out;
+
+    private Merge(T[] items, T[] scratch, Comparator<? super T> comparator,
+        Run run, int chunkSize, int leftFrom, int leftTo, int rightFrom, 
+        int rightTo, int out)
+    {
+      this.items = items;
+      this.scratch = scratch;
+      this.comparator = comparator;
+      this.run = run;
+      this.chunkSize = chunkSize;
+      this.leftFrom = leftFrom;
+      this.leftTo = leftTo;
+      this.rightFrom = rightFrom;
+      this.rightTo = rightTo;
+      this.out = out;
+    }
+
+    @Override
+    protected void compute()
+    {
+      final int leftLength = this.leftTo - this.leftFrom;
+      final int rightLength = this.rightTo - this.rightFrom;
+      if (leftLength + rightLength <= this.chunkSize
+          || leftLength == 0 
+          || rightLength == 0)
+      {
+        merge();
+        return;
+      }
+
+      final int leftSplit;
+      final int rightSplit;
+      if (leftLength >= rightLength)
+      {
+        // Right elements equal to the pivot must follow it.
+        leftSplit = (this.leftFrom + this.leftTo) >>> 1;
+        rightSplit = search(this.items[leftSplit], this.rightFrom, 
+            this.rightTo, false);
+      }
+      else
+      {
+        // Left elements equal to the pivot must precede it.
+        rightSplit = (this.rightFrom + this.rightTo) >>> 1;
+        leftSplit = search(this.items[rightSplit], this.leftFrom, 
+            this.leftTo, true);
+      }
+      final int split = this.out + (leftSplit - this.leftFrom) 
+          + (rightSplit - this.rightFrom);
+      invokeAll(
+          new Merge<>(this.items, this.scratch, this.comparator, this.run,
+              this.chunkSize, this.leftFrom, leftSplit, this.rightFrom, 
+              rightSplit, this.out),
+          new Merge<>(this.items, this.scratch, this.comparator, this.run,
+              this.chunkSize, leftSplit, this.leftTo, rightSplit, 
+              this.rightTo, split));
+    }
+
+    /**
+     * Returns the first position in a sorted range holding an element 
+     * greater than the pivot, if inclusive, or otherwise not less than it.
+     */
+    private int search(T pivot, int low, int high, boolean inclusive)
+    {
+      while (low < high)
+      {
+        final int middle = (low + high) >>> 1;
+        final int comparison = this.comparator.compare(this.items[middle], pivot);
+        if (comparison < 0 || (inclusive && comparison == 0))
+        {
+          low = middle + 1;
+        }
+        else
+        {
+          high = middle;
+        }
+      }
+      return low;
+    }
+
+    private void merge()
+    {
+      this.run.check();
+      int left = this.leftFrom;
+      int right = this.rightFrom;
+      int position = this.out;
+      int ticks = 0;
+      while (left < this.leftTo && right < this.rightTo)
+      {
+        this.run.tick(++ticks);
+        this.scratch[position++] = 
+            (this.comparator.compare(this.items[right], this.items[left]) < 0)
+            ? this.items[right++]
+            : this.items[left++];
+      }
+      System.arraycopy(this.items, left, this.scratch, position, 
+          this.leftTo - left);
+      position += this.leftTo - left;
+      System.arraycopy(this.items, right, this.scratch, position, 
+          this.rightTo - right);
+    }
+  }
+
+  /**
+   * Processes the elements of one chunk.
+   */
+  @FunctionalInterface
+  private interface Leaf<R>
+  {
+    R apply(int from, int to);
+  }
+
+}   // End ParallelOperations.
@@ -0,0 +1,425 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.cache;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import com.google.common.cache.*;
+import com.khulnasoft.data.*;
+import com.khulnasoft.util.*;
+
+/**
+ * A cache-aside store for the results of arbitrary SQL queries run through
+ * {@link EntityGroup#cachedQuery(String, Object...)}.  Only the identities of
+ * the matching rows are retained; on a hit the entities are resolved through
+ * the group itself, so a {@link CacheGroup} or {@link LruCacheGroup} serves
+ * them from memory and the cached result can never hold stale copies of the
+ * objects.
+ *   <p>
+ * Each cached result depends on one or more entity types, by default only the
+ * type of the group that ran the query.  This class listens to the
+ * {@link EntityStore} and invalidates every result depending on a type as
+ * soon as any entity of that type is put, removed, or reset.  Because the
+ * CacheMessageManager notifies local listeners when it applies changes
+ * received from peers, invalidations propagate through the cluster without
+ * any additional messages.  Invalidation is O(1): each type carries a
+ * generation counter and results recorded under an older generation are
+ * treated as misses.
+ *   <p>
+ * Results are additionally bounded in number and expire after a configurable
+ * time-to-live, which limits how long a result can survive a change that
+ * bypasses the EntityStore (e.g., a direct database update).
+ *   <p>
+ * Hit and miss counts are kept per SQL statement; see
+ * {@link #getStatistics()}.  Statistics are retained for at most
+ * {@link #MAXIMUM_STATISTICS} statements, least recently used first to go,
+ * so that applications building SQL dynamically do not grow them without
+ * bound.
+ *   <p>
+ * Configurable options:
+ * <ul>
+ *   <li>EntityStore.QueryCache.MaximumSize - The maximum number of results
+ *       retained.  Default 10000.  Zero disables the cache.</li>
+ *   <li>EntityStore.QueryCache.TtlSeconds - How long a result is retained
+ *       after it is recorded.  Default 300.</li>
+ * </ul>
+ */
+public class QueryCache
+  implements CacheListener
+{
+
+  //
+  // Constants.
+  //
+
+  public static final int  DEFAULT_MAXIMUM_SIZE = 10000;
+  public static final long DEFAULT_TTL_SECONDS  = 300L;
+  public static final int  MAXIMUM_STATISTICS   = 1000;
+
+  //
+  // Member variables.
+  //
+
+  private final ConcurrentMap<Class<?>, AtomicLong> generations = new ConcurrentHashMap<>();
+  private final Cache<String, Statistics> statistics = CacheBuilder.newBuilder()
+      .maximumSize(MAXIMUM_STATISTICS)
+      .build();
+  private final AtomicLong fullResets = new AtomicLong();
+  private volatile Cache<Key, Result> results;
+  private volatile boolean enabled;
+
+  //
+  // Member methods.
+  //
+
+  /**
+   * Constructor.
+   */
+  public QueryCache()
+  {
+    configure(DEFAULT_MAXIMUM_SIZE, DEFAULT_TTL_SECONDS);
+  }
+
+  /**
+   * Replaces the backing cache with one of the given bounds.  Any previously
+   * cached results are discarded.
+   *
+   * @param maximumSize the maximum number of results to retain; zero or less
+   *        disables caching altogether.
+   * @param ttlSeconds how long a result is retained after being recorded.
+   */
+  public void configure(int maximumSize, long ttlSeconds)
+  {
+    this.enabled = maximumSize > 0;
+    this.results = CacheBuilder.newBuilder()
+        .maximumSize(Math.max(maximumSize, 0))
+        .expireAfterWrite(Math.max(ttlSeconds, 1L), TimeUnit.SECONDS)
+        .build();
+  }
+
+  /**
+   * Returns the results of a query, from the cache if possible and otherwise
+   * by running it through {@link EntityGroup#query(String, Object...)}.
+   *
+   * @param group the group that makes entities from the query's rows
+   * @param dependencies additional entity types whose changes should
+   *        invalidate this result (e.g., types joined by the query); may be
+   *        null
+   * @param query Any old SQL query.  Can use "?" marks in place of values.
+   * @param arguments The values to substitute for the "?" marks in the query.
+   */
+  public <T extends Identifiable> List<T> query(EntityGroup<T> group,
+      Class<?>[] dependencies, String query, Object... arguments)
+    throws SQLException
+  {
+    if (!this.enabled)
+    {
+      return group.query(query, arguments);
+    }
+
+    final Statistics stats = statisticsFor(query);
+    final Cache<Key, Result> cache = this.results;
+    final Class<?>[] dependsOn = dependencies(group.type(), dependencies);
+    final Key key = new Key(dependsOn, query, arguments);
+    final Result cached = cache.getIfPresent(key);
+    if (cached != null)
+    {
+      if (cached.isCurrent(this, dependsOn))
+      {
+        stats.hits.incrementAndGet();
+        return group.list(cached.ids);
+      }
+      cache.invalidate(key);
+      stats.invalidations.incrementAndGet();
+    }
+    stats.misses.incrementAndGet();
+
+    // Capture the generations before running the query so that a change
+    // made while the query runs leaves the result already stale.
+    final long[] snapshot = snapshot(dependsOn);
+    final List<T> objects = group.query(query, arguments);
+    final List<Long> ids = new ArrayList<>(objects.size());
+    for (T object : objects)
+    {
+      ids.add(object.getId());
+    }
+    cache.put(key, new Result(Collections.unmodifiableList(ids), snapshot));
+    return objects;
+  }
+
+  /**
+   * Invalidates every cached result that depends on the given type.
+   */
+  public void invalidate(Class<?> type)
+  {
+    generation(type).incrementAndGet();
+  }
+
+  /**
+   * Discards every cached result.
+   */
+  public void invalidateAll()
+  {
+    this.fullResets.incrementAndGet();
+    this.results.invalidateAll();
+  }
+
+  /**
+   * Returns the number of results currently retained, including any that
+   * have been invalidated but not yet evicted.
+   */
+  public long size()
+  {
+    return this.results.size();
+  }
+
+  /**
+   * Returns hit and miss statistics, keyed by SQL statement.
+   */
+  public Map<String, Statistics> getStatistics()
+  {
+    return new HashMap<>(this.statistics.asMap());
+  }
+
+  /**
+   * Clears the hit and miss statistics.
+   */
+  public void resetStatistics()
+  {
+    this.statistics.invalidateAll();
+  }
+
+  private Statistics statisticsFor(String query)
+  {
+    final ConcurrentMap<String, Statistics> map = this.statistics.asMap();
+    final Statistics stats = map.get(query);
+    if (stats != null)
+    {
+      return stats;
+    }
+    final Statistics created = new Statistics();
+    final Statistics existing = map.putIfAbsent(query, created);
+    return existing != null ? existing : created;
+  }
+
+  private AtomicLong generation(Class<?> type)
+  {
+    final AtomicLong generation = this.generations.get(type);
+    return generation != null
+        ? generation
+        : this.generations.computeIfAbsent(type, t -> new AtomicLong());
+  }
+
+  private long[] snapshot(Class<?>[] dependsOn)
+  {
+    final long[] snapshot = new long[dependsOn.length + 1];
+    snapshot[0] = this.fullResets.get();
+    for (int i = 0; i < dependsOn.length; i++)
+    {
+      snapshot[i + 1] = generation(dependsOn[i]).get();
+    }
+    return snapshot;
+  }
+
+  private static Class<?>[] dependencies(Class<?> type, Class<?>[] additional)
+  {
+    if (additional == null || additional.length == 0)
+    {
+      return new Class<?>[] { type };
+    }
+    final Class<?>[] dependsOn = new Class<?>[additional.length + 1];
+    dependsOn[0] = type;
+    System.arraycopy(additional, 0, dependsOn, 1, additional.length);
+    return dependsOn;
+  }
+
+  //
+  // CacheListener methods.
+  //
+
+  @Override
+  public void cacheFullReset()
+  {
+    invalidateAll();
+  }
+
+  @Override
+  public <T extends Identifiable> void cacheTypeReset(Class<T> type)
+  {
+    invalidate(type);
+  }
+
+  @Override
+  public <T extends Identifiable> void cacheObjectExpired(Class<T> type,
+      long identifier)
+  {
+    invalidate(type);
+  }
+
+  @Override
+  public <T extends Identifiable> void removeFromCache(Class<T> type,
+      long identifier)
+  {
+    invalidate(type);
+  }
+
+  @Override
+  public String toString()
+  {
+    return "QueryCache [" + size() + " results; " + this.statistics.size()
+        + " queries]";
+  }
+
+  //
+  // Inner classes.
+  //
+
+  /**
+   * Hit and miss counts for a single SQL statement.
+   */
+  public static final class Statistics
+  {
+    private final AtomicLong hits          = new AtomicLong();
+    private final AtomicLong misses        = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * The number of times a current cached result was returned.
+     */
+    public long getHits()
+    {
+      return this.hits.get();
+    }
+
+    /**
+     * The number of times the query was run against the database.
+     */
+    public long getMisses()
+    {
+      return this.misses.get();
+    }
+
+    /**
+     * The number of cached results found to be stale when requested.
+     */
+    public long getInvalidations()
+    {
+      return this.invalidations.get();
+    }
+
+    /**
+     * The fraction of requests served from the cache.
+     */
+    public double getHitRatio()
+    {
+      final long h = getHits();
+      final long total = h + getMisses();
+      return total == 0 ? 0.0 : (double)h / total;
+    }
+
+    @Override
+    public String toString()
+    {
+      return "Statistics [hits: " + getHits() + "; misses: " + getMisses()
+          + "; invalidations: " + getInvalidations() + "]";
+    }
+  }
+
+  /**
+   * Identifies a query by the type it makes and the other types it depends
+   * on, its SQL, and its arguments.  The dependencies are part of the key so
+   * that the same SQL run with different dependencies is not answered by a
+   * result that would miss invalidations.
+   */
+  private static final class Key
+  {
+    private final List<Class<?>> types;
+    private final String query;
+    private final List<Object> arguments;
+    private final int hash;
+
+    private Key(Class<?>[] types, String query, Object[] arguments)
+    {
+      this.types = Arrays.asList(types);
+      this.query = query;
+      this.arguments = (arguments == null)
+          ? Collections.emptyList()
+          : Arrays.asList(arguments.clone());
+      this.hash = Objects.hash(this.types, query, this.arguments);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return this.hash;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (this == o)
+      {
+        return true;
+      }
+      if (!(o instanceof Key))
+      {
+        return false;
+      }
+      final Key other = (Key)o;
+      return this.hash == other.hash
+          && this.types.equals(other.types)
+          && this.query.equals(other.query)
+          && this.arguments.equals(other.arguments);
+    }
+  }
+
+  /**
+   * The identities produced by a query and the generations of its
+   * dependencies at the time it was run.
+   */
+  private static final class Result
+  {
+    private final List<Long> ids;
+    private final long[] snapshot;
+
+    private Result(List<Long> ids, long[] snapshot)
+    {
+      this.ids = ids;
+      this.snapshot = snapshot;
+    }
+
+    private boolean isCurrent(QueryCache cache, Class<?>[] dependsOn)
+    {
+      return Arrays.equals(this.snapshot, cache.snapshot(dependsOn));
+    }
+  }
+
+}   // End QueryCache.
@@ -0,0 +1,660 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.cache;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+import java.util.zip.*;
+
+import com.google.common.cache.*;
+import com.khulnasoft.util.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded cache of rendered response bodies, keyed by arbitrary strings
+ * (typically a request URI and its parameters).
+ *   <p>
+ * Bodies are stored gzip-compressed when that saves space, and as UTF-8
+ * bytes otherwise, and the cache is bounded by the total number of stored
+ * bytes.  Nearly every client accepts gzip and is sent the stored bytes
+ * as-is; a compressed body is inflated only for the rare client that does
+ * not.
+ *   <p>
+ * {@link #get(String, Supplier, Class...)} renders a missing body on exactly
+ * one thread; concurrent requests for the same key wait for that render
+ * rather than repeating it, for at most the render wait, after which they
+ * render the body themselves.  A renderer that asks for its own key is 
+ * given a fresh, uncached render rather than waiting on itself.  Once a
+ * body is older than the time-to-live but still within the stale window,
+ * the first request to notice re-renders it while concurrent requests are
+ * served the stale body.
+ *   <p>
+ * A body may be tagged with the entity types it was rendered from.  This
+ * class listens to the {@link EntityStore}, and any put, remove, or reset of
+ * a tagged type invalidates every body carrying that tag.  Invalidated
+ * bodies are never served stale.
+ *   <p>
+ * Configurable options:
+ * <ul>
+ *   <li>EntityStore.ResponseCache.MaximumBytes - The maximum total size of
+ *       stored bodies.  Default 64 MiB.</li>
+ *   <li>EntityStore.ResponseCache.TtlSeconds - How long a body is fresh.
+ *       Default 0, meaning bodies never expire.</li>
+ *   <li>EntityStore.ResponseCache.StaleSeconds - How long past its TTL a
+ *       body may be served while it is re-rendered.  Default 0.</li>
+ *   <li>EntityStore.ResponseCache.RenderWaitSeconds - How long a request
+ *       waits for another thread's render of the same body.  Default 30.
+ *       </li>
+ * </ul>
+ */
+public class ResponseCache
+  implements CacheListener
+{
+
+  //
+  // Constants.
+  //
+
+  public static final long DEFAULT_MAXIMUM_BYTES   = 64L * 1024L * 1024L;
+  public static final long DEFAULT_TTL_SECONDS     = 0L;
+  public static final long DEFAULT_STALE_SECONDS   = 0L;
+  public static final long DEFAULT_RENDER_WAIT_SECONDS = 30L;
+
+  /**
+   * Bodies smaller than this are not worth compressing.
+   */
+  private static final int COMPRESSION_THRESHOLD   = 512;
+  
+  /**
+   * Per-entry overhead added to the weight of each body.
+   */
+  private static final int ENTRY_OVERHEAD          = 64;
+  
+  /**
+   * The keys being rendered on the current thread.
+   */
+  private static final ThreadLocal<Set<String>> RENDERING = 
+      ThreadLocal.withInitial(HashSet::new);
+
+  //
+  // Member variables.
+  //
+
+  private final Logger log = LoggerFactory.getLogger(getClass());
+  private final ConcurrentMap<String, CompletableFuture<Entry>> inFlight = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Class<?>, AtomicLong> generations = new ConcurrentHashMap<>();
+  private final AtomicLong fullResets    = new AtomicLong();
+  private final AtomicLong hits          = new AtomicLong();
+  private final AtomicLong staleHits     = new AtomicLong();
+  private final AtomicLong misses        = new AtomicLong();
+  private final AtomicLong coalesced     = new AtomicLong();
+  private final AtomicLong invalidations = new AtomicLong();
+  private volatile Cache<String, Entry> entries;
+  private volatile long ttlMs;
+  private volatile long staleMs;
+  private volatile long renderWaitMs;
+
+  //
+  // Member methods.
+  //
+
+  /**
+   * Constructor.
+   */
+  public ResponseCache()
+  {
+    configure(DEFAULT_MAXIMUM_BYTES, DEFAULT_TTL_SECONDS, DEFAULT_STALE_SECONDS);
+  }
+
+  /**
+   * Replaces the backing cache with one of the given bounds, keeping the
+   * default render wait.  Any previously cached bodies are discarded.
+   */
+  public void configure(long maximumBytes, long ttlSeconds, long staleSeconds)
+  {
+    configure(maximumBytes, ttlSeconds, staleSeconds, DEFAULT_RENDER_WAIT_SECONDS);
+  }
+
+  /**
+   * Replaces the backing cache with one of the given bounds.  Any previously
+   * cached bodies are discarded.
+   *
+   * @param maximumBytes the maximum total size of the stored bodies
+   * @param ttlSeconds how long a body is fresh; zero or less for forever
+   * @param staleSeconds how long past its TTL a body may still be served
+   *        while it is being re-rendered
+   * @param renderWaitSeconds how long a request waits for another thread's
+   *        render of the same body before rendering it itself
+   */
+  public void configure(long maximumBytes, long ttlSeconds, long staleSeconds,
+      long renderWaitSeconds)
+  {
+    this.ttlMs = Math.max(ttlSeconds, 0L) * 1000L;
+    this.staleMs = Math.max(staleSeconds, 0L) * 1000L;
+    this.renderWaitMs = Math.max(renderWaitSeconds, 0L) * 1000L;
+    final CacheBuilder<String, Entry> builder = CacheBuilder.newBuilder()
+        .maximumWeight(Math.max(maximumBytes, 0L))
+        .weigher((String key, Entry entry) -> 
+            key.length() * 2 + entry.weight() + ENTRY_OVERHEAD);
+    if (this.ttlMs > 0L)
+    {
+      builder.expireAfterWrite(this.ttlMs + this.staleMs, TimeUnit.MILLISECONDS);
+    }
+    this.entries = builder.build();
+  }
+
+  /**
+   * Returns the cached body for a key if it is present and fresh, or null.
+   */
+  public String get(String key)
+  {
+    final Entry entry = current(key);
+    if (entry != null && entry.isFresh(this.ttlMs))
+    {
+      this.hits.incrementAndGet();
+      return entry.getText();
+    }
+    this.misses.incrementAndGet();
+    return null;
+  }
+
+  /**
+   * Returns the cached body for a key, rendering it if necessary.  Only one
+   * thread renders a given key at a time; see the class description.
+   *
+   * @param key identifies the response
+   * @param renderer produces the body; a null body is not cached
+   * @param tags the entity types the body was rendered from
+   * @return the body, or null if the renderer returned null
+   */
+  public String get(String key, Supplier<String> renderer, Class<?>... tags)
+  {
+    final Entry entry = getEntry(key, null, renderer, tags);
+    return entry != null ? entry.getText() : null;
+  }
+
+  /**
+   * As {@link #get(String, Supplier, Class...)}, returning the stored entry
+   * so that either form of the body can be written without copying it.
+   *
+   * @param contentType the content type to record with a rendered body; may
+   *        be null
+   */
+  public Entry getEntry(String key, String contentType, 
+      Supplier<String> renderer, Class<?>... tags)
+  {
+    final Entry entry = current(key);
+    if (entry != null)
+    {
+      if (entry.isFresh(this.ttlMs))
+      {
+        this.hits.incrementAndGet();
+        return entry;
+      }
+      // Stale: if someone else is already re-rendering, serve the old body.
+      if (this.inFlight.containsKey(key))
+      {
+        this.staleHits.incrementAndGet();
+        return entry;
+      }
+    }
+    this.misses.incrementAndGet();
+    return render(key, contentType, renderer, tags);
+  }
+
+  /**
+   * Stores a body under a key, replacing any existing body.
+   *
+   * @param tags the entity types the body was rendered from
+   */
+  public void put(String key, String body, Class<?>... tags)
+  {
+    if (body != null)
+    {
+      this.entries.put(key, new Entry(body, null, snapshot(tags), tags));
+    }
+  }
+
+  /**
+   * Discards the body stored under a key.
+   */
+  public void invalidate(String key)
+  {
+    this.entries.invalidate(key);
+  }
+
+  /**
+   * Invalidates every body tagged with the given type.
+   */
+  public void invalidateTag(Class<?> tag)
+  {
+    generation(tag).incrementAndGet();
+  }
+
+  /**
+   * Discards every body.
+   */
+  public void invalidateAll()
+  {
+    this.fullResets.incrementAndGet();
+    this.entries.invalidateAll();
+  }
+
+  /**
+   * Returns the number of bodies currently stored.
+   */
+  public long size()
+  {
+    return this.entries.size();
+  }
+
+  /**
+   * Returns the number of requests served a fresh body.
+   */
+  public long getHits()
+  {
+    return this.hits.get();
+  }
+
+  /**
+   * Returns the number of requests served a stale body while another thread
+   * was re-rendering it.
+   */
+  public long getStaleHits()
+  {
+    return this.staleHits.get();
+  }
+
+  /**
+   * Returns the number of requests that found no usable body.
+   */
+  public long getMisses()
+  {
+    return this.misses.get();
+  }
+
+  /**
+   * Returns the number of requests that waited on another thread's render
+   * rather than rendering themselves.
+   */
+  public long getCoalesced()
+  {
+    return this.coalesced.get();
+  }
+
+  /**
+   * Returns the number of bodies discarded because a tagged type changed.
+   */
+  public long getInvalidations()
+  {
+    return this.invalidations.get();
+  }
+
+  /**
+   * Returns the entry for a key unless it has been invalidated by a change
+   * to one of its tags.
+   */
+  private Entry current(String key)
+  {
+    final Entry entry = this.entries.getIfPresent(key);
+    if (entry != null 
+        && !Arrays.equals(entry.snapshot, snapshot(entry.tags)))
+    {
+      this.entries.invalidate(key);
+      this.invalidations.incrementAndGet();
+      return null;
+    }
+    return entry;
+  }
+
+  /**
+   * Renders a body, or waits for the thread that is already rendering it.
+   */
+  private Entry render(String key, String contentType,
+      Supplier<String> renderer, Class<?>[] tags)
+  {
+    final Set<String> rendering = RENDERING.get();
+    if (rendering.contains(key))
+    {
+      // The renderer asked for its own body; waiting would deadlock.
+      final String body = renderer.get();
+      return (body == null) 
+          ? null 
+          : new Entry(body, contentType, snapshot(tags), tags);
+    }
+    
+    final CompletableFuture<Entry> mine = new CompletableFuture<>();
+    final CompletableFuture<Entry> existing = this.inFlight.putIfAbsent(key, mine);
+    if (existing != null)
+    {
+      this.coalesced.incrementAndGet();
+      try
+      {
+        return existing.get(this.renderWaitMs, TimeUnit.MILLISECONDS);
+      }
+      catch (ExecutionException e)
+      {
+        if (e.getCause() instanceof RuntimeException)
+        {
+          throw (RuntimeException)e.getCause();
+        }
+        throw new CompletionException(e.getCause());
+      }
+      catch (TimeoutException e)
+      {
+        this.log.warn("Gave up waiting {}ms for render of {}.", 
+            this.renderWaitMs, key);
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+      // Render without coalescing rather than keep waiting.
+      return renderAndStore(key, contentType, renderer, tags, rendering);
+    }
+    try
+    {
+      final Entry entry = renderAndStore(key, contentType, renderer, tags, 
+          rendering);
+      mine.complete(entry);
+      return entry;
+    }
+    catch (RuntimeException e)
+    {
+      this.log.debug("Render failed for {}.", key, e);
+      mine.completeExceptionally(e);
+      throw e;
+    }
+    finally
+    {
+      this.inFlight.remove(key, mine);
+    }
+  }
+
+  /**
+   * Renders a body on this thread and stores it.
+   */
+  private Entry renderAndStore(String key, String contentType,
+      Supplier<String> renderer, Class<?>[] tags, Set<String> rendering)
+  {
+    rendering.add(key);
+    try
+    {
+      // Capture the tag generations first so that a change made while
+      // rendering leaves the body already invalid.
+      final long[] snapshot = snapshot(tags);
+      final String body = renderer.get();
+      final Entry entry = (body == null)
+          ? null
+          : new Entry(body, contentType, snapshot, tags);
+      if (entry != null)
+      {
+        this.entries.put(key, entry);
+      }
+      return entry;
+    }
+    finally
+    {
+      rendering.remove(key);
+    }
+  }
+
+  private AtomicLong generation(Class<?> tag)
+  {
+    final AtomicLong generation = this.generations.get(tag);
+    return generation != null
+        ? generation
+        : this.generations.computeIfAbsent(tag, t -> new AtomicLong());
+  }
+
+  private long[] snapshot(Class<?>[] tags)
+  {
+    final int count = (tags == null) ? 0 : tags.length;
+    final long[] snapshot = new long[count + 1];
+    snapshot[0] = this.fullResets.get();
+    for (int i = 0; i < count; i++)
+    {
+      snapshot[i + 1] = generation(tags[i]).get();
+    }
+    return snapshot;
+  }
+
+  //
+  // CacheListener methods.
+  //
+
+  @Override
+  public void cacheFullReset()
+  {
+    invalidateAll();
+  }
+
+  @Override
+  public <T extends Identifiable> void cacheTypeReset(Class<T> type)
+  {
+    invalidateTag(type);
+  }
+
+  @Override
+  public <T extends Identifiable> void cacheObjectExpired(Class<T> type,
+      long identifier)
+  {
+    invalidateTag(type);
+  }
+
+  @Override
+  public <T extends Identifiable> void removeFromCache(Class<T> type,
+      long identifier)
+  {
+    invalidateTag(type);
+  }
+
+  @Override
+  public String toString()
+  {
+    return "ResponseCache [" + size() + " bodies; hits: " + getHits()
+        + "; stale hits: " + getStaleHits() + "; misses: " + getMisses()
+        + "; coalesced: " + getCoalesced() + "]";
+  }
+
+  //
+  // Inner classes.
+  //
+
+  /**
+   * A stored response body.
+   */
+  public static final class Entry
+  {
+    private final byte[] stored;
+    private final boolean compressed;
+    private final int length;
+    private final String contentType;
+    private final long created;
+    private final long[] snapshot;
+    private final Class<?>[] tags;
+
+    private Entry(String text, String contentType, long[] snapshot, 
+        Class<?>[] tags)
+    {
+      final byte[] body = text.getBytes(StandardCharsets.UTF_8);
+      final byte[] gzipped = (body.length >= COMPRESSION_THRESHOLD)
+          ? gzip(body)
+          : null;
+      this.compressed = (gzipped != null && gzipped.length < body.length);
+      this.stored = this.compressed ? gzipped : body;
+      this.length = body.length;
+      this.contentType = contentType;
+      this.created = System.currentTimeMillis();
+      this.snapshot = snapshot;
+      this.tags = (tags == null) ? new Class<?>[0] : tags.clone();
+    }
+
+    private boolean isFresh(long ttlMs)
+    {
+      return ttlMs <= 0L || System.currentTimeMillis() - this.created < ttlMs;
+    }
+
+    private int weight()
+    {
+      return this.stored.length;
+    }
+
+    /**
+     * Returns the body as text.
+     */
+    public String getText()
+    {
+      return new String(getBytes(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the body as uncompressed UTF-8 bytes, inflating it if only
+     * the compressed body is stored.
+     */
+    public byte[] getBytes()
+    {
+      if (!this.compressed)
+      {
+        return this.stored.clone();
+      }
+      final ByteArrayOutputStream out = new ByteArrayOutputStream(this.length);
+      try
+      {
+        inflateTo(out);
+      }
+      catch (IOException e)
+      {
+        throw new UncheckedIOException(e);
+      }
+      return out.toByteArray();
+    }
+
+    /**
+     * Returns the gzip-compressed body, or null if compressing the body 
+     * would not save space.  The returned array must not be modified.
+     */
+    public byte[] getCompressedBytes()
+    {
+      return this.compressed ? this.stored : null;
+    }
+
+    /**
+     * Returns whether the body is stored gzip-compressed.
+     */
+    public boolean isCompressed()
+    {
+      return this.compressed;
+    }
+
+    /**
+     * Returns the number of bytes writeTo writes.
+     *
+     * @param compressed whether the compressed body is wanted; ignored if
+     *        the body is not stored compressed
+     */
+    public int getLength(boolean compressed)
+    {
+      return (compressed && this.compressed)
+          ? this.stored.length
+          : this.length;
+    }
+
+    /**
+     * Writes the body.  The stored bytes are written without copying them
+     * unless an uncompressed body is wanted and only the compressed body is
+     * stored, in which case it is inflated as it is written.
+     *
+     * @param compressed whether to write the compressed body; ignored if 
+     *        the body is not stored compressed
+     */
+    public void writeTo(OutputStream out, boolean compressed)
+      throws IOException
+    {
+      if (compressed || !this.compressed)
+      {
+        out.write(this.stored);
+      }
+      else
+      {
+        inflateTo(out);
+      }
+    }
+
+    /**
+     * Returns the content type recorded with the body, or null.
+     */
+    public String getContentType()
+    {
+      return this.contentType;
+    }
+
+    /**
+     * Returns the time at which the body was rendered.
+     */
+    public long getCreated()
+    {
+      return this.created;
+    }
+
+    private void inflateTo(OutputStream out)
+      throws IOException
+    {
+      try (GZIPInputStream gzip = new GZIPInputStream(
+          new ByteArrayInputStream(this.stored)))
+      {
+        final byte[] buffer = new byte[Math.min(this.length, 8192)];
+        int read;
+        while ((read = gzip.read(buffer)) != -1)
+        {
+          out.write(buffer, 0, read);
+        }
+      }
+    }
+
+    private static byte[] gzip(byte[] raw)
+    {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 4);
+      try (GZIPOutputStream gzip = new GZIPOutputStream(out))
+      {
+        gzip.write(raw);
+      }
+      catch (IOException e)
+      {
+        return null;
+      }
+      return out.toByteArray();
+    }
+  }
+
+}   // End ResponseCache.
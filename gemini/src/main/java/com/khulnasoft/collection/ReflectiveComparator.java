@@ -29,8 +29,8 @@ package com.khulnasoft.collection;
 
 import java.util.*;
 
-import com.esotericsoftware.reflectasm.*;
 import com.khulnasoft.helper.*;
+import com.khulnasoft.reflect.*;
 
 /**
  * ReflectiveComparator is an implementation of the java.util.Comparator
@@ -40,7 +40,8 @@ import com.khulnasoft.helper.*;
  * Comparable.  Custom objects used as fields will need to implement the
  * Comparable interface).
  *    <p>
- * Reflection is used to access the value of the fields.
+ * Values are read through an {@link Accessor}, which is compiled once per
+ * class and member, and primitive values are compared without boxing.
  */
 public class ReflectiveComparator<O extends Object>
   implements Comparator<O>
@@ -66,24 +67,14 @@ public class ReflectiveComparator<O extends Object>
    */
   private static final int[] DESCENDING_RETURNS = new int[] { 1, -1 };
 
-  /**
-   * Arrays for providing no parameters to methods.
-   */
-  private static final Class<?>[]  NO_PARAMETER_LIST = new Class[0];
-  private static final Object[]    NO_ARGUMENTS      = new Object[0];
-
   //
   // Member variables.
   //
 
   private String  fieldName;
   private String  methodName;
-  //Field   field                    = null;
-  private FieldAccess  fieldAccess         = null;
-  private int     fieldIndex               = 0;
-  //Method  method                   = null;
-  private MethodAccess methodAccess        = null;
-  private int     methodIndex              = 0;
+  private Accessor accessor               = null;
+  private Comparator<Object> comparator    = null;
   private int     comparisonType           = BY_FIELD;
   private int     ordering                 = ASCENDING;
   private boolean ignoreCaseOfStrings      = false;
@@ -276,6 +267,7 @@ public class ReflectiveComparator<O extends Object>
   public void setIgnoreCase(boolean ignoreCaseOfStrings)
   {
     this.ignoreCaseOfStrings = ignoreCaseOfStrings;
+    this.comparator = null;
   }
 
   /**
@@ -290,6 +282,7 @@ public class ReflectiveComparator<O extends Object>
       )
     {
       this.ordering = ordering;
+      this.comparator = null;
     }
   }
 
@@ -305,6 +298,11 @@ public class ReflectiveComparator<O extends Object>
     // check for an alias
     String aliasedMemberName = this.checkAlias(memberName);
 
+    // A change of comparison type invalidates the cached accessor.
+    if (comparisonType != this.comparisonType)
+    {
+      this.accessor = null;
+    }
     this.comparisonType = comparisonType;
 
     // It is important to make sure that the state is in fact changing so that
@@ -313,70 +311,32 @@ public class ReflectiveComparator<O extends Object>
     {
       this.methodName = aliasedMemberName;
 
-      // Nullify the cached Method object.
-      //this.method = null;
-      this.methodAccess = null;
+      // Nullify the cached accessor.
+      this.accessor = null;
     }
     else if (!Objects.equals(this.fieldName, aliasedMemberName))
     {
       this.fieldName = aliasedMemberName;
 
-      // Nullify the cached Field object.
-      //this.field = null;
-      this.fieldAccess = null;
+      // Nullify the cached accessor.
+      this.accessor = null;
     }
   }
 
   /**
-   * Caches the Field or Method object for the field name specified.
+   * Caches the Accessor for the field or method name specified.
    */
   protected void cacheMemberObject(Class<?> theClass)
   {
-    if (this.comparisonType == BY_METHOD)
-    {
-      this.methodAccess = MethodAccess.get(theClass);
-      this.methodIndex = this.methodAccess.getIndex(this.methodName, NO_PARAMETER_LIST);
-      
-      /*
-      try
-      {
-        // Try first to find a declared method by the name provided.
-        this.method = theClass.getDeclaredMethod(this.methodName, NO_PARAMETER_LIST);
-      }
-      catch (NoSuchMethodException exc)
-      {
-        // If the class in question does not declare the method, we will
-        // need to look for a public method of the same name.  This will
-        // catch methods that exist in the superclass.
-        this.method = theClass.getMethod(this.methodName, NO_PARAMETER_LIST);
-      }
-      */
-    }
-    else
-    {
-      this.fieldAccess = FieldAccess.get(theClass);
-      this.fieldIndex = this.fieldAccess.getIndex(this.fieldName);
-      
-      /*
-      try
-      {
-        // Try first to find a declared field by the name provided.
-        this.field = theClass.getDeclaredField(this.fieldName);
-      }
-      catch (NoSuchFieldException exc)
-      {
-        // If the class in question does not declare the field, we will
-        // need to look for a public field of the same name.  This will
-        // catch fields that exist in the superclass.
-        this.field = theClass.getField(this.fieldName);
-      }
-      */
-    }
+    this.accessor = (this.comparisonType == BY_METHOD)
+        ? Accessor.method(theClass, this.methodName)
+        : Accessor.field(theClass, this.fieldName);
+    this.comparator = null;
   }
 
   /**
-   * Compares two objects for order.  Uses Java Reflection to access the
-   * field (provided by the constructor to this Comparator) that is the
+   * Compares two objects for order.  Uses the Accessor for the field or
+   * method (provided by the constructor to this Comparator) that is the
    * basis of the comparison.
    *
    * @param object1 The first object to compare.
@@ -385,13 +345,7 @@ public class ReflectiveComparator<O extends Object>
   @Override
   public int compare(Object object1, Object object2)
   {
-    if (  (  (this.comparisonType == BY_METHOD) 
-          && (this.methodAccess == null)
-          )
-       || (  (this.comparisonType == BY_FIELD) 
-          && (this.fieldAccess == null)
-          )
-       )
+    if (this.accessor == null)
     {
       try
       {
@@ -409,44 +363,18 @@ public class ReflectiveComparator<O extends Object>
     // Only proceed if the state of this ReflectiveComparator is still good.
     if (this.goodState)
     {
-      /*
-      try
-      {
-      */
-      Object comparable1;
-      Object comparable2;
-
-      // Invoke methods if specified.
-      if (this.comparisonType == BY_METHOD)
+      // Read the cached comparator once; a parallel sort may call compare
+      // from several threads while it is being created.
+      Comparator<Object> current = this.comparator;
+      if (current == null)
       {
-        //comparable1 = this.method.invoke(object1, NO_ARGUMENTS);
-        //comparable2 = this.method.invoke(object2, NO_ARGUMENTS);
-        comparable1 = this.methodAccess.invoke(object1, this.methodIndex, NO_ARGUMENTS);
-        comparable2 = this.methodAccess.invoke(object2, this.methodIndex, NO_ARGUMENTS);
-      }
-
-      // Otherwise read fields directly.
-      else
-      {
-        //comparable1 = this.field.get(object1);
-        //comparable2 = this.field.get(object2);
-        comparable1 = this.fieldAccess.get(object1, this.fieldIndex);
-        comparable2 = this.fieldAccess.get(object2, this.fieldIndex);
+        current = this.accessor.comparator(
+            this.ordering == DESCENDING, this.ignoreCaseOfStrings);
+        this.comparator = current;
       }
 
       // Return the comparison.
-      return compareTwoObjects(comparable1, comparable2);
-      /*
-      }
-      catch (IllegalAccessException iaexc)
-      {
-        System.out.println("ReflectiveComparator: Illegal access exception during compare!");
-      }
-      catch (InvocationTargetException itexc)
-      {
-        System.out.println("ReflectiveComparator: InvocationTargetException during compare!");
-      }
-      */
+      return current.compare(object1, object2);
     }
     else
     {
@@ -32,6 +32,7 @@ import java.util.*;
 
 import com.google.common.collect.*;
 import com.khulnasoft.helper.*;
+import com.khulnasoft.reflect.*;
 
 /**
  * An ObjectFilter implementation that uses reflection to test equality with
@@ -40,6 +41,11 @@ import com.khulnasoft.helper.*;
  * implementation strict mode is defined by interpreting methods or fields
  * that are set on the filter but do not exist in the tested object as
  * failing.
+ *    <p>
+ * Values are read through an {@link Accessor} per class and member rather
+ * than by reflective calls per tested object.  As before, only public
+ * fields and methods are read; a member that is not public is treated as
+ * missing.
  */
 public class ReflectiveFilter
 {
@@ -124,10 +130,23 @@ public class ReflectiveFilter
   // Fields
   //
 
+  /**
+   * Gets the Accessor for the member field of the given object associated
+   * with the given name, or null if there is no such field.
+   */
+  protected Accessor getFieldAccessor(String fieldName, Object o)
+  {
+    return Accessor.findField(o.getClass(), fieldName);
+  }
+
   /**
    * Gets the public member field of the given object associated with the
    * given name.
+   * 
+   * @deprecated Filtering reads fields through {@link #getFieldAccessor},
+   *   and overriding this method no longer affects it.
    */
+  @Deprecated
   protected Field getFieldForName(String fieldName, Object o)
       throws NoSuchFieldException
   {
@@ -174,31 +193,26 @@ public class ReflectiveFilter
       return !this.isStrict();
     }
 
+    // if in strict mode, a missing or inaccessible field fails the test,
+    // otherwise continue.
+    Accessor field;
     try
     {
-      Field field = o.getClass().getField(fieldName);
-
-      // perform the test
-      if (!this.allow(field.get(o), this.filteredFields.get(fieldName)))
-      {
-        return false;
-      }
+      field = this.getFieldAccessor(fieldName, o);
     }
-    catch (IllegalAccessException e)
+    catch (IllegalArgumentException e)
     {
-      // if in strict mode, the test was failed otherwise continue.
-      if (this.isStrict())
-      {
-        return false;
-      }
+      return !this.isStrict();
     }
-    catch (NoSuchFieldException e)
+    if (field == null)
     {
-      // if in strict mode, the test was failed otherwise continue.
-      if (this.isStrict())
-      {
-        return false;
-      }
+      return !this.isStrict();
+    }
+
+    // perform the test
+    if (!this.allow(field.get(o), this.filteredFields.get(fieldName)))
+    {
+      return false;
     }
 
     return true;
@@ -257,10 +271,23 @@ public class ReflectiveFilter
   // Methods
   //
 
+  /**
+   * Gets the Accessor for the member method of the given object associated
+   * with the given name, or null if there is no such method.
+   */
+  protected Accessor getMethodAccessor(String methodName, Object o)
+  {
+    return Accessor.findMethod(o.getClass(), methodName);
+  }
+
   /**
    * Gets the member method of the given object associated with the given
    * name.
+   * 
+   * @deprecated Filtering calls methods through {@link #getMethodAccessor},
+   *   and overriding this method no longer affects it.
    */
+  @Deprecated
   protected Method getMethodForName(String methodName, Object o)
       throws NoSuchMethodException
   {
@@ -307,37 +334,37 @@ public class ReflectiveFilter
       return !this.isStrict();
     }
 
+    // if in strict mode, a missing or inaccessible method fails the test,
+    // otherwise continue.
+    Accessor method;
     try
     {
-      Method method = this.getMethodForName(methodName, o);
-
-      // perform the test
-      if (!this.allow(method.invoke(o, new Object[0]),
-          this.filteredMethods.get(methodName)))
-      {
-        return false;
-      }
+      method = this.getMethodAccessor(methodName, o);
     }
-    catch (InvocationTargetException e)
+    catch (IllegalArgumentException e)
     {
-      if (this.isStrict())
-      {
-        return false;
-      }
+      return !this.isStrict();
     }
-    catch (IllegalAccessException e)
+    if (method == null)
     {
-      if (this.isStrict())
-      {
-        return false;
-      }
+      return !this.isStrict();
     }
-    catch (NoSuchMethodException e)
+
+    Object value;
+    try
     {
-      if (this.isStrict())
-      {
-        return false;
-      }
+      value = method.get(o);
+    }
+    catch (RuntimeException e)
+    {
+      // The method threw; treat it as a failed test in strict mode.
+      return !this.isStrict();
+    }
+
+    // perform the test
+    if (!this.allow(value, this.filteredMethods.get(methodName)))
+    {
+      return false;
     }
 
     return true;
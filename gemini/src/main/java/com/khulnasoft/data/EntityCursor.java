@@ -0,0 +1,395 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.data;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+import java.util.stream.*;
+
+import com.khulnasoft.util.*;
+
+/**
+ * A forward-only, read-only cursor over the rows of a query, making an entity
+ * from each row only as it is requested.  Unlike {@link EntityGroup#query},
+ * the full result is never held in memory, so a cursor is suitable for
+ * exporting or reporting over very large tables.
+ *   <p>
+ * A cursor holds a database connection from the moment it is opened until it
+ * is closed.  Always use it in a try-with-resources block:
+ *
+ * <pre>
+ * try (EntityCursor&lt;Foo&gt; cursor = fooGroup.cursor(
+ *     "SELECT * FROM Foo WHERE Created &gt; ?;", since))
+ * {
+ *   while (cursor.hasNext())
+ *   {
+ *     write(cursor.next());
+ *   }
+ * }
+ * </pre>
+ *
+ * The cursor is also closed automatically once it has been exhausted or an
+ * error has occurred while reading from it.
+ *   <p>
+ * Rows are pulled from the database only as quickly as the consumer asks for
+ * them, and the driver is asked to fetch them in batches of the configured
+ * fetch size.  Cursors are not thread-safe; use {@link #forEachChunk} to
+ * spread the work of processing rows across threads.
+ *
+ * @param <T> the type of entities made by this cursor
+ */
+public class EntityCursor<T extends Identifiable>
+    implements Iterator<T>, AutoCloseable
+{
+
+  //
+  // Member variables.
+  //
+
+  private final EntityGroup<T> group;
+  private final ConnectionMonitor monitor;
+  private final boolean restoreAutoCommit;
+  private final PreparedStatement statement;
+  private final ResultSet resultSet;
+  private boolean advanced;
+  private boolean hasNext;
+  private boolean closed;
+  private long rowsRead;
+
+  //
+  // Constructor.
+  //
+
+  /**
+   * Opens a cursor.  Intended to be called by {@link EntityGroup}.
+   *
+   * @param group the group that makes entities from rows
+   * @param cf the connector factory to borrow a connection from
+   * @param fetchSize the number of rows the driver should fetch at a time
+   * @param query the SQL query
+   * @param arguments the values to substitute for the "?" marks in the query
+   */
+  protected EntityCursor(EntityGroup<T> group, ConnectorFactory cf,
+      int fetchSize, String query, Object... arguments)
+  {
+    this.group = group;
+    final DatabaseAffinity affinity = cf.getDatabaseAffinity();
+    ConnectionMonitor openedMonitor = null;
+    PreparedStatement openedStatement = null;
+    boolean autoCommitChanged = false;
+    try
+    {
+      openedMonitor = cf.getConnectionMonitor();
+      final Connection openedConnection = openedMonitor.getConnection();
+      // PostgreSQL only honors the fetch size inside a transaction; with
+      // auto-commit enabled it reads the entire result into memory.
+      if (affinity == DatabaseAffinity.POSTGRESQL
+          && openedConnection.getAutoCommit())
+      {
+        openedConnection.setAutoCommit(false);
+        autoCommitChanged = true;
+      }
+      openedStatement = openedConnection.prepareStatement(query,
+          ResultSet.TYPE_FORWARD_ONLY,
+          ResultSet.CONCUR_READ_ONLY);
+      // MySQL's driver only streams rows when given this particular hint;
+      // any other fetch size is ignored and the full result is buffered.
+      openedStatement.setFetchSize(affinity == DatabaseAffinity.MYSQL
+          ? Integer.MIN_VALUE
+          : fetchSize);
+      EntityGroup.attachArguments(openedStatement, arguments);
+      this.resultSet = openedStatement.executeQuery();
+      this.statement = openedStatement;
+      this.monitor = openedMonitor;
+      this.restoreAutoCommit = autoCommitChanged;
+    }
+    catch (SQLException e)
+    {
+      release(openedStatement, openedMonitor, autoCommitChanged);
+      throw new EntityException(group.name() 
+          + " Exception while opening cursor.", e);
+    }
+  }
+
+  //
+  // Iterator methods.
+  //
+
+  @Override
+  public boolean hasNext()
+  {
+    if (!this.advanced)
+    {
+      if (this.closed)
+      {
+        return false;
+      }
+      try
+      {
+        this.hasNext = this.resultSet.next();
+        this.advanced = true;
+      }
+      catch (SQLException e)
+      {
+        close();
+        throw new EntityException(this.group.name() 
+            + " Exception while reading from cursor.", e);
+      }
+      if (!this.hasNext)
+      {
+        close();
+      }
+    }
+    return this.hasNext;
+  }
+
+  @Override
+  public T next()
+  {
+    if (!hasNext())
+    {
+      throw new NoSuchElementException();
+    }
+    this.advanced = false;
+    try
+    {
+      final T object = this.group.make(this.resultSet);
+      this.rowsRead++;
+      return object;
+    }
+    catch (RuntimeException e)
+    {
+      close();
+      throw e;
+    }
+  }
+
+  //
+  // Public methods.
+  //
+
+  /**
+   * Returns the number of entities made by this cursor so far.
+   */
+  public long getRowsRead()
+  {
+    return this.rowsRead;
+  }
+
+  /**
+   * Returns true once this cursor has released its connection.
+   */
+  public boolean isClosed()
+  {
+    return this.closed;
+  }
+
+  /**
+   * Returns a sequential Stream over the remaining rows of this cursor.
+   * Closing the Stream closes this cursor.
+   */
+  public Stream<T> stream()
+  {
+    return StreamSupport.stream(
+        Spliterators.spliteratorUnknownSize(this,
+            Spliterator.ORDERED | Spliterator.NONNULL),
+        false).onClose(this::close);
+  }
+
+  /**
+   * Reads the remaining rows into lists of up to {@code chunkSize} entities
+   * and hands each list to the consumer on the provided executor.  At most
+   * {@code maxInFlight} chunks are queued or being processed at any time, so
+   * reading from the database pauses while the consumers catch up.  Returns
+   * once every chunk has been processed, and closes this cursor.
+   *   <p>
+   * Chunks may be processed out of order.  If any consumer throws, no further
+   * chunks are submitted, chunks already submitted but not yet started are
+   * skipped, and the first exception is rethrown once the chunks being
+   * processed have finished.  The same applies if reading a row throws.
+   *
+   * @param chunkSize the maximum number of entities per chunk
+   * @param maxInFlight the maximum number of chunks queued or processing
+   * @param executor the executor on which to run the consumer
+   * @param consumer processes one chunk of entities
+   */
+  public void forEachChunk(int chunkSize, int maxInFlight, Executor executor,
+      Consumer<? super List<T>> consumer)
+  {
+    if (chunkSize < 1 || maxInFlight < 1)
+    {
+      throw new IllegalArgumentException(
+          "Chunk size and maximum chunks in flight must be positive.");
+    }
+    final Semaphore permits = new Semaphore(maxInFlight);
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    final AtomicBoolean cancelled = new AtomicBoolean();
+    boolean completed = false;
+    try
+    {
+      while (failure.get() == null && hasNext())
+      {
+        final List<T> chunk = new ArrayList<>(chunkSize);
+        while (chunk.size() < chunkSize && hasNext())
+        {
+          chunk.add(next());
+        }
+        permits.acquireUninterruptibly();
+        try
+        {
+          executor.execute(() -> {
+            try
+            {
+              if (!cancelled.get() && failure.get() == null)
+              {
+                consumer.accept(chunk);
+              }
+            }
+            catch (RuntimeException | Error e)
+            {
+              failure.compareAndSet(null, e);
+            }
+            finally
+            {
+              permits.release();
+            }
+          });
+        }
+        catch (RuntimeException e)
+        {
+          permits.release();
+          throw e;
+        }
+      }
+      completed = true;
+    }
+    finally
+    {
+      // Whether finished, failed, or abandoned because reading threw, skip
+      // the chunks not yet started and wait for those being processed, so 
+      // that no consumer runs once this method has returned.
+      if (!completed || failure.get() != null)
+      {
+        cancelled.set(true);
+      }
+      permits.acquireUninterruptibly(maxInFlight);
+      permits.release(maxInFlight);
+      close();
+    }
+    final Throwable e = failure.get();
+    if (e instanceof Error)
+    {
+      throw (Error)e;
+    }
+    if (e != null)
+    {
+      throw (RuntimeException)e;
+    }
+  }
+
+  /**
+   * Releases the result set, statement, and connection held by this cursor.
+   * Calling this more than once has no effect.
+   */
+  @Override
+  public void close()
+  {
+    if (this.closed)
+    {
+      return;
+    }
+    this.closed = true;
+    this.advanced = true;
+    this.hasNext = false;
+    try
+    {
+      this.resultSet.close();
+    }
+    catch (SQLException e)
+    {
+      // Closing the statement below will try again.
+    }
+    release(this.statement, this.monitor, this.restoreAutoCommit);
+  }
+
+  /**
+   * Closes the statement and returns the connection to the pool, restoring
+   * auto-commit if it was disabled to allow streaming.
+   */
+  private static void release(PreparedStatement statement,
+      ConnectionMonitor monitor, boolean restoreAutoCommit)
+  {
+    try
+    {
+      if (statement != null)
+      {
+        statement.close();
+      }
+    }
+    catch (SQLException e)
+    {
+      // Nothing more can be done; the connection is still released below.
+    }
+    if (monitor != null)
+    {
+      try
+      {
+        if (restoreAutoCommit)
+        {
+          monitor.getConnection().setAutoCommit(true);
+        }
+      }
+      catch (SQLException e)
+      {
+        // The pool will validate the connection before reusing it.
+      }
+      finally
+      {
+        try
+        {
+          monitor.close();
+        }
+        catch (SQLException e)
+        {
+          // Nothing more can be done.
+        }
+      }
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return "EntityCursor [" + this.group.name() + "; read " + this.rowsRead 
+        + (this.closed ? "; closed]" : "]");
+  }
+
+}   // End EntityCursor.
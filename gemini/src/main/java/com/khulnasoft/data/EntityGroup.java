@@ -26,6 +26,7 @@
  *******************************************************************************/
 package com.khulnasoft.data;
 
+import gnu.trove.list.array.*;
 import gnu.trove.map.*;
 import gnu.trove.map.hash.*;
 
@@ -35,6 +36,7 @@ import java.time.*;
 import java.util.*;
 import java.util.Date;
 import java.util.concurrent.*;
+import java.util.stream.*;
 
 import com.esotericsoftware.reflectasm.*;
 import com.khulnasoft.cache.*;
@@ -100,6 +102,12 @@ public class EntityGroup<T extends Identifiable>
   // Constants.
   // 
 
+  /**
+   * The number of rows a cursor asks the driver to fetch at a time, unless
+   * specified otherwise.
+   */
+  public static final int DEFAULT_FETCH_SIZE = 1000;
+
   /**
    * Compares entities by id.  This is the default comparator used for sorting
    * objects if no other is provided.
@@ -311,6 +319,14 @@ public class EntityGroup<T extends Identifiable>
     return this.type;
   }
   
+  /**
+   * Returns the EntityStore that manages this group.
+   */
+  protected EntityStore entityStore()
+  {
+    return this.entityStore;
+  }
+  
   /**
    * Returns the simple name of the type of the entities.
    */
@@ -728,10 +744,13 @@ public class EntityGroup<T extends Identifiable>
     {
       throw new EntityException(this.name() + " Exception during SELECT (list).", e);
     }
-    // Skip sorting if not desired.
+    // Skip sorting if not desired.  Large groups are sorted in parallel.
+    // The sort is not cancellable because a cache may be loading these rows
+    // on behalf of every request waiting for it.
     if (this.comparator != NO_COMPARATOR)
     {
-      Collections.sort(objects, this.comparator);
+      this.entityStore.getParallelOperations().sort(name() + ".list", 
+          objects, this.comparator, null);
     }
     return objects;
   }
@@ -972,10 +991,122 @@ public class EntityGroup<T extends Identifiable>
     return object;
   }
   
+  /**
+   * Runs an arbitrary SQL query as {@link #query(String, Object...)}, but
+   * remembers the identities of the results, keyed by the query and its
+   * arguments.  Subsequent identical calls resolve those identities through
+   * {@link #list(Collection)} rather than running the query again, until any
+   * entity of this type is put, removed, or reset through the EntityStore.
+   *   <p>
+   * The results are neither sorted nor copied; they are in the order the
+   * query returned them, and entities that have since been removed are
+   * omitted.
+   * 
+   * @param query Any old SQL query.  Can use "?" marks in place of values.
+   * @param arguments The values to substitute for the "?" marks in the query.
+   * @return A list of entities, hopefully.
+   * @throws SQLException If you messed up.
+   */
+  public List<T> cachedQuery(String query, Object... arguments) throws SQLException
+  {
+    return this.entityStore.getQueryCache().query(this, null, query, arguments);
+  }
+
+  /**
+   * Runs an arbitrary SQL query as {@link #cachedQuery(String, Object...)},
+   * additionally invalidating the cached result when entities of any of the
+   * given types change.  Use this for queries that join other tables.
+   * 
+   * @param dependencies The other entity types the query reads.
+   * @param query Any old SQL query.  Can use "?" marks in place of values.
+   * @param arguments The values to substitute for the "?" marks in the query.
+   * @return A list of entities, hopefully.
+   * @throws SQLException If you messed up.
+   */
+  public List<T> cachedQuery(Class<?>[] dependencies, String query, 
+      Object... arguments) throws SQLException
+  {
+    return this.entityStore.getQueryCache().query(this, dependencies, query, 
+        arguments);
+  }
+
+  /**
+   * Returns the first result of {@link #cachedQuery(String, Object...)}, or
+   * null if there are no results.
+   */
+  public T cachedQuerySingle(String query, Object... arguments) throws SQLException
+  {
+    final List<T> objects = cachedQuery(query, arguments);
+    return objects.isEmpty() ? null : objects.get(0);
+  }
+
+  /**
+   * Opens a forward-only cursor over an arbitrary SQL query that <b>must</b>
+   * return a resultset comparable to the standard resultsets used by the
+   * list() method, as with {@link #query(String, Object...)}.  Rather than
+   * capturing every result into a List, entities are made one row at a time
+   * as the cursor is advanced, so memory use does not grow with the size of
+   * the result.
+   *   <p>
+   * The cursor holds a database connection until it is closed or exhausted;
+   * use it in a try-with-resources block.
+   *
+   * @param query Any old SQL query.  Can use "?" marks in place of values.
+   * @param arguments The values to substitute for the "?" marks in the query.
+   * @return An open cursor positioned before the first result.
+   */
+  public EntityCursor<T> cursor(String query, Object... arguments)
+  {
+    return cursor(DEFAULT_FETCH_SIZE, query, arguments);
+  }
+
+  /**
+   * Opens a forward-only cursor as {@link #cursor(String, Object...)}, asking
+   * the driver to fetch {@code fetchSize} rows at a time.
+   */
+  public EntityCursor<T> cursor(int fetchSize, String query, Object... arguments)
+  {
+    return new EntityCursor<>(this, this.cf, fetchSize, query, arguments);
+  }
+
+  /**
+   * Opens a forward-only cursor over every object in the database, without
+   * consulting any cache and without sorting.
+   */
+  public EntityCursor<T> cursor()
+  {
+    return cursor(DEFAULT_FETCH_SIZE,
+        "SELECT * FROM " + quotedTable + getWhereClause(" WHERE ") + ";",
+        this.whereArguments != null ? this.whereArguments : NO_VALUES);
+  }
+
+  /**
+   * Returns a sequential Stream over the results of an arbitrary SQL query,
+   * as {@link #cursor(String, Object...)}.  The Stream holds a database
+   * connection until it is closed or fully consumed, so it should be used in
+   * a try-with-resources block.
+   *
+   * @param query Any old SQL query.  Can use "?" marks in place of values.
+   * @param arguments The values to substitute for the "?" marks in the query.
+   */
+  public Stream<T> stream(String query, Object... arguments)
+  {
+    return cursor(query, arguments).stream();
+  }
+
+  /**
+   * Returns a sequential Stream over every object in the database, without
+   * consulting any cache and without sorting.  The Stream should be closed.
+   */
+  public Stream<T> stream()
+  {
+    return cursor().stream();
+  }
+  
   /**
    * Attach an arbitrary list of arguments to a PreparedStatement.
    */
-  private void attachArguments(PreparedStatement statement, Object... arguments)
+  static void attachArguments(PreparedStatement statement, Object... arguments)
     throws SQLException
   {
     int index = 1;
@@ -1339,7 +1470,109 @@ public class EntityGroup<T extends Identifiable>
     {
       throw new EntityException(this.name() + " Exception during identity aggregate.", e);
     }
-    return result;  
+    return result;
+  }
+
+  /**
+   * Returns the maximum value of an arbitrary column across the rows of this
+   * group, or null if no rows exist.  The value is returned as provided by
+   * the JDBC driver (e.g., a Long or a Timestamp) so that it may be bound
+   * back into a later query as-is.  For use by subclasses.
+   */
+  protected Object columnMaximum(String column)
+  {
+    try (
+        ConnectionMonitor monitor = this.cf.getConnectionMonitor();
+        PreparedStatement statement = monitor.getConnection().prepareStatement(
+            "SELECT MAX(" + enquote(column) + ") AS Result FROM " + quotedTable
+                + getWhereClause(" WHERE ") + ";",
+            ResultSet.TYPE_FORWARD_ONLY,
+            ResultSet.CONCUR_READ_ONLY)
+        )
+    {
+      attachWhereArguments(1, statement);
+      try (ResultSet resultSet = statement.executeQuery())
+      {
+        if (resultSet.next())
+        {
+          return resultSet.getObject(1);
+        }
+      }
+    }
+    catch (SQLException e)
+    {
+      throw new EntityException(this.name() + " Exception during column aggregate.", e);
+    }
+    return null;
+  }
+
+  /**
+   * Returns the entities whose value in the given column is greater than or
+   * equal to the provided value.  The comparison is inclusive so that rows
+   * modified within the same clock tick as the provided value are not
+   * missed; callers should expect to receive some rows more than once.  For
+   * use by subclasses.
+   */
+  protected List<T> rawListSince(String column, Object since)
+  {
+    final List<T> objects = new ArrayList<>();
+    try (
+        ConnectionMonitor monitor = this.cf.getConnectionMonitor();
+        PreparedStatement statement = monitor.getConnection().prepareStatement(
+            "SELECT * FROM " + quotedTable
+                + " WHERE " + enquote(column) + " >= ?"
+                + getWhereClause(" AND ") + ";",
+            ResultSet.TYPE_FORWARD_ONLY,
+            ResultSet.CONCUR_READ_ONLY)
+        )
+    {
+      statement.setObject(1, since);
+      attachWhereArguments(2, statement);
+      try (ResultSet resultSet = statement.executeQuery())
+      {
+        while (resultSet.next())
+        {
+          objects.add(make(resultSet));
+        }
+      }
+    }
+    catch (SQLException e)
+    {
+      throw new EntityException(this.name() + " Exception during SELECT (since).", e);
+    }
+    return objects;
+  }
+
+  /**
+   * Returns the identities of all rows in this group without constructing
+   * any entities.  For use by subclasses.
+   */
+  protected long[] rawIds()
+  {
+    final TLongArrayList ids = new TLongArrayList();
+    try (
+        ConnectionMonitor monitor = this.cf.getConnectionMonitor();
+        PreparedStatement statement = monitor.getConnection().prepareStatement(
+            "SELECT " + quotedIdField + " FROM " + quotedTable
+                + getWhereClause(" WHERE ") + ";",
+            ResultSet.TYPE_FORWARD_ONLY,
+            ResultSet.CONCUR_READ_ONLY)
+        )
+    {
+      attachWhereArguments(1, statement);
+      try (ResultSet resultSet = statement.executeQuery())
+      {
+        while (resultSet.next())
+        {
+          ids.add(resultSet.getLong(1));
+        }
+      }
+    }
+    catch (SQLException e)
+    {
+      throw new EntityException(this.name() + " Exception during SELECT (ids).", e);
+    }
+    return ids.toArray();
   }
 
   /**
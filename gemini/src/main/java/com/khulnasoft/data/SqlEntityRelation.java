@@ -223,6 +223,71 @@ public class SqlEntityRelation<L extends Identifiable, R extends Identifiable>
         + questionMarks + ";";
   }
 
+  /**
+   * Fetches the values associated with each of the given keys, issuing one
+   * SELECT ... IN (...) per {@link #MAX_SQL_SIZE} keys rather than one SELECT
+   * per key.  Every distinct key is present in the returned map; keys with no
+   * associated values map to an empty set.
+   *
+   * @param keyColumn the quoted column the keys are matched against
+   * @param valueColumn the quoted column holding the associated values
+   * @param keys the keys to look up
+   * @return a map from each key to the (possibly empty) set of its values
+   */
+  private Map<Long, Set<Long>> idsForMany(String keyColumn,
+      String valueColumn, long[] keys)
+  {
+    final Map<Long, Set<Long>> result = new HashMap<>(keys.length * 2);
+    for (long key : keys)
+    {
+      result.putIfAbsent(key, new HashSet<>());
+    }
+    if (result.isEmpty())
+    {
+      return result;
+    }
+    final long[] distinctKeys = new long[result.size()];
+    int count = 0;
+    for (long key : result.keySet())
+    {
+      distinctKeys[count++] = key;
+    }
+    try (ConnectionMonitor monitor = this.cf.getConnectionMonitor())
+    {
+      for (int start = 0; start < distinctKeys.length; start += MAX_SQL_SIZE)
+      {
+        final int end = Math.min(start + MAX_SQL_SIZE, distinctKeys.length);
+        try (PreparedStatement selectStatement = monitor.getConnection().prepareStatement(
+                 "SELECT " + keyColumn + ", " + valueColumn
+                     + " FROM " + quotedTable
+                     + " WHERE " + keyColumn + " IN ("
+                     + StringHelper.join(",", Collections.nCopies(end - start, "?"))
+                     + ");",
+                 ResultSet.TYPE_FORWARD_ONLY,
+                 ResultSet.CONCUR_READ_ONLY))
+        {
+          int index = 0;
+          for (int i = start; i < end; i++)
+          {
+            selectStatement.setLong(++index, distinctKeys[i]);
+          }
+          try (ResultSet resultSet = selectStatement.executeQuery())
+          {
+            while (resultSet.next())
+            {
+              result.get(resultSet.getLong(1)).add(resultSet.getLong(2));
+            }
+          }
+        }
+      }
+      return result;
+    }
+    catch (SQLException e)
+    {
+      throw new EntityException(e);
+    }
+  }
+
   //
   // Public API
   //
@@ -534,6 +599,20 @@ public class SqlEntityRelation<L extends Identifiable, R extends Identifiable>
         : leftIDs(right.getId());
   }
 
+  /**
+   * Returns the left IDs associated with each of the given right IDs, using
+   * one query per thousand right IDs instead of one query per right ID.
+   * Every requested right ID is a key in the returned map; those without any
+   * left values map to an empty set.
+   *
+   * @param rightIDs the right IDs to look up
+   * @return a map from each right ID to its set of left IDs
+   */
+  public Map<Long, Set<Long>> leftIDsForMany(long... rightIDs)
+  {
+    return idsForMany(quotedRightColumn, quotedLeftColumn, rightIDs);
+  }
+
   @Override
   public int leftSize(long rightID)
   {
@@ -1026,6 +1105,20 @@ public class SqlEntityRelation<L extends Identifiable, R extends Identifiable>
         : rightIDsLongSet(left.getId());
   }
 
+  /**
+   * Returns the right IDs associated with each of the given left IDs, using
+   * one query per thousand left IDs instead of one query per left ID.
+   * Every requested left ID is a key in the returned map; those without any
+   * right values map to an empty set.
+   *
+   * @param leftIDs the left IDs to look up
+   * @return a map from each left ID to its set of right IDs
+   */
+  public Map<Long, Set<Long>> rightIDsForMany(long... leftIDs)
+  {
+    return idsForMany(quotedLeftColumn, quotedRightColumn, leftIDs);
+  }
+
   @Override
   public int rightSize(long leftID)
   {
@@ -81,4 +81,15 @@ public @interface CachedEntity
    * constrain the number of entities retained in memory by the LRU cache.
    */
   int lruSize() default 0;
+
+  /**
+   * The name of a column whose value increases monotonically across the
+   * table whenever a row is changed, such as a last-modified timestamp.  If
+   * specified, the CacheGroup will be versioned and can be brought up to
+   * date without a full reload.  Ignored if lruSize is non-zero.
+   *
+   * @return the name of the version column
+   * @see com.khulnasoft.cache.CacheGroup.Builder#versionColumn(String)
+   */
+  String versionColumn() default "";
 }
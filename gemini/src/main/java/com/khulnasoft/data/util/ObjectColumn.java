@@ -29,10 +29,10 @@ package com.khulnasoft.data.util;
 
 import gnu.trove.map.*;
 
-import java.lang.reflect.*;
 import java.util.*;
 
 import com.khulnasoft.helper.*;
+import com.khulnasoft.reflect.*;
 
 /**
  * An implementation of the TabularColumn interface that provides a simple
@@ -41,13 +41,6 @@ import com.khulnasoft.helper.*;
 public class ObjectColumn
   implements TabularColumn
 {
-  //
-  // Constants.
-  //
-  
-  private static final Class<?>[]  PARAMETER_TYPES = new Class[0];
-  private static final Object[] PARAMETER_VALUES = new Object[0];
-  
   //
   // Member variables.
   //
@@ -55,7 +48,7 @@ public class ObjectColumn
   private final String displayFieldName;
   private final String objectMethodName;
   private final String defaultValue;
-  private       Method objectMethod;
+  private       Accessor objectMethod;
   
   /** 
    * labelFields is a lookup table from integer values stored in the object
@@ -119,13 +112,10 @@ public class ObjectColumn
     // values, try to get one here.
     if (this.objectMethod == null)
     {
-      try
-      {
-        this.objectMethod = source.getClass().getMethod(this.objectMethodName, PARAMETER_TYPES);
-      }
-      catch (NoSuchMethodException nsmexc)
+      this.objectMethod = Accessor.findMethod(source.getClass(), this.objectMethodName);
+      if (this.objectMethod == null)
       {
-        throw new IllegalArgumentException("Could not find method " + this.objectMethodName, nsmexc);
+        throw new IllegalArgumentException("Could not find method " + this.objectMethodName);
       }
     }
     
@@ -137,7 +127,7 @@ public class ObjectColumn
       // integers, let's grab the integer and use the mapped String.
       if (this.labelFields != null)
       {
-        int intValue = (Integer)this.objectMethod.invoke(source, PARAMETER_VALUES);
+        int intValue = this.objectMethod.getInt(source);
 
         if (this.labelFields instanceof TIntObjectMap)
         {
@@ -166,7 +156,7 @@ public class ObjectColumn
       // Otherwise, get the value from the object directly.
       else
       {
-        Object objValue = this.objectMethod.invoke(source, PARAMETER_VALUES);
+        Object objValue = this.objectMethod.get(source);
         if (objValue != null)
         {
           if (objValue instanceof Date)
@@ -186,12 +176,7 @@ public class ObjectColumn
       
       return value;
     }
-    catch (IllegalAccessException iae)
-    {
-      // Return the default value.
-      return this.defaultValue;
-    }
-    catch (InvocationTargetException ite)
+    catch (RuntimeException exc)
     {
       // Return the default value.
       return this.defaultValue;
@@ -400,6 +400,19 @@ public abstract class Context
     this.session = null;
   }
 
+  /**
+   * Notifies the session, if one was used by this request, that the request
+   * is complete.  Called by the application after the request's listeners
+   * have been notified.
+   */
+  public void completeSession()
+  {
+    if (this.session != null)
+    {
+      this.session.requestComplete();
+    }
+  }
+
   /**
    * Gets the full standard (non-secure) URL to the Servlet.
    */
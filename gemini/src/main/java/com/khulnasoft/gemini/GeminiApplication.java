@@ -1072,6 +1072,9 @@ public abstract class GeminiApplication
             // notified.
           }
         }
+
+        // Let a session kept outside of the container write its changes.
+        context.completeSession();
       }
     }
     else
@@ -193,6 +193,18 @@ public interface Request
    */
   void setCookie(String name, String value, String domain, String path, 
       int age, boolean secure);
+
+  /**
+   * Sends a cookie in the response, optionally marked HttpOnly so that it is
+   * not visible to scripts.  Implementations that cannot mark a cookie
+   * HttpOnly send it as {@link #setCookie(String, String, String, String, 
+   * int, boolean)} does.
+   */
+  default void setCookie(String name, String value, String domain, 
+      String path, int age, boolean secure, boolean httpOnly)
+  {
+    setCookie(name, value, domain, path, age, secure);
+  }
   
   /**
    * Deletes a cookie from the user's browser.  This is achieved by setting
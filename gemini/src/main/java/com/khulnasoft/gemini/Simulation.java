@@ -227,6 +227,15 @@ public abstract class Simulation
     return false;
   }
   
+  /**
+   * Gets the session manager used for simulated requests, which keeps one
+   * session per SimClient.
+   */
+  public SimSessionManager getSimSessionManager()
+  {
+    return this.application.getSimSessionManager();
+  }
+  
   public void destroy()
   {
     this.application.end();
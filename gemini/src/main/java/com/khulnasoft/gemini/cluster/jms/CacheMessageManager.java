@@ -28,6 +28,7 @@
 package com.khulnasoft.gemini.cluster.jms;
 
 import java.util.*;
+import java.util.concurrent.*;
 import javax.jms.*;
 import org.slf4j.*;
 import com.khulnasoft.cache.*;
@@ -36,22 +37,49 @@ import com.khulnasoft.data.*;
 import com.khulnasoft.gemini.*;
 import com.khulnasoft.gemini.cluster.*;
 import com.khulnasoft.gemini.cluster.message.*;
+import com.khulnasoft.gemini.pyxis.*;
+import com.khulnasoft.gemini.websocket.*;
+import com.khulnasoft.scheduler.*;
+import com.khulnasoft.security.*;
 import com.khulnasoft.util.*;
 
 /**
  * Handles cache maintenance messages for both sending and handling updates.
  * Does not repeat actions sent from self.
  * <p>
+ * Also elects a leader for cluster singleton scheduled events when asked 
+ * to via electLeader: each instance broadcasts a heartbeat, and the live
+ * instance with the lowest client ID leads.
+ * </p>
+ * <p>
+ * RateLimiters passed to synchronize share their recorded permits and
+ * resets, so that, e.g., a successful login clears a client's failed
+ * attempts on every instance.
+ * </p>
+ * <p>
+ * Also relays frames published to WebsocketHubs that have been passed to
+ * synchronize, so that subscribers connected to any instance receive them.
+ * </p>
+ * <p>
+ * Also tells peers when a user's login tokens are cleared, for a
+ * LoginTokenManager that has been passed to synchronize, so that no instance
+ * keeps honoring recently validated tokens for that user.
+ * </p>
+ * <p>
  * Currently only handles one async message at a time. This should be fine.
  * </p>
  */
 public class CacheMessageManager
-    implements CacheListener, CachedRelationListener, DistributionListener, Configurable
+    implements CacheListener, CachedRelationListener, DistributionListener, 
+               RateLimiter.Synchronizer, WebsocketHub.Relay, Scheduler.Leadership,
+               LoginTokenManager.Synchronizer,
+               Configurable
 {
   public static final String      CACHE_TOPIC_DESTINATION = "CACHE.TOPIC";
   public static final String      MESSAGE_PROPERTY_UUID   = "Gemini.CacheMgr.ClientUUID";
   public static final long        DEFAULT_STATS_PERIOD_MINUTES = 10;
   public static final long        DEFAULT_STATS_LOG_MAX_THRESHOLD_MS = 10;
+  public static final int         DEFAULT_HEARTBEAT_SECONDS = 10;
 
   //
   // Variables.
@@ -66,11 +94,18 @@ public class CacheMessageManager
   private Connection              subscribeConnection;
   private GeminiPublisher         publisher;
   private AsyncSubscriber         subscriber;
-  private String                  instanceID;
+  private volatile String         instanceID;
   private int                     maximumRelationSize     = 10000;
   private int                     deliveryMode            = DeliveryMode.PERSISTENT;
   private long                    statsPeriodMinutes      = DEFAULT_STATS_PERIOD_MINUTES;
   private long                    statsLogMaxThresholdMs  = DEFAULT_STATS_LOG_MAX_THRESHOLD_MS;
+  private final Map<String, RateLimiter> rateLimiters     = new ConcurrentHashMap<>();
+  private final Map<String, WebsocketHub> websocketHubs   = new ConcurrentHashMap<>();
+  private final Map<String, Long> peerHeartbeats          = new ConcurrentHashMap<>();
+  private volatile LoginTokenManager loginTokenManager;
+  private int                     heartbeatSeconds        = DEFAULT_HEARTBEAT_SECONDS;
+  private volatile long           electionStart           = 0L;
+  private ScheduledExecutorService heartbeats;
 
   //
   // Methods.
@@ -102,6 +137,7 @@ public class CacheMessageManager
     log.info("[CacheMessageManager.StatsPeriodMinutes: " + statsPeriodMinutes + "]");
     this.statsLogMaxThresholdMs = props.getLong("StatsLogMaxThresholdMs", DEFAULT_STATS_LOG_MAX_THRESHOLD_MS);
     log.info("[CacheMessageManager.StatsLogMaxThresholdMs: " + statsLogMaxThresholdMs + "]");
+    this.heartbeatSeconds = Math.max(1, props.getInt(propsPrefix + "HeartbeatSeconds", DEFAULT_HEARTBEAT_SECONDS));
   }
 
   /**
@@ -120,6 +156,10 @@ public class CacheMessageManager
    */
   public void connect(ConnectionFactory publishConnectionFactory, ConnectionFactory subscribeConnectionFactory) throws JMSException
   {
+    // If we were previously connected, we may have missed notifications
+    // while disconnected.
+    final boolean reconnecting = (this.publisher != null);
+
     // Close existing publisher or subscriber
     if (this.publisher != null)
     {
@@ -146,6 +186,15 @@ public class CacheMessageManager
         CacheMessageManager.CACHE_TOPIC_DESTINATION);
     subscriber.start(new CacheSignalListener(this.application));
     log.info("JMS subscribe connection established @{}", subscribeConnection.getClientID());
+
+    if (reconnecting && store.isInitialized())
+    {
+      // Catch up on anything missed while disconnected.  Only versioned
+      // groups can do this cheaply; unversioned groups are left as they
+      // are rather than having every instance reload them at once.
+      log.info("Reconnected; delta syncing versioned groups.");
+      store.deltaSyncVersionedGroups(false);
+    }
   }
 
   /**
@@ -154,6 +203,15 @@ public class CacheMessageManager
   public void close()
   {
     log.info("CacheMessageManager is closing.");
+    instanceID = null;
+    synchronized (this)
+    {
+      if (heartbeats != null)
+      {
+        heartbeats.shutdownNow();
+        heartbeats = null;
+      }
+    }
     if (publisher != null)
     {
       publisher.close();
@@ -182,6 +240,138 @@ public class CacheMessageManager
     }
   }
 
+  /**
+   * Synchronizes a RateLimiter across instances: permits recorded locally
+   * are broadcast, and permits received from other instances are applied
+   * to the local limiter with the same name.  Every instance must call this
+   * for the limiters it wishes to share.
+   */
+  public void synchronize(RateLimiter limiter)
+  {
+    rateLimiters.put(limiter.getName(), limiter);
+    limiter.setSynchronizer(this);
+  }
+
+  /**
+   * Synchronizes a WebsocketHub across instances: frames published locally
+   * are broadcast, and frames received from other instances are delivered
+   * to the local subscribers of the hub with the same name.  Every instance
+   * must call this for the hubs it wishes to share.
+   */
+  public void synchronize(WebsocketHub hub)
+  {
+    websocketHubs.put(hub.getName(), hub);
+    hub.setRelay(this);
+  }
+
+  /**
+   * Synchronizes a LoginTokenManager across instances: when all of a user's
+   * tokens are cleared locally, the other instances forget the tokens they
+   * recently validated for that user.  Every instance must call this.
+   */
+  public void synchronize(LoginTokenManager manager)
+  {
+    loginTokenManager = manager;
+    manager.setSynchronizer(this);
+  }
+
+  /**
+   * Makes this manager the Leadership for a Scheduler's cluster singleton
+   * events and starts sending heartbeats.  Heartbeats are sent from a 
+   * thread of their own rather than as a scheduled event, so that a 
+   * long-running event cannot delay them and cost this instance its
+   * leadership.  Every instance must call this for the election to be 
+   * meaningful.
+   */
+  public synchronized void electLeader(Scheduler scheduler)
+  {
+    electionStart = System.currentTimeMillis();
+    scheduler.setLeadership(this);
+    if (heartbeats == null)
+    {
+      heartbeats = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "Cluster Heartbeat");
+        thread.setDaemon(true);
+        return thread;
+      });
+      heartbeats.scheduleAtFixedRate(this::heartbeat, 0L, heartbeatSeconds,
+          TimeUnit.SECONDS);
+    }
+  }
+  
+  /**
+   * Returns true if this instance has the lowest client ID of the instances
+   * heard from within three heartbeats.  An instance does not lead until it
+   * has been listening for two heartbeats, so that it learns of its peers 
+   * first.  An instance that is not connected does not lead, since it 
+   * cannot tell whether a connected peer is leading.
+   */
+  @Override
+  public boolean isLeader()
+  {
+    final String self = instanceID;
+    if (self == null)
+    {
+      return false;
+    }
+    
+    final long now = System.currentTimeMillis();
+    final long interval = heartbeatSeconds * UtilityConstants.SECOND;
+    if (now - electionStart < 2 * interval)
+    {
+      return false;
+    }
+    
+    for (Map.Entry<String, Long> peer : peerHeartbeats.entrySet())
+    {
+      if (now - peer.getValue() <= 3 * interval
+          && peer.getKey().compareTo(self) < 0)
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void permitsRecorded(RateLimiter limiter, String key, int permits)
+  {
+    final RateLimitMessage message = new RateLimitMessage();
+    message.setLimiterName(limiter.getName());
+    message.setKey(key);
+    message.setPermits(permits);
+    send(message);
+  }
+
+  @Override
+  public void keyReset(RateLimiter limiter, String key)
+  {
+    final RateLimitMessage message = new RateLimitMessage();
+    message.setLimiterName(limiter.getName());
+    message.setKey(key);
+    message.setReset(true);
+    send(message);
+  }
+
+  @Override
+  public void tokensCleared(LoginTokenManager manager, String username)
+  {
+    final LoginTokenMessage message = new LoginTokenMessage();
+    message.setUsername(username);
+    send(message);
+  }
+
+  @Override
+  public void published(WebsocketHub hub, WebsocketFrame frame)
+  {
+    final WebsocketMessage message = new WebsocketMessage();
+    message.setHubName(hub.getName());
+    message.setTopic(frame.getTopic());
+    message.setText(frame.getText());
+    message.setCoalesceKey(frame.getCoalesceKey());
+    send(message);
+  }
+
   //
   // CacheListener methods
   //
@@ -386,6 +576,33 @@ public class CacheMessageManager
     send(message);
   }
 
+  /**
+   * Broadcasts this instance's heartbeat and forgets peers that have gone
+   * quiet.  Runs on the heartbeat thread.
+   */
+  private void heartbeat()
+  {
+    try
+    {
+      final String self = instanceID;
+      if (self != null)
+      {
+        final HeartbeatMessage message = new HeartbeatMessage();
+        message.setInstanceId(self);
+        send(message);
+      }
+      
+      final long expired = System.currentTimeMillis() 
+          - 10 * heartbeatSeconds * UtilityConstants.SECOND;
+      peerHeartbeats.values().removeIf(seen -> seen < expired);
+    }
+    catch (RuntimeException exc)
+    {
+      // An exception would cancel the remaining heartbeats.
+      log.warn("Unable to send heartbeat.", exc);
+    }
+  }
+
   /**
    * Private inner class for listening to cache notifications
    */
@@ -530,7 +747,9 @@ public class CacheMessageManager
               // No problem! Some instance has this as a CacheGroup, thus it is
               // sent over the message queue. But *this* instance does not have
               // it as a CacheGroup, only an EntityGroup, which means we have
-              // nothing to update here.
+              // no entities to update here, only listeners such as the query
+              // cache to notify.
+              store.notifyListenersCacheObjectExpired(false, group.getType(), cacheMessage.getObjectId());
             }
             else            {
               log.info("Receiving 'cache object expired' but group id is invalid:{}, group: {}",
@@ -574,13 +793,18 @@ public class CacheMessageManager
             // Now that the object is deleted from the cache, also delete from the method
             // value cache if needed.
             store.methodValueCacheDelete(group.getType(), cacheMessage.getObjectId());
+            store.notifyListenersRemoveFromCache(false, group.getType(), cacheMessage.getObjectId());
             break;
           }
           case (CacheMessage.ACTION_GROUP_RESET):
           {
-            store.reset(store.getGroup(cacheMessage.getGroupId()).type(), true, false);
-            log.info("Received 'cache group reset' for group id {}, " +
-                "cacheMessage: {}", cacheMessage.getGroupId(), cacheMessage);
+            // Versioned groups only re-read the rows that have changed
+            // rather than having every peer reload the whole group at once.
+            final boolean delta = store.deltaSync(
+                store.getGroup(cacheMessage.getGroupId()).type(), false);
+            log.info("Received 'cache group reset' for group id {} ({}), " +
+                "cacheMessage: {}", cacheMessage.getGroupId(), 
+                delta ? "delta sync" : "full reset", cacheMessage);
             break;
           }
           default:
@@ -666,6 +890,57 @@ public class CacheMessageManager
         }
       }
 
+      else if (broadcastMessage instanceof HeartbeatMessage)
+      {
+        final HeartbeatMessage heartbeatMessage = (HeartbeatMessage)broadcastMessage;
+        statsKey = "h";
+        peerHeartbeats.put(heartbeatMessage.getInstanceId(), start);
+        log.debug("Received 'heartbeat': {}", heartbeatMessage);
+      }
+
+      else if (broadcastMessage instanceof RateLimitMessage)
+      {
+        final RateLimitMessage rateLimitMessage = (RateLimitMessage)broadcastMessage;
+        statsKey = "l" + rateLimitMessage.getLimiterName();
+        final RateLimiter limiter = rateLimiters.get(rateLimitMessage.getLimiterName());
+        if (limiter != null)
+        {
+          if (rateLimitMessage.isReset())
+          {
+            limiter.resetRemote(rateLimitMessage.getKey());
+          }
+          else
+          {
+            limiter.recordRemote(rateLimitMessage.getKey(),
+                rateLimitMessage.getPermits());
+          }
+          log.debug("Received 'rate limit': {}", rateLimitMessage);
+        }
+      }
+      else if (broadcastMessage instanceof WebsocketMessage)
+      {
+        final WebsocketMessage websocketMessage = (WebsocketMessage)broadcastMessage;
+        statsKey = "w" + websocketMessage.getHubName();
+        final WebsocketHub hub = websocketHubs.get(websocketMessage.getHubName());
+        if (hub != null)
+        {
+          hub.deliverRemote(websocketMessage.getTopic(),
+              websocketMessage.getText(), websocketMessage.getCoalesceKey());
+          log.debug("Received 'websocket': {}", websocketMessage);
+        }
+      }
+      else if (broadcastMessage instanceof LoginTokenMessage)
+      {
+        final LoginTokenMessage loginTokenMessage = (LoginTokenMessage)broadcastMessage;
+        statsKey = "t";
+        final LoginTokenManager manager = loginTokenManager;
+        if (manager != null)
+        {
+          manager.clearRemote(loginTokenMessage.getUsername());
+          log.debug("Received 'login tokens cleared': {}", loginTokenMessage);
+        }
+      }
+
       if (statsKey != null) {
         // Gather statistics on transmission and receiver processing timings and periodically log a
         // summary.
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.gemini.cluster.message;
+
+/**
+ * Contains permits recorded by a RateLimiter on one instance, to be applied
+ * to the same-named RateLimiter on the other instances.
+ */
+public class RateLimitMessage
+     extends BroadcastMessage
+{
+  private static final long serialVersionUID = 1L;
+
+  private String            limiterName;
+  private String            key;
+  private int               permits;
+  private boolean           reset;
+
+  public String getLimiterName()
+  {
+    return this.limiterName;
+  }
+
+  public void setLimiterName(String limiterName)
+  {
+    this.limiterName = limiterName;
+  }
+
+  public String getKey()
+  {
+    return this.key;
+  }
+
+  public void setKey(String key)
+  {
+    this.key = key;
+  }
+
+  public int getPermits()
+  {
+    return this.permits;
+  }
+
+  public void setPermits(int permits)
+  {
+    this.permits = permits;
+  }
+
+  /**
+   * Returns true if this message resets the key rather than recording 
+   * permits.
+   */
+  public boolean isReset()
+  {
+    return this.reset;
+  }
+
+  public void setReset(boolean reset)
+  {
+    this.reset = reset;
+  }
+
+  /**
+   * toString.
+   */
+  @Override
+  public String toString()
+  {
+    return "RateLimitMessage [" + hashCode()
+        + "; " + getMessageId()
+        + "; " + getLimiterName()
+        + "; " + getKey()
+        + "; " + (isReset() ? "reset" : getPermits() + " permits")
+        + "]";
+  }
+}
@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.gemini.cluster.message;
+
+/**
+ * Contains a frame published to a WebsocketHub on one instance, to be
+ * delivered to the subscribers of the same-named WebsocketHub on the other
+ * instances.
+ */
+public class WebsocketMessage
+     extends BroadcastMessage
+{
+  private static final long serialVersionUID = 1L;
+
+  private String            hubName;
+  private String            topic;
+  private String            text;
+  private String            coalesceKey;
+
+  public String getHubName()
+  {
+    return this.hubName;
+  }
+
+  public void setHubName(String hubName)
+  {
+    this.hubName = hubName;
+  }
+
+  public String getTopic()
+  {
+    return this.topic;
+  }
+
+  public void setTopic(String topic)
+  {
+    this.topic = topic;
+  }
+
+  public String getText()
+  {
+    return this.text;
+  }
+
+  public void setText(String text)
+  {
+    this.text = text;
+  }
+
+  public String getCoalesceKey()
+  {
+    return this.coalesceKey;
+  }
+
+  public void setCoalesceKey(String coalesceKey)
+  {
+    this.coalesceKey = coalesceKey;
+  }
+
+  /**
+   * toString.
+   */
+  @Override
+  public String toString()
+  {
+    return "WebsocketMessage [" + hashCode()
+        + "; " + getMessageId()
+        + "; " + getHubName()
+        + "; " + getTopic()
+        + "; " + getCoalesceKey()
+        + "]";
+  }
+}
@@ -87,6 +87,8 @@ public class EmailPackage
   private boolean                    hasHtmlBody           = false;   // * Email has an HTML body.
   private boolean                    hasTextBody           = false;   // * Email has a text body.
   private EmailAuthenticator         authenticator         = null;    //   Authenticator to use when delivering mail.
+  private EmailPriority              priority              = EmailPriority.NORMAL; // Queue lane used by EmailServicer.
+  private String                     deliveryKey           = null;    //   Optional key identifying duplicate sends.
   
   private int                        deliveryAttempts      = 0;       // * Number of times EmailTransport has tried to deliver.
   //private int                        totalDeliveryAttempts = 0;       // * A counter that is not reset.
@@ -212,6 +214,14 @@ public class EmailPackage
     return "";
   }
 
+  /**
+   * Returns true if any custom attributes have been set.
+   */
+  public boolean hasCustomAttributes()
+  {
+    return this.custom != null && !this.custom.isEmpty();
+  }
+
   /**
    * Get the custom attribute as an object.
    */
@@ -574,6 +584,42 @@ public class EmailPackage
     this.authenticator = authenticator;
   }
   
+  /**
+   * Gets the delivery priority.
+   */
+  public EmailPriority getPriority()
+  {
+    return this.priority;
+  }
+  
+  /**
+   * Sets the delivery priority, which selects the EmailServicer queue lane
+   * used for this e-mail.  A null priority is treated as NORMAL.
+   */
+  public void setPriority(EmailPriority priority)
+  {
+    this.priority = (priority != null ? priority : EmailPriority.NORMAL);
+  }
+  
+  /**
+   * Gets the delivery key, or null if none has been set.
+   */
+  public String getDeliveryKey()
+  {
+    return this.deliveryKey;
+  }
+  
+  /**
+   * Sets an application-defined key identifying this e-mail, such as
+   * "password-reset:" + user ID + ":" + token.  The EmailServicer will not
+   * queue a second e-mail with the same delivery key while the first is
+   * still pending or was recently sent, which makes resending idempotent.
+   */
+  public void setDeliveryKey(String deliveryKey)
+  {
+    this.deliveryKey = deliveryKey;
+  }
+  
   /**
    * Sets the EmailPackage as having an html body part.
    */
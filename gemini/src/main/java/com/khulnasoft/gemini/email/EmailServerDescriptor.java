@@ -69,6 +69,9 @@ public class EmailServerDescriptor
   private final boolean       outbound;
   private final boolean       inbound;
   private final String        inboundProtocol;
+  private volatile Session    session;
+  private volatile SmtpConnectionPool 
+                              connectionPool;
 
   //
   // Member methods.
@@ -188,11 +191,36 @@ public class EmailServerDescriptor
   }
 
   /**
-   * Gets the JavaMail Session object associated with this mail server.
+   * Gets the JavaMail Session object associated with this mail server.  The
+   * Session is created on first use and then reused.
    */
   protected Session getSession()
   {
-    return Session.getInstance(getProperties(), authenticator);
+    Session result = session;
+    if (result == null)
+    {
+      result = Session.getInstance(getProperties(), authenticator);
+      session = result;
+    }
+    return result;
+  }
+  
+  /**
+   * Gets the pool of SMTP connections to this server, or null if outbound
+   * connections are not pooled.
+   */
+  public SmtpConnectionPool getConnectionPool()
+  {
+    return connectionPool;
+  }
+  
+  /**
+   * Sets the pool of SMTP connections to this server.  Called by
+   * EmailTransport when configured.
+   */
+  protected void setConnectionPool(SmtpConnectionPool connectionPool)
+  {
+    this.connectionPool = connectionPool;
   }
 
   /**
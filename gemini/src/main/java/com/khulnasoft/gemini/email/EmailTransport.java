@@ -29,6 +29,7 @@ package com.khulnasoft.gemini.email;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.*;
 
 import javax.activation.*;
 import javax.mail.*;
@@ -93,6 +94,18 @@ import org.slf4j.LoggerFactory;
  *     outbound email, inbound email, or both.  Acceptable values are 
  *     "Outbound", "Inbound", and "Both".  By default, a mail server is
  *     assumed to be Outbound only.
+ * <li>OutboundEmail.PoolSize - The maximum number of pooled SMTP 
+ *     connections kept open to each outbound mail server.  Pooled 
+ *     connections carry many messages each, avoiding a TCP, TLS, and 
+ *     authentication handshake per message.  Set to 0 to open a new 
+ *     connection for every message.  Default: 4.
+ * <li>OutboundEmail.MessagesPerConnection - The number of messages sent on
+ *     a pooled connection before it is closed.  Default: 100.
+ * <li>OutboundEmail.PoolMaxIdleSeconds - How long a pooled connection may
+ *     sit idle before it is closed rather than reused.  Default: 30.
+ * <li>OutboundEmail.ServerSelection - "failover" (the default) uses the
+ *     first outbound mail server, moving to the next on each retry.
+ *     "round-robin" spreads messages across all outbound mail servers.
  * <li>OutboundMailEnabled - Allows disabling outbound e-mail wholesale by
  *     setting this attribute to false.  By default outbound e-mail is 
  *     enabled.  (Was previously named "MailServerEnabled".)
@@ -122,6 +135,8 @@ public class EmailTransport
   public static final int    DEFAULT_PROTO_INIT_TIMEOUT = 100;
   public static final int    DEFAULT_SOCKET_TIMEOUT     = 100;
   public static final int    DEFAULT_RETRIES            = 10;
+  public static final String SELECTION_FAILOVER         = "failover";
+  public static final String SELECTION_ROUND_ROBIN      = "round-robin";
 
   //
   // Member variables.
@@ -140,6 +155,11 @@ public class EmailTransport
   private String              defaultPassword       = null;
   private Authenticator       defaultAuthenticator  = null;
   private Logger              log                   = LoggerFactory.getLogger(getClass());
+  private int                 poolSize              = SmtpConnectionPool.DEFAULT_MAX_CONNECTIONS;
+  private int                 messagesPerConnection = SmtpConnectionPool.DEFAULT_MESSAGES_PER_CONNECTION;
+  private long                poolMaxIdleMillis     = SmtpConnectionPool.DEFAULT_MAX_IDLE_MILLIS;
+  private boolean             roundRobin            = false;
+  private final AtomicInteger nextServer            = new AtomicInteger();
   
   //
   // Member methods.
@@ -193,6 +213,15 @@ public class EmailTransport
       log.info("OutboundMailEnabled is deprecated.  Use OutboundEmail.Enabled instead.");
     }
     outboundMailEnabled = outboundFocus.getBoolean("Enabled", outboundMailEnabled);
+    poolSize = outboundFocus.getInt("PoolSize", 
+        SmtpConnectionPool.DEFAULT_MAX_CONNECTIONS);
+    messagesPerConnection = outboundFocus.getInt("MessagesPerConnection", 
+        SmtpConnectionPool.DEFAULT_MESSAGES_PER_CONNECTION);
+    poolMaxIdleMillis = outboundFocus.getInt("PoolMaxIdleSeconds", 
+        (int)(SmtpConnectionPool.DEFAULT_MAX_IDLE_MILLIS / UtilityConstants.SECOND)) 
+        * UtilityConstants.SECOND;
+    roundRobin = SELECTION_ROUND_ROBIN.equalsIgnoreCase(
+        outboundFocus.get("ServerSelection", SELECTION_FAILOVER));
 
     if (!outboundMailEnabled)
     {
@@ -246,12 +275,28 @@ public class EmailTransport
       // Count mail servers.
       int serverCount = countMailServerDefinitions(props);
       
+      // Close the connection pools of the previous configuration.
+      for (EmailServerDescriptor server : mailServers)
+      {
+        if (server.getConnectionPool() != null)
+        {
+          server.getConnectionPool().close();
+        }
+      }
+      
       // Read the configuration for each of the mail servers specified.
       mailServers = new EmailServerDescriptor[serverCount];
       for (int i = 0; i < serverCount; i++)
       {
         final EnhancedProperties.Focus serverFocus = focus.focus(MULTIPLE_SERVER_PREFIX + (i + 1) + ".");
         mailServers[i] = new EmailServerDescriptor(serverFocus);
+        if (mailServers[i].isOutbound() && poolSize > 0)
+        {
+          mailServers[i].setConnectionPool(new SmtpConnectionPool(
+              mailServers[i].getServerAddress(), mailServers[i].getSession(),
+              poolSize, messagesPerConnection, poolMaxIdleMillis,
+              SmtpConnectionPool.DEFAULT_BORROW_TIMEOUT_MILLIS));
+        }
       }
       
       // Cache references to outbound and inbound servers.
@@ -394,6 +439,10 @@ public class EmailTransport
       // A reference to the mail session, set by finding the mail server
       // below.
       Session mailSession = null;
+      
+      // The configured mail server, if any, whose connection pool should 
+      // be used to deliver the message.
+      EmailServerDescriptor server = null;
 
       // Use the default mail server if none is specified in the
       // EmailPackage.
@@ -402,12 +451,15 @@ public class EmailTransport
         // Get the properties for the mail server for this try number.  Try 
         // numbers are divided by the number of mail servers, so that if
         // it's try 5 and there are 3 mail servers, we use mail server 2.
-        // 5 % 3 = 2 remainder.
+        // 5 % 3 = 2 remainder.  With round-robin selection, a rotating
+        // offset is added so that first attempts are spread across servers.
 
         EmailServerDescriptor[] servers = getOutboundServers();
         if (servers.length > 0)
         {
-          mailSession = servers[tryNumber % servers.length].getSession();
+          final int offset = roundRobin ? nextServer.getAndIncrement() : 0;
+          server = servers[Math.floorMod(tryNumber + offset, servers.length)];
+          mailSession = server.getSession();
         }
         else
         {
@@ -426,6 +478,7 @@ public class EmailTransport
             if (descriptor.getServerAddress().equalsIgnoreCase(email.getMailServer())
                 && email.getRecipientSource().equalsIgnoreCase(descriptor.getProperties().getProperty("mail.smtp.recipientsource")))
             {
+              server = descriptor;
               mailSession = descriptor.getSession();
               break;
             }
@@ -441,6 +494,7 @@ public class EmailTransport
             if (descriptor.getServerAddress().equalsIgnoreCase(email.getMailServer())
                 && (StringHelper.isEmpty(descriptor.getProperties().getProperty("mail.smtp.recipientsource"))))
             {
+              server = descriptor;
               mailSession = descriptor.getSession();
               break;
             }
@@ -666,10 +720,17 @@ public class EmailTransport
         // Attempt the delivery.
         try
         {
-          // This method -should- return either very quickly or within the
+          // These methods -should- return either very quickly or within the
           // timeout period specified in the Properties file provided
           // during the construction of the Session object.
-          Transport.send(message);
+          if (server != null && server.getConnectionPool() != null)
+          {
+            server.getConnectionPool().send(message);
+          }
+          else
+          {
+            Transport.send(message);
+          }
 
           // Set the sent flag.
           email.setSent(true);
@@ -991,6 +1052,23 @@ public class EmailTransport
     return outboundServers;
   }
 
+  /**
+   * Gets the SMTP connection pools of the outbound mail servers, whose
+   * counters report per-server delivery throughput.
+   */
+  public List<SmtpConnectionPool> getConnectionPools()
+  {
+    final List<SmtpConnectionPool> pools = new ArrayList<>();
+    for (EmailServerDescriptor server : getOutboundServers())
+    {
+      if (server.getConnectionPool() != null)
+      {
+        pools.add(server.getConnectionPool());
+      }
+    }
+    return pools;
+  }
+
   /**
    * Get the reference to the inbound mail servers.
    */
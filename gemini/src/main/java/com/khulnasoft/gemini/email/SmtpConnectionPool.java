@@ -0,0 +1,418 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.gemini.email;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import javax.mail.*;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A pool of connected, reusable SMTP Transports for a single mail server.
+ * The static Transport.send opens, authenticates (and negotiates TLS for)
+ * a new connection for every message; delivering many messages through
+ * a pooled connection pays for that handshake once per connection instead.
+ *   <p>
+ * Connections are bounded by {@code maxConnections}.  Each connection is
+ * retired after {@code messagesPerConnection} messages, and an idle
+ * connection is health-checked before reuse: one that has been idle longer
+ * than {@code maxIdleMillis} or that no longer reports itself connected is
+ * closed and replaced.  If a message fails on a reused connection for a
+ * reason other than the recipients being refused, it is retried once on a
+ * new connection, since servers commonly drop idle connections.
+ *   <p>
+ * The pool is constructed from a JavaMail Session, so it may be pointed at
+ * any SMTP server, including a local stand-in for testing.  Throughput
+ * counters are available for monitoring.
+ */
+public class SmtpConnectionPool
+{
+
+  //
+  // Constants.
+  //
+
+  public static final int  DEFAULT_MAX_CONNECTIONS         = 4;
+  public static final int  DEFAULT_MESSAGES_PER_CONNECTION = 100;
+  public static final long DEFAULT_MAX_IDLE_MILLIS         = 30_000L;
+  public static final long DEFAULT_BORROW_TIMEOUT_MILLIS   = 60_000L;
+
+  //
+  // Member variables.
+  //
+
+  private final Logger    log = LoggerFactory.getLogger(getClass());
+  private final String    name;
+  private final Session   session;
+  private final int       messagesPerConnection;
+  private final long      maxIdleMillis;
+  private final long      borrowTimeoutMillis;
+  private final Semaphore permits;
+  private final ConcurrentLinkedDeque<PooledTransport> idle 
+      = new ConcurrentLinkedDeque<>();
+  private volatile boolean closed = false;
+
+  private final long       createdAt        = System.currentTimeMillis();
+  private final AtomicLong sent             = new AtomicLong();
+  private final AtomicLong failed           = new AtomicLong();
+  private final AtomicLong connectionsOpened = new AtomicLong();
+  private final AtomicLong connectionsReused = new AtomicLong();
+  private final AtomicLong sendNanos        = new AtomicLong();
+
+  //
+  // Member methods.
+  //
+
+  /**
+   * Constructor.
+   *
+   * @param name a name for logging and metrics, typically the server
+   *        address.
+   * @param session the Session whose properties identify the SMTP server.
+   * @param maxConnections the maximum number of simultaneous connections.
+   * @param messagesPerConnection the number of messages to send on a
+   *        connection before closing it.
+   * @param maxIdleMillis how long a connection may sit idle before it is
+   *        closed rather than reused.
+   * @param borrowTimeoutMillis how long to wait for a connection when all
+   *        are in use.
+   */
+  public SmtpConnectionPool(String name, Session session, int maxConnections,
+    int messagesPerConnection, long maxIdleMillis, long borrowTimeoutMillis)
+  {
+    this.name = name;
+    this.session = session;
+    this.permits = new Semaphore(Math.max(1, maxConnections), true);
+    this.messagesPerConnection = Math.max(1, messagesPerConnection);
+    this.maxIdleMillis = maxIdleMillis;
+    this.borrowTimeoutMillis = borrowTimeoutMillis;
+  }
+
+  /**
+   * Constructor.  Uses default limits.
+   */
+  public SmtpConnectionPool(String name, Session session)
+  {
+    this(name, session, DEFAULT_MAX_CONNECTIONS, 
+        DEFAULT_MESSAGES_PER_CONNECTION, DEFAULT_MAX_IDLE_MILLIS,
+        DEFAULT_BORROW_TIMEOUT_MILLIS);
+  }
+
+  /**
+   * Gets the Session used to create connections.
+   */
+  public Session getSession()
+  {
+    return session;
+  }
+
+  /**
+   * Sends a message using a pooled connection.
+   *
+   * @throws MessagingException if the message cannot be delivered.
+   */
+  public void send(Message message)
+    throws MessagingException
+  {
+    if (closed)
+    {
+      throw new MessagingException("SMTP connection pool " + name 
+          + " is closed.");
+    }
+
+    // As Transport.send does, update the headers (e.g., Message-ID).
+    message.saveChanges();
+    final Address[] recipients = message.getAllRecipients();
+
+    acquirePermit();
+    final long start = System.nanoTime();
+    try
+    {
+      final PooledTransport connection = borrow();
+      final boolean reused = connection.messages > 0;
+      try
+      {
+        attempt(connection, message, recipients);
+      }
+      catch (MessagingException exc)
+      {
+        // A refused recipient is not a connection problem, and a failure
+        // on a new connection will not be cured by another.
+        if (!reused || exc instanceof SendFailedException)
+        {
+          throw exc;
+        }
+        log.debug("{}: retrying on a new connection after {}", name, 
+            exc.getMessage());
+        attempt(open(), message, recipients);
+      }
+      sent.incrementAndGet();
+    }
+    catch (MessagingException exc)
+    {
+      failed.incrementAndGet();
+      throw exc;
+    }
+    finally
+    {
+      sendNanos.addAndGet(System.nanoTime() - start);
+      permits.release();
+    }
+  }
+
+  /**
+   * Closes all idle connections and refuses further sends.
+   */
+  public void close()
+  {
+    closed = true;
+    PooledTransport connection;
+    while ((connection = idle.pollFirst()) != null)
+    {
+      connection.close();
+    }
+  }
+
+  /**
+   * Gets the number of messages sent.
+   */
+  public long getSentCount()
+  {
+    return sent.get();
+  }
+
+  /**
+   * Gets the number of messages that could not be sent.
+   */
+  public long getFailedCount()
+  {
+    return failed.get();
+  }
+
+  /**
+   * Gets the number of connections opened.
+   */
+  public long getConnectionsOpened()
+  {
+    return connectionsOpened.get();
+  }
+
+  /**
+   * Gets the number of times a pooled connection was reused.
+   */
+  public long getConnectionsReused()
+  {
+    return connectionsReused.get();
+  }
+
+  /**
+   * Gets the number of connections currently idle in the pool.
+   */
+  public int getIdleCount()
+  {
+    return idle.size();
+  }
+
+  /**
+   * Gets the mean time, in milliseconds, to send a message (including any
+   * connection setup).
+   */
+  public double getAverageSendMillis()
+  {
+    final long count = sent.get() + failed.get();
+    return count == 0L ? 0.0 : sendNanos.get() / 1_000_000.0 / count;
+  }
+
+  /**
+   * Gets the number of messages sent per second since the pool was created.
+   */
+  public double getMessagesPerSecond()
+  {
+    final long elapsed = Math.max(1L, System.currentTimeMillis() - createdAt);
+    return sent.get() * 1000.0 / elapsed;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "SmtpConnectionPool [" + name
+        + "; sent: " + getSentCount()
+        + "; failed: " + getFailedCount()
+        + "; opened: " + getConnectionsOpened()
+        + "; reused: " + getConnectionsReused()
+        + "; idle: " + getIdleCount()
+        + String.format("; %.1f msg/s; %.1f ms/msg", getMessagesPerSecond(),
+            getAverageSendMillis())
+        + "]";
+  }
+
+  /**
+   * Waits for permission to use a connection.
+   */
+  private void acquirePermit()
+    throws MessagingException
+  {
+    try
+    {
+      if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS))
+      {
+        throw new MessagingException("Timed out waiting for an SMTP connection to " 
+            + name + ".");
+      }
+    }
+    catch (InterruptedException exc)
+    {
+      Thread.currentThread().interrupt();
+      throw new MessagingException("Interrupted waiting for an SMTP connection to " 
+          + name + ".", exc);
+    }
+  }
+
+  /**
+   * Takes a healthy idle connection from the pool, or opens a new one.
+   */
+  private PooledTransport borrow()
+    throws MessagingException
+  {
+    PooledTransport connection;
+    while ((connection = idle.pollFirst()) != null)
+    {
+      if (connection.isHealthy(maxIdleMillis))
+      {
+        connectionsReused.incrementAndGet();
+        return connection;
+      }
+      connection.close();
+    }
+    return open();
+  }
+
+  /**
+   * Opens and connects a new Transport.
+   */
+  private PooledTransport open()
+    throws MessagingException
+  {
+    final Transport transport = session.getTransport("smtp");
+    transport.connect();
+    connectionsOpened.incrementAndGet();
+    return new PooledTransport(transport);
+  }
+
+  /**
+   * Sends a message on a connection, then returns the connection to the
+   * pool or, if the connection failed, closes it.
+   */
+  private void attempt(PooledTransport connection, Message message, 
+    Address[] recipients)
+    throws MessagingException
+  {
+    boolean healthy = false;
+    try
+    {
+      connection.transport.sendMessage(message, recipients);
+      connection.messages++;
+      healthy = true;
+    }
+    catch (SendFailedException exc)
+    {
+      // The server refused recipients; the connection itself is fine.
+      healthy = true;
+      throw exc;
+    }
+    finally
+    {
+      if (healthy)
+      {
+        release(connection);
+      }
+      else
+      {
+        connection.close();
+      }
+    }
+  }
+
+  /**
+   * Returns a connection to the pool, or closes it if it has reached its
+   * message limit or the pool is closed.
+   */
+  private void release(PooledTransport connection)
+  {
+    if (closed || connection.messages >= messagesPerConnection)
+    {
+      connection.close();
+    }
+    else
+    {
+      connection.lastUsed = System.currentTimeMillis();
+      idle.offerFirst(connection);
+    }
+  }
+
+  //
+  // Inner classes.
+  //
+
+  /**
+   * A connected Transport and its usage.
+   */
+  private final class PooledTransport
+  {
+    private final Transport transport;
+    private int  messages = 0;
+    private long lastUsed = System.currentTimeMillis();
+
+    private PooledTransport(Transport transport)
+    {
+      this.transport = transport;
+    }
+
+    private boolean isHealthy(long maxIdle)
+    {
+      return (System.currentTimeMillis() - lastUsed < maxIdle)
+          && (transport.isConnected());
+    }
+
+    private void close()
+    {
+      try
+      {
+        transport.close();
+      }
+      catch (MessagingException exc)
+      {
+        log.debug("{}: exception closing SMTP connection.", name, exc);
+      }
+    }
+  }
+
+}   // End SmtpConnectionPool.
@@ -0,0 +1,826 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.gemini.email.outbound;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+import java.util.zip.*;
+
+import com.khulnasoft.gemini.email.*;
+
+/**
+ * An append-only journal of the outbound e-mail queue, kept in a single
+ * file.  Each record is framed with its length and a CRC-32 checksum, so a
+ * record torn by a crash is detected on replay and discarded along with 
+ * anything after it.  Records are flushed to the operating system as they
+ * are written, which survives a crash of the application; with sync 
+ * enabled, they are also forced to disk, which survives a crash of the
+ * machine at a considerable cost in throughput.
+ *   <p>
+ * The journal holds complete messages, so where the file system supports
+ * POSIX permissions the journal and its compaction file are readable and
+ * writable by their owner only, and a journal directory created here is 
+ * accessible to its owner only.  An existing journal's permissions are 
+ * narrowed when it is opened.
+ *   <p>
+ * Not thread-safe; OutboundEmailQueue serializes access.  The exception is
+ * {@link Compaction#write()}, which may run without the queue's lock.
+ */
+final class EmailJournal
+  implements Closeable
+{
+  //
+  // Constants.
+  //
+  
+  static final String FILE_NAME = "outbound-email.journal";
+  
+  private static final byte ENQUEUED      = 'Q';
+  private static final byte RETRIED       = 'R';
+  private static final byte COMPLETED     = 'C';
+  private static final byte DEAD_LETTERED = 'X';
+  private static final int  MAXIMUM_RECORD_LENGTH = 64 * 1024 * 1024;
+  
+  private static final Set<PosixFilePermission> OWNER_ONLY_FILE = 
+      PosixFilePermissions.fromString("rw-------");
+  private static final Set<PosixFilePermission> OWNER_ONLY_DIRECTORY = 
+      PosixFilePermissions.fromString("rwx------");
+  
+  //
+  // Member variables.
+  //
+  
+  private final File    file;
+  private final boolean sync;
+  private FileOutputStream fileOut;
+  private DataOutputStream out;
+  private int           recordCount;
+  private Compaction    compaction;
+  
+  //
+  // Member methods.
+  //
+  
+  /**
+   * Constructor.  Creates the directory, accessible to its owner only, if
+   * necessary.
+   */
+  EmailJournal(File directory, boolean sync)
+    throws IOException
+  {
+    final Path path = directory.toPath();
+    if (!Files.isDirectory(path))
+    {
+      if (isPosix(path.toAbsolutePath().getParent()))
+      {
+        Files.createDirectories(path, 
+            PosixFilePermissions.asFileAttribute(OWNER_ONLY_DIRECTORY));
+      }
+      else
+      {
+        Files.createDirectories(path);
+      }
+    }
+    this.file = new File(directory, FILE_NAME);
+    this.sync = sync;
+  }
+  
+  /**
+   * Gets the journal file.
+   */
+  File getFile()
+  {
+    return file;
+  }
+  
+  /**
+   * Gets the number of records in the journal.
+   */
+  int getRecordCount()
+  {
+    return recordCount;
+  }
+  
+  /**
+   * Determines whether an e-mail can be journaled.  E-mails with an 
+   * EmailAuthenticator, custom attributes, or attachments other than files
+   * cannot, since those could not be restored from the journal.
+   */
+  static boolean isJournalable(EmailPackage email)
+  {
+    if (email.getEmailAuthenticator() != null
+        || email.hasCustomAttributes())
+    {
+      return false;
+    }
+    if (email.hasAttachments())
+    {
+      for (EmailAttachment attachment : email.getAttachments())
+      {
+        if (attachment.getFile() == null)
+        {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+  
+  /**
+   * Reads the journal, returning the e-mails that were pending and 
+   * dead-lettered, and then opens the journal for appending.  A torn or
+   * corrupt tail is truncated.
+   */
+  Replay replay()
+    throws IOException
+  {
+    final Map<Long, OutboundEmailQueue.Entry> pending = new LinkedHashMap<>();
+    final Map<Long, OutboundEmailQueue.Entry> dead = new LinkedHashMap<>();
+    long lastId = 0L;
+    long validLength = 0L;
+    
+    if (file.exists())
+    {
+      restrictToOwner(file.toPath());
+      try (DataInputStream in = new DataInputStream(
+          new BufferedInputStream(new FileInputStream(file))))
+      {
+        final CRC32 crc = new CRC32();
+        while (true)
+        {
+          final byte[] payload;
+          try
+          {
+            final int length = in.readInt();
+            final long checksum = in.readLong();
+            if (length <= 0 || length > MAXIMUM_RECORD_LENGTH)
+            {
+              break;
+            }
+            payload = new byte[length];
+            in.readFully(payload);
+            crc.reset();
+            crc.update(payload, 0, length);
+            if (crc.getValue() != checksum)
+            {
+              break;
+            }
+            validLength += 12 + length;
+          }
+          catch (EOFException eofexc)
+          {
+            break;
+          }
+          
+          final DataInputStream record = new DataInputStream(
+              new ByteArrayInputStream(payload));
+          final byte type = record.readByte();
+          final long id = record.readLong();
+          lastId = Math.max(lastId, id);
+          recordCount++;
+          switch (type)
+          {
+            case ENQUEUED:
+            {
+              pending.put(id, readEntry(id, record));
+              break;
+            }
+            case RETRIED:
+            {
+              final OutboundEmailQueue.Entry entry = pending.get(id);
+              final int attempts = record.readInt();
+              if (entry != null)
+              {
+                while (entry.email.getDeliveryAttempts() < attempts)
+                {
+                  entry.email.incrementDeliveryAttempts();
+                }
+              }
+              break;
+            }
+            case DEAD_LETTERED:
+            {
+              final OutboundEmailQueue.Entry entry = pending.remove(id);
+              if (entry != null)
+              {
+                dead.put(id, entry);
+              }
+              break;
+            }
+            case COMPLETED:
+            {
+              pending.remove(id);
+              dead.remove(id);
+              break;
+            }
+            default:
+            {
+              // Unknown record types are skipped.
+              break;
+            }
+          }
+        }
+      }
+      
+      // Discard a torn or corrupt tail so that new records follow the last
+      // valid one.
+      if (validLength < file.length())
+      {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+        {
+          raf.setLength(validLength);
+        }
+      }
+    }
+    
+    openForAppend();
+    return new Replay(new ArrayList<>(pending.values()), 
+        new ArrayList<>(dead.values()), lastId);
+  }
+  
+  /**
+   * Records that an e-mail was queued.
+   */
+  void enqueued(OutboundEmailQueue.Entry entry)
+    throws IOException
+  {
+    append(enqueuedRecord(entry));
+  }
+  
+  /**
+   * Records a failed delivery attempt.
+   */
+  void retried(long id, int attempts)
+    throws IOException
+  {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream(16);
+    final DataOutputStream record = new DataOutputStream(bytes);
+    record.writeByte(RETRIED);
+    record.writeLong(id);
+    record.writeInt(attempts);
+    append(bytes.toByteArray());
+  }
+  
+  /**
+   * Records that an e-mail was delivered or discarded.
+   */
+  void completed(long id)
+    throws IOException
+  {
+    appendMarker(COMPLETED, id);
+  }
+  
+  /**
+   * Records that an e-mail was dead-lettered.
+   */
+  void deadLettered(long id)
+    throws IOException
+  {
+    appendMarker(DEAD_LETTERED, id);
+  }
+  
+  /**
+   * Replaces the journal with one holding only the provided pending and
+   * dead-lettered e-mails, all at once.
+   */
+  void compact(Collection<OutboundEmailQueue.Entry> pending, 
+      Collection<OutboundEmailQueue.Entry> dead)
+    throws IOException
+  {
+    final Compaction started = startCompaction(pending, dead);
+    if (started != null)
+    {
+      started.write();
+      started.finish();
+    }
+  }
+  
+  /**
+   * Starts replacing the journal with one holding only the provided 
+   * pending and dead-lettered e-mails, snapshotting them.  The snapshot is
+   * written by {@link Compaction#write()}, which need not hold the queue's
+   * lock, and installed by {@link Compaction#finish()}, which must.  
+   * Records appended in between are carried over into the new journal.
+   * Returns null if a compaction is already in progress.
+   */
+  Compaction startCompaction(Collection<OutboundEmailQueue.Entry> pending, 
+      Collection<OutboundEmailQueue.Entry> dead)
+  {
+    if (compaction != null)
+    {
+      return null;
+    }
+    compaction = new Compaction(pending, dead);
+    return compaction;
+  }
+  
+  /**
+   * Closes the journal file.  A compaction in progress is abandoned when it
+   * tries to finish.
+   */
+  @Override
+  public void close()
+  {
+    compaction = null;
+    if (out != null)
+    {
+      try
+      {
+        out.close();
+      }
+      catch (IOException ioexc)
+      {
+        // Nothing further can be done.
+      }
+      out = null;
+      fileOut = null;
+    }
+  }
+  
+  /**
+   * Opens the journal file for appending.
+   */
+  private void openForAppend()
+    throws IOException
+  {
+    createOwnerOnly(file.toPath());
+    fileOut = new FileOutputStream(file, true);
+    out = new DataOutputStream(new BufferedOutputStream(fileOut));
+  }
+  
+  /**
+   * Appends a record and flushes it.
+   */
+  private void append(byte[] payload)
+    throws IOException
+  {
+    if (out == null)
+    {
+      throw new IOException("Outbound email journal is closed.");
+    }
+    writeFramed(payload, out);
+    out.flush();
+    if (sync)
+    {
+      fileOut.getFD().sync();
+    }
+    recordCount++;
+    if (compaction != null)
+    {
+      compaction.appended.add(payload);
+    }
+  }
+  
+  /**
+   * Returns true if a file system supports POSIX permissions.
+   */
+  private static boolean isPosix(Path path)
+  {
+    return path != null 
+        && path.getFileSystem().supportedFileAttributeViews().contains("posix");
+  }
+  
+  /**
+   * Creates a file readable and writable by its owner only, if it does not
+   * already exist.
+   */
+  private static void createOwnerOnly(Path path)
+    throws IOException
+  {
+    if (!Files.exists(path))
+    {
+      try
+      {
+        if (isPosix(path))
+        {
+          Files.createFile(path, 
+              PosixFilePermissions.asFileAttribute(OWNER_ONLY_FILE));
+        }
+        else
+        {
+          Files.createFile(path);
+          restrictToOwner(path);
+        }
+      }
+      catch (FileAlreadyExistsException faeexc)
+      {
+        restrictToOwner(path);
+      }
+    }
+  }
+  
+  /**
+   * Narrows an existing file's permissions to its owner.
+   */
+  private static void restrictToOwner(Path path)
+    throws IOException
+  {
+    if (isPosix(path))
+    {
+      Files.setPosixFilePermissions(path, OWNER_ONLY_FILE);
+    }
+    else
+    {
+      final File asFile = path.toFile();
+      asFile.setReadable(false, false);
+      asFile.setReadable(true, true);
+      asFile.setWritable(false, false);
+      asFile.setWritable(true, true);
+    }
+  }
+  
+  /**
+   * Appends a record holding only a type and an ID.
+   */
+  private void appendMarker(byte type, long id)
+    throws IOException
+  {
+    append(marker(type, id));
+  }
+  
+  /**
+   * Builds a record holding only a type and an ID.
+   */
+  private static byte[] marker(byte type, long id)
+    throws IOException
+  {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream(9);
+    final DataOutputStream record = new DataOutputStream(bytes);
+    record.writeByte(type);
+    record.writeLong(id);
+    return bytes.toByteArray();
+  }
+  
+  /**
+   * Builds a record of a queued e-mail.
+   */
+  private static byte[] enqueuedRecord(OutboundEmailQueue.Entry entry)
+    throws IOException
+  {
+    return enqueuedRecord(entry, entry.dueAt, 
+        entry.email.getDeliveryAttempts());
+  }
+  
+  /**
+   * Builds a record of a queued e-mail with the provided due time and
+   * number of delivery attempts, which may have been captured earlier.
+   */
+  private static byte[] enqueuedRecord(OutboundEmailQueue.Entry entry, 
+      long dueAt, int attempts)
+    throws IOException
+  {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+    final DataOutputStream record = new DataOutputStream(bytes);
+    record.writeByte(ENQUEUED);
+    record.writeLong(entry.id);
+    writeEntry(entry, dueAt, attempts, record);
+    return bytes.toByteArray();
+  }
+  
+  /**
+   * Writes a payload with its length and checksum.
+   */
+  private static void writeFramed(byte[] payload, DataOutputStream target)
+    throws IOException
+  {
+    final CRC32 crc = new CRC32();
+    crc.update(payload, 0, payload.length);
+    target.writeInt(payload.length);
+    target.writeLong(crc.getValue());
+    target.write(payload);
+  }
+  
+  /**
+   * Writes the fields of an entry and its e-mail.
+   */
+  private static void writeEntry(OutboundEmailQueue.Entry entry, 
+      long dueAt, int attempts, DataOutputStream record)
+    throws IOException
+  {
+    final EmailPackage email = entry.email;
+    record.writeLong(entry.enqueuedAt);
+    record.writeLong(dueAt);
+    record.writeByte(email.getPriority().ordinal());
+    record.writeInt(attempts);
+    writeString(email.getDeliveryKey(), record);
+    writeString(email.getAuthor(), record);
+    writeString(email.getRecipient(), record);
+    writeString(email.getRecipientSource(), record);
+    writeString(email.getBccRecipient(), record);
+    writeString(email.getMailServer(), record);
+    writeString(email.getSubject(), record);
+    writeString(email.getCharset(), record);
+    writeString(email.getTextBody(), record);
+    writeString(email.isHtmlEnabled() ? email.getHtmlBody() : null, record);
+    record.writeBoolean(email.isTextEnabled());
+    record.writeBoolean(email.isHtmlEnabled());
+    
+    final Collection<EmailHeader> headers = email.getHeaders();
+    record.writeInt(headers == null ? 0 : headers.size());
+    if (headers != null)
+    {
+      for (EmailHeader header : headers)
+      {
+        writeString(header.getHeaderName(), record);
+        writeString(header.getHeaderValue(), record);
+      }
+    }
+    
+    final Collection<EmailAttachment> attachments = email.getAttachments();
+    record.writeInt(attachments == null ? 0 : attachments.size());
+    if (attachments != null)
+    {
+      for (EmailAttachment attachment : attachments)
+      {
+        writeString(attachment.getFile().getPath(), record);
+        writeString(attachment.getName(), record);
+      }
+    }
+  }
+  
+  /**
+   * Reads an entry and its e-mail.
+   */
+  private static OutboundEmailQueue.Entry readEntry(long id, 
+      DataInputStream record)
+    throws IOException
+  {
+    final long enqueuedAt = record.readLong();
+    final long dueAt = record.readLong();
+    final int priority = record.readByte();
+    final int attempts = record.readInt();
+    
+    final EmailPackage email = new EmailPackage(null);
+    email.setDeliveryKey(readString(record));
+    email.setAuthor(readString(record));
+    email.setRecipient(readString(record));
+    email.setRecipientSource(readString(record));
+    email.setBccRecipient(readString(record));
+    email.setMailServer(readString(record));
+    email.setSubject(readString(record));
+    email.setCharset(readString(record));
+    email.setTextBody(readString(record));
+    email.setHtmlBody(readString(record));
+    email.setTextEnabled(record.readBoolean());
+    email.setHtmlEnabled(record.readBoolean());
+    final EmailPriority[] priorities = EmailPriority.values();
+    email.setPriority(priority >= 0 && priority < priorities.length 
+        ? priorities[priority] : EmailPriority.NORMAL);
+    for (int i = 0; i < attempts; i++)
+    {
+      email.incrementDeliveryAttempts();
+    }
+    
+    final int headerCount = record.readInt();
+    for (int i = 0; i < headerCount; i++)
+    {
+      email.addHeader(new EmailHeader(readString(record), readString(record)));
+    }
+    
+    final int attachmentCount = record.readInt();
+    for (int i = 0; i < attachmentCount; i++)
+    {
+      final String path = readString(record);
+      final String name = readString(record);
+      email.addAttachment(new EmailAttachment(new File(path), name));
+    }
+    
+    final OutboundEmailQueue.Entry entry = new OutboundEmailQueue.Entry(id, 
+        email, enqueuedAt);
+    entry.dueAt = dueAt;
+    return entry;
+  }
+  
+  /**
+   * Writes a possibly-null String of any length as UTF-8.
+   */
+  private static void writeString(String value, DataOutputStream record)
+    throws IOException
+  {
+    if (value == null)
+    {
+      record.writeInt(-1);
+    }
+    else
+    {
+      final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      record.writeInt(bytes.length);
+      record.write(bytes);
+    }
+  }
+  
+  /**
+   * Reads a String written by writeString.
+   */
+  private static String readString(DataInputStream record)
+    throws IOException
+  {
+    final int length = record.readInt();
+    if (length < 0)
+    {
+      return null;
+    }
+    final byte[] bytes = new byte[length];
+    record.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+  
+  /**
+   * A compaction in progress.  The pending and dead-lettered entries, with
+   * the mutable parts of their state, are captured when it starts.
+   */
+  final class Compaction
+  {
+    private final List<OutboundEmailQueue.Entry> entries = new ArrayList<>();
+    private final List<byte[]> appended = new ArrayList<>();
+    private final File       temporary;
+    private final long[]     dueAts;
+    private final int[]      attempts;
+    private final int        pendingCount;
+    private FileOutputStream tempOut;
+    private DataOutputStream tempData;
+    private int              count;
+    
+    private Compaction(Collection<OutboundEmailQueue.Entry> pending, 
+        Collection<OutboundEmailQueue.Entry> dead)
+    {
+      for (OutboundEmailQueue.Entry entry : pending)
+      {
+        if (entry.durable)
+        {
+          entries.add(entry);
+        }
+      }
+      pendingCount = entries.size();
+      for (OutboundEmailQueue.Entry entry : dead)
+      {
+        if (entry.durable)
+        {
+          entries.add(entry);
+        }
+      }
+      dueAts = new long[entries.size()];
+      attempts = new int[entries.size()];
+      for (int i = 0; i < entries.size(); i++)
+      {
+        dueAts[i] = entries.get(i).dueAt;
+        attempts[i] = entries.get(i).email.getDeliveryAttempts();
+      }
+      temporary = new File(file.getParentFile(), FILE_NAME + ".tmp");
+    }
+    
+    /**
+     * Writes the snapshot alongside the journal.  Need not hold the 
+     * queue's lock.
+     */
+    void write()
+      throws IOException
+    {
+      Files.deleteIfExists(temporary.toPath());
+      createOwnerOnly(temporary.toPath());
+      tempOut = new FileOutputStream(temporary);
+      tempData = new DataOutputStream(new BufferedOutputStream(tempOut));
+      try
+      {
+        for (int i = 0; i < entries.size(); i++)
+        {
+          final OutboundEmailQueue.Entry entry = entries.get(i);
+          writeFramed(enqueuedRecord(entry, dueAts[i], attempts[i]), tempData);
+          count++;
+          if (i >= pendingCount)
+          {
+            writeFramed(marker(DEAD_LETTERED, entry.id), tempData);
+            count++;
+          }
+        }
+      }
+      catch (IOException ioexc)
+      {
+        discard();
+        throw ioexc;
+      }
+    }
+    
+    /**
+     * Adds the records appended since the compaction started and moves the
+     * new journal into place, so a crash during compaction leaves the old 
+     * journal intact.  Must hold the queue's lock.  Abandons the compaction
+     * if the journal has been closed meanwhile.
+     */
+    void finish()
+      throws IOException
+    {
+      if (compaction != this || out == null || tempData == null)
+      {
+        discard();
+        return;
+      }
+      compaction = null;
+      try
+      {
+        for (byte[] payload : appended)
+        {
+          writeFramed(payload, tempData);
+        }
+        tempData.flush();
+        tempOut.getFD().sync();
+        tempData.close();
+      }
+      catch (IOException ioexc)
+      {
+        discard();
+        throw ioexc;
+      }
+      
+      EmailJournal.this.close();
+      try
+      {
+        Files.move(temporary.toPath(), file.toPath(), 
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        recordCount = count + appended.size();
+      }
+      finally
+      {
+        openForAppend();
+      }
+    }
+    
+    /**
+     * Abandons the compaction, leaving the journal as it was.  Must hold 
+     * the queue's lock.
+     */
+    void abandon()
+    {
+      if (compaction == this)
+      {
+        compaction = null;
+      }
+      discard();
+    }
+    
+    private void discard()
+    {
+      if (tempData != null)
+      {
+        try
+        {
+          tempData.close();
+        }
+        catch (IOException ioexc)
+        {
+          // Nothing further can be done.
+        }
+        tempData = null;
+        tempOut = null;
+      }
+      temporary.delete();
+    }
+  }
+  
+  /**
+   * The result of replaying a journal.
+   */
+  static final class Replay
+  {
+    final List<OutboundEmailQueue.Entry> pending;
+    final List<OutboundEmailQueue.Entry> dead;
+    final long                           lastId;
+    
+    Replay(List<OutboundEmailQueue.Entry> pending, 
+        List<OutboundEmailQueue.Entry> dead, long lastId)
+    {
+      this.pending = pending;
+      this.dead = dead;
+      this.lastId = lastId;
+    }
+  }
+  
+}   // End EmailJournal.
@@ -27,6 +27,8 @@
 
 package com.khulnasoft.gemini.email.outbound;
 
+import java.io.*;
+import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.*;
 
@@ -34,6 +36,7 @@ import com.khulnasoft.asynchronous.*;
 import com.khulnasoft.gemini.*;
 import com.khulnasoft.gemini.email.*;
 import com.khulnasoft.helper.*;
+import com.khulnasoft.security.*;
 import com.khulnasoft.thread.*;
 import com.khulnasoft.util.*;
 import org.slf4j.Logger;
@@ -46,6 +49,13 @@ import org.slf4j.LoggerFactory;
  * EmailTransport directly; rather, they call EmailServicer.sendMail in order
  * to have an e-mail queued for delivery.
  *   <p>
+ * Queued e-mails wait in one lane per EmailPriority; sender threads claim
+ * them in batches, highest priority first.  Failed deliveries are retried 
+ * with an exponential backoff and, once the EmailTransport's retry limit
+ * is exhausted, moved to a dead-letter list from which they can be resent.
+ * If a journal directory is configured, the queue survives a restart or 
+ * crash.  See OutboundEmailQueue.
+ *   <p>
  * Reads the following configuration options from the .conf file:
  *   <ul>
  * <li>OutboundEmail.Enabled - Set to no to disable all outbound e-mail.
@@ -59,6 +69,25 @@ import org.slf4j.LoggerFactory;
  * <li>OutboundEmail.AfterDeliverySleepMillis - A number of milliseconds to
  *     sleep after sending an outbound e-mail.  This sleep <b>may</b> affect
  *     other mail deliveries.
+ * <li>OutboundEmail.JournalDirectory - A directory in which to journal the
+ *     queue so that pending e-mails are delivered after a restart.  The
+ *     journal holds complete messages and is readable by its owner only.
+ *     Default: none; the queue is held in memory only.
+ * <li>OutboundEmail.JournalSync - Force each journal record to disk rather
+ *     than just to the operating system.  Default: no.
+ * <li>OutboundEmail.ClaimBatchSize - The number of e-mails a sender thread
+ *     claims at once.  Default: 10.
+ * <li>OutboundEmail.RetryDelaySeconds - The delay before the first retry of
+ *     a failed delivery, doubling with each further failure.  Default: 30.
+ * <li>OutboundEmail.MaxRetryDelaySeconds - The longest delay between 
+ *     retries.  Default: 3600.
+ * <li>OutboundEmail.DeadLetterLimit - The number of undeliverable e-mails
+ *     retained for inspection or resending.  Default: 1000.
+ * <li>OutboundEmail.DomainLimit - The maximum number of e-mails sent to any
+ *     one recipient domain per DomainWindowSeconds; 0 for no limit.  
+ *     Default: 0.
+ * <li>OutboundEmail.DomainWindowSeconds - The window for DomainLimit.
+ *     Default: 60.
  *   </ul>
  *
  * @see EmailTransport
@@ -75,6 +104,8 @@ public class EmailServicer
   public static final int    DEFAULT_SENDER_THREADS = 10;
   public static final long   DEFAULT_DELAY_MILLIS   = 0L;
   public static final IntRange REASONABLE_THREAD_COUNT = new IntRange(1, 500);
+  public static final int    DEFAULT_CLAIM_BATCH_SIZE = 10;
+  public static final long   CLAIM_WAIT_MILLIS      = UtilityConstants.SECOND;
   
   //
   // Member variables.
@@ -82,6 +113,7 @@ public class EmailServicer
 
   private final    Logger         log = LoggerFactory.getLogger(getClass());
   private final    EmailTransport transport;
+  private final    OutboundEmailQueue queue;
 
   private final    AtomicInteger         queued;
   private final    AtomicInteger         sent;
@@ -91,6 +123,7 @@ public class EmailServicer
   private          int                   senderThreads = DEFAULT_SENDER_THREADS;
   private          long                  beforeDeliveryDelayMillis = DEFAULT_DELAY_MILLIS;
   private          long                  afterDeliverySleepMillis  = DEFAULT_DELAY_MILLIS; 
+  private volatile int                   claimBatchSize = DEFAULT_CLAIM_BATCH_SIZE;
 
   //
   // Member methods.
@@ -107,6 +140,8 @@ public class EmailServicer
     this.sent        = new AtomicInteger();
     this.removed     = new AtomicInteger();
     this.transport   = application.getEmailTransport();
+    this.queue       = new OutboundEmailQueue();
+    startSenders(this.executor, this.senderThreads);
     
     // Add self as an asynchronous resource.
     application.addAsynchronous(this);
@@ -129,6 +164,37 @@ public class EmailServicer
     setAfterDeliverySleepMillis(focus.getLong("AfterDeliverySleepMillis", getAfterDeliverySleepMillis()));
     log.info("Outbound email threads will sleep for {}ms after each delivery.", getAfterDeliverySleepMillis());
     
+    // Configure the queue.
+    claimBatchSize = Math.max(1, focus.getInt("ClaimBatchSize", DEFAULT_CLAIM_BATCH_SIZE));
+    queue.setRetryDelays(
+        focus.getLong("RetryDelaySeconds", 
+            OutboundEmailQueue.DEFAULT_RETRY_DELAY_MILLIS / UtilityConstants.SECOND) 
+            * UtilityConstants.SECOND,
+        focus.getLong("MaxRetryDelaySeconds", 
+            OutboundEmailQueue.DEFAULT_MAX_RETRY_DELAY_MILLIS / UtilityConstants.SECOND) 
+            * UtilityConstants.SECOND);
+    queue.setDeadLetterLimit(focus.getInt("DeadLetterLimit", 
+        OutboundEmailQueue.DEFAULT_DEAD_LETTER_LIMIT));
+    final int domainLimit = focus.getInt("DomainLimit", 0);
+    queue.setDomainLimiter(domainLimit > 0
+        ? new RateLimiter("email-domain", domainLimit, 
+            focus.getInt("DomainWindowSeconds", 60) * UtilityConstants.SECOND)
+        : null);
+    final String journalDirectory = focus.get("JournalDirectory", "");
+    if (StringHelper.isNonEmpty(journalDirectory))
+    {
+      try
+      {
+        queue.openJournal(new File(journalDirectory), 
+            focus.getBoolean("JournalSync", false));
+      }
+      catch (IOException ioexc)
+      {
+        log.error("Unable to open outbound email journal in {}; the queue will not survive a restart.", 
+            journalDirectory, ioexc);
+      }
+    }
+    
     // Get the number of threads.
     int newSenderThreads = this.senderThreads;
     if (props.has("OutboundEmailThreads"))
@@ -153,6 +219,7 @@ public class EmailServicer
       senderThreads = newSenderThreads;
       final PausableScheduledThreadPoolExecutor oldExecutor = executor;
       executor = new PausableScheduledThreadPoolExecutor(newSenderThreads);
+      startSenders(executor, newSenderThreads);
 
       // Shut down the old Executor after 10 seconds.
       Runnable shutdown = new Runnable()
@@ -175,8 +242,22 @@ public class EmailServicer
   @Override
   public void end()
   {
-    // Terminate e-mail servicer threads.
+    // Terminate e-mail servicer threads.  E-mails still pending remain in
+    // the journal, if any.
     executor.shutdown();
+    queue.close();
+  }
+  
+  /**
+   * Starts sender tasks on an executor.
+   */
+  private void startSenders(PausableScheduledThreadPoolExecutor target, 
+      int count)
+  {
+    for (int i = 0; i < count; i++)
+    {
+      target.execute(new Sender(this, target));
+    }
   }
   
   /**
@@ -239,6 +320,84 @@ public class EmailServicer
     return sent.get();
   }
   
+  /**
+   * Gets the number of e-mails waiting in the queue lane for a priority, 
+   * excluding those being delivered.
+   */
+  public int getQueueDepth(EmailPriority priority)
+  {
+    return queue.getDepth(priority);
+  }
+  
+  /**
+   * Gets the age, in milliseconds, of the oldest e-mail queued or being
+   * delivered; or 0 if the queue is empty.
+   */
+  public long getOldestQueuedAgeMillis()
+  {
+    return queue.getOldestAgeMillis();
+  }
+  
+  /**
+   * Gets the average time, in milliseconds, from queuing to delivery.
+   */
+  public long getAverageDeliveryMillis()
+  {
+    return queue.getAverageDeliveryMillis();
+  }
+  
+  /**
+   * Gets the number of failed deliveries that were retried.
+   */
+  public long getRetriedCount()
+  {
+    return queue.getRetriedCount();
+  }
+  
+  /**
+   * Gets the number of e-mails not queued because an e-mail with the same
+   * delivery key was pending or recently sent.
+   */
+  public long getDuplicateCount()
+  {
+    return queue.getDuplicateCount();
+  }
+  
+  /**
+   * Gets the undeliverable e-mails retained in the dead-letter list, oldest
+   * first.
+   */
+  public List<EmailPackage> getDeadLetters()
+  {
+    return queue.getDeadLetters();
+  }
+  
+  /**
+   * Removes every e-mail from the dead-letter list and queues it again with
+   * its delivery attempts reset.  Returns the number of e-mails queued.
+   */
+  public int resendDeadLetters()
+  {
+    int count = 0;
+    for (EmailPackage email : queue.drainDeadLetters())
+    {
+      email.resetDeliveryAttempts();
+      if (sendMail(email))
+      {
+        count++;
+      }
+    }
+    return count;
+  }
+  
+  /**
+   * Removes every e-mail from the dead-letter list.
+   */
+  public void clearDeadLetters()
+  {
+    queue.drainDeadLetters();
+  }
+
   /**
    * Gets the number of Sender threads.
    */
@@ -368,9 +527,10 @@ public class EmailServicer
           && (StringHelper.isNonEmpty(email.getAuthor()))
           )
         {
-          // Queue for sending.
-          scheduleSender(email);
-          if (incrementQueued)
+          // Queue for sending.  An e-mail whose delivery key is already 
+          // pending or was recently sent is not queued again, but the
+          // caller is told it was, since it will be (or was) delivered.
+          if (scheduleSender(email) && incrementQueued)
           {
             incrementQueued();
           }
@@ -395,71 +555,121 @@ public class EmailServicer
   }
   
   /**
-   * Schedules a Sender for an EmailPackage.
+   * Places an EmailPackage in the queue, to become due after the 
+   * before-delivery delay.  Returns false if the e-mail was not queued
+   * because of a duplicate delivery key.
+   */
+  protected boolean scheduleSender(final EmailPackage email)
+  {
+    return queue.offer(email, getBeforeDeliveryDelayMillis());
+  }
+  
+  /**
+   * Delivers one claimed e-mail via the Transport.
    */
-  protected void scheduleSender(final EmailPackage email)
+  private void deliver(OutboundEmailQueue.Entry entry)
   {
-    executor.schedule(new Sender(this, email), getBeforeDeliveryDelayMillis(), 
-        TimeUnit.MILLISECONDS);
+    final EmailPackage email = entry.email;
+    boolean success;
+    try
+    {
+      success = getTransport().sendEmail(email);
+    }
+    catch (RuntimeException exc)
+    {
+      log.error("Exception while delivering {}.", email, exc);
+      success = false;
+    }
+
+    // If we were successful, increment the sent count.
+    if (success)
+    {
+      queue.completed(entry);
+      incrementSent();
+    }
+    // If we were not successful, either dead-letter the e-mail or retry it.
+    else
+    {
+      email.incrementDeliveryAttempts();
+      log.info(
+          "Mail to {} failed on try {}. RecipientSource: {}. Headers: {}",
+          email.getRecipient(), email.getDeliveryAttempts(),
+          email.getRecipientSource(), email.getHeaders());
+
+      // If we have exceeded the number of delivery attempts, then move the
+      // e-mail to the dead-letter list.
+      if (email.getDeliveryAttempts() >= getTransport().getRetryLimit())
+      {
+        log.info("Mail removed from queue.");
+        queue.deadLetter(entry);
+        incrementRemoved();
+      }
+
+      // Otherwise, retry after a backoff.
+      else
+      {
+        queue.retry(entry);
+        log.info("Mail requeued.");
+      }
+    }
+    
+    // If there is an after-delivery sleep, do so.
+    if (getAfterDeliverySleepMillis() > 0L)
+    {
+      ThreadHelper.sleep(getAfterDeliverySleepMillis());
+    }
   }
   
   /**
-   * A Runnable responsible for sending an e-mail via the Transport.
+   * A Runnable that claims a batch of due e-mails, delivers them, and then
+   * resubmits itself to its executor.  Running one batch per task rather 
+   * than looping lets pausing the executor pause delivery, and lets a 
+   * Sender retire when its executor is replaced or shut down.
    */
   private static class Sender 
     implements Runnable
   {
     private final EmailServicer  servicer;
-    private final EmailPackage   email;
-    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final PausableScheduledThreadPoolExecutor executor;
     
-    public Sender(EmailServicer servicer, EmailPackage email)
+    public Sender(EmailServicer servicer, 
+        PausableScheduledThreadPoolExecutor executor)
     {
       this.servicer = servicer;
-      this.email = email;
+      this.executor = executor;
     }
     
     @Override
     public void run()
     {
-      //debug("Attempting to send email to " + email.getRecipient());
-      boolean success = servicer.getTransport().sendEmail(email);
-
-      // If we were successful, increment the sent count.
-      if (success)
+      // Retire if the servicer has replaced our executor.
+      if (servicer.executor != executor)
       {
-        servicer.incrementSent();
+        return;
       }
-      // If we were not successful, either kill the e-mail or requeue it.
-      else
+      
+      try
       {
-        email.incrementDeliveryAttempts();
-        log.info(
-            "Mail to {} failed on try {}. RecipientSource: {}. Headers: {}",
-            email.getRecipient(), email.getDeliveryAttempts(),
-            email.getRecipientSource(), email.getHeaders());
-
-        // If we have exceeded the number of delivery attempts, then trash
-        // the e-mail.
-        if (email.getDeliveryAttempts() >= servicer.getTransport().getRetryLimit())
-        {
-          log.info("Mail removed from queue.");
-          servicer.incrementRemoved();
-        }
-
-        // Otherwise, re-queue the email at the end of the queue.
-        else
+        final List<OutboundEmailQueue.Entry> batch = servicer.queue.claim(
+            servicer.claimBatchSize, CLAIM_WAIT_MILLIS);
+        for (OutboundEmailQueue.Entry entry : batch)
         {
-          // Ask for this to be requeued but do not increment the queued count.
-          servicer.sendMail(email, false);
-          log.info("Mail requeued.");
+          servicer.deliver(entry);
         }
       }
+      catch (InterruptedException iexc)
+      {
+        Thread.currentThread().interrupt();
+        return;
+      }
       
-      // If there is an after-delivery sleep, do so.
-      if (servicer.getAfterDeliverySleepMillis() > 0L)
+      try
+      {
+        executor.execute(this);
+      }
+      catch (RejectedExecutionException reexc)
       {
-        ThreadHelper.sleep(servicer.getAfterDeliverySleepMillis());
+        // The executor has been shut down.
       }
     }
   }
@@ -484,6 +694,8 @@ public class EmailServicer
         + "; " + currentQueued + " queued" 
         + "; " + currentRemoved + " removed"
         + "; " + currentPending + " pending"
+        + "; " + queue.getDeadLetterCount() + " dead"
+        + "; oldest " + getOldestQueuedAgeMillis() + "ms"
         + pausedString
         + "]";
   }
@@ -0,0 +1,776 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.gemini.email.outbound;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+import com.google.common.cache.*;
+import com.khulnasoft.gemini.email.*;
+import com.khulnasoft.security.*;
+import com.khulnasoft.util.*;
+import org.slf4j.*;
+
+/**
+ * The queue of outbound e-mail used by EmailServicer.  E-mails wait in one
+ * lane per EmailPriority and sender threads claim them in batches, always
+ * draining higher-priority lanes first.  Within a lane, e-mails are ordered
+ * by the time they become due, which lets failed deliveries be retried with
+ * an exponential backoff without blocking the e-mails behind them.
+ *   <p>
+ * When a journal directory is set, every e-mail is appended to a local
+ * journal when queued and marked when it completes, so e-mails that were
+ * pending when the application stopped or crashed are queued again at
+ * startup.  The journal is compacted once completed records greatly 
+ * outnumber pending ones, writing the new journal without holding the 
+ * queue's lock.  E-mails with non-file attachments, custom attributes, or
+ * a custom EmailAuthenticator cannot be journaled and are queued in memory
+ * only.
+ *   <p>
+ * E-mails that exhaust their retries are moved to a dead-letter list 
+ * rather than discarded, from which they may be resent.  E-mails carrying
+ * a delivery key are queued at most once while pending or recently sent.
+ */
+class OutboundEmailQueue
+  implements Closeable
+{
+  //
+  // Constants.
+  //
+  
+  public static final long DEFAULT_RETRY_DELAY_MILLIS     = 30 * UtilityConstants.SECOND;
+  public static final long DEFAULT_MAX_RETRY_DELAY_MILLIS = UtilityConstants.HOUR;
+  public static final int  DEFAULT_DEAD_LETTER_LIMIT      = 1000;
+  public static final int  RECENT_KEY_LIMIT               = 100000;
+  
+  private static final int  COMPACTION_THRESHOLD      = 1000;
+  private static final long MINIMUM_DEFERRAL_MILLIS   = 250L;
+  
+  //
+  // Member variables.
+  //
+  
+  private final Logger                  log       = LoggerFactory.getLogger(getClass());
+  private final ReentrantLock           lock      = new ReentrantLock();
+  private final Condition               available = lock.newCondition();
+  private final List<PriorityQueue<Entry>> lanes;
+  private final Map<Long, Entry>        live      = new HashMap<>();
+  private final Map<Long, Entry>        dead      = new LinkedHashMap<>();
+  private final Set<String>             pendingKeys = new HashSet<>();
+  private final Cache<String, Boolean>  recentKeys = CacheBuilder.newBuilder()
+      .maximumSize(RECENT_KEY_LIMIT)
+      .expireAfterWrite(1, TimeUnit.DAYS)
+      .build();
+  private final AtomicLong              sequence  = new AtomicLong();
+  private final AtomicLong              completed = new AtomicLong();
+  private final AtomicLong              completedWaitMillis = new AtomicLong();
+  private final AtomicLong              retried   = new AtomicLong();
+  private final AtomicLong              deadLettered = new AtomicLong();
+  private final AtomicLong              duplicates = new AtomicLong();
+  
+  private EmailJournal                  journal;
+  private volatile long                 retryDelayMillis    = DEFAULT_RETRY_DELAY_MILLIS;
+  private volatile long                 maxRetryDelayMillis = DEFAULT_MAX_RETRY_DELAY_MILLIS;
+  private volatile int                  deadLetterLimit     = DEFAULT_DEAD_LETTER_LIMIT;
+  private volatile RateLimiter          domainLimiter;
+  
+  //
+  // Member methods.
+  //
+  
+  /**
+   * Constructor.
+   */
+  OutboundEmailQueue()
+  {
+    final EmailPriority[] priorities = EmailPriority.values();
+    this.lanes = new ArrayList<>(priorities.length);
+    for (int i = 0; i < priorities.length; i++)
+    {
+      this.lanes.add(new PriorityQueue<>(64, 
+          Comparator.comparingLong((Entry entry) -> entry.dueAt)
+                    .thenComparingLong(entry -> entry.id)));
+    }
+  }
+  
+  /**
+   * Opens a journal in the provided directory, re-queuing any e-mails left
+   * pending by a previous run.  A journal may only be opened once; later
+   * calls are ignored.
+   */
+  void openJournal(File directory, boolean sync)
+    throws IOException
+  {
+    lock.lock();
+    try
+    {
+      if (journal != null)
+      {
+        log.info("Outbound email journal already open at {}.", journal.getFile());
+        return;
+      }
+      
+      final EmailJournal opened = new EmailJournal(directory, sync);
+      final EmailJournal.Replay replay = opened.replay();
+      for (Entry entry : replay.pending)
+      {
+        enqueueLocked(entry);
+      }
+      for (Entry entry : replay.dead)
+      {
+        dead.put(entry.id, entry);
+      }
+      sequence.set(Math.max(sequence.get(), replay.lastId));
+      
+      // Entries queued in memory before the journal was opened are 
+      // journaled now so that the journal is complete.
+      journal = opened;
+      journal.compact(live.values(), dead.values());
+      
+      log.info("Outbound email journal opened at {}; {} pending and {} dead-lettered e-mails recovered.",
+          journal.getFile(), replay.pending.size(), replay.dead.size());
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+  
+  /**
+   * Sets the base retry delay and the maximum retry delay, both in 
+   * milliseconds.  The delay doubles with each failed attempt.
+   */
+  void setRetryDelays(long retryDelayMillis, long maxRetryDelayMillis)
+  {
+    this.retryDelayMillis = Math.max(0L, retryDelayMillis);
+    this.maxRetryDelayMillis = Math.max(this.retryDelayMillis, maxRetryDelayMillis);
+  }
+  
+  /**
+   * Sets the number of dead-lettered e-mails retained.  The oldest are
+   * discarded beyond this limit.
+   */
+  void setDeadLetterLimit(int deadLetterLimit)
+  {
+    this.deadLetterLimit = Math.max(0, deadLetterLimit);
+  }
+  
+  /**
+   * Sets a limiter keyed by recipient domain, or null for no limit.
+   */
+  void setDomainLimiter(RateLimiter domainLimiter)
+  {
+    this.domainLimiter = domainLimiter;
+  }
+  
+  /**
+   * Queues an e-mail to become due after a delay.  Returns false if the
+   * e-mail has a delivery key that is already pending or recently sent.
+   */
+  boolean offer(EmailPackage email, long delayMillis)
+  {
+    final long now = System.currentTimeMillis();
+    final Entry entry = new Entry(sequence.incrementAndGet(), email, now);
+    entry.dueAt = now + Math.max(0L, delayMillis);
+    
+    lock.lock();
+    try
+    {
+      final String key = email.getDeliveryKey();
+      if (key != null)
+      {
+        if (pendingKeys.contains(key) 
+            || recentKeys.getIfPresent(key) != null)
+        {
+          duplicates.incrementAndGet();
+          return false;
+        }
+      }
+      
+      if (journal != null && entry.durable)
+      {
+        try
+        {
+          journal.enqueued(entry);
+        }
+        catch (IOException ioexc)
+        {
+          log.error("Unable to journal outbound email {}; queued in memory only.", email, ioexc);
+        }
+      }
+      enqueueLocked(entry);
+      return true;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+  
+  /**
+   * Claims up to the provided number of due e-mails, waiting up to the 
+   * provided time for one to become due.  Returns an empty list if none 
+   * became due.  Claimed e-mails must later be passed to completed, retry,
+   * or deadLetter.
+   */
+  List<Entry> claim(int maximum, long timeoutMillis)
+    throws InterruptedException
+  {
+    final long deadline = System.currentTimeMillis() + timeoutMillis;
+    final RateLimiter limiter = domainLimiter;
+    
+    lock.lockInterruptibly();
+    try
+    {
+      while (true)
+      {
+        final long now = System.currentTimeMillis();
+        final List<Entry> claimed = new ArrayList<>(maximum);
+        List<Entry> deferred = null;
+        long nextDue = Long.MAX_VALUE;
+        
+        for (PriorityQueue<Entry> lane : lanes)
+        {
+          while (claimed.size() < maximum 
+              && lane.peek() != null
+              && lane.peek().dueAt <= now)
+          {
+            final Entry entry = lane.poll();
+            if (limiter != null && entry.domain != null 
+                && !limiter.tryAcquire(entry.domain))
+            {
+              if (deferred == null)
+              {
+                deferred = new ArrayList<>();
+              }
+              deferred.add(entry);
+            }
+            else
+            {
+              claimed.add(entry);
+            }
+          }
+          if (lane.peek() != null)
+          {
+            nextDue = Math.min(nextDue, lane.peek().dueAt);
+          }
+        }
+        
+        // Push e-mails to rate-limited domains back by roughly the interval 
+        // between permits.
+        if (deferred != null)
+        {
+          final long deferral = Math.max(MINIMUM_DEFERRAL_MILLIS, 
+              limiter.getWindowMillis() / Math.max(1, limiter.getLimit()));
+          for (Entry entry : deferred)
+          {
+            entry.dueAt = now + deferral;
+            lane(entry).add(entry);
+          }
+          nextDue = Math.min(nextDue, now + deferral);
+        }
+        
+        if (!claimed.isEmpty())
+        {
+          return claimed;
+        }
+        
+        final long remaining = deadline - now;
+        if (remaining <= 0L)
+        {
+          return claimed;
+        }
+        available.await(Math.max(1L, Math.min(remaining, nextDue - now)), 
+            TimeUnit.MILLISECONDS);
+      }
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+  
+  /**
+   * Marks a claimed e-mail as delivered.
+   */
+  void completed(Entry entry)
+  {
+    final long now = System.currentTimeMillis();
+    completed.incrementAndGet();
+    completedWaitMillis.addAndGet(now - entry.enqueuedAt);
+    
+    final EmailJournal.Compaction compaction;
+    lock.lock();
+    try
+    {
+      live.remove(entry.id);
+      final String key = entry.email.getDeliveryKey();
+      if (key != null)
+      {
+        pendingKeys.remove(key);
+        recentKeys.put(key, Boolean.TRUE);
+      }
+      if (journal != null && entry.durable)
+      {
+        try
+        {
+          journal.completed(entry.id);
+        }
+        catch (IOException ioexc)
+        {
+          log.error("Unable to journal completion of outbound email {}.", entry.email, ioexc);
+        }
+      }
+      compaction = compactionIfWorthwhile();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+    
+    if (compaction != null)
+    {
+      compact(compaction);
+    }
+  }
+  
+  /**
+   * Returns a claimed e-mail to its lane after a backoff delay based on its
+   * number of delivery attempts.
+   */
+  void retry(Entry entry)
+  {
+    retried.incrementAndGet();
+    final int attempts = Math.max(1, entry.email.getDeliveryAttempts());
+    final long base = retryDelayMillis << Math.min(attempts - 1, 20);
+    final long delay = Math.min(maxRetryDelayMillis, base < 0L ? Long.MAX_VALUE : base);
+    
+    // Spread retries by up to a fifth of the delay so that e-mails that 
+    // failed together do not all retry together.
+    final long jitter = delay > 5L 
+        ? ThreadLocalRandom.current().nextLong(delay / 5L) 
+        : 0L;
+    
+    lock.lock();
+    try
+    {
+      entry.dueAt = System.currentTimeMillis() + delay - jitter;
+      if (journal != null && entry.durable)
+      {
+        try
+        {
+          journal.retried(entry.id, attempts);
+        }
+        catch (IOException ioexc)
+        {
+          log.error("Unable to journal retry of outbound email {}.", entry.email, ioexc);
+        }
+      }
+      lane(entry).add(entry);
+      available.signal();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+  
+  /**
+   * Moves a claimed e-mail that has exhausted its retries to the dead-letter
+   * list.
+   */
+  void deadLetter(Entry entry)
+  {
+    deadLettered.incrementAndGet();
+    
+    lock.lock();
+    try
+    {
+      live.remove(entry.id);
+      final String key = entry.email.getDeliveryKey();
+      if (key != null)
+      {
+        pendingKeys.remove(key);
+      }
+      dead.put(entry.id, entry);
+      if (journal != null && entry.durable)
+      {
+        try
+        {
+          journal.deadLettered(entry.id);
+        }
+        catch (IOException ioexc)
+        {
+          log.error("Unable to journal dead-lettering of outbound email {}.", entry.email, ioexc);
+        }
+      }
+      
+      // Discard the oldest dead letters beyond the limit.
+      final Iterator<Entry> iterator = dead.values().iterator();
+      while (dead.size() > deadLetterLimit && iterator.hasNext())
+      {
+        final Entry discarded = iterator.next();
+        iterator.remove();
+        if (journal != null && discarded.durable)
+        {
+          try
+          {
+            journal.completed(discarded.id);
+          }
+          catch (IOException ioexc)
+          {
+            log.error("Unable to journal removal of dead letter {}.", discarded.email, ioexc);
+          }
+        }
+      }
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+  
+  /**
+   * Gets the e-mails in the dead-letter list, oldest first.
+   */
+  List<EmailPackage> getDeadLetters()
+  {
+    lock.lock();
+    try
+    {
+      final List<EmailPackage> result = new ArrayList<>(dead.size());
+      for (Entry entry : dead.values())
+      {
+        result.add(entry.email);
+      }
+      return result;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+  
+  /**
+   * Removes every e-mail from the dead-letter list and returns them, oldest
+   * first, so that they may be resent or discarded.
+   */
+  List<EmailPackage> drainDeadLetters()
+  {
+    lock.lock();
+    try
+    {
+      final List<EmailPackage> result = new ArrayList<>(dead.size());
+      for (Entry entry : dead.values())
+      {
+        result.add(entry.email);
+        if (journal != null && entry.durable)
+        {
+          try
+          {
+            journal.completed(entry.id);
+          }
+          catch (IOException ioexc)
+          {
+            log.error("Unable to journal removal of dead letter {}.", entry.email, ioexc);
+          }
+        }
+      }
+      dead.clear();
+      return result;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+  
+  /**
+   * Gets the number of e-mails waiting in the lane for a priority, 
+   * excluding e-mails claimed by sender threads.
+   */
+  int getDepth(EmailPriority priority)
+  {
+    lock.lock();
+    try
+    {
+      return lanes.get(priority.ordinal()).size();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+  
+  /**
+   * Gets the number of e-mails queued or being delivered.
+   */
+  int getPendingCount()
+  {
+    lock.lock();
+    try
+    {
+      return live.size();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+  
+  /**
+   * Gets the number of dead-lettered e-mails retained.
+   */
+  int getDeadLetterCount()
+  {
+    lock.lock();
+    try
+    {
+      return dead.size();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+  
+  /**
+   * Gets the age, in milliseconds, of the oldest e-mail queued or being 
+   * delivered; or 0 if there are none.
+   */
+  long getOldestAgeMillis()
+  {
+    long oldest = Long.MAX_VALUE;
+    lock.lock();
+    try
+    {
+      for (Entry entry : live.values())
+      {
+        oldest = Math.min(oldest, entry.enqueuedAt);
+      }
+    }
+    finally
+    {
+      lock.unlock();
+    }
+    return oldest == Long.MAX_VALUE 
+        ? 0L 
+        : System.currentTimeMillis() - oldest;
+  }
+  
+  /**
+   * Gets the average time, in milliseconds, from queuing to delivery of
+   * delivered e-mails.
+   */
+  long getAverageDeliveryMillis()
+  {
+    final long count = completed.get();
+    return count == 0L ? 0L : completedWaitMillis.get() / count;
+  }
+  
+  /**
+   * Gets the number of deliveries retried.
+   */
+  long getRetriedCount()
+  {
+    return retried.get();
+  }
+  
+  /**
+   * Gets the number of e-mails dead-lettered.
+   */
+  long getDeadLetteredCount()
+  {
+    return deadLettered.get();
+  }
+  
+  /**
+   * Gets the number of e-mails not queued because of a duplicate delivery
+   * key.
+   */
+  long getDuplicateCount()
+  {
+    return duplicates.get();
+  }
+  
+  /**
+   * Closes the journal, if any.  E-mails still pending remain in the 
+   * journal and will be queued again when it is next opened.
+   */
+  @Override
+  public void close()
+  {
+    lock.lock();
+    try
+    {
+      if (journal != null)
+      {
+        journal.close();
+        journal = null;
+      }
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+  
+  /**
+   * Adds an entry to its lane.  The lock must be held.
+   */
+  private void enqueueLocked(Entry entry)
+  {
+    live.put(entry.id, entry);
+    final String key = entry.email.getDeliveryKey();
+    if (key != null)
+    {
+      pendingKeys.add(key);
+    }
+    lane(entry).add(entry);
+    available.signal();
+  }
+  
+  /**
+   * Gets the lane for an entry.
+   */
+  private PriorityQueue<Entry> lane(Entry entry)
+  {
+    return lanes.get(entry.email.getPriority().ordinal());
+  }
+  
+  /**
+   * Starts rewriting the journal once it holds many more records than 
+   * there are live e-mails, returning the compaction to be completed by
+   * {@link #compact(EmailJournal.Compaction)}, or null if none is needed.
+   * The lock must be held.
+   */
+  private EmailJournal.Compaction compactionIfWorthwhile()
+  {
+    if (journal != null 
+        && journal.getRecordCount() > Math.max(COMPACTION_THRESHOLD, 
+            4 * (live.size() + dead.size())))
+    {
+      return journal.startCompaction(live.values(), dead.values());
+    }
+    return null;
+  }
+  
+  /**
+   * Writes a compacted journal without holding the lock, so that senders 
+   * and enqueuers are not stalled behind the disk, then takes the lock to
+   * move it into place.  The lock must not be held.
+   */
+  private void compact(EmailJournal.Compaction compaction)
+  {
+    try
+    {
+      compaction.write();
+    }
+    catch (IOException ioexc)
+    {
+      log.error("Unable to compact outbound email journal.", ioexc);
+      lock.lock();
+      try
+      {
+        compaction.abandon();
+      }
+      finally
+      {
+        lock.unlock();
+      }
+      return;
+    }
+    
+    lock.lock();
+    try
+    {
+      compaction.finish();
+    }
+    catch (IOException ioexc)
+    {
+      log.error("Unable to compact outbound email journal.", ioexc);
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+  
+  /**
+   * An e-mail in the queue.
+   */
+  static final class Entry
+  {
+    final long         id;
+    final EmailPackage email;
+    final long         enqueuedAt;
+    final String       domain;
+    final boolean      durable;
+    long               dueAt;     // Guarded by the queue's lock.
+    
+    Entry(long id, EmailPackage email, long enqueuedAt)
+    {
+      this.id = id;
+      this.email = email;
+      this.enqueuedAt = enqueuedAt;
+      this.domain = domainOf(email.getRecipient());
+      this.durable = EmailJournal.isJournalable(email);
+    }
+    
+    /**
+     * Gets the lower-case domain of the first address in a recipient list.
+     */
+    private static String domainOf(String recipient)
+    {
+      if (recipient == null)
+      {
+        return null;
+      }
+      int end = recipient.indexOf(',');
+      if (end < 0)
+      {
+        end = recipient.length();
+      }
+      final int at = recipient.lastIndexOf('@', end - 1);
+      if (at < 0)
+      {
+        return null;
+      }
+      String domain = recipient.substring(at + 1, end).trim();
+      if (domain.endsWith(">"))
+      {
+        domain = domain.substring(0, domain.length() - 1);
+      }
+      return domain.toLowerCase(Locale.ROOT);
+    }
+  }
+  
+}   // End OutboundEmailQueue.
@@ -29,6 +29,7 @@ package com.khulnasoft.gemini.filestore;
 
 import java.io.*;
 import java.nio.file.*;
+import java.security.*;
 import java.util.*;
 
 import com.khulnasoft.gemini.*;
@@ -66,6 +67,20 @@ import org.slf4j.LoggerFactory;
  *   fileStore.registerType(new User(), 'u');  // Users
  *   fileStore.registerType(new Foo(), 'f');   // Foos
  * </pre>
+ *    <p>
+ * Uploads are streamed to disk through a FileChannel and moved into place
+ * once complete.  When FileStore.ContentAddressed is enabled, stored files
+ * are kept once per distinct content in [file-store-root]/.content, named
+ * by their SHA-256 hash, and each object's file is a hard link to its 
+ * content.  The file system's link count serves as the reference count: 
+ * content is deleted when the last file referring to it is deleted.  This
+ * requires a file system supporting hard links and the "unix" attribute
+ * view; otherwise it is disabled with a warning.
+ *   <p>
+ * Since every file with the same content is then a link to the same inode,
+ * stored files must be treated as immutable: writing to one in place would
+ * change every file sharing its content.  Replace a file by storing it
+ * again instead.
  */
 public class FileStore
   extends    BasicManager<GeminiApplication>
@@ -80,6 +95,11 @@ public class FileStore
   public static final String DEFAULT_CONFIGURATION_PREFIX = "FileStore.";
   public static final int    DEFAULT_FILENAME_LENGTH_MAX = 250;
   public static final int    MAXIMUM_FILES_PER_UPLOAD = 10;
+  public static final String CONTENT_DIRECTORY = ".content";
+  
+  private static final String LINK_COUNT_ATTRIBUTE = "unix:nlink";
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+  private static final int    CONTENT_LOCK_STRIPES = 64;
   
   //
   // Member variables.
@@ -91,8 +111,10 @@ public class FileStore
   private String            urlRoot;
   private String            configurationPrefix;
   private boolean           enabled = true;
+  private boolean           contentAddressed = false;
   private int               filenameLengthMaximum = DEFAULT_FILENAME_LENGTH_MAX;
   private Logger            log = LoggerFactory.getLogger(getClass());
+  private final Object[]    contentLocks = new Object[CONTENT_LOCK_STRIPES];
   
   //
   // Member methods.
@@ -114,6 +136,10 @@ public class FileStore
     super(application);
     this.configurationPrefix = configurationPrefix;
     typesToCodes = new HashMap<>();
+    for (int i = 0; i < contentLocks.length; i++)
+    {
+      contentLocks[i] = new Object();
+    }
   }
   
   /**
@@ -130,6 +156,13 @@ public class FileStore
     filesystemRoot = focus.get("FilesystemRoot", null);
     urlRoot = focus.get("URLRoot", "/");
     filenameLengthMaximum = focus.getInt("FilenameLengthMaximum", DEFAULT_FILENAME_LENGTH_MAX);
+    contentAddressed = focus.getBoolean("ContentAddressed", false);
+    if (contentAddressed
+        && !FileSystems.getDefault().supportedFileAttributeViews().contains("unix"))
+    {
+      contentAddressed = false;
+      log.warn("FileStore.ContentAddressed requires a file system with hard links and unix attributes; disabled.");
+    }
     
     if (StringHelper.isNonEmpty(filesystemRoot))
     {
@@ -321,11 +354,16 @@ public class FileStore
     // Prepare the destination directory.
     prepDirectory(dest);
 
-    try (
-        FileOutputStream outputStream = new FileOutputStream(destinationFilename);
-        )
+    try
     {
-      FileHelper.copyStreamContents(fileInputStream, outputStream, 0L);
+      if (contentAddressed)
+      {
+        storeContent(fileInputStream, Paths.get(destinationFilename));
+      }
+      else
+      {
+        FileHelper.copyToFile(fileInputStream, Paths.get(destinationFilename));
+      }
     }
     catch (IOException ioexc)
     {
@@ -451,7 +489,17 @@ public class FileStore
           final String filename = file.getFilename();
           try
           {
-            file.writeTo(Paths.get(getPathname(forObject, filename)));
+            if (contentAddressed)
+            {
+              try (InputStream in = file.getContentAsStream())
+              {
+                storeContent(in, Paths.get(getPathname(forObject, filename)));
+              }
+            }
+            else
+            {
+              file.writeTo(Paths.get(getPathname(forObject, filename)));
+            }
             outcome.success = true;
           }
           catch (IOException e)
@@ -603,14 +651,227 @@ public class FileStore
   }
   
   /**
-   * Deletes a file.
+   * Deletes a file.  With content addressing, deleting the last file that
+   * refers to some content deletes the content as well.
    */
   protected boolean deleteFile(String filename)
   {
     final File file = new File(filename);
+    if (contentAddressed)
+    {
+      // Only the last reference (this link plus the content's own name)
+      // needs the content's hash, which is then read from the file.
+      Path content = null;
+      try
+      {
+        if (file.isFile() && getLinkCount(file.toPath()) == 2)
+        {
+          try (InputStream in = new FileInputStream(file))
+          {
+            content = getContentPath(hash(in, null));
+          }
+        }
+      }
+      catch (IOException ioexc)
+      {
+        log.warn("Unable to determine content of {}.", filename, ioexc);
+      }
+      
+      final boolean deleted = file.delete();
+      if (deleted && content != null)
+      {
+        releaseContent(content);
+      }
+      return deleted;
+    }
     return file.delete();
   }
   
+  /**
+   * Stores the contents of an InputStream as content-addressed content and
+   * links the destination to it.  The stream is hashed as it is written to
+   * a temporary file, which becomes the content if no identical content is
+   * already stored.  Storing the content and linking to it is done under
+   * the content's lock, so that content released concurrently cannot be
+   * deleted in between.
+   */
+  protected void storeContent(InputStream inputStream, Path destination)
+    throws IOException
+  {
+    final Path contentRoot = Paths.get(filesystemRoot, CONTENT_DIRECTORY);
+    Files.createDirectories(contentRoot);
+    final Path temporary = FileHelper.createTemporaryFile(contentRoot, null);
+    try
+    {
+      final String hash;
+      try (OutputStream out = Files.newOutputStream(temporary))
+      {
+        hash = hash(inputStream, out);
+      }
+      
+      // Replacing a file deletes a link, so release its content if that 
+      // was the last.  This is done before taking this content's lock, 
+      // since releasing takes the lock of the replaced content.
+      if (Files.exists(destination))
+      {
+        deleteFile(destination.toString());
+      }
+      
+      final Path content = getContentPath(hash);
+      synchronized (getContentLock(hash))
+      {
+        if (!Files.exists(content))
+        {
+          Files.createDirectories(content.getParent());
+          Files.move(temporary, content, StandardCopyOption.ATOMIC_MOVE);
+        }
+        Files.createLink(destination, content);
+      }
+    }
+    finally
+    {
+      Files.deleteIfExists(temporary);
+    }
+  }
+  
+  /**
+   * Gets the number of files that refer to stored content, not counting
+   * the content itself.  Returns 0 if the content is not stored.
+   */
+  public int getReferenceCount(String contentHash)
+  {
+    final Path content = getContentPath(contentHash);
+    try
+    {
+      return Files.exists(content) ? getLinkCount(content) - 1 : 0;
+    }
+    catch (IOException ioexc)
+    {
+      return 0;
+    }
+  }
+  
+  /**
+   * Deletes stored content to which no files refer, such as content left
+   * behind by files deleted outside of the FileStore.  Returns the number
+   * of content files deleted.
+   */
+  public int purgeUnreferencedContent()
+  {
+    final Path contentRoot = Paths.get(filesystemRoot, CONTENT_DIRECTORY);
+    if (!contentAddressed || !Files.isDirectory(contentRoot))
+    {
+      return 0;
+    }
+    final int[] purged = new int[1];
+    try (java.util.stream.Stream<Path> paths = Files.walk(contentRoot))
+    {
+      paths.filter(Files::isRegularFile)
+           .filter(path -> !path.getFileName().toString().startsWith("."))
+           .forEach(path -> {
+             if (releaseContent(path))
+             {
+               purged[0]++;
+             }
+           });
+    }
+    catch (IOException ioexc)
+    {
+      log.error("Unable to purge unreferenced content.", ioexc);
+    }
+    return purged[0];
+  }
+  
+  /**
+   * Deletes content if no files refer to it.  Returns true if deleted.
+   */
+  private boolean releaseContent(Path content)
+  {
+    synchronized (getContentLock(content.getFileName().toString()))
+    {
+      try
+      {
+        if (Files.exists(content) && getLinkCount(content) <= 1)
+        {
+          Files.delete(content);
+          return true;
+        }
+      }
+      catch (IOException ioexc)
+      {
+        log.warn("Unable to release content {}.", content, ioexc);
+      }
+      return false;
+    }
+  }
+  
+  /**
+   * Gets the lock that serializes storing, linking to, and releasing the
+   * content with a hash.  Locks are striped, so unrelated content may 
+   * share one.
+   */
+  private Object getContentLock(String hash)
+  {
+    return contentLocks[(hash.hashCode() & 0x7fffffff) % CONTENT_LOCK_STRIPES];
+  }
+  
+  /**
+   * Gets the path of content with a hash, fanned out by its first four
+   * hex digits: .content/ab/cd/abcd...
+   */
+  private Path getContentPath(String hash)
+  {
+    return Paths.get(filesystemRoot, CONTENT_DIRECTORY, hash.substring(0, 2),
+        hash.substring(2, 4), hash);
+  }
+  
+  /**
+   * Gets the hard link count of a file.
+   */
+  private static int getLinkCount(Path path)
+    throws IOException
+  {
+    return ((Number)Files.getAttribute(path, LINK_COUNT_ATTRIBUTE)).intValue();
+  }
+  
+  /**
+   * Reads an InputStream to its end, computing the SHA-256 hash of its 
+   * contents as hex and optionally copying them to an OutputStream.
+   */
+  private static String hash(InputStream in, OutputStream copy)
+    throws IOException
+  {
+    final MessageDigest digest;
+    try
+    {
+      digest = MessageDigest.getInstance("SHA-256");
+    }
+    catch (NoSuchAlgorithmException nsaexc)
+    {
+      throw new IOException(nsaexc);
+    }
+    
+    final byte[] buffer = new byte[64 * 1024];
+    int read;
+    while ((read = in.read(buffer)) >= 0)
+    {
+      digest.update(buffer, 0, read);
+      if (copy != null)
+      {
+        copy.write(buffer, 0, read);
+      }
+    }
+    
+    final byte[] bytes = digest.digest();
+    final char[] hex = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++)
+    {
+      hex[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+      hex[i * 2 + 1] = HEX[bytes[i] & 0xF];
+    }
+    return new String(hex);
+  }
+  
   /**
    * Deletes all files in a provided path.  Returns a list of the names.
    */
@@ -625,7 +886,7 @@ public class FileStore
     for (File file : files)
     {
       name = file.getName();
-      success = file.delete();
+      success = deleteFile(file.getPath());
       if (success)
       {
         deleted.add(name);
@@ -755,6 +1016,14 @@ public class FileStore
     return enabled;
   }
 
+  /**
+   * Are stored files deduplicated by content?
+   */
+  public boolean isContentAddressed()
+  {
+    return contentAddressed;
+  }
+
   /**
    * @param enabled The enabled to set.
    */
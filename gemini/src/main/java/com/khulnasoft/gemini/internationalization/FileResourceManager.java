@@ -68,6 +68,8 @@ import org.slf4j.LoggerFactory;
  *   <ul>
  * <li>I18n.ResourceLocation - Where to find resource files.  The default is 
  *     within ${Servlet.WebInf}internationalization.</li>
+ * <li>I18n.CompiledResources - Flatten each Locale's resources into a
+ *     precompiled table.  Read by GeminiLocaleManager.  Default false.</li>
  *   </ul>
  */
 public class FileResourceManager 
@@ -90,7 +92,7 @@ public class FileResourceManager
   //
   
   private String                       resourceLocation;
-  private Map<Locale, GeminiResources> loadedResources = new HashMap<>();
+  private volatile Map<Locale, GeminiResources> loadedResources = new HashMap<>();
   private volatile GeminiResources     rootResources;
   private          Logger              log = LoggerFactory.getLogger(getClass());
   
@@ -175,7 +177,7 @@ public class FileResourceManager
     // GeminiResources object from them.
     if (props != null)
     {
-      toReturn = new GeminiResources(getApplication(), props, locale, parentResources);
+      toReturn = newResources(props, locale, parentResources);
     }
     else
     {
@@ -367,25 +369,8 @@ public class FileResourceManager
       {
         if (this.rootResources == null)
         {
-          GeminiResources newRootResources;
-          
-          // Attempt to load the properties file for the requested Locale.
-          Properties props = loadProperties(getResourceFilename(null));
-
-          // If we were successful at loading the Properties, let's build a 
-          // GeminiResources object from them.
-          if (props != null)
-          {
-            newRootResources = new GeminiResources(getApplication(), props,
-                null, getLocaleManager().getDefaultResources());
-          }
-          else
-          {
-            newRootResources = getLocaleManager().getDefaultResources();
-          }
-          
           // Set the reference.
-          this.rootResources = newRootResources;
+          this.rootResources = loadRootResources();
         }
       }
     }
@@ -393,13 +378,43 @@ public class FileResourceManager
     return this.rootResources;
   }
 
+  /**
+   * Loads the "root" resources from [project].resources, or returns the
+   * default resources if that file does not exist.
+   */
+  protected GeminiResources loadRootResources()
+  {
+    // Attempt to load the properties file for the requested Locale.
+    Properties props = loadProperties(getResourceFilename(null));
+
+    // If we were successful at loading the Properties, let's build a 
+    // GeminiResources object from them.
+    if (props != null)
+    {
+      return newResources(props, null, getLocaleManager().getDefaultResources());
+    }
+    return getLocaleManager().getDefaultResources();
+  }
+  
+  /**
+   * Constructs a GeminiResources, in compiled mode if so configured.
+   */
+  protected GeminiResources newResources(Properties props, Locale locale, 
+      GeminiResources parent)
+  {
+    final GeminiResources resources = new GeminiResources(getApplication(), 
+        props, locale, parent);
+    resources.setCompiled(getLocaleManager().isCompiledResources());
+    return resources;
+  }
+
   /**
    * Clears all resource mappings, this will force them all to be reloaded.
    */
   @Override
-  public void reset() 
+  public synchronized void reset() 
   {
-    this.loadedResources.clear();
+    this.loadedResources = new HashMap<>();
   }
 
   /**
@@ -407,9 +422,71 @@ public class FileResourceManager
    * reloaded.
    */
   @Override
-  public void reset(Locale locale) 
+  public synchronized void reset(Locale locale) 
+  {
+    final Map<Locale, GeminiResources> newMap = new HashMap<>(this.loadedResources);
+    newMap.remove(locale);
+    this.loadedResources = newMap;
+  }
+  
+  /**
+   * Reloads the root resources and the resources of every Locale loaded so
+   * far, then swaps them all in at once.  Until then, requests continue to
+   * use the previously-loaded resources.  In compiled mode, the new tables
+   * are built before the swap.
+   */
+  @Override
+  public synchronized void reload()
   {
-    this.loadedResources.remove(locale);
+    final GeminiResources newRoot = loadRootResources();
+    final Map<Locale, GeminiResources> newMap = new HashMap<>();
+    for (Locale locale : this.loadedResources.keySet())
+    {
+      reload(locale, newRoot, newMap);
+    }
+    
+    if (getLocaleManager().isCompiledResources())
+    {
+      for (GeminiResources resources : newMap.values())
+      {
+        resources.precompile();
+      }
+    }
+    
+    this.rootResources = newRoot;
+    this.loadedResources = newMap;
+    log.info("Reloaded resources for {} locale(s).", newMap.size());
+  }
+  
+  /**
+   * Loads the resources for a Locale into a map being prepared by reload,
+   * loading its parent Locale first if necessary.
+   */
+  private GeminiResources reload(Locale locale, GeminiResources root,
+      Map<Locale, GeminiResources> newMap)
+  {
+    GeminiResources resources = newMap.get(locale);
+    if (resources != null)
+    {
+      return resources;
+    }
+    
+    GeminiResources parentResources = root;
+    if (StringHelper.isNonEmpty(locale.getCountry()))
+    {
+      final Locale parentLocale = new Locale(locale.getLanguage());
+      if (!parentLocale.equals(locale))
+      {
+        parentResources = reload(parentLocale, root, newMap);
+      }
+    }
+    
+    final Properties props = loadProperties(getResourceFilename(locale));
+    resources = (props != null) 
+        ? newResources(props, locale, parentResources)
+        : parentResources;
+    newMap.put(locale, resources);
+    return resources;
   }
   
 }
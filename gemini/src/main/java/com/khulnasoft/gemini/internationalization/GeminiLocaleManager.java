@@ -86,6 +86,7 @@ public class GeminiLocaleManager
   private final    String            productName;
   private final    Locale            defaultLocale;
   private final    GeminiResources   defaultResources;
+  private volatile boolean           compiledResources = false;
 
   //
   // Member methods.
@@ -152,8 +153,18 @@ public class GeminiLocaleManager
   {
     // We create a FileResourceManager, but in the future, we may have other
     // configurable Managers for resources (e.g., DatabaseResourceManager).
+    this.compiledResources = props.getBoolean("I18n.CompiledResources", false);
+    this.defaultResources.setCompiled(this.compiledResources);
     this.resourceManager = new FileResourceManager(this.application, this, props);
   }
+  
+  /**
+   * Are resources flattened into precompiled tables?  See GeminiResources.
+   */
+  public boolean isCompiledResources()
+  {
+    return this.compiledResources;
+  }
 
   /**
    * Gets the default locale for this application.
@@ -262,6 +273,15 @@ public class GeminiLocaleManager
   {
     this.resourceManager.reset();
   }
+  
+  /**
+   * Reloads all Locales' resource data.  Requests continue to use the 
+   * previously-loaded resources until the reload is complete.
+   */
+  public void reloadResources()
+  {
+    this.resourceManager.reload();
+  }
 
   /**
    * Gets the reference to the application.
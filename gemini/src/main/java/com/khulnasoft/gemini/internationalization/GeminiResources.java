@@ -28,6 +28,8 @@
 package com.khulnasoft.gemini.internationalization;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 import com.khulnasoft.gemini.*;
 import com.khulnasoft.helper.*;
@@ -48,6 +50,18 @@ import org.slf4j.LoggerFactory;
  * asked to fulfill the request.  This can progress up the chain to the
  * "Default Resources" which are usually hard-coded as either a plain instance
  * of or a subclass of DefaultGeminiResources.
+ *   <p>
+ * In compiled mode (see I18n.CompiledResources in GeminiLocaleManager), the
+ * chain is flattened on first use into a single immutable table in which
+ * each value is pre-parsed into a {@link ResourceTemplate}.  Lookups then
+ * read one unsynchronized map regardless of the depth of the chain, and
+ * macro expansion does not search the value.  The table is rebuilt after
+ * any resources in the process change through {@link #updater()} or
+ * {@link #loadFromProperties(Properties)}; changes made directly to the
+ * Properties returned by {@link #getAll()} require a call to
+ * {@link #invalidate()}.
+ *   <p>
+ * Missing and empty keys are logged at most once per key every ten minutes.
  */
 public class GeminiResources
 {
@@ -60,6 +74,20 @@ public class GeminiResources
     "$SB", "$SC", "$SD", "$SE", "$SF", "$SG", "$SH", "$SI", "$SJ", "$SK", 
     "$SL", "$SM", "$SN", "$SO", "$SP", "$SQ", "$SR", "$SS", "$ST", "$SU"
   };
+  
+  private static final long MISSING_KEY_LOG_INTERVAL = 10L * 60L * 1000L;
+  private static final int  MISSING_KEY_LOG_LIMIT = 10000;
+  
+  /**
+   * Incremented whenever any resources change, invalidating the compiled
+   * tables of all resources (since a table includes its parents' values).
+   */
+  private static final AtomicLong generation = new AtomicLong();
+  
+  /**
+   * When each missing or empty key was last logged.
+   */
+  private static final ConcurrentMap<String, Long> loggedKeys = new ConcurrentHashMap<>();
 
   //
   // Member variables.
@@ -69,6 +97,8 @@ public class GeminiResources
   private final Locale              locale;
   private final GeminiResources     parent;
   private       Properties          properties;
+  private volatile boolean          compiled = false;
+  private volatile Table            table;
   
   //
   // Member methods.
@@ -124,6 +154,12 @@ public class GeminiResources
    */
   public String get(String key)
   {
+    if (this.compiled)
+    {
+      final ResourceTemplate template = getTemplate(key);
+      return template != null ? template.getValue() : key;
+    }
+    
     // If the key doesn't exist in this resources file; add it as an empty
     // string.
     if (!hasKey(key))
@@ -132,7 +168,7 @@ public class GeminiResources
       {
         // There are no more parents to check.  We're at the root.  So let's
         // log the issue and return just the Key as if it were the Value.
-        this.log.info("Key \"{}\" does not exist in the resources.", key);
+        logKey("Key \"{}\" does not exist in the resources.", key);
         return key;
       }
       else
@@ -147,7 +183,7 @@ public class GeminiResources
       {
         // The value for this key is empty, log it since this probably 
         // shouldn't be the case.
-        this.log.info("Value for key \"{}\" is empty.", key);
+        logKey("Value for key \"{}\" is empty.", key);
       }
       return value;
     }
@@ -158,6 +194,15 @@ public class GeminiResources
    */
   public String get(String key, String... macros)
   {
+    if (this.compiled)
+    {
+      final ResourceTemplate template = getTemplate(key);
+      if (template != null)
+      {
+        return template.render(macros);
+      }
+    }
+    
     String toExpand = this.get(key);
     if (macros != null)
     {
@@ -166,6 +211,141 @@ public class GeminiResources
     return toExpand;
   }
   
+  /**
+   * Appends a resource string, replacing macros as necessary, to a 
+   * StringBuilder.  In compiled mode this avoids creating intermediate
+   * Strings.
+   */
+  public StringBuilder render(StringBuilder out, String key, String... macros)
+  {
+    if (this.compiled)
+    {
+      final ResourceTemplate template = getTemplate(key);
+      if (template != null)
+      {
+        return template.render(out, macros);
+      }
+    }
+    return out.append(get(key, macros));
+  }
+  
+  /**
+   * Gets the compiled template for a key from the flattened table, or null
+   * if no value for the key exists.  The table is compiled on demand if this
+   * resources object is not in compiled mode.
+   */
+  public ResourceTemplate getTemplate(String key)
+  {
+    final ResourceTemplate template = table().templates.get(key);
+    if (template == null)
+    {
+      logKey("Key \"{}\" does not exist in the resources.", key);
+    }
+    else if (template.isEmpty())
+    {
+      logKey("Value for key \"{}\" is empty.", key);
+    }
+    return template;
+  }
+  
+  /**
+   * Is this resources object in compiled mode?
+   */
+  public boolean isCompiled()
+  {
+    return this.compiled;
+  }
+  
+  /**
+   * Sets whether this resources object uses a flattened, precompiled table
+   * for lookups.
+   */
+  public void setCompiled(boolean compiled)
+  {
+    this.compiled = compiled;
+  }
+  
+  /**
+   * Builds the compiled table now rather than on first use.
+   */
+  public void precompile()
+  {
+    table();
+  }
+  
+  /**
+   * Discards the compiled tables of all resources, causing them to be
+   * rebuilt on next use.  This is necessary only after modifying the 
+   * Properties returned by {@link #getAll()} directly.
+   */
+  public static void invalidate()
+  {
+    generation.incrementAndGet();
+  }
+  
+  /**
+   * Gets the current compiled table, building it if necessary.
+   */
+  private Table table()
+  {
+    final Table current = this.table;
+    if (current != null && current.generation == generation.get())
+    {
+      return current;
+    }
+    return compile();
+  }
+  
+  /**
+   * Flattens this resources object and its parents into a new table, root
+   * first so that values closer to this object take precedence.
+   */
+  private Table compile()
+  {
+    final long tableGeneration = generation.get();
+    final Deque<GeminiResources> chain = new ArrayDeque<>();
+    for (GeminiResources resources = this; resources != null; resources = resources.parent)
+    {
+      chain.push(resources);
+    }
+    
+    final Map<String, ResourceTemplate> templates = new HashMap<>();
+    for (GeminiResources resources : chain)
+    {
+      final Properties props = resources.properties;
+      if (props != null)
+      {
+        for (Map.Entry<Object, Object> entry : props.entrySet())
+        {
+          templates.put(entry.getKey().toString(), 
+              ResourceTemplate.compile(String.valueOf(entry.getValue())));
+        }
+      }
+    }
+    
+    final Table compiledTable = new Table(tableGeneration, templates);
+    this.table = compiledTable;
+    return compiledTable;
+  }
+  
+  /**
+   * Logs a message about a key, at most once per key per interval.
+   */
+  private void logKey(String message, String key)
+  {
+    final long now = System.currentTimeMillis();
+    final Long last = loggedKeys.get(key);
+    if (last == null || now - last >= MISSING_KEY_LOG_INTERVAL)
+    {
+      if (loggedKeys.size() >= MISSING_KEY_LOG_LIMIT)
+      {
+        loggedKeys.clear();
+      }
+      loggedKeys.put(key, now);
+      this.log.info(message, key);
+    }
+  }
+  
   /**
    * Loads properties into this resource. These properties will overwrite any values with 
    * the same key.
@@ -188,6 +368,7 @@ public class GeminiResources
         }
       }
     }
+    invalidate();
   }
   
   /**
@@ -290,9 +471,25 @@ public class GeminiResources
         // Switch the reference over.
         GeminiResources.this.properties = newProperties;
       }
+      invalidate();
       
       return this;
     }
   }
   
+  /**
+   * A flattened, immutable table of compiled values.
+   */
+  private static final class Table
+  {
+    private final long generation;
+    private final Map<String, ResourceTemplate> templates;
+    
+    private Table(long generation, Map<String, ResourceTemplate> templates)
+    {
+      this.generation = generation;
+      this.templates = templates;
+    }
+  }
+  
 }   // End GeminiResources.
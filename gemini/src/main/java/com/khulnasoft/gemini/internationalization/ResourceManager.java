@@ -118,5 +118,15 @@ public abstract class ResourceManager
    * that Locale's resources will be re-loaded on demand as needed.
    */
   public abstract void reset(Locale locale);
+  
+  /**
+   * Reloads all loaded resources from their underlying source.  By default
+   * this is the same as {@link #reset()}; implementations may instead load
+   * the new resources fully before replacing the old ones.
+   */
+  public void reload()
+  {
+    reset();
+  }
 
 }
@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.gemini.internationalization;
+
+import java.util.*;
+
+/**
+ * A resource value pre-parsed into literal segments and macro references
+ * ($S1 through $S9 and $SA through $SU), so that expanding macros does not
+ * search the value on each use.  Expansion matches 
+ * {@link GeminiResources#get(String, String...)}: a macro for which no
+ * value is provided is left in place.
+ *   <p>
+ * ResourceTemplates are immutable and are built by {@link GeminiResources}
+ * in compiled mode; see {@link GeminiResources#getTemplate(String)}.
+ */
+public final class ResourceTemplate
+{
+
+  //
+  // Constants.
+  //
+
+  /**
+   * The characters following "$S" that denote macros 1 through 30.
+   */
+  private static final String MACRO_CHARACTERS = "123456789ABCDEFGHIJKLMNOPQRSTU";
+  
+  private static final int[] NO_MACROS = new int[0];
+
+  //
+  // Member variables.
+  //
+
+  private final String   value;
+  private final String[] literals;     // One more literal than macros.
+  private final int[]    macros;       // Zero-based macro indexes.
+  private final boolean  empty;
+
+  //
+  // Member methods.
+  //
+
+  /**
+   * Parses a resource value.
+   */
+  public static ResourceTemplate compile(String value)
+  {
+    final List<String> literals = new ArrayList<>();
+    final List<Integer> macros = new ArrayList<>();
+    int start = 0;
+    int position = value.indexOf("$S");
+    while (position >= 0 && position + 2 < value.length())
+    {
+      final int macro = MACRO_CHARACTERS.indexOf(value.charAt(position + 2));
+      if (macro >= 0)
+      {
+        literals.add(value.substring(start, position));
+        macros.add(macro);
+        start = position + 3;
+        position = value.indexOf("$S", start);
+      }
+      else
+      {
+        position = value.indexOf("$S", position + 1);
+      }
+    }
+    literals.add(value.substring(start));
+
+    if (macros.isEmpty())
+    {
+      return new ResourceTemplate(value, new String[] { value }, NO_MACROS);
+    }
+    final int[] indexes = new int[macros.size()];
+    for (int i = 0; i < indexes.length; i++)
+    {
+      indexes[i] = macros.get(i);
+    }
+    return new ResourceTemplate(value, literals.toArray(new String[literals.size()]), 
+        indexes);
+  }
+
+  private ResourceTemplate(String value, String[] literals, int[] macros)
+  {
+    this.value = value;
+    this.literals = literals;
+    this.macros = macros;
+    this.empty = value.trim().isEmpty();
+  }
+
+  /**
+   * Gets the unexpanded value.
+   */
+  public String getValue()
+  {
+    return this.value;
+  }
+
+  /**
+   * Is the value empty or only whitespace?
+   */
+  public boolean isEmpty()
+  {
+    return this.empty;
+  }
+
+  /**
+   * Does the value contain any macros?
+   */
+  public boolean hasMacros()
+  {
+    return this.macros.length > 0;
+  }
+
+  /**
+   * Appends the value, with macros expanded, to a StringBuilder.
+   */
+  public StringBuilder render(StringBuilder out, String... values)
+  {
+    if (values == null || this.macros.length == 0)
+    {
+      return out.append(this.value);
+    }
+    for (int i = 0; i < this.macros.length; i++)
+    {
+      out.append(this.literals[i]);
+      final int macro = this.macros[i];
+      if (macro < values.length)
+      {
+        out.append(values[macro]);
+      }
+      else
+      {
+        out.append("$S").append(MACRO_CHARACTERS.charAt(macro));
+      }
+    }
+    return out.append(this.literals[this.macros.length]);
+  }
+
+  /**
+   * Gets the value with macros expanded.
+   */
+  public String render(String... values)
+  {
+    if (values == null || this.macros.length == 0)
+    {
+      return this.value;
+    }
+    return render(new StringBuilder(this.value.length() + 16 * values.length), 
+        values).toString();
+  }
+
+  @Override
+  public String toString()
+  {
+    return "ResourceTemplate [" + this.value + "]";
+  }
+
+}   // End ResourceTemplate.
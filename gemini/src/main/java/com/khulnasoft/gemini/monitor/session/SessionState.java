@@ -27,6 +27,7 @@
 package com.khulnasoft.gemini.monitor.session;
 
 import java.util.*;
+import java.util.function.*;
 
 import com.khulnasoft.gemini.monitor.*;
 import com.khulnasoft.gemini.session.Session;
@@ -68,6 +69,7 @@ public abstract class SessionState
   protected     boolean       sessionTracking = false;
   protected final Set<Session>  sessionSet;
   protected     int           peakSessions = 0;
+  private volatile IntSupplier sessionCounter;
   
   //
   // Member methods.
@@ -89,9 +91,30 @@ public abstract class SessionState
    */
   public int getSessionCount()
   {
+    final IntSupplier counter = this.sessionCounter;
+    if (counter != null)
+    {
+      final int count = counter.getAsInt();
+      if (count > this.peakSessions)
+      {
+        this.peakSessions = count;
+      }
+      return count;
+    }
     return this.sessionCount;
   }
   
+  /**
+   * Sets a source for the session count, for SessionManagers that keep 
+   * sessions outside of the Servlet container where the container's
+   * session listener cannot see them.  When set, the count and the peak 
+   * are taken from the counter rather than from session events.
+   */
+  public void setSessionCounter(IntSupplier counter)
+  {
+    this.sessionCounter = counter;
+  }
+  
   /**
    * Gets a Set of the current sessions.
    */
@@ -0,0 +1,317 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.gemini.path;
+
+import java.io.*;
+import java.util.*;
+
+import com.khulnasoft.cache.*;
+import com.khulnasoft.gemini.*;
+import com.khulnasoft.helper.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decorates a PathHandler so that its GET responses are served from the
+ * application's {@link ResponseCache}.  Cacheable responses are produced by a
+ * {@link Renderer} rather than written directly to the response, so they can
+ * be stored; the decorated handler's prehandle and posthandle methods are
+ * called as usual, and it handles any request that is not a GET or HEAD or
+ * for which the renderer returns null.
+ *   <p>
+ * Responses are keyed by request URI and query string.  Because that key
+ * says nothing about who is asking, requests that carry a session are not
+ * cached by default and go to the decorated handler.  A handler whose
+ * responses depend on the session, or on anything else beyond the URI, 
+ * should be given a {@link Vary} that names the parts of the request the
+ * response depends on; requests are then cached whether or not they carry a
+ * session.
+ *   <p>
+ * Only one request renders a missing response at a time; concurrent 
+ * requests for the same response wait for it.  Bodies are stored both plain
+ * and gzip-compressed, and whichever the client accepts is sent as stored.
+ * Example:
+ *
+ * <pre>
+ * .add("reports", new CachingPathHandler&lt;&gt;(app, reportHandler,
+ *     (segments, context) -&gt; reportHandler.renderSummary(segments),
+ *     "text/html; charset=UTF-8", Report.class))
+ * </pre>
+ *
+ * In this example the summary is re-rendered after any Report is put,
+ * removed, or reset through the EntityStore.
+ */
+public class CachingPathHandler<C extends Context>
+  implements PathHandler<C>
+{
+
+  //
+  // Constants.
+  //
+
+  private static final String HEADER_ACCEPT_ENCODING  = "Accept-Encoding";
+  private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+  private static final String HEADER_CONTENT_LENGTH   = "Content-Length";
+  private static final String HEADER_VARY             = "Vary";
+  private static final String GZIP                    = "gzip";
+
+  //
+  // Member variables.
+  //
+
+  private final Logger         log = LoggerFactory.getLogger(getClass());
+  private final ResponseCache  cache;
+  private final PathHandler<C> handler;
+  private final Renderer<C>    renderer;
+  private final String         contentType;
+  private final Class<?>[]     tags;
+  private volatile Vary<C>     vary;
+
+  //
+  // Member methods.
+  //
+
+  /**
+   * Constructor.
+   *
+   * @param app The GeminiApplication reference.
+   * @param handler The handler being decorated.
+   * @param renderer Renders cacheable responses.
+   * @param contentType The content type of the rendered responses.
+   * @param tags The entity types whose changes invalidate the responses.
+   */
+  public CachingPathHandler(GeminiApplication app, PathHandler<C> handler,
+      Renderer<C> renderer, String contentType, Class<?>... tags)
+  {
+    this.cache = app.getStore().getResponseCache();
+    this.handler = handler;
+    this.renderer = renderer;
+    this.contentType = contentType;
+    this.tags = tags;
+  }
+
+  /**
+   * Sets the function naming what, beyond the request URI and query 
+   * string, the responses depend on.  Once set, requests that carry a 
+   * session are cached too, keyed by the function's result.
+   *
+   * @param vary the function, or null to stop caching requests that carry
+   *        a session
+   * @return this handler
+   */
+  public CachingPathHandler<C> setVary(Vary<C> vary)
+  {
+    this.vary = vary;
+    return this;
+  }
+
+  @Override
+  public boolean prehandle(PathSegments segments, C context)
+  {
+    return this.handler.prehandle(segments, context);
+  }
+
+  @Override
+  public boolean handle(PathSegments segments, C context)
+  {
+    if (!context.isGet() && !context.isHead())
+    {
+      return this.handler.handle(segments, context);
+    }
+
+    final String key = getKey(segments, context);
+    if (key == null)
+    {
+      return this.handler.handle(segments, context);
+    }
+    final ResponseCache.Entry entry = this.cache.getEntry(key, 
+        this.contentType, () -> this.renderer.render(segments, context), 
+        this.tags);
+    if (entry == null)
+    {
+      return this.handler.handle(segments, context);
+    }
+    return send(context, entry);
+  }
+
+  @Override
+  public void posthandle(PathSegments segments, C context)
+  {
+    this.handler.posthandle(segments, context);
+  }
+
+  /**
+   * Returns the cache key for a request, or null if the request should not
+   * be cached.
+   */
+  protected String getKey(PathSegments segments, C context)
+  {
+    final Vary<C> currentVary = this.vary;
+    final String variant;
+    if (currentVary != null)
+    {
+      variant = currentVary.vary(segments, context);
+      if (variant == null)
+      {
+        return null;
+      }
+    }
+    else if (context.getSession(false) != null)
+    {
+      return null;
+    }
+    else
+    {
+      variant = null;
+    }
+    final String query = context.getQueryString();
+    final String key = StringHelper.isEmpty(query)
+        ? context.getRequestUri()
+        : context.getRequestUri() + "?" + query;
+    return (variant == null) ? key : key + "#" + variant;
+  }
+
+  /**
+   * Writes a cached body, compressed if the client accepts it.
+   */
+  protected boolean send(C context, ResponseCache.Entry entry)
+  {
+    if (entry.getContentType() != null)
+    {
+      context.setContentType(entry.getContentType());
+    }
+    final boolean gzip = entry.isCompressed() 
+        && acceptsGzip(context.headers().get(HEADER_ACCEPT_ENCODING));
+    if (gzip)
+    {
+      context.headers().put(HEADER_CONTENT_ENCODING, GZIP);
+    }
+    context.headers().put(HEADER_VARY, HEADER_ACCEPT_ENCODING);
+    context.headers().put(HEADER_CONTENT_LENGTH, 
+        Integer.toString(entry.getLength(gzip)));
+    if (context.isHead())
+    {
+      return true;
+    }
+    try
+    {
+      final OutputStream out = context.getOutputStream();
+      entry.writeTo(out, gzip);
+      out.flush();
+    }
+    catch (IOException ioexc)
+    {
+      this.log.info("IOException while sending cached response.", ioexc);
+    }
+    return true;
+  }
+
+  /**
+   * Returns whether an Accept-Encoding header value admits gzip: gzip or 
+   * x-gzip is listed, or failing that "*" is, with a non-zero quality.
+   */
+  static boolean acceptsGzip(String acceptEncoding)
+  {
+    if (acceptEncoding == null)
+    {
+      return false;
+    }
+    Boolean wildcard = null;
+    for (String coding : acceptEncoding.split(","))
+    {
+      final String[] parts = coding.split(";");
+      final String name = parts[0].trim().toLowerCase(Locale.ROOT);
+      boolean accepted = true;
+      for (int i = 1; i < parts.length; i++)
+      {
+        final String param = parts[i].trim();
+        if (param.length() > 1 
+            && Character.toLowerCase(param.charAt(0)) == 'q'
+            && param.charAt(1) == '=')
+        {
+          try
+          {
+            accepted = Double.parseDouble(param.substring(2).trim()) > 0.0;
+          }
+          catch (NumberFormatException e)
+          {
+            accepted = false;
+          }
+        }
+      }
+      if (name.equals(GZIP) || name.equals("x-gzip"))
+      {
+        return accepted;
+      }
+      if (name.equals("*"))
+      {
+        wildcard = accepted;
+      }
+    }
+    return wildcard != null && wildcard;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "CachingPathHandler [" + this.handler + "]";
+  }
+
+  //
+  // Inner classes.
+  //
+
+  /**
+   * Renders a cacheable response body.
+   */
+  @FunctionalInterface
+  public interface Renderer<C extends Context>
+  {
+    /**
+     * Returns the response body, or null if the response should not be
+     * cached and the decorated handler should handle the request instead.
+     */
+    String render(PathSegments segments, C context);
+  }
+
+  /**
+   * Names what, beyond the request URI and query string, a cacheable 
+   * response depends on, such as the user's role or locale.
+   */
+  @FunctionalInterface
+  public interface Vary<C extends Context>
+  {
+    /**
+     * Returns a string that differs whenever the response would, or null
+     * if the request should not be cached and the decorated handler should
+     * handle it instead.
+     */
+    String vary(PathSegments segments, C context);
+  }
+
+}   // End CachingPathHandler.
@@ -29,8 +29,10 @@ package com.khulnasoft.gemini.pyxis;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 import com.khulnasoft.cache.*;
+import com.khulnasoft.collection.relation.*;
 import com.khulnasoft.data.*;
 import com.khulnasoft.gemini.*;
 import com.khulnasoft.gemini.messaging.*;
@@ -39,6 +41,7 @@ import com.khulnasoft.gemini.pyxis.crypto.*;
 import com.khulnasoft.gemini.pyxis.listener.*;
 import com.khulnasoft.gemini.pyxis.password.*;
 import com.khulnasoft.helper.*;
+import com.khulnasoft.security.*;
 import com.khulnasoft.util.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -62,6 +65,27 @@ import org.slf4j.LoggerFactory;
  *     algorithm.  The default is "bcrypt", which is considered secure.
  *     Another option is "plaintext" which is insecure and only suitable
  *     for development environments.</li>
+ * <li>BasicSecurity.HashingThreads - The number of dedicated threads used
+ *     for password hashing.  The default is the number of available
+ *     processors.  Set to 0 to hash on the calling (request) thread.</li>
+ * <li>BasicSecurity.HashingQueueLimit - The maximum number of password
+ *     hashing requests permitted to wait for a hashing thread.  Requests
+ *     beyond this limit are rejected immediately rather than tying up a
+ *     request thread.  The default is 16 per hashing thread.</li>
+ * <li>BasicSecurity.FailedAttemptLimit - The number of failed login
+ *     attempts permitted from a single client within FailedResetSeconds
+ *     before further attempts are refused.  The default is 0, meaning
+ *     unlimited.</li>
+ * <li>BasicSecurity.FailedAttemptLimitPerUsername - The number of failed
+ *     login attempts permitted for a single username, from any client,
+ *     within FailedResetSeconds.  This guards against attacks distributed
+ *     across many addresses but allows a username to be locked out by
+ *     anyone, so the default is 0, meaning unlimited.</li>
+ * <li>BasicSecurity.FailedResetSeconds - The length of the sliding window
+ *     over which failed attempts are counted.  The default is 300.  The
+ *     limiters are exposed via getLoginAttemptLimiter and
+ *     getUsernameAttemptLimiter so that an application may synchronize
+ *     them across a cluster (see CacheMessageManager).</li>
  * <li>BasicSecurity.CaseSensitiveUsernames - If set to yes, two users
  *     can have the same name with different case (e.g., John1 and john1).
  *     If set to no, only one of those may exist.  The default is 'yes'.</li>
@@ -92,6 +116,8 @@ public class BasicSecurity<U extends PyxisUser, G extends PyxisUserGroup>
 
   public static final int    DEFAULT_FAILED_RESET_SECONDS = 300;  // 5 minutes.
   public static final String PROPS_PREFIX                 = "BasicSecurity.";
+  public static final String PASSWORD_CHANGE_BUSY         = 
+      "Your password could not be changed right now.  Please try again later.";
 
   //
   // Member variables.
@@ -118,12 +144,17 @@ public class BasicSecurity<U extends PyxisUser, G extends PyxisUserGroup>
   private boolean        exitHttpsPostLogin    = false;
   private int            failedAttemptLimit    = 0;       // unlimited attempts.
   private int            failedResetSeconds    = DEFAULT_FAILED_RESET_SECONDS;
+  private int            failedAttemptLimitPerUsername = 0;  // unlimited.
   private long           nextAutoReset         = 0L;
   private List<SecurityListener<Context>> 
                          listeners             = null;
-  // unused unless failed attempt limiting is enabled.
-  private Map<String,LoginAttempt> 
-                         ipToAttempts          = null;
+  // null unless failed attempt limiting is enabled.
+  private volatile RateLimiter 
+                         loginAttemptLimiter   = null;
+  private volatile RateLimiter
+                         usernameAttemptLimiter = null;
+  private final AtomicLong groupMembershipGeneration = new AtomicLong();
+  private volatile boolean membershipListenerAdded = false;
 
   /**
    * Constructor.
@@ -222,6 +253,8 @@ public class BasicSecurity<U extends PyxisUser, G extends PyxisUserGroup>
     exitHttpsPostLogin    = focus.getBoolean("ExitHTTPS", exitHttpsPostLogin);
     failedAttemptLimit    = focus.getInt("FailedAttemptLimit", failedAttemptLimit);
     failedResetSeconds    = focus.getInt("FailedResetSeconds", failedResetSeconds);
+    failedAttemptLimitPerUsername = focus.getInt("FailedAttemptLimitPerUsername", 
+        failedAttemptLimitPerUsername);
     
     // Strip leading slash from the login URI since we append that later.
     if (loginUri.startsWith("/"))
@@ -229,24 +262,71 @@ public class BasicSecurity<U extends PyxisUser, G extends PyxisUserGroup>
       loginUri = loginUri.substring(1);
     }
     
-    if (isFailedAttemptLimiting())
-    {
-      nextAutoReset = DateHelper.getEndOfDay().getTime().getTime();
-    }
+    loginAttemptLimiter = configureLimiter(loginAttemptLimiter, 
+        "BasicSecurity.FailedAttempts", failedAttemptLimit);
+    usernameAttemptLimiter = configureLimiter(usernameAttemptLimiter,
+        "BasicSecurity.FailedAttemptsPerUsername", failedAttemptLimitPerUsername);
 
     final String hashingAlgorithm = focus.get("HashingAlgorithm", "bcrypt");
+    final PasswordHasher hasher;
     switch (hashingAlgorithm)
     {
       case "plaintext": {
-        passwordHasher = new PlaintextPasswordHasher();
+        hasher = new PlaintextPasswordHasher();
         break;
       }
       default: {
-        passwordHasher = new BCryptPasswordHasher();
+        hasher = new BCryptPasswordHasher();
         break;
       }
     }
-    log.info("Using {} hashing algorithm.", passwordHasher.getName());
+    
+    // Stop the threads of a previously-configured bounded hasher.
+    if (passwordHasher instanceof BoundedPasswordHasher)
+    {
+      ((BoundedPasswordHasher)passwordHasher).shutdown();
+    }
+    
+    final int hashingThreads = focus.getInt("HashingThreads", 
+        Runtime.getRuntime().availableProcessors());
+    if (hasher.isSecure() && hashingThreads > 0)
+    {
+      final int queueLimit = focus.getInt("HashingQueueLimit", 
+          hashingThreads * 16);
+      passwordHasher = new BoundedPasswordHasher(hasher, hashingThreads, 
+          Math.max(1, queueLimit));
+      log.info("Using {} hashing algorithm with {} thread{} and a queue limit of {}.", 
+          hasher.getName(), hashingThreads, 
+          StringHelper.pluralize(hashingThreads), queueLimit);
+    }
+    else
+    {
+      passwordHasher = hasher;
+      log.info("Using {} hashing algorithm.", passwordHasher.getName());
+    }
+  }
+  
+  /**
+   * Returns a failed-attempt limiter for the given limit, reusing the 
+   * existing limiter (and its counts and synchronizer) if its settings are
+   * unchanged.  Returns null if the limit is 0 or less.
+   */
+  private RateLimiter configureLimiter(RateLimiter existing, String name, 
+      int limit)
+  {
+    if (limit <= 0)
+    {
+      return null;
+    }
+    final long windowMillis = failedResetSeconds * UtilityConstants.SECOND;
+    if (  (existing != null)
+       && (existing.getLimit() == limit)
+       && (existing.getWindowMillis() == windowMillis)
+       )
+    {
+      return existing;
+    }
+    return new RateLimiter(name, limit, windowMillis);
   }
   
   /**
@@ -447,19 +527,11 @@ public class BasicSecurity<U extends PyxisUser, G extends PyxisUserGroup>
   @Override
   public boolean isLoginAttemptPermitted(Context context)
   {
-    if (isFailedAttemptLimiting())
-    {
-      final Map<String, LoginAttempt> map = getIpToAttempts();
-      final LoginAttempt attempt = map.get(context.getClientId());
-
-      // Allow for login attempts under two scenarios:
-      // 1) No previous attempts
-      // 2) Previous attempts have not yet resulted in a lock out
-      return attempt == null || attempt.isGood();
-    }
+    final RateLimiter limiter = loginAttemptLimiter;
     
-    // Default: Allow logins.
-    return true;
+    // Allow login attempts unless limiting is enabled and the client has
+    // reached the limit within the current window.
+    return limiter == null || !limiter.isLimited(context.getClientId());
   }
   
   @Override
@@ -471,33 +543,21 @@ public class BasicSecurity<U extends PyxisUser, G extends PyxisUserGroup>
   @Override
   public void captureFailedLoginAttempt(Context context)
   {
-    if (isFailedAttemptLimiting())
+    final RateLimiter limiter = loginAttemptLimiter;
+    if (limiter != null)
     {
-      // Track a failed attempt.
-      final Map<String, LoginAttempt> map = getIpToAttempts();
-      LoginAttempt attempt; 
-      synchronized (map)
-      {
-        attempt = map.get(context.getClientId());
-        if (attempt == null)
-        {
-          attempt = new LoginAttempt();
-          map.put(context.getClientId(), attempt);
-        }
-      }
-      
-      attempt.attempt();
+      limiter.record(context.getClientId());
     }
   }
   
   @Override
   public void captureSuccessfulLoginAttempt(Context context)
   {
-    if (isFailedAttemptLimiting())
+    // Clear the client's count of failed attempts if one exists.
+    final RateLimiter limiter = loginAttemptLimiter;
+    if (limiter != null)
     {
-      // Remove the entry from the IP-to-Attempts map if it exists.
-      final Map<String, LoginAttempt> map = getIpToAttempts();
-      map.remove(context.getClientId());
+      limiter.reset(context.getClientId());
     }
   }
 
@@ -517,14 +577,40 @@ public class BasicSecurity<U extends PyxisUser, G extends PyxisUserGroup>
     return new PyxisSettings(app, PROPS_PREFIX);
   }
 
+  /**
+   * Tests a provided password.  Returns false, as for a wrong password, if
+   * the password hashing queue is full and the password cannot be tested.
+   */
   @Override
   public boolean passwordTest(PyxisUser user, String password)
+  {
+    try
+    {
+      return passwordMatches(user, password);
+    }
+    catch (PasswordHashingRejectedException exc)
+    {
+      log.info("Password test rejected; password hashing queue is full.");
+      return false;
+    }
+  }
+  
+  /**
+   * Tests a provided password, letting a PasswordHashingRejectedException
+   * through.
+   */
+  private boolean passwordMatches(PyxisUser user, String password)
   {
     return (  (user != null)
            && (passwordHasher.testPassword(password, user.getUserPassword()))
            );
   }
   
+  /**
+   * Gets a user by username and password.  Returns null, as for a wrong
+   * password, if the password hashing queue is full and the password 
+   * cannot be tested.
+   */
   @Override
   public PyxisUser getUser(String username, String password)
   {
@@ -601,6 +687,51 @@ public class BasicSecurity<U extends PyxisUser, G extends PyxisUserGroup>
     return null;
   }
   
+  /**
+   * Finds the user matching a username and password, or if e-mail 
+   * authentication is enabled, an e-mail address and password.  Unlike 
+   * getUser, this lets a PasswordHashingRejectedException through so that
+   * a busy hasher can be told apart from a wrong password.
+   */
+  protected PyxisUser authenticate(String username, String password)
+  {
+    // Return null if the username or password is not supplied.
+    if (username == null || password == null)
+    {
+      return null;
+    }
+    
+    final U user = getUserByUsername(username);
+    if (passwordMatches(user, password))
+    {
+      return user;
+    }
+    
+    // If we didn't find the user via their username, and authentication 
+    // via email is enabled, let us try to find the user by their email 
+    // address.
+    if (settings.isEmailAuthenticationEnabled())
+    {
+      U byEmail = null;
+      try
+      {
+        // Send the username as a candidate email address.
+        byEmail = getUserByEmail(username);
+      }
+      catch (Exception exc)
+      {
+        // This could come up if the implementation does not provide a
+        // getUserEmail method.
+        log.info("Exception while retrieving user by email address: ", exc);
+      }
+      if (passwordMatches(byEmail, password))
+      {
+        return byEmail;
+      }
+    }
+    return null;
+  }
+  
   /**
    * Get a user by username from the entity store, using specific type U.
    * Overload this as necessary to fetch users by username in a different 
@@ -682,7 +813,70 @@ public class BasicSecurity<U extends PyxisUser, G extends PyxisUserGroup>
    */
   private EntityRelation<U,G> getUserToGroupRelation()
   {
-    return store.getRelation(userToGroupRelationDefinition);
+    final EntityRelation<U,G> relation = 
+        store.getRelation(userToGroupRelationDefinition);
+    if (!membershipListenerAdded)
+    {
+      addMembershipListener(relation);
+    }
+    return relation;
+  }
+  
+  /**
+   * Listens to the user-to-group relation, if it is cached, so that users'
+   * in-memory group memberships are discarded when the relation changes,
+   * including changes applied from other instances.
+   */
+  private synchronized void addMembershipListener(EntityRelation<U,G> relation)
+  {
+    if (!membershipListenerAdded)
+    {
+      if (relation instanceof CachingEntityRelation)
+      {
+        ((CachingEntityRelation<U,G>)relation).addListener(
+            new MembershipInvalidator());
+      }
+      membershipListenerAdded = true;
+    }
+  }
+  
+  /**
+   * Gets the current group membership generation.  This advances whenever
+   * group membership changes in a way that is not attributable to a single
+   * user, and BasicUser regathers its groups when it sees a new value.
+   */
+  public long getGroupMembershipGeneration()
+  {
+    return groupMembershipGeneration.get();
+  }
+  
+  /**
+   * Discards the in-memory group membership of one user, or of all users if
+   * the user is not held in a CacheGroup (where fetching it merely to
+   * invalidate it could be a database query).
+   */
+  protected void invalidateGroupMembership(long userID)
+  {
+    if (store.getGroup(userClass) instanceof CacheGroup)
+    {
+      final U user = store.get(userClass, userID);
+      if (user instanceof BasicUser)
+      {
+        ((BasicUser)user).invalidateUserGroups();
+      }
+    }
+    else
+    {
+      invalidateAllGroupMembership();
+    }
+  }
+  
+  /**
+   * Discards the in-memory group membership of all users.
+   */
+  protected void invalidateAllGroupMembership()
+  {
+    groupMembershipGeneration.incrementAndGet();
   }
   
   @Override
@@ -823,19 +1017,56 @@ public class BasicSecurity<U extends PyxisUser, G extends PyxisUserGroup>
   public boolean login(Context context, String username, String password, 
       boolean save)
   {
-    PyxisUser user = getUser(username, password);
+    // Clients that have already failed to login are the first to be shed
+    // when the password hashing queue is filling up.  Shedding a request
+    // is not counted as a failed attempt since no password was tested.
+    if (  (passwordHasher instanceof BoundedPasswordHasher)
+       && (!((BoundedPasswordHasher)passwordHasher).hasSpareCapacity())
+       && (hasFailedLoginAttempts(context))
+       )
+    {
+      log.info("Login for {} shed; password hashing queue is busy.", 
+          username);
+      return false;
+    }
+    
+    // Refuse attempts for a username that has reached its own limit 
+    // without testing the password.
+    final RateLimiter userLimiter = usernameAttemptLimiter;
+    final String userKey = username == null ? "" : username.toLowerCase(Locale.ROOT);
+    if (  (userLimiter != null)
+       && (userLimiter.isLimited(userKey))
+       )
+    {
+      log.info("Login for {} refused; too many failed attempts.", username);
+      return login(context, null, save);
+    }
     
-    // If we didn't find the user via their username, and authentication via
-    // email is enabled, let us try to find the user by their email address.
-    if ( (user == null)
-      && (settings.isEmailAuthenticationEnabled())
-      )
+    PyxisUser user;
+    try
     {
-      // Send the username as a candidate email address.
-      user = getUserByEmail(username, password);
+      user = authenticate(username, password);
+    }
+    catch (PasswordHashingRejectedException exc)
+    {
+      log.info("Login for {} rejected; password hashing queue is full.", 
+          username);
+      return false;
     }
 
-    return login(context, user, save);
+    final boolean success = login(context, user, save);
+    if (userLimiter != null)
+    {
+      if (success)
+      {
+        userLimiter.reset(userKey);
+      }
+      else
+      {
+        userLimiter.record(userKey);
+      }
+    }
+    return success;
   }
 
   @Override
@@ -954,13 +1185,28 @@ public class BasicSecurity<U extends PyxisUser, G extends PyxisUserGroup>
     return toReturn;
   }
   
+  /**
+   * Changes a user's password.  If the password hashing queue is full, the
+   * password is left unchanged and the returned list holds only 
+   * {@link #PASSWORD_CHANGE_BUSY}.
+   */
   @Override
   public List<String> passwordChange(PasswordProposal proposal)
   {
     final List<String> validation = passwordValidate(proposal);
     if (validation.isEmpty())
     {
-      proposal.hashedPassword = passwordHasher.encryptPassword(proposal.password);
+      try
+      {
+        proposal.hashedPassword = passwordHasher.encryptPassword(proposal.password);
+      }
+      catch (PasswordHashingRejectedException exc)
+      {
+        log.info("Password change rejected; password hashing queue is full.");
+        final List<String> busy = new ArrayList<>(1);
+        busy.add(PASSWORD_CHANGE_BUSY);
+        return busy;
+      }
       proposal.user.setUserPassword(proposal.hashedPassword);
 
       // Notify listeners.
@@ -1008,26 +1254,74 @@ public class BasicSecurity<U extends PyxisUser, G extends PyxisUserGroup>
   }
 
   /**
-   * Gets the IP-to-Attempts map, creating it if necessary.
+   * Gets the limiter that counts failed login attempts per client, or null
+   * if failed attempt limiting is disabled.
    */
-  protected synchronized Map<String,LoginAttempt> getIpToAttempts()
+  public RateLimiter getLoginAttemptLimiter()
   {
-    // Every day, we'll reset this map to clean up orphaned entries. 
-    autoResetAttemptsIfNeeded();
-
-    if (ipToAttempts == null)
+    return loginAttemptLimiter;
+  }
+  
+  /**
+   * Gets the limiter that counts failed login attempts per username, or
+   * null if per-username limiting is disabled.
+   */
+  public RateLimiter getUsernameAttemptLimiter()
+  {
+    return usernameAttemptLimiter;
+  }
+  
+  /**
+   * Returns true if failed attempt limiting is enabled and the client has
+   * at least one failed login attempt on record.
+   */
+  protected boolean hasFailedLoginAttempts(Context context)
+  {
+    final RateLimiter limiter = loginAttemptLimiter;
+    return limiter != null && limiter.estimate(context.getClientId()) > 0.0;
+  }
+  
+  /**
+   * Forgets all failed login attempts.
+   */
+  protected void resetLoginAttempts()
+  {
+    final RateLimiter limiter = loginAttemptLimiter;
+    if (limiter != null)
     {
-      ipToAttempts = new HashMap<>();
+      limiter.resetAll();
+    }
+    final RateLimiter userLimiter = usernameAttemptLimiter;
+    if (userLimiter != null)
+    {
+      userLimiter.resetAll();
     }
-    
-    return ipToAttempts;
   }
-  
+
   /**
-   * Performs an automatic clear/reset of the IP-to-attempts map on a daily
-   * basis.
+   * Gets a view of the failed login attempts per client.  The view is 
+   * backed by the login attempt limiter: getting a client returns its
+   * attempts if it has any, removing a client resets it, and putting an
+   * attempt binds it to the client.  The view cannot be enumerated.
+   *
+   * @deprecated Use {@link #getLoginAttemptLimiter()}.
+   */
+  @Deprecated
+  protected Map<String,LoginAttempt> getIpToAttempts()
+  {
+    autoResetAttemptsIfNeeded();
+    return new AttemptsView();
+  }
+
+  /**
+   * Forgets all failed login attempts at most once a day.  Failed attempts
+   * now expire on their own at the end of the sliding window, so this is 
+   * only needed by subclasses that relied on the daily reset.
+   *
+   * @deprecated Failed attempts expire after FailedResetSeconds.
    */
-  protected void autoResetAttemptsIfNeeded()
+  @Deprecated
+  protected synchronized void autoResetAttemptsIfNeeded()
   {
     if (System.currentTimeMillis() > nextAutoReset)
     {
@@ -1037,49 +1331,175 @@ public class BasicSecurity<U extends PyxisUser, G extends PyxisUserGroup>
       nextAutoReset = DateHelper.getEndOfDay().getTime().getTime();
     }
   }
-  
-  /**
-   * Resets the IP-to-Attempts map.
-   */
-  protected synchronized void resetLoginAttempts()
-  {
-    ipToAttempts = null;
-  }
 
   /**
-   * A simple data structure class for tracking login attempts.
+   * A client's failed login attempts, as counted by the login attempt 
+   * limiter.  An attempt constructed directly counts nothing until it is
+   * put into the map returned by getIpToAttempts.
+   *
+   * @deprecated Use {@link #getLoginAttemptLimiter()}.
    */
+  @Deprecated
   protected class LoginAttempt
   {
-    private int count = 0;
-    private long resetTime = 0L;
+    private volatile String clientId;
     
     public LoginAttempt()
     {
     }
     
+    private LoginAttempt(String clientId)
+    {
+      this.clientId = clientId;
+    }
+    
     public void setFailState()
     {
-      count = 0;
-      resetTime = System.currentTimeMillis() 
-          + (BasicSecurity.this.failedResetSeconds * UtilityConstants.SECOND);
+      final RateLimiter limiter = loginAttemptLimiter;
+      final String client = clientId;
+      if (limiter != null && client != null)
+      {
+        final int remaining = limiter.getLimit() 
+            - (int)Math.ceil(limiter.estimate(client));
+        for (int i = 0; i < remaining; i++)
+        {
+          limiter.record(client);
+        }
+      }
     }
     
     public boolean isGood()
     {
-      return (resetTime < System.currentTimeMillis());
+      final RateLimiter limiter = loginAttemptLimiter;
+      final String client = clientId;
+      return limiter == null || client == null || !limiter.isLimited(client);
     }
     
     public void attempt()
     {
-      count++;
-      if (count >= BasicSecurity.this.failedAttemptLimit)
+      final RateLimiter limiter = loginAttemptLimiter;
+      final String client = clientId;
+      if (limiter != null && client != null)
       {
-        setFailState();
+        limiter.record(client);
       }
     }
   }
 
+  /**
+   * The map returned by getIpToAttempts.
+   */
+  @SuppressWarnings("deprecation")
+  private class AttemptsView
+    extends AbstractMap<String,LoginAttempt>
+  {
+    @Override
+    public LoginAttempt get(Object key)
+    {
+      final RateLimiter limiter = loginAttemptLimiter;
+      if (limiter != null && key instanceof String 
+          && limiter.estimate((String)key) > 0.0)
+      {
+        return new LoginAttempt((String)key);
+      }
+      return null;
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+      return get(key) != null;
+    }
+
+    @Override
+    public LoginAttempt put(String key, LoginAttempt value)
+    {
+      final LoginAttempt previous = get(key);
+      value.clientId = key;
+      return previous;
+    }
+
+    @Override
+    public LoginAttempt remove(Object key)
+    {
+      final LoginAttempt previous = get(key);
+      final RateLimiter limiter = loginAttemptLimiter;
+      if (previous != null && limiter != null)
+      {
+        limiter.reset((String)key);
+      }
+      return previous;
+    }
+
+    @Override
+    public Set<Map.Entry<String,LoginAttempt>> entrySet()
+    {
+      return Collections.emptySet();
+    }
+  }
+
+  /**
+   * Invalidates users' group memberships when the user-to-group relation
+   * changes.
+   */
+  private class MembershipInvalidator
+    implements CachedRelationListener
+  {
+    @Override
+    public void add(long relationID, long leftID, long rightID)
+    {
+      invalidateGroupMembership(leftID);
+    }
+
+    @Override
+    public void addAll(long relationID, LongRelation relation)
+    {
+      invalidateAllGroupMembership();
+    }
+
+    @Override
+    public void clear(long relationID)
+    {
+      invalidateAllGroupMembership();
+    }
+
+    @Override
+    public void remove(long relationID, long leftID, long rightID)
+    {
+      invalidateGroupMembership(leftID);
+    }
+
+    @Override
+    public void removeAll(long relationID, LongRelation relation)
+    {
+      invalidateAllGroupMembership();
+    }
+
+    @Override
+    public void removeLeftValue(long relationID, long leftID)
+    {
+      invalidateGroupMembership(leftID);
+    }
+
+    @Override
+    public void removeRightValue(long relationID, long rightID)
+    {
+      invalidateAllGroupMembership();
+    }
+
+    @Override
+    public void replaceAll(long relationID, LongRelation relation)
+    {
+      invalidateAllGroupMembership();
+    }
+
+    @Override
+    public void reset(long relationID)
+    {
+      invalidateAllGroupMembership();
+    }
+  }
+
   @Override
   public PyxisUser constructUser()
   {
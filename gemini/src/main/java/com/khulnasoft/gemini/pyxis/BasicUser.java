@@ -105,8 +105,14 @@ public class BasicUser
   private Date    userLastLogin          = null;
   private Date    userLastPasswordChange = null;
 
-  // "Cached" quick look-up flags for the default groups.
-  private transient boolean   userGroupsSet               = false;
+  // "Cached" quick look-up flags for the default groups.  userGroupsSet
+  // and userGroupsGeneration are volatile because BasicSecurity clears the
+  // former on the thread that receives membership changes; userGroupsSet
+  // is written last so that a thread that sees it also sees the rest.
+  private transient volatile boolean userGroupsSet        = false;
+  private transient volatile long    userGroupsGeneration = 0L;
+  private transient volatile GroupMembership 
+                              groupMembership             = GroupMembership.EMPTY;
   private transient boolean   memberAdministrators        = false;
   private transient boolean   memberUsers                 = false;
   private transient boolean   memberGuests                = false;
@@ -306,13 +312,42 @@ public class BasicUser
    */
   protected void gatherUserGroups(boolean regather)
   {
-    if ((regather) || (!this.userGroupsSet))
+    // The security's membership generation advances when group membership
+    // changes in bulk (e.g., a relation reset received from another 
+    // instance), which requires all users to regather.
+    final long generation = this.security.getGroupMembershipGeneration();
+    if (  (regather) 
+       || (!this.userGroupsSet)
+       || (this.userGroupsGeneration != generation)
+       )
     {
       long[] groups = this.security.getGroupsForUser(getId());
+      this.userGroupsGeneration = generation;
       setUserGroups(groups);
     }
   }
 
+  /**
+   * Discards the in-memory record of this user's groups so that they are
+   * gathered again on next use.  Called by BasicSecurity when the user's
+   * group membership is changed, including by another instance.
+   */
+  protected void invalidateUserGroups()
+  {
+    this.userGroupsSet = false;
+  }
+
+  /**
+   * Gets this user's groups compiled for fast membership tests.  The result
+   * is immutable and is replaced, not modified, when the user's groups
+   * change.
+   */
+  public GroupMembership groupMembership()
+  {
+    gatherUserGroups(false);
+    return this.groupMembership;
+  }
+
   /**
    * Returns {@code true} if the groups for this user have been set.
    */
@@ -439,17 +474,7 @@ public class BasicUser
   {
     gatherUserGroups(false);
 
-    // Go through the user's groups...
-    for (long userGroup : this.userGroups)
-    {
-      if (userGroup == groupID)
-      {
-        return true;
-      }
-    }
-
-    // Group ID not found, return false.
-    return false;
+    return this.groupMembership.contains(groupID);
   }
 
   /**
@@ -473,26 +498,13 @@ public class BasicUser
    */
   protected void evaluateGroups()
   {
-    this.memberAdministrators = false;
-    this.memberUsers          = false;
-    this.memberGuests         = false;
+    final GroupMembership membership = GroupMembership.of(this.userGroups);
 
     // Set up the standard group flags if the user is a member.
-    for (long userGroup : this.userGroups)
-    {
-      if (userGroup == GROUP_ADMINISTRATORS)
-      {
-        this.memberAdministrators = true;
-      }
-      else if (userGroup == GROUP_USERS)
-      {
-        this.memberUsers = true;
-      }
-      else if (userGroup == GROUP_GUESTS)
-      {
-        this.memberGuests = true;
-      }
-    }
+    this.memberAdministrators = membership.contains(GROUP_ADMINISTRATORS);
+    this.memberUsers          = membership.contains(GROUP_USERS);
+    this.memberGuests         = membership.contains(GROUP_GUESTS);
+    this.groupMembership      = membership;
     
     this.userGroupsSet = true;
   }
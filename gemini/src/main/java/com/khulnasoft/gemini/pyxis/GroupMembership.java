@@ -0,0 +1,266 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.gemini.pyxis;
+
+import java.util.*;
+
+/**
+ * An immutable set of user group IDs, compiled for fast membership tests.
+ * Group IDs below DENSE_LIMIT (which covers the standard groups and the
+ * group tables of nearly every application) are held in a bitset, so that
+ * testing membership in a group, or in any or all of a set of groups, is a
+ * handful of word operations with no allocation.  Larger IDs are held in a
+ * sorted array and tested by binary search.
+ *   <p>
+ * BasicUser compiles its groups into a GroupMembership, and the group
+ * Authorizers compile their required groups into one at construction so
+ * that an authorization check is a single intersection test.
+ */
+public final class GroupMembership
+{
+
+  //
+  // Constants.
+  //
+
+  /**
+   * Group IDs in the range [0, DENSE_LIMIT) are held in the bitset.
+   */
+  public static final int DENSE_LIMIT = 4096;
+
+  /**
+   * The empty membership.
+   */
+  public static final GroupMembership EMPTY = new GroupMembership(
+      new long[0], new long[0]);
+
+  //
+  // Member variables.
+  //
+
+  private final long[] words;
+  private final long[] sparse;
+
+  //
+  // Member methods.
+  //
+
+  /**
+   * Constructor.
+   */
+  private GroupMembership(long[] words, long[] sparse)
+  {
+    this.words = words;
+    this.sparse = sparse;
+  }
+
+  /**
+   * Compiles a GroupMembership from an array of group IDs.  The array is
+   * not retained.
+   */
+  public static GroupMembership of(long... groupIds)
+  {
+    if (groupIds == null || groupIds.length == 0)
+    {
+      return EMPTY;
+    }
+
+    long maxDense = -1L;
+    int sparseCount = 0;
+    for (long id : groupIds)
+    {
+      if (id >= 0L && id < DENSE_LIMIT)
+      {
+        maxDense = Math.max(maxDense, id);
+      }
+      else
+      {
+        sparseCount++;
+      }
+    }
+
+    final long[] words = new long[(int)(maxDense >> 6) + 1];
+    final long[] sparse = new long[sparseCount];
+    int s = 0;
+    for (long id : groupIds)
+    {
+      if (id >= 0L && id < DENSE_LIMIT)
+      {
+        words[(int)(id >> 6)] |= (1L << id);
+      }
+      else
+      {
+        sparse[s++] = id;
+      }
+    }
+    Arrays.sort(sparse);
+
+    // Drop duplicate sparse IDs so that equal sets have equal hash codes.
+    int unique = 0;
+    for (int i = 0; i < sparse.length; i++)
+    {
+      if (i == 0 || sparse[i] != sparse[unique - 1])
+      {
+        sparse[unique++] = sparse[i];
+      }
+    }
+
+    return new GroupMembership(words, 
+        unique == sparse.length ? sparse : Arrays.copyOf(sparse, unique));
+  }
+
+  /**
+   * Is the given group ID in this set?
+   */
+  public boolean contains(long groupId)
+  {
+    if (groupId >= 0L && groupId < DENSE_LIMIT)
+    {
+      final int word = (int)(groupId >> 6);
+      return (word < words.length)
+          && ((words[word] & (1L << groupId)) != 0L);
+    }
+    return (sparse.length > 0)
+        && (Arrays.binarySearch(sparse, groupId) >= 0);
+  }
+
+  /**
+   * Does this set contain any of the groups in the other set?  Returns
+   * false if the other set is empty.
+   */
+  public boolean containsAny(GroupMembership other)
+  {
+    final int common = Math.min(words.length, other.words.length);
+    for (int i = 0; i < common; i++)
+    {
+      if ((words[i] & other.words[i]) != 0L)
+      {
+        return true;
+      }
+    }
+    for (long id : other.sparse)
+    {
+      if (Arrays.binarySearch(sparse, id) >= 0)
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Does this set contain all of the groups in the other set?  Returns
+   * true if the other set is empty.
+   */
+  public boolean containsAll(GroupMembership other)
+  {
+    for (int i = 0; i < other.words.length; i++)
+    {
+      final long mine = i < words.length ? words[i] : 0L;
+      if ((other.words[i] & ~mine) != 0L)
+      {
+        return false;
+      }
+    }
+    for (long id : other.sparse)
+    {
+      if (Arrays.binarySearch(sparse, id) < 0)
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Is this set empty?
+   */
+  public boolean isEmpty()
+  {
+    if (sparse.length > 0)
+    {
+      return false;
+    }
+    for (long word : words)
+    {
+      if (word != 0L)
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public boolean equals(Object obj)
+  {
+    if (obj == this)
+    {
+      return true;
+    }
+    if (!(obj instanceof GroupMembership))
+    {
+      return false;
+    }
+    final GroupMembership other = (GroupMembership)obj;
+    return containsAll(other) && other.containsAll(this);
+  }
+
+  @Override
+  public int hashCode()
+  {
+    int hash = Arrays.hashCode(sparse);
+    for (long word : words)
+    {
+      hash = 31 * hash + Long.hashCode(word);
+    }
+    return hash;
+  }
+
+  @Override
+  public String toString()
+  {
+    final StringJoiner joiner = new StringJoiner(", ", "GroupMembership [", "]");
+    for (int i = 0; i < words.length; i++)
+    {
+      long word = words[i];
+      while (word != 0L)
+      {
+        final int bit = Long.numberOfTrailingZeros(word);
+        joiner.add(Long.toString((i << 6) + bit));
+        word &= word - 1;
+      }
+    }
+    for (long id : sparse)
+    {
+      joiner.add(Long.toString(id));
+    }
+    return joiner.toString();
+  }
+
+}   // End GroupMembership.
@@ -32,14 +32,12 @@ import java.time.temporal.*;
 import java.util.*;
 
 import javax.crypto.SecretKey;
-import javax.crypto.spec.SecretKeySpec;
 
 import com.khulnasoft.collection.*;
 import com.khulnasoft.gemini.*;
 import com.khulnasoft.gemini.pyxis.crypto.*;
 import com.khulnasoft.helper.*;
 import io.jsonwebtoken.*;
-import io.jsonwebtoken.io.Decoders;
 
 /**
  * JsonWebToken provides an implementation of the Json Web Token specification.
@@ -55,10 +53,10 @@ public class JsonWebToken
   //
   
   // JWT: Private Claim Names
-  private static final String BEARER_ID             = "bearerId";
-  private static final String USER_ID               = "userId";
-  private static final String LAST_PASSWORD_CHANGED = "lastPwdChanged";
-  private static final String VALIDATION_HASH       = "validationHash";
+  static final String BEARER_ID             = "bearerId";
+  static final String USER_ID               = "userId";
+  static final String LAST_PASSWORD_CHANGED = "lastPwdChanged";
+  static final String VALIDATION_HASH       = "validationHash";
   
   // JWT: Registered Claim Names
   public static final String ISSUER     = "iss";
@@ -115,16 +113,33 @@ public class JsonWebToken
     
     final Claims data = (Claims) Jwts.parser()
         .setSigningKey(
-            application.getSecurity().getSettings().getMacSigningKey())
+            application.getSecurity().getSettings().getMacSecretKey())
         .parse(serialized)
         .getBody();
     
-    issuedAt = (long)data.get(ISSUED_AT);
+    // Small values are deserialized as Integers, so read through Number.
+    issuedAt = ((Number)data.get(ISSUED_AT)).longValue();
     bearerUserId = NumberHelper.parseLong(data.get(BEARER_ID).toString());
-    lastPasswordChange = (long)data.get(LAST_PASSWORD_CHANGED);
+    lastPasswordChange = ((Number)data.get(LAST_PASSWORD_CHANGED)).longValue();
     validationHash = (String)data.get(VALIDATION_HASH);
     userId = NumberHelper.parseLong(data.get(USER_ID).toString());
   }
+  
+  /**
+   * Constructor for a JsonWebToken whose claims have already been verified
+   * and read, as by JsonWebTokenVerifier.
+   */
+  JsonWebToken(GeminiApplicationInterface application, long issuedAt,
+      long bearerUserId, long userId, long lastPasswordChange, 
+      String validationHash)
+  {
+    this.application = application;
+    this.issuedAt = issuedAt;
+    this.bearerUserId = bearerUserId;
+    this.userId = userId;
+    this.lastPasswordChange = lastPasswordChange;
+    this.validationHash = validationHash;
+  }
 
   //
   // PUBLIC METHODS
@@ -389,8 +404,9 @@ public class JsonWebToken
       builder.claim(key, claims.get(key));
     }
     
-    final byte[] keyBytes = Decoders.BASE64.decode(application.getSecurity().getSettings().getMacSigningKey());
-    final SecretKey key = new SecretKeySpec(keyBytes, SignatureAlgorithm.HS256.getJcaName());
+    // The key is decoded once, when the settings are configured.
+    final SecretKey key = application.getSecurity().getSettings()
+        .getMacSecretKey();
         
     return builder
         // Sign the token
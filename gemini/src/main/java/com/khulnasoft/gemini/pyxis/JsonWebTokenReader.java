@@ -56,6 +56,7 @@ public class JsonWebTokenReader
   //
   
   private final GeminiApplicationInterface application;
+  private final JsonWebTokenVerifier       verifier;
 
   //
   // CONSTRUCTOR
@@ -64,12 +65,21 @@ public class JsonWebTokenReader
   public JsonWebTokenReader(GeminiApplicationInterface application)
   {
     this.application = application;
+    this.verifier = new JsonWebTokenVerifier(application);
   }
 
   //
   // PUBLIC METHODS
   //
   
+  /**
+   * Gets the verifier used to verify and cache tokens.
+   */
+  public JsonWebTokenVerifier getVerifier()
+  {
+    return verifier;
+  }
+  
   @Override
   public JsonWebToken read(Context context)
   {
@@ -82,7 +92,12 @@ public class JsonWebTokenReader
 
       try
       {
-        final JsonWebToken token = new JsonWebToken(application, serialized);
+        final JsonWebToken token = verifier.verify(serialized);
+        if (token == null)
+        {
+          // The token has expired.
+          return null;
+        }
         
         final LocalDateTime issued = LocalDateTime.ofInstant(
           new Date(token.getIssuedAt()).toInstant(),
@@ -95,6 +110,10 @@ public class JsonWebTokenReader
         {
           final PyxisUser user = this.application.getSecurity().getUser(
               token.getUserId());
+          if (user == null)
+          {
+            return null;
+          }
           // Note: we check the last time the user changed her password; if
           // it is equal to the value present in the token, then the user has
           // not changed her password since issuance of the token. However, if
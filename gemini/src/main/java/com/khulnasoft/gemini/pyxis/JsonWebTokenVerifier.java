@@ -0,0 +1,388 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.gemini.pyxis;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import javax.crypto.*;
+
+import com.fasterxml.jackson.databind.*;
+import com.google.common.cache.*;
+import com.khulnasoft.gemini.*;
+import com.khulnasoft.util.*;
+import io.jsonwebtoken.*;
+
+/**
+ * Verifies serialized JSON Web Tokens and reads the claims that Gemini
+ * issues.  API clients typically present the same bearer token on every
+ * request, so verified tokens are remembered in a bounded cache keyed by
+ * their signature; a repeat request costs a hash lookup and a string
+ * comparison rather than a parse and an HMAC computation.
+ *   <p>
+ * Tokens with the compact HS256 header that JsonWebToken itself produces
+ * are verified directly with a per-thread Mac and read with Jackson.  Any
+ * other token is handed to the jjwt parser.  Either way, the signing key is
+ * the one decoded by PyxisSettings when configured; when that changes, the
+ * Macs and the cache are discarded.
+ *   <p>
+ * Tokens past their "exp" claim are rejected, and cached entries are
+ * dropped once expired.
+ */
+public class JsonWebTokenVerifier
+{
+
+  //
+  // Constants.
+  //
+
+  /**
+   * The Base64url encoding of {"alg":"HS256"}, the header JsonWebToken
+   * produces.
+   */
+  private static final String HS256_HEADER = "eyJhbGciOiJIUzI1NiJ9";
+
+  //
+  // Member variables.
+  //
+
+  private final GeminiApplicationInterface application;
+  private final ObjectMapper               mapper = new ObjectMapper();
+
+  private volatile KeyState keyState;
+
+  //
+  // Member methods.
+  //
+
+  /**
+   * Constructor.
+   */
+  public JsonWebTokenVerifier(GeminiApplicationInterface application)
+  {
+    this.application = application;
+  }
+
+  /**
+   * Verifies a serialized token and returns a new JsonWebToken for it, or
+   * null if the token has expired.
+   *
+   * @throws MalformedJwtException if the token is malformed or its
+   *         signature does not verify.
+   * @throws IllegalArgumentException if the token is otherwise invalid.
+   */
+  public JsonWebToken verify(String serialized)
+    throws MalformedJwtException, IllegalArgumentException
+  {
+    final KeyState state = currentKeyState();
+    final int signatureStart = serialized.lastIndexOf('.') + 1;
+    if (signatureStart <= 0 || signatureStart == serialized.length())
+    {
+      throw new MalformedJwtException("Token is not a signed compact JWS.");
+    }
+    final String signature = serialized.substring(signatureStart);
+    final long now = System.currentTimeMillis();
+
+    Verified verified = state.cache == null
+        ? null
+        : state.cache.getIfPresent(signature);
+
+    // The signature alone is not enough to identify a token; an attacker
+    // could attach a known-good signature to a different payload.
+    if (verified != null && !verified.serialized.equals(serialized))
+    {
+      verified = null;
+    }
+
+    if (verified == null)
+    {
+      verified = serialized.startsWith(HS256_HEADER + ".")
+          ? verifyHs256(state, serialized, signatureStart - 1, signature)
+          : verifyWithParser(state, serialized);
+      if (state.cache != null)
+      {
+        state.cache.put(signature, verified);
+      }
+    }
+
+    if (verified.expiresAt > 0L && verified.expiresAt <= now)
+    {
+      if (state.cache != null)
+      {
+        state.cache.invalidate(signature);
+      }
+      return null;
+    }
+
+    return new JsonWebToken(application, verified.issuedAt, 
+        verified.bearerUserId, verified.userId, verified.lastPasswordChange,
+        verified.validationHash);
+  }
+
+  /**
+   * Discards all remembered tokens.
+   */
+  public void clear()
+  {
+    final KeyState state = keyState;
+    if (state != null && state.cache != null)
+    {
+      state.cache.invalidateAll();
+    }
+  }
+
+  /**
+   * Gets the current key state, rebuilding it if the configured key or
+   * cache size has changed.
+   */
+  private KeyState currentKeyState()
+  {
+    final PyxisSettings settings = application.getSecurity().getSettings();
+    final SecretKey key = settings.getMacSecretKey();
+    if (key == null)
+    {
+      throw new IllegalArgumentException("No MAC signing key is configured.");
+    }
+
+    KeyState state = keyState;
+    if (  (state == null)
+       || (state.key != key)
+       || (state.cacheSize != settings.getJwtCacheSize())
+       )
+    {
+      state = new KeyState(key, settings.getJwtCacheSize());
+      keyState = state;
+    }
+    return state;
+  }
+
+  /**
+   * Verifies a token with the HS256 header directly.
+   */
+  private Verified verifyHs256(KeyState state, String serialized, 
+    int signingInputEnd, String signature)
+  {
+    // Exactly three segments: the header, the payload, and the signature.
+    if (  (signingInputEnd <= HS256_HEADER.length())
+       || (serialized.indexOf('.', HS256_HEADER.length() + 1)
+             != signingInputEnd)
+       )
+    {
+      throw new MalformedJwtException("Token is not a signed compact JWS.");
+    }
+
+    final byte[] expected;
+    final byte[] payload;
+    try
+    {
+      expected = Base64.getUrlDecoder().decode(signature);
+      payload = Base64.getUrlDecoder().decode(serialized.substring(
+          HS256_HEADER.length() + 1, signingInputEnd));
+    }
+    catch (IllegalArgumentException exc)
+    {
+      throw new MalformedJwtException("Token is not valid Base64url.", exc);
+    }
+
+    final Mac mac = state.mac.get();
+    final byte[] signingInput = serialized.getBytes(StandardCharsets.US_ASCII);
+    mac.update(signingInput, 0, signingInputEnd);
+    if (!MessageDigest.isEqual(mac.doFinal(), expected))
+    {
+      throw new MalformedJwtException("Token signature does not verify.");
+    }
+
+    final JsonNode claims;
+    try
+    {
+      claims = mapper.readTree(payload);
+    }
+    catch (IOException exc)
+    {
+      throw new MalformedJwtException("Token claims are not valid JSON.", exc);
+    }
+    if (claims == null || !claims.isObject())
+    {
+      throw new MalformedJwtException("Token claims are not a JSON object.");
+    }
+
+    return new Verified(serialized,
+        requireLong(claims, JsonWebToken.ISSUED_AT),
+        requireLong(claims, JsonWebToken.BEARER_ID),
+        requireLong(claims, JsonWebToken.USER_ID),
+        requireLong(claims, JsonWebToken.LAST_PASSWORD_CHANGED),
+        claims.path(JsonWebToken.VALIDATION_HASH).asText(null),
+        expirationMillis(claims.path(JsonWebToken.EXPIRATION).asLong(0L)));
+  }
+
+  /**
+   * Verifies a token with the jjwt parser.
+   */
+  private Verified verifyWithParser(KeyState state, String serialized)
+  {
+    Claims claims;
+    try
+    {
+      claims = (Claims)Jwts.parser()
+          .setSigningKey(state.key)
+          .parse(serialized)
+          .getBody();
+    }
+    catch (ExpiredJwtException exc)
+    {
+      // The signature has been checked by now.  Report expiry the same way
+      // as the HS256 path does, by returning null from verify.
+      claims = exc.getClaims();
+    }
+    final Object expiration = claims.get(JsonWebToken.EXPIRATION);
+
+    return new Verified(serialized,
+        requireLong(claims.get(JsonWebToken.ISSUED_AT)),
+        requireLong(claims.get(JsonWebToken.BEARER_ID)),
+        requireLong(claims.get(JsonWebToken.USER_ID)),
+        requireLong(claims.get(JsonWebToken.LAST_PASSWORD_CHANGED)),
+        (String)claims.get(JsonWebToken.VALIDATION_HASH),
+        expiration == null ? 0L : expirationMillis(requireLong(expiration)));
+  }
+
+  /**
+   * Gemini writes "exp" in milliseconds, but the specification calls for
+   * seconds.  Values too small to be a millisecond time after 1973 are
+   * taken to be seconds.
+   */
+  private static long expirationMillis(long exp)
+  {
+    return (exp > 0L && exp < 100_000_000_000L) ? exp * 1000L : exp;
+  }
+
+  /**
+   * Reads a required numeric claim, which may be a JSON number or string.
+   */
+  private static long requireLong(JsonNode claims, String name)
+  {
+    final JsonNode node = claims.get(name);
+    if (node == null || node.isNull())
+    {
+      throw new MalformedJwtException("Token is missing claim " + name);
+    }
+    return requireLong(node.isNumber() ? node.numberValue() : node.asText());
+  }
+
+  /**
+   * Converts a claim value to a long.
+   */
+  private static long requireLong(Object value)
+  {
+    if (value instanceof Number)
+    {
+      return ((Number)value).longValue();
+    }
+    if (value != null)
+    {
+      try
+      {
+        return Long.parseLong(value.toString());
+      }
+      catch (NumberFormatException exc)
+      {
+        // Fall through.
+      }
+    }
+    throw new MalformedJwtException("Token claim is not a number: " + value);
+  }
+
+  //
+  // Inner classes.
+  //
+
+  /**
+   * The verified claims of a token.
+   */
+  private static final class Verified
+  {
+    private final String serialized;
+    private final long   issuedAt;
+    private final long   bearerUserId;
+    private final long   userId;
+    private final long   lastPasswordChange;
+    private final String validationHash;
+    private final long   expiresAt;
+
+    private Verified(String serialized, long issuedAt, long bearerUserId,
+      long userId, long lastPasswordChange, String validationHash,
+      long expiresAt)
+    {
+      this.serialized = serialized;
+      this.issuedAt = issuedAt;
+      this.bearerUserId = bearerUserId;
+      this.userId = userId;
+      this.lastPasswordChange = lastPasswordChange;
+      this.validationHash = validationHash;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  /**
+   * Everything derived from a particular signing key.
+   */
+  private static final class KeyState
+  {
+    private final SecretKey             key;
+    private final int                   cacheSize;
+    private final ThreadLocal<Mac>      mac;
+    private final Cache<String, Verified> cache;
+
+    private KeyState(SecretKey key, int cacheSize)
+    {
+      this.key = key;
+      this.cacheSize = cacheSize;
+      this.mac = ThreadLocal.withInitial(() -> {
+        try
+        {
+          final Mac instance = Mac.getInstance("HmacSHA256");
+          instance.init(key);
+          return instance;
+        }
+        catch (GeneralSecurityException exc)
+        {
+          throw new IllegalStateException("HmacSHA256 is unavailable.", exc);
+        }
+      });
+      this.cache = cacheSize <= 0 
+          ? null
+          : CacheBuilder.newBuilder()
+              .maximumSize(cacheSize)
+              .expireAfterWrite(UtilityConstants.DAY, TimeUnit.MILLISECONDS)
+              .build();
+    }
+  }
+
+}   // End JsonWebTokenVerifier.
@@ -26,13 +26,24 @@
  *******************************************************************************/
 package com.khulnasoft.gemini.pyxis;
 
+import java.nio.charset.*;
+import java.security.*;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import javax.crypto.*;
+import javax.crypto.spec.*;
 
 import org.mindrot.jbcrypt.*;
 
+import com.google.common.cache.*;
+import com.khulnasoft.cache.listener.*;
 import com.khulnasoft.data.*;
+import com.khulnasoft.data.mapping.*;
 import com.khulnasoft.gemini.*;
+import com.khulnasoft.gemini.configuration.*;
 import com.khulnasoft.gemini.manager.*;
 import com.khulnasoft.gemini.pyxis.listener.*;
 import com.khulnasoft.gemini.pyxis.password.*;
@@ -48,6 +59,29 @@ import org.slf4j.LoggerFactory;
  * table.  The server-side tokens include timestamps and a cryptographic hash of
  * the token.
  *
+ * <h2>Selectors and validators</h2>
+ *
+ * <p>Each token consists of a random <em>selector</em>, stored in plain text
+ * and used to find the token's row through an index, and a random
+ * <em>validator</em>, of which only a keyed hash (HMAC-SHA256) is stored.
+ * Validating a token therefore costs one indexed lookup and one constant-time
+ * comparison.  Because validators are long random strings rather than
+ * user-chosen passwords, a fast keyed hash is sufficient; a deliberately slow
+ * hash such as BCrypt only adds latency.
+ *
+ * <p>When multiple-use tokens are enabled, recently validated tokens are
+ * remembered in memory for a short time so that repeated requests do not
+ * query the database at all.  A user's tokens are forgotten when
+ * {@link #clearAllTokensForUser(String)} is called and again once the
+ * tokens have been deleted, and when that user is changed through the
+ * EntityStore, which includes changes applied from other instances in the
+ * cluster.
+ *
+ * <p>Tokens issued before selectors were introduced (BCrypt hashes with no
+ * selector) continue to be accepted, and are replaced with selector tokens
+ * the next time they are consumed.  If the table has no selector column,
+ * only such legacy tokens are issued.
+ *
  * <h2>Database table</h2>
  *
  * <p>The name of the database table that stores these authentication tokens is
@@ -63,6 +97,9 @@ import org.slf4j.LoggerFactory;
  *   <dd>string, never null, 100 characters should be enough</dd>
  *   <dt>created</dt>
  *   <dd>datetime, never null</dd>
+ *   <dt>selector</dt>
+ *   <dd>string, may be null (for legacy tokens), 20 characters, should have a
+ *   unique index</dd>
  * </dl>
  *
  * <p>Here is an example SQL statement for creating this table in MySQL:
@@ -72,7 +109,10 @@ import org.slf4j.LoggerFactory;
  *   `username` VARCHAR(100) NOT NULL ,
  *   `tokenhash` VARCHAR(100) NOT NULL ,
  *   `created` DATETIME NOT NULL ,
- *   PRIMARY KEY (`id`)
+ *   `selector` VARCHAR(20) NULL ,
+ *   PRIMARY KEY (`id`) ,
+ *   UNIQUE INDEX `selector` (`selector`) ,
+ *   INDEX `created` (`created`)
  * );
  * </pre>
  *
@@ -114,6 +154,21 @@ import org.slf4j.LoggerFactory;
  *   <dt>LoginTokenManager.PurgeEvent.Minute</dt>
  *     <dd>integer - default {@value #DEFAULT_PURGE_EVENT_MINUTE}.  The minute
  *     within the hour (0 to 59) that the event should execute.</dd>
+ *   <dt>LoginTokenManager.PurgeEvent.BatchSize</dt>
+ *     <dd>integer - default {@value #DEFAULT_PURGE_EVENT_BATCH_SIZE}.  The
+ *     number of stale tokens deleted per statement, so that purging a large
+ *     backlog does not hold long locks on the table.</dd>
+ *   <dt>LoginTokenManager.TokenHashKey</dt>
+ *     <dd>string - no default; required when the token table has a selector
+ *     column.  The secret key used to hash validators, so that a copy of the
+ *     table alone is not enough to verify guessed validators.  Every instance
+ *     of a cluster must use the same key.  Changing the key invalidates all
+ *     outstanding selector tokens.  Tables without a selector column issue
+ *     legacy BCrypt tokens and do not need a key.</dd>
+ *   <dt>LoginTokenManager.ValidatedTokenCacheSeconds</dt>
+ *     <dd>integer - default {@value #DEFAULT_VALIDATED_TOKEN_CACHE_SECONDS}.
+ *     How long a validated multiple-use token is remembered.  Zero disables
+ *     this cache.</dd>
  *   <dt>LoginTokenManager.OneTimeUseTokens</dt>
  *     <dd>boolean - default {@value #DEFAULT_ONE_TIME_USE_TOKENS}.  If true,
  *     when a token is used, it will be replaced with a newly-generated token.
@@ -126,6 +181,7 @@ import org.slf4j.LoggerFactory;
  * LoginTokenManager.CookieSecure = no
  * LoginTokenManager.MaxTokensPerUser = 50
  * LoginTokenManager.OneTimeUseTokens = true
+ * LoginTokenManager.TokenHashKey = (a long random secret)
  * LoginTokenManager.PurgeEvent.Enabled = yes
  * LoginTokenManager.PurgeEvent.MaxTokenAgeInDays = 100
  * LoginTokenManager.PurgeEvent.IntervalInDays = 5
@@ -139,6 +195,12 @@ public class LoginTokenManager
   // Constants
 
   private static final int TOKEN_DIGITS = 30;
+  private static final int SELECTOR_DIGITS = 20;
+  private static final char SELECTOR_SEPARATOR = ':';
+  private static final String KEYED_HASH_PREFIX = "h1$";
+  private static final String HASH_ALGORITHM = "HmacSHA256";
+  private static final int VALIDATED_TOKEN_CACHE_SIZE = 10000;
+  private static final int CLEAR_GENERATION_STRIPES   = 64;
 
   // Defaults for configurable properties
 
@@ -152,6 +214,8 @@ public class LoginTokenManager
   private static final int     DEFAULT_PURGE_EVENT_HOUR = 5;
   private static final int     DEFAULT_PURGE_EVENT_MINUTE = 30;
   private static final boolean DEFAULT_ONE_TIME_USE_TOKENS = true;
+  private static final int     DEFAULT_PURGE_EVENT_BATCH_SIZE = 1000;
+  private static final int     DEFAULT_VALIDATED_TOKEN_CACHE_SECONDS = 60;
 
   // Configurable properties
 
@@ -165,12 +229,24 @@ public class LoginTokenManager
   private int     purgeEventHour = DEFAULT_PURGE_EVENT_HOUR;
   private int     purgeEventMinute = DEFAULT_PURGE_EVENT_MINUTE;
   private boolean oneTimeUseTokens = DEFAULT_ONE_TIME_USE_TOKENS;
+  private int     purgeEventBatchSize = DEFAULT_PURGE_EVENT_BATCH_SIZE;
+  private byte[]  tokenHashKey = null;
+  private boolean selectorsSupported = false;
+  private Cache<String, ValidatedToken> validatedTokens = null;
+  // Incremented, by a stripe of usernames, whenever a user's tokens are
+  // cleared, so that a validation that raced with the clear is not cached.
+  private final AtomicLongArray clearGenerations = 
+      new AtomicLongArray(CLEAR_GENERATION_STRIPES);
+  // Replaced on reconfiguration so that no thread keeps a Mac for an old key.
+  private volatile ThreadLocal<Mac> macs = new ThreadLocal<>();
 
   // Assigned in the constructor
 
   private final PurgeEvent purgeEvent;
   private final ClearTokensOnPasswordChange clearTokenListener;
   private final Logger                      log = LoggerFactory.getLogger(getClass());
+  private ForgetTokensOnUserChange          userChangeListener;
+  private volatile Synchronizer             synchronizer;
 
   public LoginTokenManager(GeminiApplication application)
   {
@@ -216,6 +292,37 @@ public class LoginTokenManager
         DEFAULT_PURGE_EVENT_MINUTE, 0, 59);
     oneTimeUseTokens = focus.getBoolean("OneTimeUseTokens", 
         DEFAULT_ONE_TIME_USE_TOKENS);
+    purgeEventBatchSize = focus.getInt("PurgeEvent.BatchSize",
+        DEFAULT_PURGE_EVENT_BATCH_SIZE, 1, Integer.MAX_VALUE);
+    final String configuredKey = focus.get("TokenHashKey", "");
+    tokenHashKey = configuredKey.isEmpty()
+        ? null
+        : configuredKey.getBytes(StandardCharsets.UTF_8);
+    macs = new ThreadLocal<>();
+    final int validatedTokenCacheSeconds = focus.getInt(
+        "ValidatedTokenCacheSeconds", DEFAULT_VALIDATED_TOKEN_CACHE_SECONDS,
+        0, Integer.MAX_VALUE);
+    // Consuming a one-time token always updates the database, so there is
+    // nothing to be gained from remembering them.
+    validatedTokens = (oneTimeUseTokens || validatedTokenCacheSeconds == 0)
+        ? null
+        : CacheBuilder.newBuilder()
+            .maximumSize(VALIDATED_TOKEN_CACHE_SIZE)
+            .expireAfterWrite(validatedTokenCacheSeconds, TimeUnit.SECONDS)
+            .<String, ValidatedToken>build();
+    if (userChangeListener != null)
+    {
+      app().getStore().removeListener(userChangeListener);
+    }
+    userChangeListener = new ForgetTokensOnUserChange(security().getUserClass());
+    app().getStore().addListener(userChangeListener);
+    selectorsSupported = detectSelectorColumn();
+    if (selectorsSupported && tokenHashKey == null)
+    {
+      throw new ConfigurationError("LoginTokenManager.TokenHashKey must be "
+          + "set to a private key because " + databaseTableName 
+          + " has a selector column.");
+    }
     app().getScheduler().removeEvent(purgeEvent);
     if (purgeEventEnabled)
     {
@@ -238,7 +345,9 @@ public class LoginTokenManager
             + "purgeEventMaxTokenAgeInDays=%s, "
             + "purgeEventIntervalInDays=%s, "
             + "purgeEventHour=%s, "
-            + "purgeEventMinute=%s}",
+            + "purgeEventMinute=%s, "
+            + "purgeEventBatchSize=%s, "
+            + "selectorsSupported=%s}",
         getClass().getSimpleName(),
         databaseTableName,
         cookieSecure,
@@ -249,7 +358,31 @@ public class LoginTokenManager
         purgeEventMaxTokenAgeInDays,
         purgeEventIntervalInDays,
         purgeEventHour,
-        purgeEventMinute);
+        purgeEventMinute,
+        purgeEventBatchSize,
+        selectorsSupported);
+  }
+
+  /**
+   * Sets the Synchronizer used to tell other instances when all of a user's
+   * tokens are cleared, so that they forget the tokens they recently
+   * validated for that user.
+   */
+  public void setSynchronizer(Synchronizer synchronizer)
+  {
+    this.synchronizer = synchronizer;
+  }
+
+  /**
+   * Forgets any recently validated tokens belonging to the given user
+   * because another instance cleared that user's tokens.  Unlike 
+   * clearAllTokensForUser, this neither touches the database nor notifies
+   * the Synchronizer.
+   */
+  public void clearRemote(String username)
+  {
+    Objects.requireNonNull(username);
+    forgetValidatedTokens(username);
   }
 
   // Internals
@@ -283,6 +416,81 @@ public class LoginTokenManager
     return StringHelper.secureRandomString.alphanumeric(TOKEN_DIGITS);
   }
 
+  /**
+   * Determines whether the token table has a selector column.  Without one,
+   * only legacy BCrypt tokens can be issued.
+   */
+  private boolean detectSelectorColumn()
+  {
+    try (ConnectionMonitor monitor = app().getConnectorFactory().getConnectionMonitor())
+    {
+      final Collection<DatabaseColumnMetaData> columns = 
+          EntityGroup.getColumnMetaDataForTable(monitor.getConnection(), databaseTableName);
+      if (columns != null)
+      {
+        for (DatabaseColumnMetaData column : columns)
+        {
+          if ("selector".equalsIgnoreCase(column.getColumnName()))
+          {
+            return true;
+          }
+        }
+      }
+      log.warn("{} has no selector column; issuing legacy BCrypt login tokens.",
+          databaseTableName);
+    }
+    catch (Exception e)
+    {
+      log.warn("Unable to read the columns of {}; issuing legacy BCrypt login tokens.",
+          databaseTableName, e);
+    }
+    return false;
+  }
+
+  /**
+   * Returns a newly generated selector.  Selectors are not secret; they only
+   * identify the row holding a token's hash.
+   */
+  private String generateSelector()
+  {
+    return StringHelper.secureRandomString.alphanumeric(SELECTOR_DIGITS);
+  }
+
+  /**
+   * Returns the keyed hash of a validator, as stored in the tokenhash column.
+   */
+  private String generateKeyedHash(String validator)
+  {
+    final ThreadLocal<Mac> threadMacs = macs;
+    Mac mac = threadMacs.get();
+    if (mac == null)
+    {
+      try
+      {
+        mac = Mac.getInstance(HASH_ALGORITHM);
+        mac.init(new SecretKeySpec(tokenHashKey, HASH_ALGORITHM));
+      }
+      catch (GeneralSecurityException e)
+      {
+        throw new IllegalStateException("Unable to initialize " + HASH_ALGORITHM, e);
+      }
+      threadMacs.set(mac);
+    }
+    return KEYED_HASH_PREFIX + Base64.getUrlEncoder().withoutPadding().encodeToString(
+        mac.doFinal(validator.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * Compares a validator against a stored keyed hash in constant time.
+   */
+  private boolean keyedHashMatches(String validator, String storedHash)
+  {
+    return storedHash != null
+        && MessageDigest.isEqual(
+            generateKeyedHash(validator).getBytes(StandardCharsets.UTF_8),
+            storedHash.getBytes(StandardCharsets.UTF_8));
+  }
+
   /**
    * Returns the value of the login cookie for the given username and
    * authentication token.
@@ -357,24 +565,70 @@ public class LoginTokenManager
   }
 
   /**
-   * Removes authentication tokens from the database that are too old.
+   * Removes authentication tokens from the database that are too old.  The
+   * tokens are deleted in batches of the configured size, oldest first, so
+   * that a large backlog does not hold long locks on the table.
    *
    * @throws SQLException if an error occurs when updating the database
    */
   private void purgeTokens(int maximumTokenAgeInDays) throws SQLException
   {
-    int staleTokensPurged;
+    int staleTokensPurged = 0;
     Calendar staleDate = DateHelper.getStartOfDay();
     staleDate.add(Calendar.DAY_OF_YEAR, -1 * maximumTokenAgeInDays);
     String staleTimestamp = new java.sql.Timestamp(staleDate.getTimeInMillis()).toString();
-    try (ConnectionMonitor monitor = app().getConnectorFactory().getConnectionMonitor();
-         PreparedStatement statement = monitor.getConnection().prepareStatement(
-             "DELETE FROM " + enquote(databaseTableName)
-                 + " WHERE " + enquote("created") + " < ?;"))
+    final boolean msSql = app().getConnectorFactory().getDatabaseAffinity() 
+        == DatabaseAffinity.MS_SQL_SERVER;
+    // As above, TOP and LIMIT cannot be bound as ordinary parameters by
+    // every driver.
+    final String selectBatch = msSql
+        ? "SELECT TOP " + purgeEventBatchSize + " " + enquote("id")
+            + " FROM " + enquote(databaseTableName)
+            + " WHERE " + enquote("created") + " < ?"
+            + " ORDER BY " + enquote("created") + ";"
+        : "SELECT " + enquote("id")
+            + " FROM " + enquote(databaseTableName)
+            + " WHERE " + enquote("created") + " < ?"
+            + " ORDER BY " + enquote("created")
+            + " LIMIT " + purgeEventBatchSize + ";";
+    int batchSize;
+    do
     {
-      statement.setString(1, staleTimestamp);
-      staleTokensPurged = statement.executeUpdate();
+      final List<Long> ids = new ArrayList<>(purgeEventBatchSize);
+      try (ConnectionMonitor monitor = app().getConnectorFactory().getConnectionMonitor();
+           PreparedStatement statement = monitor.getConnection().prepareStatement(
+               selectBatch))
+      {
+        statement.setString(1, staleTimestamp);
+        try (ResultSet resultSet = statement.executeQuery())
+        {
+          while (resultSet.next())
+          {
+            ids.add(resultSet.getLong(1));
+          }
+        }
+      }
+      batchSize = ids.size();
+      if (batchSize > 0)
+      {
+        try (ConnectionMonitor monitor = app().getConnectorFactory().getConnectionMonitor();
+             PreparedStatement statement = monitor.getConnection().prepareStatement(
+                 "DELETE FROM " + enquote(databaseTableName)
+                     + " WHERE " + enquote("id") + " IN ("
+                     + StringHelper.join(",", Collections.nCopies(batchSize, "?"))
+                     + ");"))
+        {
+          int index = 0;
+          for (long id : ids)
+          {
+            statement.setLong(++index, id);
+          }
+          staleTokensPurged += statement.executeUpdate();
+        }
+        log.debug("Purged a batch of {} stale tokens.", batchSize);
+      }
     }
+    while (batchSize == purgeEventBatchSize);
     log.info("Purged {} stale tokens.", staleTokensPurged);
   }
 
@@ -417,7 +671,12 @@ public class LoginTokenManager
   {
     Objects.requireNonNull(context);
     Objects.requireNonNull(username);
-    final String token = generateToken();
+    final boolean withSelector = selectorsSupported;
+    final String selector = withSelector ? generateSelector() : null;
+    final String validator = generateToken();
+    final String token = withSelector 
+        ? selector + SELECTOR_SEPARATOR + validator
+        : validator;
     ThreadHelper.submit(new Runnable() {
       @Override
       public void run()
@@ -427,12 +686,19 @@ public class LoginTokenManager
                  "INSERT INTO " + enquote(databaseTableName)
                      + " (" + enquote("username")
                      + ", " + enquote("tokenhash")
-                     + ", " + enquote("created") + ")"
-                     + " VALUES (?, ?, ?);"))
+                     + ", " + enquote("created")
+                     + (withSelector ? ", " + enquote("selector") + ")" : ")")
+                     + (withSelector ? " VALUES (?, ?, ?, ?);" : " VALUES (?, ?, ?);")))
         {
           statement.setString(1, username);
-          statement.setString(2, generateTokenHash(username, token));
+          statement.setString(2, withSelector 
+              ? generateKeyedHash(validator) 
+              : generateTokenHash(username, token));
           statement.setString(3, generateTimestamp());
+          if (withSelector)
+          {
+            statement.setString(4, selector);
+          }
           statement.executeUpdate();
         }
         catch (SQLException e)
@@ -509,6 +775,7 @@ public class LoginTokenManager
   public void clearAllTokensForUser(String username)
   {
     Objects.requireNonNull(username);
+    forgetValidatedTokens(username);
     ThreadHelper.submit(new Runnable() {
       @Override
       public void run()
@@ -527,6 +794,15 @@ public class LoginTokenManager
         {
           log.warn("Error while clearing tokens for user: {}", username, e);
         }
+
+        // A validation that read the tokens before they were deleted may 
+        // have cached one since they were first forgotten.
+        forgetValidatedTokens(username);
+        final Synchronizer sync = synchronizer;
+        if (sync != null)
+        {
+          sync.tokensCleared(LoginTokenManager.this, username);
+        }
       }
     });
   }
@@ -571,46 +847,212 @@ public class LoginTokenManager
       return TokenValidation.FAILURE;
     }
     final String username = cookieValue.substring(0, pipeIndex);
+    final String token = cookieValue.substring(pipeIndex + 1);
+    final int separatorIndex = token.indexOf(SELECTOR_SEPARATOR);
+    final boolean valid = (separatorIndex > 0)
+        ? validateSelectorToken(context, cookieName, username,
+            token.substring(0, separatorIndex), 
+            token.substring(separatorIndex + 1))
+        : validateLegacyToken(context, cookieName, username, cookieValue);
+    if (valid)
+    {
+      return new TokenValidation(true, username);
+    }
+    log.debug("Prompting client to remove invalid token for {}.", username);
+    context.cookies().remove(cookieName);
+    return new TokenValidation(false, username);
+  }
+
+  /**
+   * Validates a selector token with one indexed lookup and one keyed hash
+   * comparison, or none at all if the token was recently validated.
+   */
+  private boolean validateSelectorToken(Context context, String cookieName,
+      String username, String selector, String validator) throws SQLException
+  {
+    final Cache<String, ValidatedToken> cache = validatedTokens;
+    final long generation = clearGeneration(username);
+    if (cache != null)
+    {
+      final ValidatedToken validated = cache.getIfPresent(selector);
+      if (validated != null
+          && validated.username.equals(username)
+          && keyedHashMatches(validator, validated.tokenHash))
+      {
+        return true;
+      }
+    }
+    if (!selectorsSupported)
+    {
+      return false;
+    }
     try (ConnectionMonitor monitor = app().getConnectorFactory().getConnectionMonitor();
          PreparedStatement statement = monitor.getConnection().prepareStatement(
              "SELECT " + enquote("id")
                  + ", " + enquote("username")
                  + ", " + enquote("tokenhash")
-                 + ", " + enquote("created")
+                 + " FROM " + enquote(databaseTableName)
+                 + " WHERE " + enquote("selector") + " = ?;",
+             ResultSet.TYPE_FORWARD_ONLY,
+             ResultSet.CONCUR_READ_ONLY))
+    {
+      statement.setString(1, selector);
+      try (ResultSet resultSet = statement.executeQuery())
+      {
+        if (!resultSet.next())
+        {
+          return false;
+        }
+        final long id = resultSet.getLong(1);
+        final String storedUsername = resultSet.getString(2);
+        final String tokenHash = resultSet.getString(3);
+        if (!username.equals(storedUsername)
+            || !keyedHashMatches(validator, tokenHash))
+        {
+          return false;
+        }
+        if (oneTimeUseTokens)
+        {
+          replaceToken(context, cookieName, id, username);
+        }
+        else if (cache != null && clearGeneration(username) == generation)
+        {
+          cache.put(selector, new ValidatedToken(username, tokenHash));
+          // The user's tokens may have been cleared after the check above.
+          if (clearGeneration(username) != generation)
+          {
+            cache.invalidate(selector);
+          }
+        }
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Validates a token issued before selectors were introduced by checking it
+   * against each of the user's BCrypt token hashes.
+   */
+  private boolean validateLegacyToken(Context context, String cookieName,
+      String username, String cookieValue) throws SQLException
+  {
+    long matchingId = 0L;
+    try (ConnectionMonitor monitor = app().getConnectorFactory().getConnectionMonitor();
+         PreparedStatement statement = monitor.getConnection().prepareStatement(
+             "SELECT " + enquote("id")
+                 + ", " + enquote("tokenhash")
                  + " FROM " + enquote(databaseTableName)
                  + " WHERE " + enquote("username") + " = ?;",
              ResultSet.TYPE_FORWARD_ONLY,
-             ResultSet.CONCUR_UPDATABLE))
+             ResultSet.CONCUR_READ_ONLY))
     {
       statement.setString(1, username);
       try (ResultSet resultSet = statement.executeQuery())
       {
         while (resultSet.next())
         {
-          String tokenHash = resultSet.getString("tokenhash");
-          if (BCrypt.checkpw(cookieValue, tokenHash))
+          String tokenHash = resultSet.getString(2);
+          // Selector tokens are not BCrypt hashes.
+          if (tokenHash != null 
+              && !tokenHash.startsWith(KEYED_HASH_PREFIX)
+              && BCrypt.checkpw(cookieValue, tokenHash))
           {
-            if (oneTimeUseTokens)
-            {
-              final String newToken = generateToken();
-              resultSet.updateString(3, generateTokenHash(username, newToken));
-              resultSet.updateString(4, generateTimestamp());
-              resultSet.updateRow();
-              final String newCookieValue = generateCookieValue(username, newToken);
-              context.cookies().put(generateCookie(cookieName, newCookieValue));
-            }
-            return new TokenValidation(true, username);
+            matchingId = resultSet.getLong(1);
+            break;
           }
         }
       }
     }
-    log.debug("Prompting client to remove invalid token for {}.", username);
-    context.cookies().remove(cookieName);
-    return new TokenValidation(false, username);
+    if (matchingId == 0L)
+    {
+      return false;
+    }
+    if (oneTimeUseTokens)
+    {
+      replaceToken(context, cookieName, matchingId, username);
+    }
+    return true;
+  }
+
+  /**
+   * Replaces a consumed token with a newly generated one, both in the
+   * database and in the client's cookie.  Legacy tokens are upgraded to
+   * selector tokens when the table supports them.
+   */
+  private void replaceToken(Context context, String cookieName, long id,
+      String username) throws SQLException
+  {
+    final boolean withSelector = selectorsSupported;
+    final String validator = generateToken();
+    final String selector = withSelector ? generateSelector() : null;
+    final String token = withSelector
+        ? selector + SELECTOR_SEPARATOR + validator
+        : validator;
+    try (ConnectionMonitor monitor = app().getConnectorFactory().getConnectionMonitor();
+         PreparedStatement statement = monitor.getConnection().prepareStatement(
+             "UPDATE " + enquote(databaseTableName)
+                 + " SET " + enquote("tokenhash") + " = ?"
+                 + ", " + enquote("created") + " = ?"
+                 + (withSelector ? ", " + enquote("selector") + " = ?" : "")
+                 + " WHERE " + enquote("id") + " = ?;"))
+    {
+      int index = 0;
+      statement.setString(++index, withSelector
+          ? generateKeyedHash(validator)
+          : generateTokenHash(username, token));
+      statement.setString(++index, generateTimestamp());
+      if (withSelector)
+      {
+        statement.setString(++index, selector);
+      }
+      statement.setLong(++index, id);
+      statement.executeUpdate();
+    }
+    context.cookies().put(generateCookie(cookieName, 
+        generateCookieValue(username, token)));
+  }
+
+  /**
+   * Gets the clear generation for the stripe containing the given user.
+   */
+  private long clearGeneration(String username)
+  {
+    return clearGenerations.get(
+        (username.hashCode() & Integer.MAX_VALUE) % CLEAR_GENERATION_STRIPES);
+  }
+
+  /**
+   * Forgets any recently validated tokens belonging to the given user, and
+   * prevents validations already under way from remembering theirs.
+   */
+  private void forgetValidatedTokens(String username)
+  {
+    clearGenerations.incrementAndGet(
+        (username.hashCode() & Integer.MAX_VALUE) % CLEAR_GENERATION_STRIPES);
+    final Cache<String, ValidatedToken> cache = validatedTokens;
+    if (cache != null)
+    {
+      cache.asMap().values().removeIf(
+          validated -> validated.username.equals(username));
+    }
   }
 
   // Inner classes
 
+  /**
+   * Notified when all of a user's tokens are cleared on this instance.
+   */
+  public interface Synchronizer
+  {
+    /**
+     * Called after a user's tokens have been deleted locally.  
+     * Implementations should deliver the username to the LoginTokenManager
+     * on other instances via {@link LoginTokenManager#clearRemote(String)},
+     * and should not block.
+     */
+    void tokensCleared(LoginTokenManager manager, String username);
+  }
+
   /**
    * A scheduled event that purges authentication tokens from the database.
    */
@@ -657,6 +1099,83 @@ public class LoginTokenManager
     }
   }
   
+  /**
+   * A recently validated multiple-use token.
+   */
+  private static final class ValidatedToken
+  {
+    private final String username;
+    private final String tokenHash;
+
+    private ValidatedToken(String username, String tokenHash)
+    {
+      this.username = username;
+      this.tokenHash = tokenHash;
+    }
+  }
+
+  /**
+   * Forgets a user's recently validated tokens when that user changes.  The
+   * EntityStore notifies listeners of changes received from other instances
+   * too, so clearing a user's tokens on one instance is honored throughout
+   * the cluster once that user is saved.  Everything is forgotten only when
+   * the whole user cache is reset or a changed user can no longer be found.
+   */
+  private final class ForgetTokensOnUserChange 
+      extends TypeTriggeredCacheListener<PyxisUser>
+  {
+    private final Class<PyxisUser> userClass;
+
+    private ForgetTokensOnUserChange(Class<PyxisUser> userClass)
+    {
+      super(userClass);
+      this.userClass = userClass;
+    }
+
+    @Override
+    public void expired()
+    {
+      final Cache<String, ValidatedToken> cache = validatedTokens;
+      if (cache != null)
+      {
+        cache.invalidateAll();
+      }
+    }
+
+    @Override
+    public <T extends Identifiable> void cacheObjectExpired(Class<T> type,
+        long identity)
+    {
+      if (type == userClass)
+      {
+        forgetUser(identity);
+      }
+    }
+
+    @Override
+    public <T extends Identifiable> void removeFromCache(Class<T> type,
+        long identity)
+    {
+      if (type == userClass)
+      {
+        forgetUser(identity);
+      }
+    }
+
+    private void forgetUser(long identity)
+    {
+      final PyxisUser user = security().getUser(identity);
+      if (user == null || user.getUserUsername() == null)
+      {
+        expired();
+      }
+      else
+      {
+        forgetValidatedTokens(user.getUserUsername());
+      }
+    }
+  }
+
   /**
    * A SecurityListener that clears all saved tokens for a user when the
    * user's password is changed.
@@ -29,9 +29,13 @@ package com.khulnasoft.gemini.pyxis;
 
 import java.util.*;
 
+import javax.crypto.*;
+import javax.crypto.spec.*;
+
 import com.khulnasoft.gemini.*;
 import com.khulnasoft.helper.*;
 import com.khulnasoft.util.*;
+import io.jsonwebtoken.io.*;
 
 /**
  * PyxisSettings stores configuration options pertaining to security from the
@@ -61,6 +65,12 @@ import com.khulnasoft.util.*;
  *     not needed.  Default is /.</li>
  * <li>BasicSecurity.InvalidateSessionAtLogout - Should a user's session be
  *     invalidated when they logout?  Default is yes.</li>
+ * <li>BasicSecurity.MacSigningKey - The Base64-encoded key used to sign
+ *     and verify JSON Web Tokens.  Decoded once when configured.</li>
+ * <li>BasicSecurity.JwtCacheSize - The maximum number of verified JSON Web
+ *     Tokens remembered by JsonWebTokenVerifier so that repeat requests
+ *     bearing the same token skip parsing and signature verification.
+ *     Default is 10000; 0 disables the cache.</li>
  * </ul>
  *
  * @see BasicSecurity
@@ -97,6 +107,8 @@ public class PyxisSettings
   private int     accessControlMaxAge           = 86400;
   private boolean accessControlAllowCredentials = false;
   private String  macSigningKey                 = null;
+  private SecretKey macSecretKey                = null;
+  private int     jwtCacheSize                  = 10000;
   
   private final Set<String> accessControlAllowedOrigins = new HashSet<>();
   private final Set<String> accessControlAllowedHeaders = new HashSet<>();
@@ -271,6 +283,25 @@ public class PyxisSettings
     return macSigningKey;
   }
   
+  /**
+   * Gets the MAC signing key decoded for use with HmacSHA256, or null if no
+   * key is configured.  The same instance is returned until the settings 
+   * are reconfigured, so callers may cache objects derived from it and 
+   * compare by identity to detect a change.
+   */
+  public SecretKey getMacSecretKey()
+  {
+    return macSecretKey;
+  }
+  
+  /**
+   * Gets the maximum number of verified JSON Web Tokens to cache.
+   */
+  public int getJwtCacheSize()
+  {
+    return jwtCacheSize;
+  }
+  
   /**
    * Gets the configured URI to direct users to when they request one of the
    */
@@ -300,6 +331,9 @@ public class PyxisSettings
     accessControlMaxAge = focus.getInt("AccessControlMaxAge", accessControlMaxAge);
     accessControlAllowCredentials = focus.getBoolean("AccessControlAllowCredentials", accessControlAllowCredentials);
     macSigningKey = focus.get("MacSigningKey", macSigningKey);
+    macSecretKey = macSigningKey == null ? null : new SecretKeySpec(
+        Decoders.BASE64.decode(macSigningKey), "HmacSHA256");
+    jwtCacheSize = focus.getInt("JwtCacheSize", jwtCacheSize);
   }
   
 }   // End PyxisSettings
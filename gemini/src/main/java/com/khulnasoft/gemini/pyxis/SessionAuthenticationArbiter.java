@@ -106,6 +106,15 @@ public class SessionAuthenticationArbiter
     return false;
   }
   
+  /**
+   * Gets the LoginTokenManager handling "remember me" cookies, so that it
+   * may be synchronized across instances.
+   */
+  public LoginTokenManager getLoginTokenManager()
+  {
+    return loginTokenManager;
+  }
+  
   @Override
   public PyxisUser getMasqueradingUser(Context context)
   {
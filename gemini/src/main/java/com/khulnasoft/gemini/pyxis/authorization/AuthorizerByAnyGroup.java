@@ -38,6 +38,7 @@ public class AuthorizerByAnyGroup
 {
   
   private final int[] groupIds;
+  private final GroupMembership required;
   
   /**
    * Constructor.
@@ -45,11 +46,25 @@ public class AuthorizerByAnyGroup
   public AuthorizerByAnyGroup(int... groupIds) 
   {
     this.groupIds = groupIds;
+    
+    final long[] ids = new long[groupIds.length];
+    for (int i = 0; i < groupIds.length; i++)
+    {
+      ids[i] = groupIds[i];
+    }
+    this.required = GroupMembership.of(ids);
   }
   
   @Override
   public boolean isAuthorized(PyxisUser user, Context context) 
   {
+    // BasicUsers have compiled memberships, so this is a single 
+    // intersection test.
+    if (user instanceof BasicUser)
+    {
+      return ((BasicUser)user).groupMembership().containsAny(required);
+    }
+    
     for (int id : groupIds)
     {
       if (user.isMember(id))
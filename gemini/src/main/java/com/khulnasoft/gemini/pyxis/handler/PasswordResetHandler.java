@@ -398,7 +398,13 @@ public class PasswordResetHandler<C extends Context>
                 user.getUserUsername(), 
                 user, 
                 context);
-            security.passwordChange(proposal);
+            final List<String> errors = security.passwordChange(proposal);
+            if (!errors.isEmpty())
+            {
+              // For example, the password hashing queue was full.
+              delivery().message(CollectionHelper.toString(errors, " "));
+              return render();
+            }
             
             saveUser(user);
             
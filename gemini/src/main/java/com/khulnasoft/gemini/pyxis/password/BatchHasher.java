@@ -46,6 +46,7 @@ public class BatchHasher<U extends PyxisUser>
 {
   
   private static final long DEFAULT_PAUSE_INTERVAL = 100;
+  private static final int  MAXIMUM_ATTEMPTS       = 10;
   
   private final GeminiApplication app;
   private final Logger log = LoggerFactory.getLogger(getClass());
@@ -76,6 +77,7 @@ public class BatchHasher<U extends PyxisUser>
     log.info("Batch hasher looking for plaintext passwords.");
     
     int converted = 0;
+    int failed = 0;
     
     // Look through all users, searching for passwords that do not have the
     // prefix that identifies a BCrypt-hashed password.
@@ -108,8 +110,26 @@ public class BatchHasher<U extends PyxisUser>
           // desired.
           proposal.bypassValidation = true;
           
-          // Do the actual password change.
-          security.passwordChange(proposal);
+          // Do the actual password change, backing off if the hashing
+          // queue is full since interactive logins take priority.  
+          // Validation is bypassed, so any error means the queue was full.
+          long backOff = Math.max(pauseInterval, DEFAULT_PAUSE_INTERVAL);
+          List<String> errors = security.passwordChange(proposal);
+          for (int attempt = 1; 
+               !errors.isEmpty() && attempt < MAXIMUM_ATTEMPTS; 
+               attempt++)
+          {
+            ThreadHelper.sleep(backOff);
+            backOff *= 2;
+            errors = security.passwordChange(proposal);
+          }
+          if (!errors.isEmpty())
+          {
+            log.warn("Could not hash password for user {}: {}", 
+                user.getId(), errors);
+            failed++;
+            continue;
+          }
           
           // Save the updated user.
           store.put(user);
@@ -128,8 +148,8 @@ public class BatchHasher<U extends PyxisUser>
       }
     }
     
-    log.info("Batch hasher work complete, {} user password{} hashed.",
-        converted, StringHelper.pluralize(converted));
+    log.info("Batch hasher work complete, {} user password{} hashed, {} failed.",
+        converted, StringHelper.pluralize(converted), failed);
   }
 
   @Override
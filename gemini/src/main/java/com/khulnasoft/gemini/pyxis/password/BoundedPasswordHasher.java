@@ -0,0 +1,375 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.gemini.pyxis.password;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decorates a PasswordHasher so that all hashing work is executed on a
+ * dedicated, fixed-size pool of threads with a bounded queue.  Password
+ * hashing algorithms such as BCrypt are deliberately expensive; running
+ * them on request threads allows a burst of login attempts (e.g., a
+ * credential-stuffing run) to occupy every request thread.  With this
+ * decorator, at most "threads" hashes run concurrently and at most
+ * "queueLimit" wait; anything beyond that is rejected immediately with a
+ * PasswordHashingRejectedException rather than queueing without bound.
+ *   <p>
+ * The synchronous PasswordHasher methods submit to the pool and wait for
+ * the result, so existing callers are unaffected aside from the possibility
+ * of rejection.  The asynchronous methods return without blocking.
+ *   <p>
+ * Queue-wait and hash-time totals are tracked for monitoring.
+ */
+public class BoundedPasswordHasher
+  implements PasswordHasher
+{
+
+  //
+  // Member variables.
+  //
+
+  private final Logger             log = LoggerFactory.getLogger(getClass());
+  private final PasswordHasher     delegate;
+  private final ThreadPoolExecutor executor;
+  private final int                queueLimit;
+
+  private final AtomicLong completed      = new AtomicLong();
+  private final AtomicLong rejected       = new AtomicLong();
+  private final AtomicLong queueWaitNanos = new AtomicLong();
+  private final AtomicLong hashNanos      = new AtomicLong();
+  private final AtomicLong maxQueueWait   = new AtomicLong();
+
+  //
+  // Member methods.
+  //
+
+  /**
+   * Constructor.
+   *
+   * @param delegate the PasswordHasher that does the actual work.
+   * @param threads the number of hashing threads.
+   * @param queueLimit the maximum number of requests permitted to wait for
+   *        a hashing thread.
+   */
+  public BoundedPasswordHasher(PasswordHasher delegate, int threads,
+    int queueLimit)
+  {
+    if (threads < 1 || queueLimit < 1)
+    {
+      throw new IllegalArgumentException(
+          "Threads and queue limit must be at least 1.");
+    }
+
+    this.delegate = delegate;
+    this.queueLimit = queueLimit;
+    this.executor = new ThreadPoolExecutor(threads, threads,
+        0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(queueLimit),
+        new HashingThreadFactory(),
+        new ThreadPoolExecutor.AbortPolicy());
+  }
+
+  /**
+   * Gets the wrapped PasswordHasher.
+   */
+  public PasswordHasher getDelegate()
+  {
+    return delegate;
+  }
+
+  @Override
+  public String encryptPassword(String cleartextPassword)
+  {
+    if (isHashingThread())
+    {
+      return delegate.encryptPassword(cleartextPassword);
+    }
+    return await(encryptPasswordAsync(cleartextPassword));
+  }
+
+  @Override
+  public boolean testPassword(String cleartextPassword,
+    String encryptedPassword)
+  {
+    if (isHashingThread())
+    {
+      return delegate.testPassword(cleartextPassword, encryptedPassword);
+    }
+    return await(testPasswordAsync(cleartextPassword, encryptedPassword));
+  }
+
+  @Override
+  public CompletableFuture<String> encryptPasswordAsync(
+    String cleartextPassword)
+  {
+    return submit(() -> delegate.encryptPassword(cleartextPassword));
+  }
+
+  @Override
+  public CompletableFuture<Boolean> testPasswordAsync(
+    String cleartextPassword, String encryptedPassword)
+  {
+    return submit(() -> delegate.testPassword(cleartextPassword,
+        encryptedPassword));
+  }
+
+  @Override
+  public String getName()
+  {
+    return delegate.getName();
+  }
+
+  @Override
+  public boolean isSecure()
+  {
+    return delegate.isSecure();
+  }
+
+  @Override
+  public String getIdentifyingPrefix()
+  {
+    return delegate.getIdentifyingPrefix();
+  }
+
+  /**
+   * Returns true if the queue is less than half full.  Callers may use this
+   * to shed lower-priority work (such as attempts from clients that have
+   * already failed to log in) before the queue is actually exhausted.
+   */
+  public boolean hasSpareCapacity()
+  {
+    return executor.getQueue().size() < (queueLimit / 2);
+  }
+
+  /**
+   * Gets the number of requests currently waiting for a hashing thread.
+   */
+  public int getQueueDepth()
+  {
+    return executor.getQueue().size();
+  }
+
+  /**
+   * Gets the maximum number of requests permitted to wait.
+   */
+  public int getQueueLimit()
+  {
+    return queueLimit;
+  }
+
+  /**
+   * Gets the number of hashing threads.
+   */
+  public int getThreads()
+  {
+    return executor.getMaximumPoolSize();
+  }
+
+  /**
+   * Gets the number of hashing requests completed.
+   */
+  public long getCompletedCount()
+  {
+    return completed.get();
+  }
+
+  /**
+   * Gets the number of hashing requests rejected because the queue was full.
+   */
+  public long getRejectedCount()
+  {
+    return rejected.get();
+  }
+
+  /**
+   * Gets the mean time, in milliseconds, that completed requests spent
+   * waiting for a hashing thread.
+   */
+  public double getAverageQueueWaitMillis()
+  {
+    final long count = completed.get();
+    return count == 0 ? 0.0 : queueWaitNanos.get() / 1_000_000.0 / count;
+  }
+
+  /**
+   * Gets the longest time, in milliseconds, that any request spent waiting
+   * for a hashing thread.
+   */
+  public double getMaxQueueWaitMillis()
+  {
+    return maxQueueWait.get() / 1_000_000.0;
+  }
+
+  /**
+   * Gets the mean time, in milliseconds, spent computing a hash.
+   */
+  public double getAverageHashMillis()
+  {
+    final long count = completed.get();
+    return count == 0 ? 0.0 : hashNanos.get() / 1_000_000.0 / count;
+  }
+
+  /**
+   * Stops the hashing threads.  Requests already queued are allowed to
+   * complete.
+   */
+  public void shutdown()
+  {
+    executor.shutdown();
+  }
+
+  @Override
+  public String toString()
+  {
+    return "BoundedPasswordHasher [" + delegate.getName()
+        + "; threads: " + getThreads()
+        + "; queue: " + getQueueDepth() + "/" + queueLimit
+        + "; completed: " + getCompletedCount()
+        + "; rejected: " + getRejectedCount()
+        + "]";
+  }
+
+  /**
+   * Submits a unit of hashing work, timing its queue wait and execution.
+   */
+  private <T> CompletableFuture<T> submit(Supplier<T> work)
+  {
+    final CompletableFuture<T> future = new CompletableFuture<>();
+    final long enqueued = System.nanoTime();
+    try
+    {
+      executor.execute(() -> {
+        final long started = System.nanoTime();
+        final long waited = started - enqueued;
+        queueWaitNanos.addAndGet(waited);
+        maxQueueWait.accumulateAndGet(waited, Math::max);
+        try
+        {
+          future.complete(work.get());
+        }
+        catch (RuntimeException exc)
+        {
+          future.completeExceptionally(exc);
+        }
+        finally
+        {
+          hashNanos.addAndGet(System.nanoTime() - started);
+          completed.incrementAndGet();
+        }
+      });
+    }
+    catch (RejectedExecutionException exc)
+    {
+      rejected.incrementAndGet();
+      log.debug("Password hashing request rejected; queue full ({}).",
+          queueLimit);
+      future.completeExceptionally(new PasswordHashingRejectedException(
+          "Password hashing queue is full."));
+    }
+    return future;
+  }
+
+  /**
+   * Waits for a future, unwrapping any runtime exception it completed with.
+   */
+  private static <T> T await(CompletableFuture<T> future)
+  {
+    try
+    {
+      return future.get();
+    }
+    catch (InterruptedException exc)
+    {
+      Thread.currentThread().interrupt();
+      throw new PasswordHashingRejectedException(
+          "Interrupted while waiting for password hashing.");
+    }
+    catch (ExecutionException exc)
+    {
+      if (exc.getCause() instanceof RuntimeException)
+      {
+        throw (RuntimeException)exc.getCause();
+      }
+      throw new IllegalStateException(exc.getCause());
+    }
+  }
+
+  /**
+   * Returns true if the current thread belongs to this hasher's pool, in
+   * which case work is run inline to avoid a self-deadlock.
+   */
+  private boolean isHashingThread()
+  {
+    final Thread current = Thread.currentThread();
+    return (current instanceof HashingThread)
+        && (((HashingThread)current).owner == this);
+  }
+
+  //
+  // Inner classes.
+  //
+
+  /**
+   * Marks threads owned by a BoundedPasswordHasher.
+   */
+  private static final class HashingThread
+    extends Thread
+  {
+    private final BoundedPasswordHasher owner;
+
+    private HashingThread(BoundedPasswordHasher owner, Runnable runnable,
+      String name)
+    {
+      super(runnable, name);
+      this.owner = owner;
+      setDaemon(true);
+    }
+  }
+
+  /**
+   * Creates named daemon hashing threads.
+   */
+  private final class HashingThreadFactory
+    implements ThreadFactory
+  {
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable)
+    {
+      return new HashingThread(BoundedPasswordHasher.this, runnable,
+          "Password hasher " + sequence.incrementAndGet());
+    }
+  }
+
+}   // End BoundedPasswordHasher.
@@ -27,6 +27,8 @@
 
 package com.khulnasoft.gemini.pyxis.password;
 
+import java.util.concurrent.*;
+
 /**
  * Simple password-hashing interface used by Gemini/Pyxis for optionally
  * securing users' passwords.
@@ -63,5 +65,45 @@ public interface PasswordHasher
    * algorithm.  For example, BCrypt is $2a$ 
    */
   String getIdentifyingPrefix();
+
+  /**
+   * Encrypts a password without blocking the calling thread, if the
+   * implementation supports that.  By default, the password is encrypted
+   * on the calling thread and a completed future is returned.
+   */
+  default CompletableFuture<String> encryptPasswordAsync(
+    String cleartextPassword)
+  {
+    final CompletableFuture<String> future = new CompletableFuture<>();
+    try
+    {
+      future.complete(encryptPassword(cleartextPassword));
+    }
+    catch (RuntimeException exc)
+    {
+      future.completeExceptionally(exc);
+    }
+    return future;
+  }
+
+  /**
+   * Tests a password without blocking the calling thread, if the
+   * implementation supports that.  By default, the password is tested on
+   * the calling thread and a completed future is returned.
+   */
+  default CompletableFuture<Boolean> testPasswordAsync(
+    String cleartextPassword, String encryptedPassword)
+  {
+    final CompletableFuture<Boolean> future = new CompletableFuture<>();
+    try
+    {
+      future.complete(testPassword(cleartextPassword, encryptedPassword));
+    }
+    catch (RuntimeException exc)
+    {
+      future.completeExceptionally(exc);
+    }
+    return future;
+  }
   
 }   // End PasswordHasher.
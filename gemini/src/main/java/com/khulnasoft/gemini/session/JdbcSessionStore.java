@@ -0,0 +1,541 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.gemini.session;
+
+import java.sql.*;
+import java.util.*;
+
+import org.slf4j.*;
+
+import com.khulnasoft.data.*;
+
+/**
+ * A SessionStore that keeps sessions in two database tables reached through
+ * a ConnectorFactory: one row per session, and one row per attribute so
+ * that a changed attribute can be written without rewriting the others,
+ * and large attributes can be left unread until they are used.
+ *   <p>
+ * The table names may be provided to the constructor; the column names and
+ * types may not.  Here is an example for MySQL:
+ *
+ * <pre>
+ * CREATE TABLE `storedsession` (
+ *   `id` VARCHAR(64) NOT NULL,
+ *   `created` BIGINT NOT NULL,
+ *   `accessed` BIGINT NOT NULL,
+ *   `maxinactive` INT NOT NULL,
+ *   `version` BIGINT NOT NULL,
+ *   PRIMARY KEY (`id`),
+ *   KEY `accessed` (`accessed`)
+ * );
+ *
+ * CREATE TABLE `storedsessionattribute` (
+ *   `sessionid` VARCHAR(64) NOT NULL,
+ *   `name` VARCHAR(200) NOT NULL,
+ *   `size` INT NOT NULL,
+ *   `value` MEDIUMBLOB NOT NULL,
+ *   PRIMARY KEY (`sessionid`, `name`)
+ * );
+ * </pre>
+ *
+ * Errors reading the database are thrown as SessionStoreExceptions rather
+ * than treated as a missing session, so that an outage does not log users
+ * out.  Errors writing the database are logged.  A write is made in one
+ * transaction, with the session's version stamp written after its
+ * attributes.
+ */
+public class JdbcSessionStore
+  implements SessionStore
+{
+
+  //
+  // Constants.
+  //
+
+  public static final String DEFAULT_TABLE_NAME           = "storedsession";
+  public static final String DEFAULT_ATTRIBUTE_TABLE_NAME = "storedsessionattribute";
+
+  //
+  // Member variables.
+  //
+
+  private final Logger           log = LoggerFactory.getLogger(getClass());
+  private final ConnectorFactory connectorFactory;
+  private final String           tableName;
+  private final String           attributeTableName;
+
+  //
+  // Member methods.
+  //
+
+  /**
+   * Constructor.
+   *
+   * @param connectorFactory the source of database connections.
+   * @param tableName the name of the session table.
+   * @param attributeTableName the name of the session attribute table.
+   */
+  public JdbcSessionStore(ConnectorFactory connectorFactory, String tableName,
+    String attributeTableName)
+  {
+    this.connectorFactory = connectorFactory;
+    this.tableName = tableName;
+    this.attributeTableName = attributeTableName;
+  }
+
+  /**
+   * Constructor.  Uses the default table names.
+   */
+  public JdbcSessionStore(ConnectorFactory connectorFactory)
+  {
+    this(connectorFactory, DEFAULT_TABLE_NAME, DEFAULT_ATTRIBUTE_TABLE_NAME);
+  }
+
+  @Override
+  public SessionRecord read(String id, int lazyThreshold)
+  {
+    try (ConnectionMonitor monitor = connectorFactory.getConnectionMonitor())
+    {
+      final Connection connection = monitor.getConnection();
+      final long created;
+      final long accessed;
+      final int  maxInactiveInterval;
+      final long version;
+      try (PreparedStatement statement = connection.prepareStatement(
+          "SELECT " + enquote("created")
+              + ", " + enquote("accessed")
+              + ", " + enquote("maxinactive")
+              + ", " + enquote("version")
+              + " FROM " + enquote(tableName)
+              + " WHERE " + enquote("id") + " = ?;"))
+      {
+        statement.setString(1, id);
+        try (ResultSet resultSet = statement.executeQuery())
+        {
+          if (!resultSet.next())
+          {
+            return null;
+          }
+          created = resultSet.getLong(1);
+          accessed = resultSet.getLong(2);
+          maxInactiveInterval = resultSet.getInt(3);
+          version = resultSet.getLong(4);
+        }
+      }
+      if (SessionRecord.isExpired(accessed, maxInactiveInterval,
+          System.currentTimeMillis()))
+      {
+        return null;
+      }
+
+      final Map<String, byte[]> values = new HashMap<>();
+      try (PreparedStatement statement = connection.prepareStatement(
+          "SELECT " + enquote("name")
+              + ", CASE WHEN " + enquote("size") + " <= ? THEN " 
+              + enquote("value") + " ELSE NULL END"
+              + " FROM " + enquote(attributeTableName)
+              + " WHERE " + enquote("sessionid") + " = ?;"))
+      {
+        statement.setInt(1, lazyThreshold);
+        statement.setString(2, id);
+        try (ResultSet resultSet = statement.executeQuery())
+        {
+          while (resultSet.next())
+          {
+            values.put(resultSet.getString(1), resultSet.getBytes(2));
+          }
+        }
+      }
+      return new SessionRecord(id, created, accessed, maxInactiveInterval,
+          version, values);
+    }
+    catch (SQLException e)
+    {
+      throw new SessionStoreException("Error while reading session " 
+          + SessionRecord.describeId(id) + ".", e);
+    }
+  }
+
+  @Override
+  public byte[] readAttribute(String id, String name)
+  {
+    try (ConnectionMonitor monitor = connectorFactory.getConnectionMonitor();
+         PreparedStatement statement = monitor.getConnection().prepareStatement(
+             "SELECT " + enquote("value")
+                 + " FROM " + enquote(attributeTableName)
+                 + " WHERE " + enquote("sessionid") + " = ?"
+                 + " AND " + enquote("name") + " = ?;"))
+    {
+      statement.setString(1, id);
+      statement.setString(2, name);
+      try (ResultSet resultSet = statement.executeQuery())
+      {
+        return (resultSet.next() ? resultSet.getBytes(1) : null);
+      }
+    }
+    catch (SQLException e)
+    {
+      throw new SessionStoreException("Error while reading attribute " + name
+          + " of session " + SessionRecord.describeId(id) + ".", e);
+    }
+  }
+
+  @Override
+  public long readVersion(String id)
+  {
+    try (ConnectionMonitor monitor = connectorFactory.getConnectionMonitor();
+         PreparedStatement statement = monitor.getConnection().prepareStatement(
+             "SELECT " + enquote("accessed")
+                 + ", " + enquote("maxinactive")
+                 + ", " + enquote("version")
+                 + " FROM " + enquote(tableName)
+                 + " WHERE " + enquote("id") + " = ?;"))
+    {
+      statement.setString(1, id);
+      try (ResultSet resultSet = statement.executeQuery())
+      {
+        if (resultSet.next()
+            && !SessionRecord.isExpired(resultSet.getLong(1), 
+                resultSet.getInt(2), System.currentTimeMillis()))
+        {
+          return resultSet.getLong(3);
+        }
+        return 0L;
+      }
+    }
+    catch (SQLException e)
+    {
+      throw new SessionStoreException("Error while reading version of session " 
+          + SessionRecord.describeId(id) + ".", e);
+    }
+  }
+
+  @Override
+  public void write(SessionRecord record, Collection<String> removed)
+  {
+    try (ConnectionMonitor monitor = connectorFactory.getConnectionMonitor())
+    {
+      final Connection connection = monitor.getConnection();
+      final boolean autoCommit = connection.getAutoCommit();
+      connection.setAutoCommit(false);
+      try
+      {
+        if (!record.getValues().isEmpty())
+        {
+          writeAttributes(connection, record);
+        }
+
+        if (!removed.isEmpty())
+        {
+          try (PreparedStatement statement = connection.prepareStatement(
+              "DELETE FROM " + enquote(attributeTableName)
+                  + " WHERE " + enquote("sessionid") + " = ?"
+                  + " AND " + enquote("name") + " = ?;"))
+          {
+            for (String name : removed)
+            {
+              statement.setString(1, record.getId());
+              statement.setString(2, name);
+              statement.addBatch();
+            }
+            statement.executeBatch();
+          }
+        }
+
+        // The version stamp goes last so that it never vouches for 
+        // attributes that are not yet written.
+        writeSession(connection, record);
+        connection.commit();
+      }
+      catch (SQLException | RuntimeException e)
+      {
+        rollback(connection, record.getId());
+        throw e;
+      }
+      finally
+      {
+        connection.setAutoCommit(autoCommit);
+      }
+    }
+    catch (SQLException e)
+    {
+      log.warn("Error while writing session {}.",
+          SessionRecord.describeId(record.getId()), e);
+    }
+  }
+
+  /**
+   * Updates a session's metadata, inserting the session if it does not
+   * exist.
+   */
+  private void writeSession(Connection connection, SessionRecord record)
+    throws SQLException
+  {
+    if (updateSession(connection, record))
+    {
+      return;
+    }
+
+    // Some databases abort the whole transaction when a statement fails,
+    // so the insert gets a savepoint of its own.
+    final Savepoint savepoint = connection.setSavepoint();
+    try (PreparedStatement statement = connection.prepareStatement(
+        "INSERT INTO " + enquote(tableName)
+            + " (" + enquote("id")
+            + ", " + enquote("created")
+            + ", " + enquote("accessed")
+            + ", " + enquote("maxinactive")
+            + ", " + enquote("version")
+            + ") VALUES (?, ?, ?, ?, ?);"))
+    {
+      statement.setString(1, record.getId());
+      statement.setLong(2, record.getCreated());
+      statement.setLong(3, record.getAccessed());
+      statement.setInt(4, record.getMaxInactiveInterval());
+      statement.setLong(5, record.getVersion());
+      statement.executeUpdate();
+    }
+    catch (SQLException e)
+    {
+      // Another instance may have inserted the session first.
+      connection.rollback(savepoint);
+      if (!updateSession(connection, record))
+      {
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Rolls back a failed write, logging rather than throwing if that fails
+   * too, so that the write's own error is the one reported.
+   */
+  private void rollback(Connection connection, String id)
+  {
+    try
+    {
+      connection.rollback();
+    }
+    catch (SQLException e)
+    {
+      log.warn("Error while rolling back write of session {}.",
+          SessionRecord.describeId(id), e);
+    }
+  }
+
+  /**
+   * Updates a session's metadata, returning false if the session does not
+   * exist.
+   */
+  private boolean updateSession(Connection connection, SessionRecord record)
+    throws SQLException
+  {
+    try (PreparedStatement statement = connection.prepareStatement(
+        "UPDATE " + enquote(tableName)
+            + " SET " + enquote("accessed") + " = ?"
+            + ", " + enquote("maxinactive") + " = ?"
+            + ", " + enquote("version") + " = ?"
+            + " WHERE " + enquote("id") + " = ?;"))
+    {
+      statement.setLong(1, record.getAccessed());
+      statement.setInt(2, record.getMaxInactiveInterval());
+      statement.setLong(3, record.getVersion());
+      statement.setString(4, record.getId());
+      return statement.executeUpdate() > 0;
+    }
+  }
+
+  /**
+   * Updates or inserts each of a record's attribute values.  Updates are
+   * not batched because not every driver reports per-statement counts for
+   * a batch, and only a few attributes change on a typical request.
+   */
+  private void writeAttributes(Connection connection, SessionRecord record)
+    throws SQLException
+  {
+    final List<String> inserts = new ArrayList<>();
+    try (PreparedStatement statement = connection.prepareStatement(
+        "UPDATE " + enquote(attributeTableName)
+            + " SET " + enquote("size") + " = ?"
+            + ", " + enquote("value") + " = ?"
+            + " WHERE " + enquote("sessionid") + " = ?"
+            + " AND " + enquote("name") + " = ?;"))
+    {
+      for (Map.Entry<String, byte[]> entry : record.getValues().entrySet())
+      {
+        statement.setInt(1, entry.getValue().length);
+        statement.setBytes(2, entry.getValue());
+        statement.setString(3, record.getId());
+        statement.setString(4, entry.getKey());
+        if (statement.executeUpdate() == 0)
+        {
+          inserts.add(entry.getKey());
+        }
+      }
+    }
+
+    if (!inserts.isEmpty())
+    {
+      try (PreparedStatement statement = connection.prepareStatement(
+          "INSERT INTO " + enquote(attributeTableName)
+              + " (" + enquote("sessionid")
+              + ", " + enquote("name")
+              + ", " + enquote("size")
+              + ", " + enquote("value")
+              + ") VALUES (?, ?, ?, ?);"))
+      {
+        for (String name : inserts)
+        {
+          final byte[] value = record.getValues().get(name);
+          statement.setString(1, record.getId());
+          statement.setString(2, name);
+          statement.setInt(3, value.length);
+          statement.setBytes(4, value);
+          statement.addBatch();
+        }
+        statement.executeBatch();
+      }
+    }
+  }
+
+  @Override
+  public void touch(String id, long accessed)
+  {
+    try (ConnectionMonitor monitor = connectorFactory.getConnectionMonitor();
+         PreparedStatement statement = monitor.getConnection().prepareStatement(
+             "UPDATE " + enquote(tableName)
+                 + " SET " + enquote("accessed") + " = ?"
+                 + " WHERE " + enquote("id") + " = ?"
+                 + " AND " + enquote("accessed") + " < ?;"))
+    {
+      statement.setLong(1, accessed);
+      statement.setString(2, id);
+      statement.setLong(3, accessed);
+      statement.executeUpdate();
+    }
+    catch (SQLException e)
+    {
+      log.warn("Error while touching session {}.",
+          SessionRecord.describeId(id), e);
+    }
+  }
+
+  @Override
+  public void delete(String id)
+  {
+    try (ConnectionMonitor monitor = connectorFactory.getConnectionMonitor())
+    {
+      final Connection connection = monitor.getConnection();
+      try (PreparedStatement statement = connection.prepareStatement(
+          "DELETE FROM " + enquote(attributeTableName)
+              + " WHERE " + enquote("sessionid") + " = ?;"))
+      {
+        statement.setString(1, id);
+        statement.executeUpdate();
+      }
+      try (PreparedStatement statement = connection.prepareStatement(
+          "DELETE FROM " + enquote(tableName)
+              + " WHERE " + enquote("id") + " = ?;"))
+      {
+        statement.setString(1, id);
+        statement.executeUpdate();
+      }
+    }
+    catch (SQLException e)
+    {
+      log.warn("Error while deleting session {}.",
+          SessionRecord.describeId(id), e);
+    }
+  }
+
+  @Override
+  public int count(long now)
+  {
+    try (ConnectionMonitor monitor = connectorFactory.getConnectionMonitor();
+         PreparedStatement statement = monitor.getConnection().prepareStatement(
+             "SELECT COUNT(*) FROM " + enquote(tableName)
+                 + " WHERE " + enquote("maxinactive") + " <= 0"
+                 + " OR " + enquote("accessed") + " + " 
+                 + enquote("maxinactive") + " * 1000 >= ?;"))
+    {
+      statement.setLong(1, now);
+      try (ResultSet resultSet = statement.executeQuery())
+      {
+        return (resultSet.next() ? resultSet.getInt(1) : 0);
+      }
+    }
+    catch (SQLException e)
+    {
+      log.warn("Error while counting sessions.", e);
+      return 0;
+    }
+  }
+
+  @Override
+  public int deleteExpired(long now)
+  {
+    final String expired = enquote("maxinactive") + " > 0"
+        + " AND " + enquote("accessed") + " + " 
+        + enquote("maxinactive") + " * 1000 < ?";
+    try (ConnectionMonitor monitor = connectorFactory.getConnectionMonitor())
+    {
+      final Connection connection = monitor.getConnection();
+      try (PreparedStatement statement = connection.prepareStatement(
+          "DELETE FROM " + enquote(attributeTableName)
+              + " WHERE " + enquote("sessionid") + " IN (SELECT " 
+              + enquote("id") + " FROM " + enquote(tableName)
+              + " WHERE " + expired + ");"))
+      {
+        statement.setLong(1, now);
+        statement.executeUpdate();
+      }
+      try (PreparedStatement statement = connection.prepareStatement(
+          "DELETE FROM " + enquote(tableName) + " WHERE " + expired + ";"))
+      {
+        statement.setLong(1, now);
+        return statement.executeUpdate();
+      }
+    }
+    catch (SQLException e)
+    {
+      log.warn("Error while deleting expired sessions.", e);
+      return 0;
+    }
+  }
+
+  /**
+   * Wraps a table or column name in the identifier quote strings used by
+   * the database.
+   */
+  private String enquote(String tableOrColumn)
+  {
+    final String quote = connectorFactory.getIdentifierQuoteString();
+    return quote + tableOrColumn + quote;
+  }
+
+}   // End JdbcSessionStore.
@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.gemini.session;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A SessionStore that keeps sessions in memory.  Sessions are shared only
+ * by managers within the same JVM and do not survive a restart, so this is
+ * intended for tests, simulations, and single-instance development rather
+ * than production use.
+ */
+public class MemorySessionStore
+  implements SessionStore
+{
+
+  //
+  // Member variables.
+  //
+
+  private final ConcurrentMap<String, Stored> sessions = new ConcurrentHashMap<>();
+
+  //
+  // Member methods.
+  //
+
+  @Override
+  public SessionRecord read(String id, int lazyThreshold)
+  {
+    final Stored stored = live(id, System.currentTimeMillis());
+    if (stored == null)
+    {
+      return null;
+    }
+
+    final Map<String, byte[]> values = new HashMap<>(stored.values.size());
+    for (Map.Entry<String, byte[]> entry : stored.values.entrySet())
+    {
+      values.put(entry.getKey(), entry.getValue().length > lazyThreshold
+          ? null
+          : entry.getValue());
+    }
+    return new SessionRecord(id, stored.created, stored.accessed,
+        stored.maxInactiveInterval, stored.version, values);
+  }
+
+  @Override
+  public byte[] readAttribute(String id, String name)
+  {
+    final Stored stored = live(id, System.currentTimeMillis());
+    return (stored != null ? stored.values.get(name) : null);
+  }
+
+  @Override
+  public long readVersion(String id)
+  {
+    final Stored stored = live(id, System.currentTimeMillis());
+    return (stored != null ? stored.version : 0L);
+  }
+
+  @Override
+  public void write(SessionRecord record, Collection<String> removed)
+  {
+    sessions.compute(record.getId(), (id, stored) -> {
+      final Stored result = (stored != null ? stored : new Stored(record.getCreated()));
+      result.accessed = record.getAccessed();
+      result.maxInactiveInterval = record.getMaxInactiveInterval();
+      result.version = record.getVersion();
+      result.values.putAll(record.getValues());
+      for (String name : removed)
+      {
+        result.values.remove(name);
+      }
+      return result;
+    });
+  }
+
+  @Override
+  public void touch(String id, long accessed)
+  {
+    final Stored stored = sessions.get(id);
+    if (stored != null)
+    {
+      stored.accessed = Math.max(stored.accessed, accessed);
+    }
+  }
+
+  @Override
+  public void delete(String id)
+  {
+    sessions.remove(id);
+  }
+
+  @Override
+  public int count(long now)
+  {
+    int count = 0;
+    for (Stored stored : sessions.values())
+    {
+      if (!SessionRecord.isExpired(stored.accessed, stored.maxInactiveInterval, now))
+      {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public int deleteExpired(long now)
+  {
+    final int before = sessions.size();
+    sessions.values().removeIf(stored -> SessionRecord.isExpired(
+        stored.accessed, stored.maxInactiveInterval, now));
+    return before - sessions.size();
+  }
+
+  /**
+   * Gets a session if it exists and has not expired.
+   */
+  private Stored live(String id, long now)
+  {
+    final Stored stored = sessions.get(id);
+    return (stored != null
+        && !SessionRecord.isExpired(stored.accessed, stored.maxInactiveInterval, now))
+        ? stored
+        : null;
+  }
+
+  //
+  // Inner classes.
+  //
+
+  /**
+   * One stored session.  Metadata is replaced under the map's compute lock
+   * and read without it.
+   */
+  private static final class Stored
+  {
+    private final long                created;
+    private final Map<String, byte[]> values = new ConcurrentHashMap<>();
+    private volatile long             accessed;
+    private volatile int              maxInactiveInterval;
+    private volatile long             version;
+
+    private Stored(long created)
+    {
+      this.created = created;
+    }
+  }
+
+}   // End MemorySessionStore.
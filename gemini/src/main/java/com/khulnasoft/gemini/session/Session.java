@@ -109,4 +109,14 @@ public interface Session
    * @param timeout the value of the interval
    */
   void setMaxInactiveInterval(int timeout);
+
+  /**
+   * Called when the request that used this session is complete.  Sessions
+   * kept outside of the Servlet container write their changes here; the
+   * default does nothing.
+   */
+  default void requestComplete()
+  {
+    // Does nothing.
+  }
 }
@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.gemini.session;
+
+import java.nio.charset.*;
+import java.util.*;
+
+import com.google.common.hash.*;
+
+/**
+ * A session as it is kept by a {@link SessionStore}: the session's metadata
+ * and the serialized values of some or all of its attributes.
+ *   <p>
+ * When read from a store, every attribute is present in the values map,
+ * but the value of a large attribute may be null, meaning it has not been
+ * read and should be read with {@link SessionStore#readAttribute(String,
+ * String)} when needed.  When written to a store, the values map contains
+ * only the attributes that have changed.
+ */
+public final class SessionRecord
+{
+
+  //
+  // Member variables.
+  //
+
+  private final String              id;
+  private final long                created;
+  private final long                accessed;
+  private final int                 maxInactiveInterval;
+  private final long                version;
+  private final Map<String, byte[]> values;
+
+  //
+  // Member methods.
+  //
+
+  /**
+   * Constructor.
+   *
+   * @param id the session's ID.
+   * @param created the time the session was created, in milliseconds.
+   * @param accessed the time the session was last accessed, in milliseconds.
+   * @param maxInactiveInterval the session's timeout in seconds; zero or
+   *        less for a session that does not expire.
+   * @param version a stamp that changes whenever the session's attributes
+   *        or timeout change.
+   * @param values serialized attribute values by name.
+   */
+  public SessionRecord(String id, long created, long accessed,
+    int maxInactiveInterval, long version, Map<String, byte[]> values)
+  {
+    this.id = id;
+    this.created = created;
+    this.accessed = accessed;
+    this.maxInactiveInterval = maxInactiveInterval;
+    this.version = version;
+    this.values = values;
+  }
+
+  /**
+   * Gets the session's ID.
+   */
+  public String getId()
+  {
+    return id;
+  }
+
+  /**
+   * Gets the time the session was created, in milliseconds.
+   */
+  public long getCreated()
+  {
+    return created;
+  }
+
+  /**
+   * Gets the time the session was last accessed, in milliseconds.
+   */
+  public long getAccessed()
+  {
+    return accessed;
+  }
+
+  /**
+   * Gets the session's timeout in seconds.
+   */
+  public int getMaxInactiveInterval()
+  {
+    return maxInactiveInterval;
+  }
+
+  /**
+   * Gets the session's version stamp.
+   */
+  public long getVersion()
+  {
+    return version;
+  }
+
+  /**
+   * Gets the serialized attribute values by name.  A null value is an
+   * attribute that has not been read.
+   */
+  public Map<String, byte[]> getValues()
+  {
+    return values;
+  }
+
+  /**
+   * Returns true if a session last accessed at the given time with the
+   * given timeout has expired.
+   */
+  public static boolean isExpired(long accessed, int maxInactiveInterval,
+    long now)
+  {
+    return maxInactiveInterval > 0
+        && accessed + maxInactiveInterval * 1000L < now;
+  }
+
+  /**
+   * Returns a short hash of a session ID, which identifies the session in
+   * log and exception messages without revealing the ID itself.
+   */
+  public static String describeId(String id)
+  {
+    return id == null
+        ? "null"
+        : "#" + Hashing.sha256().hashString(id, StandardCharsets.UTF_8)
+            .toString().substring(0, 12);
+  }
+
+  /**
+   * toString.
+   */
+  @Override
+  public String toString()
+  {
+    return "SessionRecord [" + describeId(id) + "; " + values.size() 
+        + " attributes]";
+  }
+
+}   // End SessionRecord.
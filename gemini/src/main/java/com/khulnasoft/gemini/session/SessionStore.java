@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.gemini.session;
+
+import java.util.*;
+
+/**
+ * Keeps sessions outside of the Servlet container so that they can be
+ * shared by every instance of an application and survive restarts.  Used by
+ * {@link StoredSessionManager}, which holds recently used sessions in a
+ * near-cache and writes only the attributes that have changed.
+ *   <p>
+ * Attribute values are opaque byte arrays serialized by the manager.
+ * Implementations must be thread-safe.  The read methods return null or 0
+ * only when a session or attribute really is absent; when the store cannot
+ * be read, they throw a {@link SessionStoreException}.
+ *
+ * @see JdbcSessionStore
+ * @see MemorySessionStore
+ */
+public interface SessionStore
+{
+
+  /**
+   * Reads a session.  Returns null if the session does not exist or has
+   * expired.  Attribute values larger than the lazy threshold may be
+   * returned as null and read later with readAttribute.
+   *
+   * @param id the session's ID.
+   * @param lazyThreshold the size in bytes above which attribute values
+   *        need not be read.
+   * @throws SessionStoreException if the store cannot be read.
+   */
+  SessionRecord read(String id, int lazyThreshold);
+
+  /**
+   * Reads a single attribute value, or null if the session or attribute
+   * does not exist.
+   *
+   * @throws SessionStoreException if the store cannot be read.
+   */
+  byte[] readAttribute(String id, String name);
+
+  /**
+   * Reads a session's version stamp, or 0 if the session does not exist or
+   * has expired.  Used to check that a near-cached session is current.
+   *
+   * @throws SessionStoreException if the store cannot be read.
+   */
+  long readVersion(String id);
+
+  /**
+   * Writes a session's metadata and changed attributes, creating the
+   * session if it does not exist.  Attributes not present in the record's
+   * values and not named in removed are left as they are.  The version
+   * stamp is written last, and atomically with the attributes where the
+   * store supports it, so that a reader that sees the new version also
+   * sees the attributes it stamps.
+   */
+  void write(SessionRecord record, Collection<String> removed);
+
+  /**
+   * Updates the time a session was last accessed without changing its
+   * version stamp.
+   */
+  void touch(String id, long accessed);
+
+  /**
+   * Deletes a session and its attributes.
+   */
+  void delete(String id);
+
+  /**
+   * Counts the sessions that have not expired.
+   */
+  int count(long now);
+
+  /**
+   * Deletes sessions that have expired.
+   *
+   * @return the number of sessions deleted.
+   */
+  int deleteExpired(long now);
+
+}   // End SessionStore.
@@ -0,0 +1,447 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.gemini.session;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.slf4j.*;
+
+/**
+ * A Session kept in a {@link SessionStore} by a {@link StoredSessionManager}.
+ * Attributes are deserialized when first read, and attributes that were
+ * too large to be read with the session are fetched from the store at that
+ * point; if the store cannot be read then, getAttribute throws a
+ * SessionStoreException rather than returning null.
+ *   <p>
+ * Changes are written when the request completes, and only attributes that
+ * have changed are written.  An attribute is checked for changes if it was
+ * set, or if it was read and is not of an immutable type (such as String),
+ * since the caller may have modified it in place; it is written only if
+ * its serialized form differs from what is in the store.
+ *   <p>
+ * SessionListener attributes are notified when bound and unbound on the
+ * instance where the change is made.
+ */
+public class StoredSession
+  implements Session
+{
+
+  //
+  // Member variables.
+  //
+
+  private static final Logger LOG = LoggerFactory.getLogger(StoredSession.class);
+
+  private final StoredSessionManager   manager;
+  private final String                 id;
+  private final long                   created;
+  private final Map<String, Attribute> attributes = new ConcurrentHashMap<>();
+  private final Set<String>            removed = ConcurrentHashMap.newKeySet();
+  private volatile int                 maxInactiveInterval;
+  private volatile long                accessed;
+  private volatile long                lastRequest;
+  private volatile long                version;
+  private volatile boolean             fresh;
+  private volatile boolean             persisted;
+  private volatile boolean             metadataChanged;
+  private volatile boolean             valid = true;
+
+  //
+  // Member methods.
+  //
+
+  /**
+   * Constructs a new session.
+   */
+  StoredSession(StoredSessionManager manager, String id, long now,
+    int maxInactiveInterval)
+  {
+    this.manager = manager;
+    this.id = id;
+    this.created = now;
+    this.accessed = now;
+    this.lastRequest = now;
+    this.maxInactiveInterval = maxInactiveInterval;
+    this.fresh = true;
+  }
+
+  /**
+   * Constructs a session read from the store.
+   */
+  StoredSession(StoredSessionManager manager, SessionRecord record, long now)
+  {
+    this.manager = manager;
+    this.id = record.getId();
+    this.created = record.getCreated();
+    this.accessed = record.getAccessed();
+    this.lastRequest = now;
+    this.maxInactiveInterval = record.getMaxInactiveInterval();
+    this.version = record.getVersion();
+    this.persisted = true;
+    for (Map.Entry<String, byte[]> entry : record.getValues().entrySet())
+    {
+      attributes.put(entry.getKey(), new Attribute(entry.getValue()));
+    }
+  }
+
+  @Override
+  public boolean isNew()
+  {
+    return fresh;
+  }
+
+  @Override
+  public Enumeration<String> getAttributeNames()
+  {
+    return Collections.enumeration(new ArrayList<>(attributes.keySet()));
+  }
+
+  @Override
+  public Object getAttribute(String name)
+  {
+    final Attribute attribute = attributes.get(name);
+    return (attribute != null ? attribute.get(name) : null);
+  }
+
+  @Override
+  public int getMaxInactiveInterval()
+  {
+    return maxInactiveInterval;
+  }
+
+  @Override
+  public void setAttribute(String name, Object o)
+  {
+    if (o == null)
+    {
+      removeAttribute(name);
+      return;
+    }
+
+    final Attribute previous = attributes.put(name, 
+        new Attribute(o, previousBytes(name)));
+    removed.remove(name);
+    unbind(previous);
+    if (o instanceof SessionListener)
+    {
+      ((SessionListener)o).sessionBound(this);
+    }
+  }
+
+  @Override
+  public void setAttribute(String name, SessionListener o)
+  {
+    setAttribute(name, (Object)o);
+  }
+
+  @Override
+  public void removeAttribute(String name)
+  {
+    final Attribute previous = attributes.remove(name);
+    if (previous != null)
+    {
+      removed.add(name);
+      unbind(previous);
+    }
+  }
+
+  @Override
+  public String getId()
+  {
+    return id;
+  }
+
+  @Override
+  public void invalidate()
+  {
+    if (valid)
+    {
+      valid = false;
+      for (Attribute attribute : attributes.values())
+      {
+        unbind(attribute);
+      }
+      manager.invalidate(this);
+    }
+  }
+
+  @Override
+  public void setMaxInactiveInterval(int timeout)
+  {
+    if (timeout != maxInactiveInterval)
+    {
+      maxInactiveInterval = timeout;
+      metadataChanged = true;
+    }
+  }
+
+  /**
+   * Writes changes to the store.
+   */
+  @Override
+  public void requestComplete()
+  {
+    if (valid)
+    {
+      manager.requestComplete(this);
+    }
+  }
+
+  /**
+   * Gets the time the session was created, in milliseconds.
+   */
+  public long getCreated()
+  {
+    return created;
+  }
+
+  /**
+   * Gets the time of the session's most recent request on this instance,
+   * in milliseconds.
+   */
+  public long getLastRequest()
+  {
+    return lastRequest;
+  }
+
+  /**
+   * Returns false once the session has been invalidated.
+   */
+  public boolean isValid()
+  {
+    return valid;
+  }
+
+  /**
+   * Gets the version stamp last read from or written to the store.
+   */
+  long getVersion()
+  {
+    return version;
+  }
+
+  /**
+   * Returns true once the session has been written to the store.
+   */
+  boolean isPersisted()
+  {
+    return persisted;
+  }
+
+  /**
+   * Called when a later request for the session arrives.
+   */
+  void requested(long now)
+  {
+    fresh = false;
+    lastRequest = now;
+  }
+
+  /**
+   * Writes the session's metadata and changed attributes to the store, or
+   * just its access time if nothing has changed and the stored access time
+   * is older than the touch interval.
+   */
+  synchronized void flush(SessionStore store, long touchIntervalMillis)
+  {
+    final Map<String, byte[]> changed = new HashMap<>();
+    for (Map.Entry<String, Attribute> entry : attributes.entrySet())
+    {
+      final byte[] bytes = entry.getValue().changedBytes(entry.getKey());
+      if (bytes != null)
+      {
+        changed.put(entry.getKey(), bytes);
+      }
+    }
+    final List<String> gone = new ArrayList<>(removed);
+    removed.removeAll(gone);
+
+    final long now = lastRequest;
+    if (!persisted || metadataChanged || !changed.isEmpty() || !gone.isEmpty())
+    {
+      metadataChanged = false;
+      version = manager.nextVersion();
+      accessed = now;
+      store.write(new SessionRecord(id, created, now, maxInactiveInterval,
+          version, changed), gone);
+      persisted = true;
+    }
+    else if (now - accessed >= touchIntervalMillis)
+    {
+      accessed = now;
+      store.touch(id, now);
+    }
+  }
+
+  /**
+   * Gets the stored bytes of an attribute about to be replaced, so that
+   * setting an attribute to an equal value does not write it.
+   */
+  private byte[] previousBytes(String name)
+  {
+    final Attribute previous = attributes.get(name);
+    return (previous != null ? previous.stored : null);
+  }
+
+  /**
+   * Notifies a SessionListener attribute that it has been unbound.
+   */
+  private void unbind(Attribute attribute)
+  {
+    if (attribute != null && attribute.value instanceof SessionListener)
+    {
+      ((SessionListener)attribute.value).sessionUnbound(this);
+    }
+  }
+
+  /**
+   * Returns true for values that cannot be modified in place.
+   */
+  private static boolean isImmutable(Object value)
+  {
+    return value instanceof String
+        || value instanceof Boolean
+        || value instanceof Integer
+        || value instanceof Long
+        || value instanceof Short
+        || value instanceof Byte
+        || value instanceof Character
+        || value instanceof Double
+        || value instanceof Float
+        || value instanceof Enum;
+  }
+
+  /**
+   * toString.
+   */
+  @Override
+  public String toString()
+  {
+    return "StoredSession [" + SessionRecord.describeId(id) + "; " 
+        + attributes.size() + " attributes]";
+  }
+
+  //
+  // Inner classes.
+  //
+
+  /**
+   * One attribute: its value once deserialized, and its serialized form as
+   * last read from or written to the store.  A stored attribute with
+   * neither has not yet been read from the store.
+   */
+  private final class Attribute
+  {
+    private volatile Object value;
+    private byte[]          stored;
+    private boolean         decoded;
+    private boolean         check;
+
+    /**
+     * Constructs an attribute read from the store, whose bytes may be null
+     * if it was too large to be read with the session.
+     */
+    private Attribute(byte[] stored)
+    {
+      this.stored = stored;
+    }
+
+    /**
+     * Constructs an attribute set on this instance.
+     */
+    private Attribute(Object value, byte[] stored)
+    {
+      this.value = value;
+      this.stored = stored;
+      this.decoded = true;
+      this.check = true;
+    }
+
+    private synchronized Object get(String name)
+    {
+      if (!decoded)
+      {
+        if (stored == null)
+        {
+          stored = manager.getStore().readAttribute(id, name);
+          if (stored == null)
+          {
+            return null;
+          }
+        }
+        try
+        {
+          value = manager.decode(stored);
+        }
+        catch (RuntimeException exc)
+        {
+          LOG.warn("Could not deserialize attribute {} of session {}.",
+              name, SessionRecord.describeId(id), exc);
+          return null;
+        }
+        decoded = true;
+      }
+      if (!isImmutable(value))
+      {
+        check = true;
+      }
+      return value;
+    }
+
+    /**
+     * Returns the serialized value if it may have changed and differs from
+     * what is stored; otherwise null.
+     */
+    private synchronized byte[] changedBytes(String name)
+    {
+      if (!check)
+      {
+        return null;
+      }
+      check = false;
+      try
+      {
+        final byte[] bytes = manager.encode(value);
+        if (Arrays.equals(bytes, stored))
+        {
+          return null;
+        }
+        stored = bytes;
+        return bytes;
+      }
+      catch (RuntimeException exc)
+      {
+        LOG.warn("Could not serialize attribute {} of session {}; it will "
+            + "not be stored.", name, SessionRecord.describeId(id), exc);
+        return null;
+      }
+    }
+  }
+
+}   // End StoredSession.
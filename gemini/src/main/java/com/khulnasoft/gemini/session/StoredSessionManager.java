@@ -0,0 +1,475 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.gemini.session;
+
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.objenesis.strategy.*;
+import org.slf4j.*;
+
+import com.esotericsoftware.kryo.*;
+import com.esotericsoftware.kryo.io.*;
+import com.esotericsoftware.kryo.util.*;
+import com.google.common.cache.*;
+import com.khulnasoft.gemini.*;
+import com.khulnasoft.gemini.monitor.*;
+import com.khulnasoft.helper.*;
+import com.khulnasoft.util.*;
+
+/**
+ * A SessionManager that keeps sessions in a {@link SessionStore} rather
+ * than in the Servlet container, so that any instance of the application
+ * can serve any request without sticky routing, and sessions survive a
+ * restart.  Sessions are identified by an HttpOnly cookie.
+ *   <p>
+ * Recently used sessions are held in a local near-cache.  By default, the
+ * stored version stamp of a near-cached session is read on each request
+ * and the session is reloaded if another instance has changed it; when
+ * requests for a session are routed to the same instance, this check may
+ * be disabled to avoid the read.  Attributes are serialized with Kryo,
+ * only changed attributes are written, and large attributes are read only
+ * when used.  See {@link StoredSession}.
+ *   <p>
+ * To use, overload constructSessionManager in the application:
+ *
+ * <pre>
+ * protected SessionManager constructSessionManager()
+ * {
+ *   return new StoredSessionManager(this, 
+ *       new JdbcSessionStore(getConnectorFactory()));
+ * }
+ * </pre>
+ *
+ * Reads the following configuration options from the .conf file:
+ *    <ul>
+ * <li>SessionTimeout - Timeout for sessions in seconds.  Default: 3600.
+ * <li>StoredSessions.CookieName - Default: GSESSIONID.
+ * <li>StoredSessions.CookieDomain - Default: none.
+ * <li>StoredSessions.CookiePath - Default: /.
+ * <li>StoredSessions.CookieSecure - Default: false.
+ * <li>StoredSessions.NearCacheSize - The maximum number of sessions held
+ *     locally.  Default: 10000.
+ * <li>StoredSessions.NearCacheSeconds - How long an unused session is held
+ *     locally.  Default: 300.
+ * <li>StoredSessions.ValidateNearCache - Whether to check that a near-cached
+ *     session is current on each request.  Default: true.
+ * <li>StoredSessions.LazyAttributeBytes - Attributes larger than this are
+ *     read when first used rather than with the session.  Default: 4096.
+ * <li>StoredSessions.TouchIntervalSeconds - The minimum interval between
+ *     writes of a session's access time when nothing else has changed.
+ *     Default: 60.
+ * <li>StoredSessions.PurgeIntervalSeconds - The interval between deletions
+ *     of expired sessions.  Default: 600.
+ *    </ul>
+ */
+public class StoredSessionManager
+  implements SessionManager
+{
+  //
+  // Constants.
+  //
+
+  public static final int    DEFAULT_TIMEOUT                = 3600;
+  public static final String DEFAULT_COOKIE_NAME            = "GSESSIONID";
+  public static final int    DEFAULT_NEAR_CACHE_SIZE        = 10000;
+  public static final int    DEFAULT_NEAR_CACHE_SECONDS     = 300;
+  public static final int    DEFAULT_LAZY_ATTRIBUTE_BYTES   = 4096;
+  public static final int    DEFAULT_TOUCH_INTERVAL_SECONDS = 60;
+  public static final int    DEFAULT_PURGE_INTERVAL_SECONDS = 600;
+
+  private static final String REQUEST_ATTRIBUTE   = "Gemini-Stored-Session";
+  private static final int    MAXIMUM_ID_LENGTH   = 64;
+  private static final int    ID_BYTES            = 24;
+  private static final long   COUNT_INTERVAL      = 10 * UtilityConstants.SECOND;
+
+  //
+  // Member variables.
+  //
+
+  private final Logger       log = LoggerFactory.getLogger(getClass());
+  private final GeminiApplication application;
+  private final SessionStore store;
+  private final SecureRandom random = new SecureRandom();
+  private final AtomicLong   lastPurge = new AtomicLong(System.currentTimeMillis());
+  private final AtomicLong   nearCacheHits = new AtomicLong();
+  private final AtomicLong   storeReads = new AtomicLong();
+  private final Pool<Kryo>   kryos = new Pool<Kryo>(true, false, 32) {
+    @Override
+    protected Kryo create()
+    {
+      return constructKryo();
+    }
+  };
+
+  private int     timeoutSeconds      = DEFAULT_TIMEOUT;
+  private String  cookieName          = DEFAULT_COOKIE_NAME;
+  private String  cookieDomain        = null;
+  private String  cookiePath          = "/";
+  private boolean cookieSecure        = false;
+  private boolean validateNearCache   = true;
+  private int     lazyAttributeBytes  = DEFAULT_LAZY_ATTRIBUTE_BYTES;
+  private long    touchIntervalMillis = DEFAULT_TOUCH_INTERVAL_SECONDS * UtilityConstants.SECOND;
+  private long    purgeIntervalMillis = DEFAULT_PURGE_INTERVAL_SECONDS * UtilityConstants.SECOND;
+  private volatile Cache<String, StoredSession> nearCache = buildNearCache(
+      DEFAULT_NEAR_CACHE_SIZE, DEFAULT_NEAR_CACHE_SECONDS);
+  private volatile int  sessionCount;
+  private volatile long sessionCountTime;
+
+  //
+  // Member methods.
+  //
+
+  /**
+   * Constructor.
+   */
+  public StoredSessionManager(GeminiApplication application, SessionStore store)
+  {
+    this.application = application;
+    this.store = store;
+    application.getConfigurator().addConfigurable(this);
+
+    // Sessions are not created by the Servlet container, so the monitor's
+    // session listener will not see them; count them from the store.
+    final GeminiMonitor monitor = application.getMonitor();
+    if (monitor != null && monitor.getSessionState() != null)
+    {
+      monitor.getSessionState().setSessionCounter(this::getSessionCount);
+    }
+  }
+
+  /**
+   * Configure this component.
+   */
+  @Override
+  public void configure(EnhancedProperties props)
+  {
+    timeoutSeconds = props.getInt("SessionTimeout", DEFAULT_TIMEOUT);
+    log.info("Session timeout: {} seconds.", timeoutSeconds);
+
+    final EnhancedProperties.Focus focus = props.focus("StoredSessions.");
+    cookieName = focus.get("CookieName", DEFAULT_COOKIE_NAME);
+    cookieDomain = focus.get("CookieDomain", null);
+    cookiePath = focus.get("CookiePath", "/");
+    cookieSecure = focus.getBoolean("CookieSecure", false);
+    validateNearCache = focus.getBoolean("ValidateNearCache", true);
+    lazyAttributeBytes = focus.getInt("LazyAttributeBytes",
+        DEFAULT_LAZY_ATTRIBUTE_BYTES, 0, Integer.MAX_VALUE);
+    touchIntervalMillis = focus.getInt("TouchIntervalSeconds",
+        DEFAULT_TOUCH_INTERVAL_SECONDS, 0, Integer.MAX_VALUE) 
+        * UtilityConstants.SECOND;
+    purgeIntervalMillis = focus.getInt("PurgeIntervalSeconds",
+        DEFAULT_PURGE_INTERVAL_SECONDS, 1, Integer.MAX_VALUE) 
+        * UtilityConstants.SECOND;
+    nearCache = buildNearCache(
+        focus.getInt("NearCacheSize", DEFAULT_NEAR_CACHE_SIZE, 0, Integer.MAX_VALUE),
+        focus.getInt("NearCacheSeconds", DEFAULT_NEAR_CACHE_SECONDS, 0, Integer.MAX_VALUE));
+    log.info("Stored sessions: cookie {}; near-cache validation {}.",
+        cookieName, validateNearCache ? "enabled" : "disabled");
+  }
+
+  /**
+   * Gets the session timeout in seconds.
+   */
+  @Override
+  public int getTimeoutSeconds()
+  {
+    return timeoutSeconds;
+  }
+
+  /**
+   * Sets the session timeout in seconds.  Note: only future sessions will be 
+   * affected.
+   */
+  public void setTimeoutSeconds(int seconds)
+  {
+    timeoutSeconds = seconds;
+  }
+
+  /**
+   * Gets the SessionStore.
+   */
+  public SessionStore getStore()
+  {
+    return store;
+  }
+
+  @Override
+  public Session getSession(Request request, boolean create)
+  {
+    final Object current = request.getAttribute(REQUEST_ATTRIBUTE);
+    if (current instanceof StoredSession && ((StoredSession)current).isValid())
+    {
+      return (StoredSession)current;
+    }
+
+    final long now = System.currentTimeMillis();
+    final Cookie cookie = request.getCookie(cookieName);
+    if (cookie != null)
+    {
+      final StoredSession session = find(cookie.getValue(), now);
+      if (session != null)
+      {
+        session.requested(now);
+        request.setAttribute(REQUEST_ATTRIBUTE, session);
+        return session;
+      }
+    }
+
+    if (!create)
+    {
+      return null;
+    }
+
+    final StoredSession session = new StoredSession(this, newId(), now, 
+        timeoutSeconds);
+    session.setAttribute(GeminiConstants.SESSION_ID_NAME, session.getId());
+    nearCache.put(session.getId(), session);
+    request.setCookie(cookieName, session.getId(), cookieDomain, cookiePath, 
+        -1, cookieSecure, true);
+    request.setAttribute(REQUEST_ATTRIBUTE, session);
+    return session;
+  }
+
+  /**
+   * Gets the number of sessions that have not expired, as counted by the
+   * store at most every ten seconds.
+   */
+  public int getSessionCount()
+  {
+    final long now = System.currentTimeMillis();
+    if (now - sessionCountTime > COUNT_INTERVAL)
+    {
+      sessionCountTime = now;
+      sessionCount = store.count(now);
+    }
+    return sessionCount;
+  }
+
+  /**
+   * Gets the number of requests for a session that were served from the
+   * near-cache.
+   */
+  public long getNearCacheHits()
+  {
+    return nearCacheHits.get();
+  }
+
+  /**
+   * Gets the number of requests for a session that read it from the store.
+   */
+  public long getStoreReads()
+  {
+    return storeReads.get();
+  }
+
+  /**
+   * Finds a session in the near-cache, or failing that, the store.  If the
+   * store cannot be read, a near-cached copy of the session is served as 
+   * it is; without one, the SessionStoreException is thrown rather than
+   * the session being treated as absent, which would replace the user's
+   * cookie with a new session.
+   */
+  private StoredSession find(String id, long now)
+  {
+    if (id == null || id.isEmpty() || id.length() > MAXIMUM_ID_LENGTH)
+    {
+      return null;
+    }
+
+    final StoredSession cached = nearCache.getIfPresent(id);
+    if (cached != null && cached.isValid())
+    {
+      if (!cached.isPersisted())
+      {
+        // Created by a request on this instance that has not yet completed.
+        nearCacheHits.incrementAndGet();
+        return cached;
+      }
+      if (validateNearCache)
+      {
+        final long version;
+        try
+        {
+          version = store.readVersion(id);
+        }
+        catch (SessionStoreException exc)
+        {
+          log.warn("Serving near-cached session {} unvalidated.",
+              SessionRecord.describeId(id), exc);
+          nearCacheHits.incrementAndGet();
+          return cached;
+        }
+        if (version == cached.getVersion())
+        {
+          nearCacheHits.incrementAndGet();
+          return cached;
+        }
+        if (version == 0L)
+        {
+          nearCache.invalidate(id);
+          return null;
+        }
+      }
+      else if (!SessionRecord.isExpired(cached.getLastRequest(),
+          cached.getMaxInactiveInterval(), now))
+      {
+        nearCacheHits.incrementAndGet();
+        return cached;
+      }
+    }
+
+    storeReads.incrementAndGet();
+    final SessionRecord record = store.read(id, lazyAttributeBytes);
+    if (record == null)
+    {
+      nearCache.invalidate(id);
+      return null;
+    }
+    final StoredSession session = new StoredSession(this, record, now);
+    nearCache.put(id, session);
+    return session;
+  }
+
+  /**
+   * Writes a session's changes at the end of a request, and deletes expired
+   * sessions from the store if the purge interval has passed.
+   */
+  void requestComplete(StoredSession session)
+  {
+    session.flush(store, touchIntervalMillis);
+
+    final long now = System.currentTimeMillis();
+    final long last = lastPurge.get();
+    if (now - last >= purgeIntervalMillis && lastPurge.compareAndSet(last, now))
+    {
+      ThreadHelper.submit(() -> {
+        final int purged = store.deleteExpired(now);
+        log.debug("Deleted {} expired sessions.", purged);
+      });
+    }
+  }
+
+  /**
+   * Removes an invalidated session from the near-cache and the store.
+   */
+  void invalidate(StoredSession session)
+  {
+    nearCache.invalidate(session.getId());
+    store.delete(session.getId());
+  }
+
+  /**
+   * Returns a new version stamp.
+   */
+  long nextVersion()
+  {
+    long version;
+    do
+    {
+      version = ThreadLocalRandom.current().nextLong();
+    }
+    while (version == 0L);
+    return version;
+  }
+
+  /**
+   * Serializes an attribute value.
+   */
+  byte[] encode(Object value)
+  {
+    final Kryo kryo = kryos.obtain();
+    try (Output output = new Output(256, -1))
+    {
+      kryo.writeClassAndObject(output, value);
+      return output.toBytes();
+    }
+    finally
+    {
+      kryos.free(kryo);
+    }
+  }
+
+  /**
+   * Deserializes an attribute value.
+   */
+  Object decode(byte[] bytes)
+  {
+    final Kryo kryo = kryos.obtain();
+    try (Input input = new Input(bytes))
+    {
+      return kryo.readClassAndObject(input);
+    }
+    finally
+    {
+      kryos.free(kryo);
+    }
+  }
+
+  /**
+   * Constructs a Kryo instance for serializing attribute values.  Any class
+   * may be serialized without registration, and classes without a
+   * no-argument constructor can be instantiated.  Overload to register
+   * custom serializers.
+   */
+  protected Kryo constructKryo()
+  {
+    final Kryo kryo = new Kryo();
+    kryo.setRegistrationRequired(false);
+    kryo.setReferences(true);
+    kryo.setInstantiatorStrategy(
+        new DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
+    kryo.setClassLoader(application.getClass().getClassLoader());
+    return kryo;
+  }
+
+  /**
+   * Creates a new session ID from random bytes.
+   */
+  private String newId()
+  {
+    final byte[] bytes = new byte[ID_BYTES];
+    random.nextBytes(bytes);
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+  }
+
+  /**
+   * Builds the near-cache.
+   */
+  private static Cache<String, StoredSession> buildNearCache(int size, 
+    int seconds)
+  {
+    return CacheBuilder.newBuilder()
+        .maximumSize(size)
+        .expireAfterAccess(seconds, TimeUnit.SECONDS)
+        .<String, StoredSession>build();
+  }
+
+}   // End StoredSessionManager.
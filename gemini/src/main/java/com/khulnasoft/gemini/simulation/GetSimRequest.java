@@ -57,4 +57,10 @@ public class GetSimRequest
   {
     return true;
   }
+
+  @Override
+  public HttpMethod getRequestMethod()
+  {
+    return HttpMethod.GET;
+  }
 }
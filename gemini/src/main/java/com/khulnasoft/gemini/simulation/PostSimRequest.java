@@ -57,4 +57,10 @@ public class PostSimRequest
   {
     return true;
   }
+
+  @Override
+  public HttpMethod getRequestMethod()
+  {
+    return HttpMethod.POST;
+  }
 }
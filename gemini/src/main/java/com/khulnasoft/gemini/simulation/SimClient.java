@@ -26,12 +26,19 @@
  *******************************************************************************/
 package com.khulnasoft.gemini.simulation;
 
+import java.util.*;
+import java.util.concurrent.*;
+
 /**
- * A client that makes simulated web requests
+ * A client that makes simulated web requests.  Like a browser, a client 
+ * keeps the cookies set by responses and sends them with later requests,
+ * and its id selects its session in the SimSessionManager.  A client may
+ * be used by one thread at a time.
  */
 public class SimClient
 {
   private int id;
+  private final Map<String, SimCookie> cookies = new ConcurrentHashMap<>();
 
   /**
    * Constructs a new simulated client with the provided id.
@@ -52,4 +59,61 @@ public class SimClient
   {
     return this.id;
   }
+
+  /**
+   * Returns the cookie with the given name, or null if the client has none.
+   *
+   * @param name the name of the cookie
+   * @return the cookie, or null
+   */
+  public SimCookie getCookie(String name)
+  {
+    return this.cookies.get(name);
+  }
+
+  /**
+   * Returns the client's cookies.
+   *
+   * @return an unmodifiable view of the client's cookies
+   */
+  public Collection<SimCookie> getCookies()
+  {
+    return Collections.unmodifiableCollection(this.cookies.values());
+  }
+
+  /**
+   * Stores a cookie, replacing any of the same name.  A cookie with an age
+   * of zero removes the cookie instead, as it would in a browser.
+   *
+   * @param cookie the cookie
+   */
+  public void setCookie(SimCookie cookie)
+  {
+    if (cookie.getAge() == 0)
+    {
+      this.cookies.remove(cookie.getName());
+    }
+    else
+    {
+      this.cookies.put(cookie.getName(), cookie);
+    }
+  }
+
+  /**
+   * Removes the cookie with the given name.
+   *
+   * @param name the name of the cookie
+   */
+  public void removeCookie(String name)
+  {
+    this.cookies.remove(name);
+  }
+
+  /**
+   * Removes all of the client's cookies.
+   */
+  public void clearCookies()
+  {
+    this.cookies.clear();
+  }
 }
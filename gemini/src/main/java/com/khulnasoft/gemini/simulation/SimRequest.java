@@ -27,13 +27,18 @@
 package com.khulnasoft.gemini.simulation;
 
 import java.io.*;
+import java.nio.charset.*;
 import java.util.*;
 
 import com.khulnasoft.gemini.*;
 import com.khulnasoft.gemini.session.*;
 
 /**
- * A simulated web request.
+ * A simulated web request.  The response is not kept: output written to
+ * the request is counted and discarded, while the status, headers and any
+ * redirect are recorded for inspection once the request has been handled.
+ * Cookies are read from and written to the client's cookie jar, so they 
+ * carry over between requests made by the same SimClient.
  */
 public abstract class SimRequest
     implements Request
@@ -41,6 +46,7 @@ public abstract class SimRequest
   
   private final GeminiApplication     application;
   private final BasicInfrastructure   infrastructure;
+  private final SimClient             client;
   private String                      url;
   private final String                uri;
   private final String                requestSignature;
@@ -51,6 +57,10 @@ public abstract class SimRequest
   private boolean                     redirected          = false;
   private String                      renderedJSP;
   private String                      includedFile;
+  private int                         status              = 200;
+  private final Map<String, String>   responseHeaders     = new HashMap<>();
+  private final CountingOutputStream  output              = new CountingOutputStream();
+  private PrintWriter                 writer;
 
   /**
    * Constructs a new simulated web request with the given parameters.
@@ -68,7 +78,7 @@ public abstract class SimRequest
     this.application     = application;
     this.infrastructure  = this.application.getInfrastructure();
     //this.simulation      = simulation;
-    //this.clientID        = String.valueOf(client.getId()); 
+    this.client          = client;
     
     // the path can optionally look like /?cmd=login&username=admin
     // so we need to process the path in this case.
@@ -176,13 +186,18 @@ public abstract class SimRequest
   @Override
   public void print(String text) throws IOException
   {
+    getWriter().print(text);
   }
 
   @Override
   public PrintWriter getWriter() throws IOException
   {
-    
-    return null;
+    if (this.writer == null)
+    {
+      this.writer = new PrintWriter(new OutputStreamWriter(this.output, 
+          StandardCharsets.UTF_8));
+    }
+    return this.writer;
   }
 
   @Override
@@ -220,6 +235,11 @@ public abstract class SimRequest
   @SuppressWarnings("unchecked")
   public <C extends Cookie> C getCookie(String name)
   {
+    if (this.client != null)
+    {
+      return (C)this.client.getCookie(name);
+    }
+    
     for(SimCookie cookie : this.cookies)
     {
       if(cookie.getName().equals(name))
@@ -236,12 +256,29 @@ public abstract class SimRequest
       String path, int age, boolean secure)
   {
     SimCookie cookie = new SimCookie(name, value, path, age, secure);
-    this.cookies.add(cookie);
+    if (this.client != null)
+    {
+      this.client.setCookie(cookie);
+    }
+    else
+    {
+      this.cookies.add(cookie);
+    }
   }
 
   @Override
   public void deleteCookie(String name, String path)
   {
+    if (this.client != null)
+    {
+      final SimCookie cookie = this.client.getCookie(name);
+      if (cookie != null && Objects.equals(cookie.getPath(), path))
+      {
+        this.client.removeCookie(name);
+      }
+      return;
+    }
+    
     Iterator<SimCookie> iter = this.cookies.iterator();
     while(iter.hasNext())
     {
@@ -257,8 +294,9 @@ public abstract class SimRequest
   @Override
   public String getClientId()
   {
-    
-    return null;
+    return this.client == null 
+        ? null 
+        : String.valueOf(this.client.getId());
   }
 
   @Override
@@ -278,26 +316,50 @@ public abstract class SimRequest
   {
     this.redirectURL = redirectDestinationUrl;
     this.redirected  = true;
+    this.status      = 302;
     return true;
   }
 
   @Override
   public boolean redirectPermanent(String redirectDestinationUrl)
   {
-    
-    return false;
+    this.redirectURL = redirectDestinationUrl;
+    this.redirected  = true;
+    this.status      = 301;
+    return true;
   }
 
   @Override
   public void setResponseHeader(String headerName, String value)
   {
+    this.responseHeaders.put(headerName.toLowerCase(), value);
+  }
+
+  /**
+   * Gets a response header set while handling this request, by 
+   * case-insensitive name.
+   */
+  public String getResponseHeader(String headerName)
+  {
+    return this.responseHeaders.get(headerName.toLowerCase());
   }
 
   @Override
   public OutputStream getOutputStream() throws IOException
   {
-    
-    return null;
+    return this.output;
+  }
+  
+  /**
+   * Gets the number of bytes written as the response body.
+   */
+  public long getResponseBytes()
+  {
+    if (this.writer != null)
+    {
+      this.writer.flush();
+    }
+    return this.output.count;
   }
   
   @Override
@@ -387,7 +449,15 @@ public abstract class SimRequest
   @Override
   public void setStatus(int status)
   {
-    
+    this.status = status;
+  }
+  
+  /**
+   * Gets the response status, 200 unless set otherwise.
+   */
+  public int getStatus()
+  {
+    return this.status;
   }
 
   @Override
@@ -449,4 +519,25 @@ public abstract class SimRequest
   {
     return false;
   }
+
+  /**
+   * Counts and discards response output.
+   */
+  private static class CountingOutputStream
+    extends OutputStream
+  {
+    private long count;
+    
+    @Override
+    public void write(int b)
+    {
+      count++;
+    }
+    
+    @Override
+    public void write(byte[] b, int off, int len)
+    {
+      count += len;
+    }
+  }
 }
@@ -46,7 +46,31 @@ public class SimSession
   private Hashtable<String, Object> attributes          = new Hashtable<>();
   private boolean                   isNew               = true;
   private int                       maxInactiveInterval = 3000;
-  //private boolean                   valid               = true;
+  private volatile boolean          valid               = true;
+  
+  /**
+   * Constructor.
+   */
+  public SimSession()
+  {
+    this(null);
+  }
+  
+  /**
+   * Constructs a session with the provided id.
+   */
+  public SimSession(String id)
+  {
+    this.id = id;
+  }
+  
+  /**
+   * Returns false once the session has been invalidated.
+   */
+  public boolean isValid()
+  {
+    return this.valid;
+  }
   
   @Override
   public boolean isNew()
@@ -105,7 +129,7 @@ public class SimSession
   @Override
   public void invalidate()
   {
-    //this.valid = false;
+    this.valid = false;
   }
 
   @Override
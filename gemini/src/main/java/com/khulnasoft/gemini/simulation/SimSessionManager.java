@@ -27,6 +27,8 @@
 package com.khulnasoft.gemini.simulation;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 import com.khulnasoft.gemini.*;
 import com.khulnasoft.gemini.session.*;
@@ -34,7 +36,9 @@ import com.khulnasoft.util.*;
 
 /**
  * An implementation of the {@link SessionManager} interface for simulated
- * sessions.
+ * sessions.  Each SimClient has one session, which lasts until it is 
+ * invalidated or removed, so a client's requests share session state the 
+ * way a browser's would.
  */
 public class SimSessionManager
   implements SessionManager
@@ -49,15 +53,16 @@ public class SimSessionManager
   // Member variables.
   //
 
-  private Map<String, SimSession> sessions;
+  private final Map<String, SimSession> sessions;
+  private final AtomicLong              sessionSequence = new AtomicLong();
 
   /**
    * Constructor.
    */
   public SimSessionManager(GeminiApplication application)
   {
-    // Create a synchronized set for the sessions.
-    this.sessions = new HashMap<>();
+    // Create a concurrent map for the sessions.
+    this.sessions = new ConcurrentHashMap<>();
     application.getConfigurator().addConfigurable(this);
   }
 
@@ -73,25 +78,48 @@ public class SimSessionManager
   }
   
   /**
-   * Returns the session of the given request.
+   * Returns the session of the given request's client, creating one if the
+   * client has none or its session was invalidated and create is true.
+   * Requests without a client share a single session.
    *
-   * @param create if {@code true} and the session does not exist, it will be
-   *               created
+   * @param create whether to create a session if the client has no valid
+   *               session
    * @param request the request
-   * @return the session of the given request
+   * @return the session of the given request, or null if there is none and
+   *         create is false
    */
   private SimSession getSession(boolean create, SimRequest request)
   {
-    if(create)
+    final String clientId = String.valueOf(request.getClientId());
+    if (!create)
     {
-      this.sessions.put(request.getClientId(), new SimSession());
+      final SimSession existing = this.sessions.get(clientId);
+      return (existing != null && existing.isValid()) ? existing : null;
     }
-    else if(!this.sessions.containsKey(request.getClientId()))
-    {
-      this.sessions.put(request.getClientId(), new SimSession());
-    }
-    
-    return this.sessions.get(request.getClientId());
+    return this.sessions.compute(clientId, (key, existing) -> 
+        (existing != null && existing.isValid())
+            ? existing
+            : new SimSession(COMPONENT_CODE + "-" + key + "-" 
+                + this.sessionSequence.incrementAndGet()));
+  }
+
+  /**
+   * Discards the session of the given client, if any.  The client's next
+   * request starts a new session.
+   *
+   * @param client the client
+   */
+  public void removeSession(SimClient client)
+  {
+    this.sessions.remove(String.valueOf(client.getId()));
+  }
+
+  /**
+   * Returns the number of sessions held.
+   */
+  public int getSessionCount()
+  {
+    return this.sessions.size();
   }
 
   @Override
@@ -0,0 +1,218 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.gemini.simulation.load;
+
+import java.util.*;
+import java.util.function.*;
+
+import com.khulnasoft.gemini.Request.*;
+import com.khulnasoft.gemini.simulation.*;
+
+/**
+ * A scripted sequence of requests that one simulated user makes, such as
+ * "view the home page, log in, open a report".  Steps run in order, each
+ * after the previous step's response plus its think time.  URLs and 
+ * parameters may be computed per client, and a step may check its 
+ * response and save values for later steps:
+ * 
+ * <pre>
+ * new Journey("report")
+ *     .get("/")
+ *     .post("/login", client -&gt; Map.of("username", "user" + client.getId()))
+ *     .think(2000)
+ *     .get("/reports/{id}", client -&gt; "/reports/" + client.random().nextInt(100))
+ *     .check((client, request) -&gt; request.getResponseBytes() &gt; 0);
+ * </pre>
+ * 
+ * Results are reported per route, which is the step's method and URL, or
+ * the method and label when the URL is computed.
+ */
+public class Journey
+{
+
+  //
+  // Member variables.
+  //
+
+  private final String     name;
+  private final List<Step> steps = new ArrayList<>();
+  private int              weight = 1;
+
+  //
+  // Member methods.
+  //
+
+  /**
+   * Constructor.
+   *
+   * @param name the journey's name, used to report whole-journey times.
+   */
+  public Journey(String name)
+  {
+    this.name = name;
+  }
+
+  /**
+   * Sets how often this journey is chosen relative to the test's other
+   * journeys.  The default is 1.
+   */
+  public Journey weight(int weight)
+  {
+    if (weight < 1)
+    {
+      throw new IllegalArgumentException("Weight must be at least 1.");
+    }
+    this.weight = weight;
+    return this;
+  }
+
+  /**
+   * Adds a GET of a fixed URL.
+   */
+  public Journey get(String url)
+  {
+    return add(HttpMethod.GET, url, client -> url, null);
+  }
+
+  /**
+   * Adds a GET of a computed URL, reported under the provided label.
+   */
+  public Journey get(String label, Function<LoadClient, String> url)
+  {
+    return add(HttpMethod.GET, label, url, null);
+  }
+
+  /**
+   * Adds a POST of computed parameters to a fixed URL.
+   */
+  public Journey post(String url, 
+      Function<LoadClient, Map<String, String>> parameters)
+  {
+    return add(HttpMethod.POST, url, client -> url, parameters);
+  }
+
+  /**
+   * Adds a POST of computed parameters to a computed URL, reported under 
+   * the provided label.
+   */
+  public Journey post(String label, Function<LoadClient, String> url,
+      Function<LoadClient, Map<String, String>> parameters)
+  {
+    return add(HttpMethod.POST, label, url, parameters);
+  }
+
+  /**
+   * Sets the pause after the most recently added step, in milliseconds.
+   */
+  public Journey think(long millis)
+  {
+    lastStep().thinkMillis = Math.max(0L, millis);
+    return this;
+  }
+
+  /**
+   * Sets a check on the response of the most recently added step.  The 
+   * step counts as an error when the check returns false.  A check may
+   * also save values for later steps with {@link LoadClient#set}.
+   */
+  public Journey check(BiPredicate<LoadClient, SimRequest> check)
+  {
+    lastStep().check = check;
+    return this;
+  }
+
+  /**
+   * Gets the name.
+   */
+  public String getName()
+  {
+    return name;
+  }
+
+  /**
+   * Gets the relative weight.
+   */
+  public int getWeight()
+  {
+    return weight;
+  }
+
+  /**
+   * Gets the steps.
+   */
+  List<Step> getSteps()
+  {
+    return steps;
+  }
+
+  private Journey add(HttpMethod method, String label, 
+      Function<LoadClient, String> url,
+      Function<LoadClient, Map<String, String>> parameters)
+  {
+    steps.add(new Step(method.name() + " " + label, method, url, parameters));
+    return this;
+  }
+
+  private Step lastStep()
+  {
+    if (steps.isEmpty())
+    {
+      throw new IllegalStateException("Journey " + name + " has no steps yet.");
+    }
+    return steps.get(steps.size() - 1);
+  }
+
+  @Override
+  public String toString()
+  {
+    return "Journey [" + name + "; " + steps.size() + " steps; weight " + weight + "]";
+  }
+
+  /**
+   * One request in a journey.
+   */
+  static class Step
+  {
+    final String                                    route;
+    final HttpMethod                                method;
+    final Function<LoadClient, String>              url;
+    final Function<LoadClient, Map<String, String>> parameters;
+    long                                            thinkMillis;
+    BiPredicate<LoadClient, SimRequest>             check;
+
+    Step(String route, HttpMethod method, Function<LoadClient, String> url,
+        Function<LoadClient, Map<String, String>> parameters)
+    {
+      this.route = route;
+      this.method = method;
+      this.url = url;
+      this.parameters = parameters;
+    }
+  }
+
+}   // End Journey.
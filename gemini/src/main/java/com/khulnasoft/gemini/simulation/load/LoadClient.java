@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.gemini.simulation.load;
+
+import java.util.*;
+
+import com.khulnasoft.gemini.simulation.*;
+
+/**
+ * A simulated user in a LoadTest.  In addition to the cookies and session 
+ * of a SimClient, a LoadClient carries variables that journey steps may 
+ * use to pass values (such as an id read from one response) to later 
+ * steps, and a random number source seeded from its id so that runs are
+ * repeatable.
+ */
+public class LoadClient
+     extends SimClient
+{
+
+  //
+  // Member variables.
+  //
+
+  private final Map<String, Object> variables = new HashMap<>();
+  private final SplittableRandom    random;
+  private long                      journeys;
+
+  //
+  // Member methods.
+  //
+
+  /**
+   * Constructor.
+   *
+   * @param id the id of the client.
+   * @param seed the seed of the test; combined with the id to seed this
+   *        client's random numbers.
+   */
+  public LoadClient(int id, long seed)
+  {
+    super(id);
+    this.random = new SplittableRandom(seed * 31L + id);
+  }
+
+  /**
+   * Gets a variable set by an earlier step.
+   */
+  @SuppressWarnings("unchecked")
+  public <V> V get(String name)
+  {
+    return (V)variables.get(name);
+  }
+
+  /**
+   * Sets a variable for later steps.
+   */
+  public void set(String name, Object value)
+  {
+    variables.put(name, value);
+  }
+
+  /**
+   * Gets this client's random number source.
+   */
+  public SplittableRandom random()
+  {
+    return random;
+  }
+
+  /**
+   * Gets the number of journeys this client has started.
+   */
+  public long getJourneyCount()
+  {
+    return journeys;
+  }
+
+  /**
+   * Called as a journey begins.
+   */
+  void startJourney(boolean fresh)
+  {
+    journeys++;
+    if (fresh)
+    {
+      variables.clear();
+      clearCookies();
+    }
+  }
+
+}   // End LoadClient.
@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.gemini.simulation.load;
+
+import java.util.*;
+
+/**
+ * The results of a LoadTest: statistics for each route, each journey, and
+ * all requests together, over the measurement window (after warm-up).
+ */
+public class LoadReport
+{
+
+  //
+  // Member variables.
+  //
+
+  private final List<RouteStatistics> routes;
+  private final List<RouteStatistics> journeys;
+  private final RouteStatistics       total;
+  private final long                  elapsedMillis;
+  private final int                   clients;
+  private final double                rate;
+
+  //
+  // Member methods.
+  //
+
+  /**
+   * Constructor.
+   */
+  LoadReport(Collection<RouteStatistics> routes, 
+      Collection<RouteStatistics> journeys, long elapsedMillis, int clients,
+      double rate)
+  {
+    this.elapsedMillis = elapsedMillis;
+    this.clients = clients;
+    this.rate = rate;
+    this.total = new RouteStatistics("all requests");
+    for (RouteStatistics route : routes)
+    {
+      route.setElapsedMillis(elapsedMillis);
+      total.add(route);
+    }
+    for (RouteStatistics journey : journeys)
+    {
+      journey.setElapsedMillis(elapsedMillis);
+    }
+    total.setElapsedMillis(elapsedMillis);
+
+    final Comparator<RouteStatistics> byName = 
+        Comparator.comparing(RouteStatistics::getRoute);
+    this.routes = new ArrayList<>(routes);
+    this.routes.sort(byName);
+    this.journeys = new ArrayList<>(journeys);
+    this.journeys.sort(byName);
+  }
+
+  /**
+   * Gets the statistics of each route, by route name.
+   */
+  public List<RouteStatistics> getRoutes()
+  {
+    return Collections.unmodifiableList(routes);
+  }
+
+  /**
+   * Gets the statistics of the route with the provided name, or null.
+   */
+  public RouteStatistics getRoute(String route)
+  {
+    for (RouteStatistics statistics : routes)
+    {
+      if (statistics.getRoute().equals(route))
+      {
+        return statistics;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Gets the statistics of each journey as a whole, from when the journey
+   * was due to start until its last response.
+   */
+  public List<RouteStatistics> getJourneys()
+  {
+    return Collections.unmodifiableList(journeys);
+  }
+
+  /**
+   * Gets the statistics of all requests together.
+   */
+  public RouteStatistics getTotal()
+  {
+    return total;
+  }
+
+  /**
+   * Gets the length of the measurement window.
+   */
+  public long getElapsedMillis()
+  {
+    return elapsedMillis;
+  }
+
+  /**
+   * Renders the report as a text table, with times in milliseconds.
+   */
+  @Override
+  public String toString()
+  {
+    final StringBuilder sb = new StringBuilder();
+    sb.append(String.format("%d clients, %s, %.1f s measured%n", clients,
+        rate > 0 ? String.format("%.1f journeys/s", rate) : "closed loop",
+        elapsedMillis / 1000d));
+    final String header = String.format("%-40s %9s %7s %9s %9s %9s %9s %9s %9s %9s%n",
+        "route", "count", "errors", "per sec", "p50", "p90", "p99", "p99.9", 
+        "max", "p99 svc");
+    sb.append(header);
+    for (RouteStatistics route : routes)
+    {
+      sb.append(route).append(System.lineSeparator());
+    }
+    sb.append(total).append(System.lineSeparator());
+    for (RouteStatistics journey : journeys)
+    {
+      sb.append(journey).append(System.lineSeparator());
+    }
+    return sb.toString();
+  }
+
+}   // End LoadReport.
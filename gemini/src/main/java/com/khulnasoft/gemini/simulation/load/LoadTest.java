@@ -0,0 +1,458 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.gemini.simulation.load;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.khulnasoft.gemini.*;
+import com.khulnasoft.gemini.Request.*;
+import com.khulnasoft.gemini.simulation.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drives a Simulation with many concurrent simulated users, each running
+ * Journeys, and reports per-route latency.  Everything runs in-process
+ * through the application's Dispatcher, so no servlet container is needed;
+ * an application configured with an embedded database (for example, an
+ * in-memory JDBC URL in a test configuration file) can be load tested from
+ * a unit test or a main method.
+ * <pre>
+ * LoadReport report = new LoadTest(simulation)
+ *     .journey(browse.weight(9))
+ *     .journey(purchase)
+ *     .clients(2000)
+ *     .rate(400)
+ *     .warmup(30, TimeUnit.SECONDS)
+ *     .duration(5, TimeUnit.MINUTES)
+ *     .run();
+ * </pre>
+ * <p>
+ * Clients are not threads.  A fixed pool of worker threads takes whichever
+ * client's next request is due soonest, sends it, and schedules that
+ * client's following request after its think time.  Each client keeps its
+ * cookies and session between requests, and between journeys unless
+ * {@link #freshSessions(boolean)} is set.
+ * <p>
+ * With a rate set, journeys are started on a fixed schedule (spread evenly 
+ * across clients) regardless of how quickly earlier ones finished, and each
+ * request's latency is measured from when it was due.  When the 
+ * application cannot keep up, the time requests spend waiting for their 
+ * turn is therefore reported rather than hidden (see RouteStatistics).
+ * Without a rate, each client starts its next journey as soon as the last
+ * one ends plus think time, which measures maximum throughput but not 
+ * latency under a given load.
+ */
+public class LoadTest
+{
+
+  //
+  // Member variables.
+  //
+
+  private final Logger        log       = LoggerFactory.getLogger(getClass());
+  private final Simulation    simulation;
+  private final List<Journey> journeys  = new ArrayList<>();
+  private int                 clients   = 100;
+  private int                 threads   = Runtime.getRuntime().availableProcessors() * 2;
+  private double              rate      = 0d;
+  private long                warmupMillis   = 10_000L;
+  private long                durationMillis = 60_000L;
+  private boolean             freshSessions  = false;
+  private long                seed      = 1L;
+  private volatile boolean    stopped;
+
+  //
+  // Member methods.
+  //
+
+  /**
+   * Constructor.
+   *
+   * @param simulation a Simulation whose application is running.
+   */
+  public LoadTest(Simulation simulation)
+  {
+    this.simulation = simulation;
+  }
+
+  /**
+   * Adds a journey.  Each time a client starts a journey, one is chosen at
+   * random in proportion to the journeys' weights.
+   */
+  public LoadTest journey(Journey journey)
+  {
+    if (journey.getSteps().isEmpty())
+    {
+      throw new IllegalArgumentException(journey + " has no steps.");
+    }
+    journeys.add(journey);
+    return this;
+  }
+
+  /**
+   * Sets the number of simulated clients.  The default is 100.
+   */
+  public LoadTest clients(int clients)
+  {
+    this.clients = Math.max(1, clients);
+    return this;
+  }
+
+  /**
+   * Sets the number of worker threads sending requests.  The default is
+   * twice the number of processors.
+   */
+  public LoadTest threads(int threads)
+  {
+    this.threads = Math.max(1, threads);
+    return this;
+  }
+
+  /**
+   * Sets the total rate at which journeys start, per second.  Zero, the
+   * default, runs a closed loop with no schedule.
+   */
+  public LoadTest rate(double journeysPerSecond)
+  {
+    this.rate = Math.max(0d, journeysPerSecond);
+    return this;
+  }
+
+  /**
+   * Sets how long to run before recording results.  The default is ten 
+   * seconds.
+   */
+  public LoadTest warmup(long time, TimeUnit unit)
+  {
+    this.warmupMillis = Math.max(0L, unit.toMillis(time));
+    return this;
+  }
+
+  /**
+   * Sets how long to record results for.  The default is one minute.
+   */
+  public LoadTest duration(long time, TimeUnit unit)
+  {
+    this.durationMillis = Math.max(1L, unit.toMillis(time));
+    return this;
+  }
+
+  /**
+   * Sets whether each journey starts with no cookies and a new session, as
+   * a new visitor would.  By default clients stay logged in, as returning
+   * visitors would.
+   */
+  public LoadTest freshSessions(boolean freshSessions)
+  {
+    this.freshSessions = freshSessions;
+    return this;
+  }
+
+  /**
+   * Sets the seed for journey choices and client random numbers.
+   */
+  public LoadTest seed(long seed)
+  {
+    this.seed = seed;
+    return this;
+  }
+
+  /**
+   * Ends a running test early.  The report covers the time run so far.
+   */
+  public void stop()
+  {
+    stopped = true;
+  }
+
+  /**
+   * Runs the test, blocking until it completes, and returns its report.
+   */
+  public LoadReport run() throws InterruptedException
+  {
+    if (journeys.isEmpty())
+    {
+      throw new IllegalStateException("No journeys to run.");
+    }
+    stopped = false;
+
+    final long start = System.nanoTime();
+    final long measureFrom = start + TimeUnit.MILLISECONDS.toNanos(warmupMillis);
+    final long end = measureFrom + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+    final long interval = rate > 0d 
+        ? (long)(clients * 1_000_000_000d / rate) 
+        : 0L;
+    final Run run = new Run(measureFrom, end, interval);
+
+    // Spread the clients' first journeys across one journey interval, or
+    // across the first second of a closed loop.
+    final long spread = rate > 0d ? interval : TimeUnit.SECONDS.toNanos(1);
+    for (int i = 0; i < clients; i++)
+    {
+      final Scheduled client = new Scheduled(new LoadClient(i, seed));
+      client.due = client.journeyDue = start + spread * i / clients;
+      run.queue.add(client);
+    }
+
+    log.info("Starting load test: {} clients, {} threads, {}, {} ms warm-up, {} ms measured.",
+        clients, threads, rate > 0d ? rate + " journeys/s" : "closed loop",
+        warmupMillis, durationMillis);
+
+    final Thread[] workers = new Thread[threads];
+    for (int i = 0; i < threads; i++)
+    {
+      workers[i] = new Thread(() -> work(run), "Load generator " + (i + 1));
+      workers[i].setDaemon(true);
+      workers[i].start();
+    }
+    try
+    {
+      for (Thread worker : workers)
+      {
+        worker.join();
+      }
+    }
+    catch (InterruptedException iexc)
+    {
+      stopped = true;
+      throw iexc;
+    }
+
+    final long measured = Math.max(0L, Math.min(System.nanoTime(), end) - measureFrom);
+    final LoadReport report = new LoadReport(run.routes.values(), 
+        run.journeyStatistics.values(), TimeUnit.NANOSECONDS.toMillis(measured), 
+        clients, rate);
+    log.info("Load test complete.{}{}", System.lineSeparator(), report);
+    return report;
+  }
+
+  /**
+   * A worker's loop: send whichever client's request is due next until the
+   * test ends.
+   */
+  private void work(Run run)
+  {
+    try
+    {
+      while (!stopped)
+      {
+        final long remaining = run.end - System.nanoTime();
+        if (remaining <= 0L)
+        {
+          return;
+        }
+        final Scheduled client = run.queue.poll(remaining, TimeUnit.NANOSECONDS);
+        if (client == null)
+        {
+          return;
+        }
+        step(run, client);
+        if (client.due < run.end)
+        {
+          run.queue.add(client);
+        }
+      }
+    }
+    catch (InterruptedException iexc)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Sends one client's next request and schedules the one after.
+   */
+  private void step(Run run, Scheduled scheduled)
+  {
+    final LoadClient client = scheduled.client;
+    if (scheduled.step == 0)
+    {
+      scheduled.journey = chooseJourney(client);
+      client.startJourney(freshSessions);
+      if (freshSessions)
+      {
+        simulation.getSimSessionManager().removeSession(client);
+      }
+    }
+    final Journey.Step step = scheduled.journey.getSteps().get(scheduled.step);
+
+    final long started = System.nanoTime();
+    if (scheduled.step == 0)
+    {
+      scheduled.journeyStarted = started;
+    }
+    SimRequest request = null;
+    boolean error;
+    try
+    {
+      final String url = step.url.apply(client);
+      final Map<String, String> parameters = step.parameters == null 
+          ? null 
+          : step.parameters.apply(client);
+      final Context context = step.method == HttpMethod.POST
+          ? simulation.postRequest(client, url, parameters)
+          : simulation.getRequest(client, url, parameters);
+      request = context == null ? null : (SimRequest)context.getRequest();
+      error = request == null 
+          || request.getStatus() >= 400
+          || (step.check != null && !step.check.test(client, request));
+    }
+    catch (RuntimeException exc)
+    {
+      log.debug("{} failed for client {}.", step.route, client.getId(), exc);
+      error = true;
+    }
+    final long finished = System.nanoTime();
+
+    if (scheduled.due >= run.measureFrom)
+    {
+      run.routes.computeIfAbsent(step.route, RouteStatistics::new).record(
+          micros(finished - scheduled.due), micros(finished - started),
+          request == null ? 0 : request.getStatus(),
+          request == null ? 0L : request.getResponseBytes(), error);
+    }
+    scheduled.failed |= error;
+
+    final long think = TimeUnit.MILLISECONDS.toNanos(step.thinkMillis);
+    if (scheduled.step + 1 < scheduled.journey.getSteps().size())
+    {
+      scheduled.step++;
+      scheduled.due = finished + think;
+      return;
+    }
+
+    // The journey is complete.
+    if (scheduled.journeyDue >= run.measureFrom)
+    {
+      run.journeyStatistics.computeIfAbsent("journey " + scheduled.journey.getName(), 
+          RouteStatistics::new).record(
+              micros(finished - scheduled.journeyDue), 
+              micros(finished - scheduled.journeyStarted),
+              0, 0L, scheduled.failed);
+    }
+    scheduled.step = 0;
+    scheduled.failed = false;
+    if (run.interval > 0L)
+    {
+      // Keep to the schedule even if this journey overran it.
+      scheduled.journeyDue += run.interval;
+      scheduled.due = scheduled.journeyDue;
+    }
+    else
+    {
+      scheduled.due = scheduled.journeyDue = finished + think;
+    }
+  }
+
+  /**
+   * Chooses a journey in proportion to the journeys' weights.
+   */
+  private Journey chooseJourney(LoadClient client)
+  {
+    if (journeys.size() == 1)
+    {
+      return journeys.get(0);
+    }
+    int total = 0;
+    for (Journey journey : journeys)
+    {
+      total += journey.getWeight();
+    }
+    int pick = client.random().nextInt(total);
+    for (Journey journey : journeys)
+    {
+      pick -= journey.getWeight();
+      if (pick < 0)
+      {
+        return journey;
+      }
+    }
+    return journeys.get(journeys.size() - 1);
+  }
+
+  private static long micros(long nanos)
+  {
+    return TimeUnit.NANOSECONDS.toMicros(nanos);
+  }
+
+  /**
+   * The shared state of one run.
+   */
+  private static final class Run
+  {
+    final long measureFrom;
+    final long end;
+    final long interval;
+    final DelayQueue<Scheduled> queue = new DelayQueue<>();
+    final ConcurrentMap<String, RouteStatistics> routes = new ConcurrentHashMap<>();
+    final ConcurrentMap<String, RouteStatistics> journeyStatistics = new ConcurrentHashMap<>();
+
+    Run(long measureFrom, long end, long interval)
+    {
+      this.measureFrom = measureFrom;
+      this.end = end;
+      this.interval = interval;
+    }
+  }
+
+  /**
+   * A client and its place in its current journey.  Only the worker that
+   * has taken it from the queue touches it.
+   */
+  private static final class Scheduled
+    implements Delayed
+  {
+    final LoadClient client;
+    Journey          journey;
+    int              step;
+    boolean          failed;
+    long             due;
+    long             journeyDue;
+    long             journeyStarted;
+
+    Scheduled(LoadClient client)
+    {
+      this.client = client;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit)
+    {
+      return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed other)
+    {
+      return Long.compare(due, ((Scheduled)other).due);
+    }
+  }
+
+}   // End LoadTest.
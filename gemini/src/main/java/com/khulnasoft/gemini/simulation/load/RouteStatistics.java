@@ -0,0 +1,212 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.gemini.simulation.load;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import com.khulnasoft.util.*;
+
+/**
+ * Results for one route, or one whole journey, of a LoadTest.
+ * <p>
+ * Two latencies are kept.  The <i>latency</i> runs from when the request 
+ * was due to be sent until its response; the <i>service time</i> runs from
+ * when it was actually sent.  They differ when the test falls behind its 
+ * schedule: requests that queue behind a slow one are then charged for the 
+ * wait, as real users would be, rather than silently sent late.  This is 
+ * the usual correction for coordinated omission, and latency is the figure
+ * to plan capacity with.
+ */
+public class RouteStatistics
+{
+
+  //
+  // Member variables.
+  //
+
+  private final String           route;
+  private final LatencyHistogram latency     = new LatencyHistogram();
+  private final LatencyHistogram serviceTime = new LatencyHistogram();
+  private final LongAdder        errors      = new LongAdder();
+  private final LongAdder        bytes       = new LongAdder();
+  private final ConcurrentMap<Integer, LongAdder> statuses 
+      = new ConcurrentHashMap<>();
+  private volatile long          elapsedMillis;
+
+  //
+  // Member methods.
+  //
+
+  /**
+   * Constructor.
+   */
+  public RouteStatistics(String route)
+  {
+    this.route = route;
+  }
+
+  /**
+   * Records one completed request or journey.
+   *
+   * @param latencyMicros time from when it was due until completion.
+   * @param serviceMicros time from when it started until completion.
+   * @param status the response status, or 0 if there was no response.
+   * @param responseBytes the size of the response body.
+   * @param error whether it failed.
+   */
+  void record(long latencyMicros, long serviceMicros, int status, 
+      long responseBytes, boolean error)
+  {
+    latency.record(latencyMicros);
+    serviceTime.record(serviceMicros);
+    bytes.add(responseBytes);
+    if (error)
+    {
+      errors.increment();
+    }
+    if (status > 0)
+    {
+      statuses.computeIfAbsent(status, key -> new LongAdder()).increment();
+    }
+  }
+
+  /**
+   * Adds another route's results to this one.
+   */
+  void add(RouteStatistics other)
+  {
+    latency.add(other.latency);
+    serviceTime.add(other.serviceTime);
+    errors.add(other.errors.sum());
+    bytes.add(other.bytes.sum());
+    for (Map.Entry<Integer, LongAdder> entry : other.statuses.entrySet())
+    {
+      statuses.computeIfAbsent(entry.getKey(), key -> new LongAdder())
+          .add(entry.getValue().sum());
+    }
+  }
+
+  /**
+   * Sets the length of the measurement window, for rates.
+   */
+  void setElapsedMillis(long elapsedMillis)
+  {
+    this.elapsedMillis = elapsedMillis;
+  }
+
+  /**
+   * Gets the route: a method and URL or label, or "journey" and a journey
+   * name.
+   */
+  public String getRoute()
+  {
+    return route;
+  }
+
+  /**
+   * Gets the number of requests (or journeys) completed.
+   */
+  public long getCount()
+  {
+    return latency.getCount();
+  }
+
+  /**
+   * Gets the number that failed: an exception, no response, a status of
+   * 400 or more, or a failed check.
+   */
+  public long getErrorCount()
+  {
+    return errors.sum();
+  }
+
+  /**
+   * Gets the total size of the response bodies.
+   */
+  public long getBytes()
+  {
+    return bytes.sum();
+  }
+
+  /**
+   * Gets the completion rate per second over the measurement window.
+   */
+  public double getThroughput()
+  {
+    return elapsedMillis == 0 ? 0d : getCount() * 1000d / elapsedMillis;
+  }
+
+  /**
+   * Gets the counts of each response status.
+   */
+  public Map<Integer, Long> getStatusCounts()
+  {
+    final Map<Integer, Long> result = new TreeMap<>();
+    statuses.forEach((status, count) -> result.put(status, count.sum()));
+    return result;
+  }
+
+  /**
+   * Gets latencies measured from when each request was due, in 
+   * microseconds.
+   */
+  public LatencyHistogram getLatency()
+  {
+    return latency;
+  }
+
+  /**
+   * Gets latencies measured from when each request was sent, in 
+   * microseconds.
+   */
+  public LatencyHistogram getServiceTime()
+  {
+    return serviceTime;
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.format("%-40s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f %9.2f",
+        route, getCount(), getErrorCount(), getThroughput(),
+        millis(latency.getValueAtPercentile(50)),
+        millis(latency.getValueAtPercentile(90)),
+        millis(latency.getValueAtPercentile(99)),
+        millis(latency.getValueAtPercentile(99.9)),
+        millis(latency.getMax()),
+        millis(serviceTime.getValueAtPercentile(99)));
+  }
+
+  private static double millis(long micros)
+  {
+    return micros / 1000d;
+  }
+
+}   // End RouteStatistics.
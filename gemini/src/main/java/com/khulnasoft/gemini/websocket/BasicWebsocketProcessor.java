@@ -178,17 +178,22 @@ public abstract class BasicWebsocketProcessor
   }
   
   /**
-   * Sends text to the client.
+   * Sends text to the client.  Sends are serialized with any made by a
+   * WebsocketHub by synchronizing on the context.
    */
   @Override
   public void sendText(String text)
   {
     // We can't send anything unless there's a Context.
-    if (getContext() != null)
+    final WebsocketContext current = getContext();
+    if (current != null)
     {
       try
       {
-        getContext().sendText(text);
+        synchronized (current)
+        {
+          current.sendText(text);
+        }
       }
       catch (IOException ioexc)
       {
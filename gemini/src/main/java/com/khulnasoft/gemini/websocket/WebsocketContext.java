@@ -31,6 +31,11 @@ import java.io.*;
 /**
  * Once a Websocket is established, the WebsocketContext allows messages to
  * be sent to the client.
+ *   <p>
+ * A connection may be written by application threads and by WebsocketHub
+ * threads at the same time.  Callers of sendText and sendFrame therefore
+ * synchronize on the context, so that one message is written at a time;
+ * implementations whose sends are synchronized methods get this for free.
  */
 public interface WebsocketContext
 {
@@ -46,6 +51,17 @@ public interface WebsocketContext
   void sendText(String toSend)
       throws IOException;
   
+  /**
+   * Send a pre-encoded frame, which may be shared with other connections.
+   * The default sends the frame's text; containers that can write encoded
+   * bytes directly should override this to use {@link WebsocketFrame#getBytes()}.
+   */
+  default void sendFrame(WebsocketFrame frame)
+      throws IOException
+  {
+    sendText(frame.getText());
+  }
+  
   /**
    * Sets the timeout duration in milliseconds.
    */
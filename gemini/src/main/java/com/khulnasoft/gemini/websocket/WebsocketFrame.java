@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.gemini.websocket;
+
+import java.nio.charset.*;
+
+/**
+ * An outbound message that has already been encoded, so that the same
+ * instance can be sent to any number of connections without serializing it
+ * again.  The UTF-8 bytes are computed on first request and then shared;
+ * the text is always available for containers that only accept Strings.
+ *   <p>
+ * Frames are created by a {@link WebsocketHub} when a message is published.
+ */
+public final class WebsocketFrame
+{
+
+  //
+  // Member variables.
+  //
+
+  private final String topic;
+  private final String text;
+  private final String coalesceKey;
+  private final long   publishedNanos;
+  private volatile byte[] bytes;
+
+  //
+  // Member methods.
+  //
+
+  /**
+   * Constructor.
+   *
+   * @param topic the topic the frame was published to.
+   * @param text the encoded message.
+   * @param coalesceKey if not null, a frame still waiting to be sent to a
+   *        connection is replaced by a later frame on the same topic with
+   *        the same key.
+   */
+  public WebsocketFrame(String topic, String text, String coalesceKey)
+  {
+    this.topic = topic;
+    this.text = text;
+    this.coalesceKey = coalesceKey;
+    this.publishedNanos = System.nanoTime();
+  }
+
+  /**
+   * Gets the topic the frame was published to.
+   */
+  public String getTopic()
+  {
+    return topic;
+  }
+
+  /**
+   * Gets the encoded message as text.
+   */
+  public String getText()
+  {
+    return text;
+  }
+
+  /**
+   * Gets the encoded message as UTF-8 bytes.  The array is shared by every
+   * connection and must not be modified.
+   */
+  public byte[] getBytes()
+  {
+    byte[] result = bytes;
+    if (result == null)
+    {
+      // A race here only encodes the same text twice.
+      result = text.getBytes(StandardCharsets.UTF_8);
+      bytes = result;
+    }
+    return result;
+  }
+
+  /**
+   * Gets the coalescing key, which may be null.
+   */
+  public String getCoalesceKey()
+  {
+    return coalesceKey;
+  }
+
+  /**
+   * Gets the System.nanoTime at which the frame was published.
+   */
+  public long getPublishedNanos()
+  {
+    return publishedNanos;
+  }
+
+  /**
+   * Returns true if this frame supersedes the other: both have the same
+   * topic and the same non-null coalescing key.
+   */
+  boolean supersedes(WebsocketFrame other)
+  {
+    return coalesceKey != null
+        && coalesceKey.equals(other.coalesceKey)
+        && topic.equals(other.topic);
+  }
+
+  /**
+   * toString.
+   */
+  @Override
+  public String toString()
+  {
+    return "WebsocketFrame [" + topic
+        + (coalesceKey != null ? "; " + coalesceKey : "")
+        + "; " + text.length() + " chars]";
+  }
+
+}   // End WebsocketFrame.
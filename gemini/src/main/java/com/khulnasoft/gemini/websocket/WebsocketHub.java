@@ -0,0 +1,706 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.gemini.websocket;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.slf4j.*;
+
+import com.khulnasoft.gemini.*;
+import com.khulnasoft.js.*;
+import com.khulnasoft.util.*;
+
+/**
+ * A topic-based broadcast hub for WebsocketProcessors.  A published message
+ * is serialized once into a {@link WebsocketFrame} that is shared by every
+ * subscriber, and the writes are made asynchronously by a small pool of
+ * threads rather than by the publishing thread.
+ *   <p>
+ * Each connection has a bounded queue of frames waiting to be written, and
+ * a connection is written by at most one hub thread at a time, so frames 
+ * arrive in the order published.  Each write synchronizes on the 
+ * connection's WebsocketContext, as BasicWebsocketProcessor.sendText does,
+ * so frames are never interleaved with messages the application sends 
+ * directly.  When a frame is published with a coalescing key,
+ * a frame still waiting in a connection's queue with the same topic and key
+ * is replaced by the new one rather than sending both, which suits state
+ * updates where only the latest value matters.  When a connection's queue
+ * is full, new frames for it are dropped; if its oldest waiting frame has
+ * also been waiting longer than the slow consumer threshold, the connection
+ * is closed and unsubscribed from everything.
+ *   <p>
+ * An optional Relay may be set to deliver published frames to the same-named
+ * hub on other instances in a cluster; frames received from other instances
+ * are delivered locally with {@link #deliverRemote(String, String, String)}.
+ *   <p>
+ * Processors should call {@link #unsubscribeAll(WebsocketProcessor)} from
+ * their teardown method.
+ *
+ * <pre>
+ * hub.subscribe("scores", processor);
+ * hub.publish("scores", "score", score, "game:" + game.getId());
+ * </pre>
+ */
+public class WebsocketHub
+{
+
+  //
+  // Constants.
+  //
+
+  public static final int  DEFAULT_QUEUE_LIMIT          = 256;
+  public static final long DEFAULT_SLOW_CONSUMER_MILLIS = 10 * UtilityConstants.SECOND;
+  
+  /**
+   * The most frames written to one connection before its thread moves on to
+   * other connections.
+   */
+  private static final int BATCH_SIZE = 64;
+
+  //
+  // Member variables.
+  //
+
+  private final Logger             log = LoggerFactory.getLogger(getClass());
+  private final String             name;
+  private final JavaScriptWriter   jsw;
+  private final ThreadPoolExecutor executor;
+  private final int                queueLimit;
+  private final long               slowConsumerNanos;
+  private final ConcurrentMap<String, Set<Connection>> topics = new ConcurrentHashMap<>();
+  private final ConcurrentMap<WebsocketProcessor, Connection> connections = new ConcurrentHashMap<>();
+  private final LatencyHistogram   fanOutLatency = new LatencyHistogram();
+
+  private final AtomicLong published     = new AtomicLong();
+  private final AtomicLong delivered     = new AtomicLong();
+  private final AtomicLong coalesced     = new AtomicLong();
+  private final AtomicLong dropped       = new AtomicLong();
+  private final AtomicLong failed        = new AtomicLong();
+  private final AtomicLong slowConsumers = new AtomicLong();
+
+  private volatile Relay relay;
+
+  //
+  // Member methods.
+  //
+
+  /**
+   * Constructor.
+   *
+   * @param name a name that identifies this hub, used to route frames
+   *        between instances.
+   * @param jsw A JavaScript writer for serializing published messages.
+   * @param threads the number of threads writing to connections.
+   * @param queueLimit the maximum number of frames waiting to be written to
+   *        any one connection.
+   * @param slowConsumerMillis how long a full connection's oldest frame may
+   *        wait before the connection is closed.
+   */
+  public WebsocketHub(String name, JavaScriptWriter jsw, int threads,
+    int queueLimit, long slowConsumerMillis)
+  {
+    if (threads < 1 || queueLimit < 1)
+    {
+      throw new IllegalArgumentException(
+          "Threads and queue limit must be at least 1.");
+    }
+
+    this.name = name;
+    this.jsw = jsw;
+    this.queueLimit = queueLimit;
+    this.slowConsumerNanos = TimeUnit.MILLISECONDS.toNanos(slowConsumerMillis);
+    this.executor = new ThreadPoolExecutor(threads, threads,
+        0L, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<>(),
+        new HubThreadFactory());
+  }
+
+  /**
+   * Constructor.  Uses the application's JavaScriptWriter, one thread per
+   * processor, and the default queue limit and slow consumer threshold.
+   */
+  public WebsocketHub(String name, GeminiApplication application)
+  {
+    this(name, application.getJavaScriptWriter(),
+        Runtime.getRuntime().availableProcessors(),
+        DEFAULT_QUEUE_LIMIT, DEFAULT_SLOW_CONSUMER_MILLIS);
+  }
+
+  /**
+   * Gets the hub's name.
+   */
+  public String getName()
+  {
+    return name;
+  }
+
+  /**
+   * Sets the Relay used to deliver published frames to other instances.
+   * Set to null to operate in local-only mode.
+   */
+  public void setRelay(Relay relay)
+  {
+    this.relay = relay;
+  }
+
+  /**
+   * Subscribes a processor to a topic.
+   */
+  public void subscribe(String topic, WebsocketProcessor processor)
+  {
+    final Connection connection = connections.computeIfAbsent(processor,
+        Connection::new);
+    connection.topics.add(topic);
+    topics.compute(topic, (key, subscribers) -> {
+      final Set<Connection> result = (subscribers != null
+          ? subscribers
+          : ConcurrentHashMap.newKeySet());
+      result.add(connection);
+      return result;
+    });
+  }
+
+  /**
+   * Unsubscribes a processor from a topic.  A processor that is no longer
+   * subscribed to any topic is forgotten, though frames already waiting
+   * for it are still written.
+   */
+  public void unsubscribe(String topic, WebsocketProcessor processor)
+  {
+    final Connection connection = connections.get(processor);
+    if (connection != null)
+    {
+      connection.topics.remove(topic);
+      leave(topic, connection);
+      if (connection.topics.isEmpty())
+      {
+        connections.remove(processor, connection);
+      }
+    }
+  }
+
+  /**
+   * Unsubscribes a processor from all topics and discards any frames
+   * waiting to be written to it.
+   */
+  public void unsubscribeAll(WebsocketProcessor processor)
+  {
+    final Connection connection = connections.remove(processor);
+    if (connection != null)
+    {
+      remove(connection);
+    }
+  }
+
+  /**
+   * Publishes a named message (as JSON) to a topic.  Creates a one-entry
+   * map with the message type name as the key, matching
+   * BasicWebsocketProcessor.sendJson.
+   *
+   * @return the number of connections the frame was queued for.
+   */
+  public int publish(String topic, String messageType, Object messageData)
+  {
+    return publish(topic, messageType, messageData, null);
+  }
+
+  /**
+   * Publishes a named message (as JSON) to a topic, replacing any frame with
+   * the same coalescing key that has not yet been written to a subscriber.
+   *
+   * @return the number of connections the frame was queued for.
+   */
+  public int publish(String topic, String messageType, Object messageData,
+    String coalesceKey)
+  {
+    final Map<String, Object> toSend = new HashMap<>(1);
+    toSend.put(messageType, messageData);
+    return publishText(topic, jsw.write(toSend), coalesceKey);
+  }
+
+  /**
+   * Publishes already-encoded text to a topic.
+   *
+   * @param coalesceKey may be null.
+   * @return the number of connections the frame was queued for.
+   */
+  public int publishText(String topic, String text, String coalesceKey)
+  {
+    final WebsocketFrame frame = new WebsocketFrame(topic, text, coalesceKey);
+    published.incrementAndGet();
+
+    final Relay current = relay;
+    if (current != null)
+    {
+      try
+      {
+        current.published(this, frame);
+      }
+      catch (RuntimeException exc)
+      {
+        log.info("Could not relay {}.", frame, exc);
+      }
+    }
+
+    return fanOut(frame);
+  }
+
+  /**
+   * Delivers a frame published by the same-named hub on another instance to
+   * this instance's subscribers.  The frame is not relayed again.
+   *
+   * @return the number of connections the frame was queued for.
+   */
+  public int deliverRemote(String topic, String text, String coalesceKey)
+  {
+    return fanOut(new WebsocketFrame(topic, text, coalesceKey));
+  }
+
+  /**
+   * Stops the hub's threads.  Frames that have not been written are
+   * discarded.
+   */
+  public void shutdown()
+  {
+    executor.shutdownNow();
+    log.info("{} shut down; {}.", this, getStatistics());
+  }
+
+  /**
+   * Gets the number of processors currently subscribed to a topic.
+   */
+  public int getSubscriberCount(String topic)
+  {
+    final Set<Connection> subscribers = topics.get(topic);
+    return (subscribers != null ? subscribers.size() : 0);
+  }
+
+  /**
+   * Gets the number of processors subscribed to at least one topic.
+   */
+  public int getConnectionCount()
+  {
+    return connections.size();
+  }
+
+  /**
+   * Gets the maximum number of frames waiting for any one connection.
+   */
+  public int getQueueLimit()
+  {
+    return queueLimit;
+  }
+
+  /**
+   * Gets the number of messages published on this instance.
+   */
+  public long getPublishedCount()
+  {
+    return published.get();
+  }
+
+  /**
+   * Gets the number of frames written to connections.
+   */
+  public long getDeliveredCount()
+  {
+    return delivered.get();
+  }
+
+  /**
+   * Gets the number of waiting frames that were replaced by a later frame
+   * with the same coalescing key.
+   */
+  public long getCoalescedCount()
+  {
+    return coalesced.get();
+  }
+
+  /**
+   * Gets the number of frames dropped because a connection's queue was
+   * full or the connection was closed.
+   */
+  public long getDroppedCount()
+  {
+    return dropped.get();
+  }
+
+  /**
+   * Gets the number of writes that failed, each of which closes its
+   * connection.
+   */
+  public long getFailedCount()
+  {
+    return failed.get();
+  }
+
+  /**
+   * Gets the number of connections closed for being slow consumers.
+   */
+  public long getSlowConsumerCount()
+  {
+    return slowConsumers.get();
+  }
+
+  /**
+   * Gets the fan-out latency histogram: for each frame written, the
+   * microseconds from the frame's publication to the completion of the
+   * write.  The histogram is live and should not be modified.
+   */
+  public LatencyHistogram getFanOutLatency()
+  {
+    return fanOutLatency;
+  }
+
+  /**
+   * Gets a one-line summary of the hub's counters and fan-out latency.
+   */
+  public String getStatistics()
+  {
+    return "published: " + getPublishedCount()
+        + "; delivered: " + getDeliveredCount()
+        + "; coalesced: " + getCoalescedCount()
+        + "; dropped: " + getDroppedCount()
+        + "; failed: " + getFailedCount()
+        + "; slow consumers: " + getSlowConsumerCount()
+        + "; fan-out p50/p99/max: "
+        + fanOutLatency.getValueAtPercentile(50) + "/"
+        + fanOutLatency.getValueAtPercentile(99) + "/"
+        + fanOutLatency.getMax() + "us";
+  }
+
+  /**
+   * toString.
+   */
+  @Override
+  public String toString()
+  {
+    return "WebsocketHub [" + name + "; " + getConnectionCount()
+        + " connections; " + topics.size() + " topics]";
+  }
+
+  /**
+   * Queues a frame for every subscriber to its topic.
+   */
+  private int fanOut(WebsocketFrame frame)
+  {
+    final Set<Connection> subscribers = topics.get(frame.getTopic());
+    if (subscribers == null)
+    {
+      return 0;
+    }
+
+    int queued = 0;
+    for (Connection connection : subscribers)
+    {
+      if (connection.offer(frame))
+      {
+        queued++;
+      }
+    }
+    return queued;
+  }
+
+  /**
+   * Removes a connection from a topic's subscribers, forgetting the topic
+   * once it has none.
+   */
+  private void leave(String topic, Connection connection)
+  {
+    topics.computeIfPresent(topic, (key, subscribers) -> {
+      subscribers.remove(connection);
+      return (subscribers.isEmpty() ? null : subscribers);
+    });
+  }
+
+  /**
+   * Removes a connection that has already been removed from the connections
+   * map from all of its topics and discards its waiting frames.
+   */
+  private void remove(Connection connection)
+  {
+    for (String topic : connection.topics)
+    {
+      leave(topic, connection);
+    }
+    connection.discard();
+  }
+
+  /**
+   * Unsubscribes a connection from everything and closes its socket.
+   */
+  private void disconnect(Connection connection)
+  {
+    if (connections.remove(connection.processor, connection))
+    {
+      remove(connection);
+    }
+    else
+    {
+      connection.discard();
+    }
+
+    final WebsocketContext context = connection.processor.getContext();
+    if (context != null)
+    {
+      try
+      {
+        context.close();
+      }
+      catch (RuntimeException exc)
+      {
+        log.debug("Exception while closing {}.", connection.processor, exc);
+      }
+    }
+  }
+
+  //
+  // Inner classes.
+  //
+
+  /**
+   * Delivers published frames to other instances.
+   */
+  @FunctionalInterface
+  public interface Relay
+  {
+    /**
+     * Called after a message has been published locally.  Implementations
+     * should deliver the frame to the same-named hub on other instances via
+     * {@link WebsocketHub#deliverRemote(String, String, String)}, and should
+     * not block.
+     */
+    void published(WebsocketHub hub, WebsocketFrame frame);
+  }
+
+  /**
+   * A frame waiting to be written, and when it started waiting.  The frame
+   * is replaced in place when coalesced, keeping its position in the queue.
+   */
+  private static final class Pending
+  {
+    private       WebsocketFrame frame;
+    private final long           queuedNanos;
+
+    private Pending(WebsocketFrame frame, long queuedNanos)
+    {
+      this.frame = frame;
+      this.queuedNanos = queuedNanos;
+    }
+  }
+
+  /**
+   * One subscribed processor and its queue of frames waiting to be written.
+   * The queue is guarded by the connection's monitor; writes are made
+   * outside of it by whichever hub thread the connection is scheduled on.
+   */
+  private final class Connection
+    implements Runnable
+  {
+    private final WebsocketProcessor     processor;
+    private final Set<String>            topics = ConcurrentHashMap.newKeySet();
+    private final ArrayDeque<Pending>    queue = new ArrayDeque<>();
+    private boolean                      scheduled;
+    private boolean                      closed;
+
+    private Connection(WebsocketProcessor processor)
+    {
+      this.processor = processor;
+    }
+
+    /**
+     * Queues a frame, scheduling the connection to be written if it is not
+     * already.  Returns false if the frame was dropped.
+     */
+    private boolean offer(WebsocketFrame frame)
+    {
+      final long now = System.nanoTime();
+      boolean slow = false;
+      synchronized (this)
+      {
+        if (closed)
+        {
+          dropped.incrementAndGet();
+          return false;
+        }
+
+        if (frame.getCoalesceKey() != null)
+        {
+          for (Pending pending : queue)
+          {
+            if (frame.supersedes(pending.frame))
+            {
+              pending.frame = frame;
+              coalesced.incrementAndGet();
+              return true;
+            }
+          }
+        }
+
+        if (queue.size() >= queueLimit)
+        {
+          dropped.incrementAndGet();
+          if (now - queue.peekFirst().queuedNanos <= slowConsumerNanos)
+          {
+            return false;
+          }
+          slow = true;
+        }
+        else
+        {
+          queue.addLast(new Pending(frame, now));
+          if (scheduled)
+          {
+            return true;
+          }
+          scheduled = true;
+        }
+      }
+
+      if (slow)
+      {
+        slowConsumers.incrementAndGet();
+        log.info("Closing slow consumer {}.", processor);
+        disconnect(this);
+        return false;
+      }
+
+      schedule();
+      return true;
+    }
+
+    /**
+     * Hands the connection to a hub thread.
+     */
+    private void schedule()
+    {
+      try
+      {
+        executor.execute(this);
+      }
+      catch (RejectedExecutionException reexc)
+      {
+        // The hub has been shut down.
+        discard();
+      }
+    }
+
+    /**
+     * Discards waiting frames and refuses any more.
+     */
+    private synchronized void discard()
+    {
+      closed = true;
+      dropped.addAndGet(queue.size());
+      queue.clear();
+    }
+
+    /**
+     * Writes up to a batch of waiting frames, then reschedules itself if
+     * more are waiting so that a busy connection does not starve others.
+     */
+    @Override
+    public void run()
+    {
+      for (int written = 0; written < BATCH_SIZE; written++)
+      {
+        final WebsocketFrame frame;
+        synchronized (this)
+        {
+          final Pending pending = queue.pollFirst();
+          if (pending == null)
+          {
+            scheduled = false;
+            return;
+          }
+          frame = pending.frame;
+        }
+
+        if (!write(frame))
+        {
+          return;
+        }
+      }
+      schedule();
+    }
+
+    /**
+     * Writes a frame, closing the connection if the write fails.
+     */
+    private boolean write(WebsocketFrame frame)
+    {
+      final WebsocketContext context = processor.getContext();
+      if (context == null)
+      {
+        dropped.incrementAndGet();
+        return true;
+      }
+
+      try
+      {
+        synchronized (context)
+        {
+          context.sendFrame(frame);
+        }
+        delivered.incrementAndGet();
+        fanOutLatency.record(TimeUnit.NANOSECONDS.toMicros(
+            System.nanoTime() - frame.getPublishedNanos()));
+        return true;
+      }
+      catch (IOException | RuntimeException exc)
+      {
+        failed.incrementAndGet();
+        log.debug("Write to {} failed; closing.", processor, exc);
+        disconnect(this);
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Creates named daemon threads for writing to connections.
+   */
+  private final class HubThreadFactory
+    implements ThreadFactory
+  {
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable)
+    {
+      final Thread thread = new Thread(runnable,
+          "Websocket hub " + name + " " + sequence.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+
+}   // End WebsocketHub.
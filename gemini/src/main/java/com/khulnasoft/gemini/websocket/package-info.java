@@ -31,5 +31,9 @@
  * dealing with websockets.  Applications will likely have to provide their own
  * implementation of {@link com.khulnasoft.gemini.websocket.WebsocketProcessor} that works with whatever servlet
  * container it uses.
+ *   <p>
+ * {@link com.khulnasoft.gemini.websocket.WebsocketHub} broadcasts messages
+ * to processors subscribed to a topic, serializing each message once and
+ * writing to subscribers asynchronously.
  */
 package com.khulnasoft.gemini.websocket;
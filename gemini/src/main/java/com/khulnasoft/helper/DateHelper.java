@@ -38,6 +38,12 @@ import com.khulnasoft.util.*;
  * DateHelper provides utility functionality for working with dates in
  * the general sense and the Java Date and Calendar classes specifically.  It
  * consists of code that was originally in the BasicHelper class.
+ *   <p>
+ * Formatting and parsing do not lock: the shared formats are
+ * SynchronizedSimpleDateFormats, which format through java.time where
+ * possible, and parsing with the default formats uses a 
+ * MultiPatternDateParser.  Lists of formatters provided by callers are
+ * still used under their own monitors.
  */
 public final class DateHelper
 {
@@ -270,6 +276,13 @@ public final class DateHelper
                               "yyyy-MM-dd'T'HH:mm:ss.SSSSSS'Z'"
   };
 
+  /**
+   * Parses the permitted date formats without locking; used in place of
+   * DEFAULT_DATE_FORMATTERS.
+   */
+  private static final MultiPatternDateParser DEFAULT_DATE_PARSER = 
+      new MultiPatternDateParser(false, PERMITTED_DATE_FORMATS);
+
   //
   // Static initialization.
   //
@@ -1089,6 +1102,11 @@ public final class DateHelper
     final List<SimpleDateFormat> formatters = CollectionHelper.isEmpty(dateFormatters)
         ? DEFAULT_DATE_FORMATTERS
         : dateFormatters;
+    
+    if (formatters == DEFAULT_DATE_FORMATTERS)
+    {
+      return DEFAULT_DATE_PARSER.parse(date, null, indexOfValidFormatter) != null;
+    }
 
     // Attempt to parse the submitted string using the different
     // parsing patterns we're supporting.
@@ -1334,6 +1352,26 @@ public final class DateHelper
 
     Calendar dateToReturn = null;
     AtomicInteger parseIndex = new AtomicInteger(-1);
+    
+    if (formatters == DEFAULT_DATE_FORMATTERS)
+    {
+      final Date parsed = DEFAULT_DATE_PARSER.parse(date, timeZone, parseIndex);
+      if (parsed != null)
+      {
+        dateToReturn = DateHelper.getCalendarInstance();
+        dateToReturn.clear();
+        if (timeZone != null)
+        {
+          dateToReturn.setTimeZone(timeZone);
+        }
+        dateToReturn.setTime(parsed);
+      }
+      if (indexOfValidFormatter != null)
+      {
+        indexOfValidFormatter.set(parseIndex.get());
+      }
+      return dateToReturn;
+    }
 
     // If the date is valid, then return a Calendar object initialized with the
     // date represented by the String parameter named "date"
@@ -31,6 +31,9 @@ import gnu.trove.set.*;
 import gnu.trove.set.hash.*;
 
 import java.io.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
 
 import com.khulnasoft.util.*;
 
@@ -199,6 +202,7 @@ public final class FileHelper
   }
 
   private static final int BYTE_BUFFER_SIZE = 0x1000; // 4K
+  private static final long TRANSFER_CHUNK_SIZE = 8L * 1024 * 1024; // 8M
 
   /**
    * Copies the contents of an input stream to an output stream up to a
@@ -265,6 +269,125 @@ public final class FileHelper
     outputStream.flush();
   }
 
+  /**
+   * Streams the contents of an InputStream into a file through a 
+   * FileChannel, returning the number of bytes written.  The contents are
+   * first written to a temporary file in the same directory, which is then
+   * moved into place, so a failed or partial copy never replaces the 
+   * destination.  The file keeps the destination's permissions if it 
+   * exists, and otherwise gets those of any newly created file.  A 
+   * FileInputStream is copied channel-to-channel, which the
+   * operating system may perform without copying through the heap.
+   */
+  public static long copyToFile(InputStream inputStream, Path destination)
+    throws IOException
+  {
+    final Path directory = destination.toAbsolutePath().getParent();
+    final Path temporary = createTemporaryFile(directory, destination);
+    try
+    {
+      long total = 0L;
+      try (
+          FileChannel out = FileChannel.open(temporary, 
+              StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+          )
+      {
+        final ReadableByteChannel in = (inputStream instanceof FileInputStream)
+            ? ((FileInputStream)inputStream).getChannel()
+            : Channels.newChannel(inputStream);
+        long transferred;
+        while ((transferred = out.transferFrom(in, total, TRANSFER_CHUNK_SIZE)) > 0L)
+        {
+          total += transferred;
+        }
+      }
+      Files.move(temporary, destination, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      return total;
+    }
+    finally
+    {
+      Files.deleteIfExists(temporary);
+    }
+  }
+  
+  /**
+   * Creates an empty, uniquely named temporary file in a directory, to be
+   * moved into place once written.  Unlike Files.createTempFile, which
+   * makes the file readable by its owner only, the file gets the 
+   * permissions of the file it will replace, if any exists, or else those 
+   * the process gives any newly created file.
+   *
+   * @param directory the directory in which to create the file.
+   * @param replacing the file the temporary file will replace, or null.
+   */
+  public static Path createTemporaryFile(Path directory, Path replacing)
+    throws IOException
+  {
+    Path temporary;
+    while (true)
+    {
+      temporary = directory.resolve(".upload-" 
+          + Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36)
+          + ".tmp");
+      try
+      {
+        Files.createFile(temporary);
+        break;
+      }
+      catch (FileAlreadyExistsException faeexc)
+      {
+        // Try another name.
+      }
+    }
+    
+    if (replacing != null && Files.exists(replacing))
+    {
+      try
+      {
+        Files.setPosixFilePermissions(temporary, 
+            Files.getPosixFilePermissions(replacing));
+      }
+      catch (UnsupportedOperationException uoexc)
+      {
+        // Not a POSIX file system; the defaults will do.
+      }
+    }
+    return temporary;
+  }
+  
+  /**
+   * Writes a range of a file to an OutputStream using FileChannel.transferTo,
+   * which uses the operating system's zero-copy transfer (e.g., sendfile)
+   * when the target is a socket or file, and otherwise copies through a 
+   * direct buffer.  Returns the number of bytes written.
+   */
+  public static long transferFile(File file, long offset, long length, 
+    OutputStream outputStream)
+    throws IOException
+  {
+    try (
+        FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        )
+    {
+      final WritableByteChannel out = Channels.newChannel(outputStream);
+      long position = offset;
+      final long end = Math.min(offset + length, in.size());
+      while (position < end)
+      {
+        final long transferred = in.transferTo(position, 
+            Math.min(end - position, TRANSFER_CHUNK_SIZE), out);
+        if (transferred <= 0L)
+        {
+          break;
+        }
+        position += transferred;
+      }
+      outputStream.flush();
+      return position - offset;
+    }
+  }
+
   /**
    * You may not instantiate this class.
    */
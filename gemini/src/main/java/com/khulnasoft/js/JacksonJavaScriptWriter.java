@@ -71,7 +71,7 @@ public class   JacksonJavaScriptWriter
         mapper.writeValue((Writer)out, object);
       }
       else {
-        out.append(mapper.writeValueAsString(out));
+        out.append(mapper.writeValueAsString(object));
       }
     }
     catch (JsonProcessingException jpexc) {
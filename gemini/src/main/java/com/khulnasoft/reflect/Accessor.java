@@ -0,0 +1,756 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.reflect;
+
+import java.lang.invoke.*;
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * A compiled getter for a single no-argument method or field of a class.
+ * Accessors replace per-element calls to Method.invoke and Field.get in the
+ * reflective utilities (ReflectiveComparator, ReflectiveFilter,
+ * MethodValueCache, EntityStore and friends).
+ *    <p>
+ * An Accessor is created once per (class, member) and cached for the life
+ * of the class.  Methods are bound through LambdaMetafactory to a
+ * Function, or to a ToIntFunction, ToLongFunction or ToDoubleFunction when
+ * the method returns a primitive, so that reading a value costs about as
+ * much as a direct call and primitives are not boxed.  Fields, and methods
+ * that cannot be bound that way, are read through a MethodHandle.
+ *    <p>
+ * By default only public members, including inherited ones, are resolved,
+ * as by Class.getMethod and Class.getField; a public member of a class that
+ * is not itself public can be read.  Non-public members are resolved only
+ * when asked for explicitly, through {@link #declaredMethod} and
+ * {@link #declaredField}.
+ *    <p>
+ * Exceptions thrown by an underlying method propagate to the caller
+ * unwrapped; checked exceptions are wrapped in an
+ * UndeclaredThrowableException.
+ */
+public final class Accessor
+{
+
+  //
+  // Constants.
+  //
+
+  /**
+   * Accessors by class, then by "m:" or "f:" plus member name, with a "d"
+   * prefix when non-public members are included.  Members that do not exist
+   * are cached as empty.
+   */
+  private static final ClassValue<ConcurrentMap<String, Optional<Accessor>>> ACCESSORS 
+      = new ClassValue<ConcurrentMap<String, Optional<Accessor>>>()
+  {
+    @Override
+    protected ConcurrentMap<String, Optional<Accessor>> computeValue(Class<?> type)
+    {
+      return new ConcurrentHashMap<>();
+    }
+  };
+
+  private static final MethodType FUNCTION_TYPE 
+      = MethodType.methodType(Object.class, Object.class);
+  private static final MethodType INT_FUNCTION_TYPE 
+      = MethodType.methodType(int.class, Object.class);
+  private static final MethodType LONG_FUNCTION_TYPE 
+      = MethodType.methodType(long.class, Object.class);
+  private static final MethodType DOUBLE_FUNCTION_TYPE 
+      = MethodType.methodType(double.class, Object.class);
+
+  //
+  // Member variables.
+  //
+
+  private final Class<?>                 type;
+  private final String                   name;
+  private final Class<?>                 valueType;
+  private final boolean                  compiled;
+  private final Function<Object, Object> getter;
+  private final ToIntFunction<Object>    intGetter;
+  private final ToLongFunction<Object>   longGetter;
+  private final ToDoubleFunction<Object> doubleGetter;
+
+  //
+  // Static methods.
+  //
+
+  /**
+   * Gets the Accessor for a public no-argument method of a class.
+   *
+   * @throws IllegalArgumentException if no such method exists or it cannot
+   *         be accessed.
+   */
+  public static Accessor method(Class<?> type, String methodName)
+  {
+    return require(findMethod(type, methodName), type, methodName + "()");
+  }
+
+  /**
+   * Gets the Accessor for a public field of a class.
+   *
+   * @throws IllegalArgumentException if no such field exists or it cannot
+   *         be accessed.
+   */
+  public static Accessor field(Class<?> type, String fieldName)
+  {
+    return require(findField(type, fieldName), type, fieldName);
+  }
+
+  /**
+   * Gets the Accessor for a no-argument method of a class, which need not
+   * be public.  A public method is preferred; otherwise the method declared
+   * by the class or its nearest superclass is used.
+   *
+   * @throws IllegalArgumentException if no such method exists or it cannot
+   *         be accessed.
+   */
+  public static Accessor declaredMethod(Class<?> type, String methodName)
+  {
+    return require(find(type, methodName, false, true), type, methodName + "()");
+  }
+
+  /**
+   * Gets the Accessor for a field of a class, which need not be public.  A
+   * public field is preferred; otherwise the field declared by the class or
+   * its nearest superclass is used.
+   *
+   * @throws IllegalArgumentException if no such field exists or it cannot
+   *         be accessed.
+   */
+  public static Accessor declaredField(Class<?> type, String fieldName)
+  {
+    return require(find(type, fieldName, true, true), type, fieldName);
+  }
+
+  /**
+   * Gets the Accessor for a public no-argument method of a class, or null
+   * if the class has no such method.
+   *
+   * @throws IllegalArgumentException if the method exists but cannot be
+   *         accessed.
+   */
+  public static Accessor findMethod(Class<?> type, String methodName)
+  {
+    return find(type, methodName, false, false);
+  }
+
+  /**
+   * Gets the Accessor for a public field of a class, or null if the class
+   * has no such field.
+   *
+   * @throws IllegalArgumentException if the field exists but cannot be
+   *         accessed.
+   */
+  public static Accessor findField(Class<?> type, String fieldName)
+  {
+    return find(type, fieldName, true, false);
+  }
+
+  private static Accessor require(Accessor accessor, Class<?> type, 
+      String member)
+  {
+    if (accessor == null)
+    {
+      throw new IllegalArgumentException("No " 
+          + (member.endsWith("()") ? "method" : "field") + " found: " 
+          + type.getName() + "." + member);
+    }
+    return accessor;
+  }
+
+  private static Accessor find(Class<?> type, String name, boolean field,
+      boolean nonPublic)
+  {
+    final ConcurrentMap<String, Optional<Accessor>> accessors = ACCESSORS.get(type);
+    final String key = (nonPublic ? "d" : "") + (field ? "f:" : "m:") + name;
+    Optional<Accessor> accessor = accessors.get(key);
+    if (accessor == null)
+    {
+      final Member member = field 
+          ? resolveField(type, name, nonPublic) 
+          : resolveMethod(type, name, nonPublic);
+      accessor = Optional.ofNullable(member == null ? null : new Accessor(type, member));
+      final Optional<Accessor> existing = accessors.putIfAbsent(key, accessor);
+      if (existing != null)
+      {
+        accessor = existing;
+      }
+    }
+    return accessor.orElse(null);
+  }
+
+  private static Method resolveMethod(Class<?> type, String name, 
+      boolean nonPublic)
+  {
+    try
+    {
+      return type.getMethod(name);
+    }
+    catch (NoSuchMethodException exc)
+    {
+      if (!nonPublic)
+      {
+        return null;
+      }
+      for (Class<?> current = type; current != null; current = current.getSuperclass())
+      {
+        try
+        {
+          return current.getDeclaredMethod(name);
+        }
+        catch (NoSuchMethodException nsmexc)
+        {
+          // Continue with the superclass.
+        }
+      }
+      return null;
+    }
+  }
+
+  private static Field resolveField(Class<?> type, String name, 
+      boolean nonPublic)
+  {
+    try
+    {
+      return type.getField(name);
+    }
+    catch (NoSuchFieldException exc)
+    {
+      if (!nonPublic)
+      {
+        return null;
+      }
+      for (Class<?> current = type; current != null; current = current.getSuperclass())
+      {
+        try
+        {
+          return current.getDeclaredField(name);
+        }
+        catch (NoSuchFieldException nsfexc)
+        {
+          // Continue with the superclass.
+        }
+      }
+      return null;
+    }
+  }
+
+  //
+  // Member methods.
+  //
+
+  /**
+   * Compiles an accessor for a resolved member.
+   */
+  private Accessor(Class<?> type, Member member)
+  {
+    if (Modifier.isStatic(member.getModifiers()))
+    {
+      throw new IllegalArgumentException("Member is static: " + member);
+    }
+
+    this.type = type;
+    this.name = member.getName();
+    this.valueType = (member instanceof Method) 
+        ? ((Method)member).getReturnType() 
+        : ((Field)member).getType();
+    if (this.valueType == void.class)
+    {
+      throw new IllegalArgumentException("Method returns void: " + member);
+    }
+
+    final MethodHandles.Lookup lookup = lookupFor(type);
+    final MethodHandle handle = unreflect(lookup, member);
+    final Kind kind = Kind.of(this.valueType);
+
+    // Prefer a generated lambda, which the JIT can inline like a direct
+    // call.  Fall back to invoking the handle.
+    Object lambda = null;
+    if (member instanceof Method)
+    {
+      lambda = metafactory(lookup, type, handle, kind);
+    }
+    this.compiled = (lambda != null);
+
+    Function<Object, Object> boxed = null;
+    ToIntFunction<Object> ints = null;
+    ToLongFunction<Object> longs = null;
+    ToDoubleFunction<Object> doubles = null;
+    switch (kind)
+    {
+      case INT:
+        ints = (lambda != null) ? cast(lambda) : intInvoker(handle);
+        final ToIntFunction<Object> intSource = ints;
+        boxed = (this.valueType == char.class)
+            ? object -> (char)intSource.applyAsInt(object)
+            : (this.valueType == short.class)
+              ? object -> (short)intSource.applyAsInt(object)
+              : (this.valueType == byte.class)
+                ? object -> (byte)intSource.applyAsInt(object)
+                : object -> intSource.applyAsInt(object);
+        break;
+      case LONG:
+        longs = (lambda != null) ? cast(lambda) : longInvoker(handle);
+        final ToLongFunction<Object> longSource = longs;
+        boxed = object -> longSource.applyAsLong(object);
+        break;
+      case DOUBLE:
+        doubles = (lambda != null) ? cast(lambda) : doubleInvoker(handle);
+        final ToDoubleFunction<Object> doubleSource = doubles;
+        boxed = (this.valueType == float.class)
+            ? object -> (float)doubleSource.applyAsDouble(object)
+            : object -> doubleSource.applyAsDouble(object);
+        break;
+      default:
+        boxed = (lambda != null) ? cast(lambda) : invoker(handle);
+        break;
+    }
+    this.getter = boxed;
+    this.intGetter = ints;
+    this.longGetter = longs;
+    this.doubleGetter = doubles;
+  }
+
+  /**
+   * Gets the class this accessor was created for.
+   */
+  public Class<?> getType()
+  {
+    return this.type;
+  }
+
+  /**
+   * Gets the name of the method or field.
+   */
+  public String getName()
+  {
+    return this.name;
+  }
+
+  /**
+   * Gets the declared type of the value, which may be primitive.
+   */
+  public Class<?> getValueType()
+  {
+    return this.valueType;
+  }
+
+  /**
+   * Returns true if this accessor reads values through a generated lambda
+   * rather than a MethodHandle.
+   */
+  public boolean isCompiled()
+  {
+    return this.compiled;
+  }
+
+  /**
+   * Reads the value from an object, boxing primitives.
+   */
+  public Object get(Object object)
+  {
+    return this.getter.apply(object);
+  }
+
+  /**
+   * Reads the value from an object as an int.  Intended for int, short,
+   * char and byte members; other members are unboxed from a Number or
+   * Character.
+   */
+  public int getInt(Object object)
+  {
+    if (this.intGetter != null)
+    {
+      return this.intGetter.applyAsInt(object);
+    }
+    final Object value = get(object);
+    return (value instanceof Character) 
+        ? (Character)value 
+        : ((Number)value).intValue();
+  }
+
+  /**
+   * Reads the value from an object as a long.
+   */
+  public long getLong(Object object)
+  {
+    if (this.longGetter != null)
+    {
+      return this.longGetter.applyAsLong(object);
+    }
+    if (this.intGetter != null)
+    {
+      return this.intGetter.applyAsInt(object);
+    }
+    return ((Number)get(object)).longValue();
+  }
+
+  /**
+   * Reads the value from an object as a double.
+   */
+  public double getDouble(Object object)
+  {
+    if (this.doubleGetter != null)
+    {
+      return this.doubleGetter.applyAsDouble(object);
+    }
+    if (this.intGetter != null)
+    {
+      return this.intGetter.applyAsInt(object);
+    }
+    if (this.longGetter != null)
+    {
+      return this.longGetter.applyAsLong(object);
+    }
+    return ((Number)get(object)).doubleValue();
+  }
+
+  /**
+   * Returns a Comparator that orders objects by this member's value.
+   * Primitive members are compared without boxing.  Other values must be
+   * Comparable; nulls sort last in ascending order and first in descending
+   * order, matching ReflectiveComparator.
+   *
+   * @param descending true to reverse the natural order.
+   * @param ignoreCase true to compare String values without regard to case.
+   */
+  public <T> Comparator<T> comparator(boolean descending, boolean ignoreCase)
+  {
+    if (this.intGetter != null)
+    {
+      final ToIntFunction<Object> ints = this.intGetter;
+      return descending
+          ? (o1, o2) -> Integer.compare(ints.applyAsInt(o2), ints.applyAsInt(o1))
+          : (o1, o2) -> Integer.compare(ints.applyAsInt(o1), ints.applyAsInt(o2));
+    }
+    if (this.longGetter != null)
+    {
+      final ToLongFunction<Object> longs = this.longGetter;
+      return descending
+          ? (o1, o2) -> Long.compare(longs.applyAsLong(o2), longs.applyAsLong(o1))
+          : (o1, o2) -> Long.compare(longs.applyAsLong(o1), longs.applyAsLong(o2));
+    }
+    if (this.doubleGetter != null)
+    {
+      final ToDoubleFunction<Object> doubles = this.doubleGetter;
+      return descending
+          ? (o1, o2) -> Double.compare(doubles.applyAsDouble(o2), doubles.applyAsDouble(o1))
+          : (o1, o2) -> Double.compare(doubles.applyAsDouble(o1), doubles.applyAsDouble(o2));
+    }
+
+    final Function<Object, Object> values = this.getter;
+    return descending
+        ? (o1, o2) -> -compareValues(values.apply(o1), values.apply(o2), ignoreCase)
+        : (o1, o2) -> compareValues(values.apply(o1), values.apply(o2), ignoreCase);
+  }
+
+  /**
+   * Returns a Predicate that accepts objects whose value for this member
+   * equals the provided value, with the semantics of Objects.equals applied
+   * to the boxed value.  Primitive members are compared without boxing.
+   */
+  public <T> Predicate<T> equalTo(Object value)
+  {
+    if (this.valueType.isPrimitive())
+    {
+      // A boxed primitive only equals a value of its own wrapper type.
+      if (value == null || value.getClass() != MethodType.methodType(this.valueType).wrap().returnType())
+      {
+        return object -> false;
+      }
+      if (this.intGetter != null)
+      {
+        final ToIntFunction<Object> ints = this.intGetter;
+        final int expected = (value instanceof Character) 
+            ? (Character)value 
+            : ((Number)value).intValue();
+        return object -> ints.applyAsInt(object) == expected;
+      }
+      if (this.longGetter != null)
+      {
+        final ToLongFunction<Object> longs = this.longGetter;
+        final long expected = (Long)value;
+        return object -> longs.applyAsLong(object) == expected;
+      }
+      if (this.doubleGetter != null)
+      {
+        // Compare bits, as Double.equals and Float.equals do.
+        final ToDoubleFunction<Object> doubles = this.doubleGetter;
+        final long expected = Double.doubleToLongBits(((Number)value).doubleValue());
+        return object -> Double.doubleToLongBits(doubles.applyAsDouble(object)) == expected;
+      }
+    }
+
+    final Function<Object, Object> values = this.getter;
+    if (value == null)
+    {
+      return object -> values.apply(object) == null;
+    }
+    return object -> value.equals(values.apply(object));
+  }
+
+  @Override
+  public String toString()
+  {
+    return "Accessor [" + this.type.getName() + "." + this.name 
+        + (this.compiled ? "; compiled" : "; handle") + "]";
+  }
+
+  /**
+   * Compares two values in the manner of ReflectiveComparator.
+   */
+  @SuppressWarnings("unchecked")
+  private static int compareValues(Object value1, Object value2, boolean ignoreCase)
+  {
+    if (value1 == null)
+    {
+      return (value2 == null) ? 0 : 1;
+    }
+    if (value2 == null)
+    {
+      return -1;
+    }
+    if ( (ignoreCase)
+      && (value1 instanceof String)
+      && (value2 instanceof String)
+      )
+    {
+      return ((String)value1).compareToIgnoreCase((String)value2);
+    }
+    return ((Comparable<Object>)value1).compareTo(value2);
+  }
+
+  /**
+   * Gets a lookup with private access to the class if the module system 
+   * allows it, otherwise a public lookup.  Private access is needed to
+   * bind a lambda to the class and to read public members of a class that
+   * is not itself public; which members are read is decided by resolution.
+   */
+  private static MethodHandles.Lookup lookupFor(Class<?> type)
+  {
+    try
+    {
+      return MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+    }
+    catch (IllegalAccessException | SecurityException exc)
+    {
+      return MethodHandles.publicLookup();
+    }
+  }
+
+  private static MethodHandle unreflect(MethodHandles.Lookup lookup, Member member)
+  {
+    try
+    {
+      return (member instanceof Method)
+          ? lookup.unreflect((Method)member)
+          : lookup.unreflectGetter((Field)member);
+    }
+    catch (IllegalAccessException exc)
+    {
+      // Members of superclasses in other packages may not be visible to
+      // the class's own lookup.  Try suppressing access checks.
+      try
+      {
+        final AccessibleObject accessible = (AccessibleObject)member;
+        accessible.setAccessible(true);
+        return (member instanceof Method)
+            ? MethodHandles.lookup().unreflect((Method)member)
+            : MethodHandles.lookup().unreflectGetter((Field)member);
+      }
+      catch (IllegalAccessException | RuntimeException inner)
+      {
+        throw new IllegalArgumentException("Member cannot be accessed: " + member, inner);
+      }
+    }
+  }
+
+  /**
+   * Binds a method handle to the functional interface for its kind, or
+   * returns null if the lookup is not permitted to spin lambdas for the
+   * class (for example, a class from an unrelated class loader).
+   */
+  private static Object metafactory(MethodHandles.Lookup lookup, Class<?> type,
+      MethodHandle handle, Kind kind)
+  {
+    if ( ((lookup.lookupModes() & MethodHandles.Lookup.PRIVATE) == 0)
+      || (lookup.lookupClass() != type)
+      )
+    {
+      return null;
+    }
+    try
+    {
+      final Class<?> returnType = (kind == Kind.OBJECT) 
+          ? handle.type().wrap().returnType() 
+          : kind.samType.returnType();
+      final CallSite site = LambdaMetafactory.metafactory(lookup, 
+          kind.samName, MethodType.methodType(kind.samInterface), 
+          kind.samType, handle, MethodType.methodType(returnType, type));
+      return site.getTarget().invoke();
+    }
+    catch (Throwable exc)
+    {
+      return null;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <F> F cast(Object lambda)
+  {
+    return (F)lambda;
+  }
+
+  private static Function<Object, Object> invoker(MethodHandle handle)
+  {
+    final MethodHandle adapted = handle.asType(FUNCTION_TYPE);
+    return object -> {
+      try
+      {
+        return adapted.invokeExact(object);
+      }
+      catch (Throwable exc)
+      {
+        throw rethrow(exc);
+      }
+    };
+  }
+
+  private static ToIntFunction<Object> intInvoker(MethodHandle handle)
+  {
+    final MethodHandle adapted = handle.asType(INT_FUNCTION_TYPE);
+    return object -> {
+      try
+      {
+        return (int)adapted.invokeExact(object);
+      }
+      catch (Throwable exc)
+      {
+        throw rethrow(exc);
+      }
+    };
+  }
+
+  private static ToLongFunction<Object> longInvoker(MethodHandle handle)
+  {
+    final MethodHandle adapted = handle.asType(LONG_FUNCTION_TYPE);
+    return object -> {
+      try
+      {
+        return (long)adapted.invokeExact(object);
+      }
+      catch (Throwable exc)
+      {
+        throw rethrow(exc);
+      }
+    };
+  }
+
+  private static ToDoubleFunction<Object> doubleInvoker(MethodHandle handle)
+  {
+    final MethodHandle adapted = handle.asType(DOUBLE_FUNCTION_TYPE);
+    return object -> {
+      try
+      {
+        return (double)adapted.invokeExact(object);
+      }
+      catch (Throwable exc)
+      {
+        throw rethrow(exc);
+      }
+    };
+  }
+
+  private static RuntimeException rethrow(Throwable exc)
+  {
+    if (exc instanceof RuntimeException)
+    {
+      throw (RuntimeException)exc;
+    }
+    if (exc instanceof Error)
+    {
+      throw (Error)exc;
+    }
+    throw new UndeclaredThrowableException(exc);
+  }
+
+  //
+  // Inner classes.
+  //
+
+  /**
+   * The functional interface a member is bound to, by value type.
+   */
+  private enum Kind
+  {
+    INT(ToIntFunction.class, "applyAsInt", INT_FUNCTION_TYPE),
+    LONG(ToLongFunction.class, "applyAsLong", LONG_FUNCTION_TYPE),
+    DOUBLE(ToDoubleFunction.class, "applyAsDouble", DOUBLE_FUNCTION_TYPE),
+    OBJECT(Function.class, "apply", FUNCTION_TYPE);
+
+    private final Class<?>   samInterface;
+    private final String     samName;
+    private final MethodType samType;
+
+    Kind(Class<?> samInterface, String samName, MethodType samType)
+    {
+      this.samInterface = samInterface;
+      this.samName = samName;
+      this.samType = samType;
+    }
+
+    static Kind of(Class<?> valueType)
+    {
+      if ( (valueType == int.class)
+        || (valueType == short.class)
+        || (valueType == char.class)
+        || (valueType == byte.class)
+        )
+      {
+        return INT;
+      }
+      if (valueType == long.class)
+      {
+        return LONG;
+      }
+      if ( (valueType == double.class)
+        || (valueType == float.class)
+        )
+      {
+        return DOUBLE;
+      }
+      return OBJECT;
+    }
+  }
+
+}   // End Accessor.
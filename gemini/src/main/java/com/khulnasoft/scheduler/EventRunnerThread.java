@@ -34,7 +34,10 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Used by the Scheduler to run events on their own thread, if the event
- * requests that it be run separate from the Scheduler itself.
+ * requests that it be run separate from the Scheduler itself.  The 
+ * Scheduler keeps a bounded pool of these threads, each running one event
+ * at a time; an EventRunnerThread may also be constructed to run a single
+ * event.
  *    <p>
  * <b>Note</b>: This thread will have its priority automatically set to
  * minimum priority.  It is assumed that events can run at low priority.
@@ -56,9 +59,10 @@ public class EventRunnerThread
   //
 
   private final Logger         log = LoggerFactory.getLogger(getClass());
-  private final ScheduledEvent event;
   private final Scheduler      scheduler;
   private final boolean        onDemandExecution;
+  private final Runnable       pooledWork;
+  private volatile ScheduledEvent event;
 
   /**
    * Constructor.
@@ -78,6 +82,23 @@ public class EventRunnerThread
     this.event     = event;
     this.scheduler = scheduler;
     this.onDemandExecution = onDemandExecution;
+    this.pooledWork = null;
+  }
+  
+  /**
+   * Constructor for a pooled thread, which runs the Scheduler's pool work
+   * rather than a single event.
+   */
+  EventRunnerThread(Scheduler scheduler, Runnable pooledWork, int number)
+  {
+    super("Event Runner " + number + " (" 
+        + scheduler.getApplication().getVersion().getProductName() + ")");
+
+    setPriority(MIN_PRIORITY);
+    
+    this.scheduler = scheduler;
+    this.onDemandExecution = false;
+    this.pooledWork = pooledWork;
   }
 
   /**
@@ -87,10 +108,16 @@ public class EventRunnerThread
   public void run()
   {
     setStartTime();
-    final Chronograph chrono = new Chronograph();
-    
     CURRENT_THREAD.set(this);
     
+    if (pooledWork != null)
+    {
+      pooledWork.run();
+      return;
+    }
+    
+    final Chronograph chrono = new Chronograph();
+    
     try
     {
       event.execute(scheduler, onDemandExecution);
@@ -110,6 +137,23 @@ public class EventRunnerThread
     }
   }
   
+  /**
+   * Gets the event this thread is executing, or null if a pooled thread is
+   * idle.
+   */
+  public ScheduledEvent getEvent()
+  {
+    return event;
+  }
+  
+  /**
+   * Sets the event a pooled thread is executing.
+   */
+  void setEvent(ScheduledEvent event)
+  {
+    this.event = event;
+  }
+  
   /**
    * Gets the EventRunnerThread for the current Event runner thread.
    */
@@ -66,6 +66,14 @@ public abstract class ScheduledEvent
   private long    lastRunTime       = 0L;
   private long    lastCompleteTime  = 0L;
   private long    lastRunDuration   = 0L;
+  private long    totalRunDuration  = 0L;
+  private long    maxRunDuration    = 0L;
+  private int     completions       = 0;
+  private long    lastLag           = 0L;
+  private long    totalLag          = 0L;
+  private long    maxLag            = 0L;
+  private int     lagSamples        = 0;
+  private int     overruns          = 0;
   private boolean executing         = false;
   private boolean enabled           = true;
   private final String  name;
@@ -141,6 +149,18 @@ public abstract class ScheduledEvent
     return false;
   }
 
+  /**
+   * Overload this method to return true if this event should run on only
+   * one instance of a clustered application.  When the Scheduler has been
+   * given a Scheduler.Leadership, singleton events are only executed on the
+   * leader; other instances skip the execution and reschedule the event to 
+   * its default scheduled time.
+   */
+  public boolean isClusterSingleton()
+  {
+    return false;
+  }
+
   /**
    * Is this event enabled?  Disabled events will not be executed by the
    * Scheduler when their scheduled time passes.  In the situation where a
@@ -183,8 +203,32 @@ public abstract class ScheduledEvent
     {
       lastCompleteTime = System.currentTimeMillis();
       lastRunDuration = lastCompleteTime - lastRunTime;
+      totalRunDuration += lastRunDuration;
+      maxRunDuration = Math.max(maxRunDuration, lastRunDuration);
+      completions++;
     }
   }
+  
+  /**
+   * Records the lag, in milliseconds, between the scheduled time and the 
+   * time an execution actually started.  Called by the Scheduler.
+   */
+  protected void recordLag(long lag)
+  {
+    lastLag = lag;
+    totalLag += lag;
+    maxLag = Math.max(maxLag, lag);
+    lagSamples++;
+  }
+  
+  /**
+   * Records an overrun: the event came due while its previous execution
+   * was still running.  Called by the Scheduler.
+   */
+  protected void recordOverrun()
+  {
+    overruns++;
+  }
 
   /**
    * Checks the executing flag.
@@ -221,6 +265,56 @@ public abstract class ScheduledEvent
     return lastRunDuration;
   }
   
+  /**
+   * Gets the longest duration (in milliseconds) of a completed execution.
+   */
+  public long getMaximumRunDuration()
+  {
+    return maxRunDuration;
+  }
+  
+  /**
+   * Gets the average duration (in milliseconds) of completed executions.
+   */
+  public long getAverageRunDuration()
+  {
+    return completions == 0 ? 0L : totalRunDuration / completions;
+  }
+  
+  /**
+   * Gets the lag (in milliseconds) between the scheduled time and the start
+   * of the most recent scheduled execution.  This is the schedule drift.
+   */
+  public long getLastLag()
+  {
+    return lastLag;
+  }
+  
+  /**
+   * Gets the largest lag (in milliseconds) of any scheduled execution.
+   */
+  public long getMaximumLag()
+  {
+    return maxLag;
+  }
+  
+  /**
+   * Gets the average lag (in milliseconds) of scheduled executions.
+   */
+  public long getAverageLag()
+  {
+    return lagSamples == 0 ? 0L : totalLag / lagSamples;
+  }
+  
+  /**
+   * Gets the number of times this event came due while its previous 
+   * execution was still running.
+   */
+  public int getOverruns()
+  {
+    return overruns;
+  }
+  
   /**
    * Gets the number of times this event has been executed.
    */
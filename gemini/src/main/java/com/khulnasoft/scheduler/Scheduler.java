@@ -28,6 +28,8 @@
 package com.khulnasoft.scheduler;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 import com.khulnasoft.*;
 import com.khulnasoft.asynchronous.*;
@@ -37,28 +39,42 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * A simple task scheduler.  Maintains a separate thread that periodically
- * checks the clock and runs any events that are scheduled to execute.  An 
- * instance of this object is created by the application at its start time.
+ * A simple task scheduler.  Maintains a separate thread that waits until 
+ * the next event is due and then runs it.  An instance of this object is
+ * created by the application at its start time.
  *    <p>
  * Events should be added to the Scheduler at construction time within the
  * constructScheduler method in your application's Application subclass.
  *    <p>
  * Events should all be subclasses of ScheduledEvent.  When events are 
- * executed, they can be executed on the Scheduler thread or a separate 
- * thread, if desired; this is specified by the requiresOwnThread method.
+ * executed, they can be executed on the Scheduler thread or on a pooled 
+ * event runner thread, if desired; this is specified by the 
+ * requiresOwnThread method.  The pool is bounded, so a burst of due events
+ * queues for a runner rather than starting a thread apiece.
  *    <p>
  * After performing their work, Events can reschedule themselves by calling 
  * scheduleEvent, even if they are already scheduled.  This will change the 
  * scheduled execution time (or reschedule the event if the scheduleEvent 
  * method is called from within the Event's execute method).
  *    <p>
+ * Due times are kept in a priority queue, so the Scheduler thread sleeps
+ * exactly until the next event is due rather than polling.  Events that 
+ * are disabled or still executing when they come due are checked again 
+ * after the sleep time.  The latter is counted as an overrun.  The lag
+ * between each event's scheduled and actual start time is recorded as 
+ * well; see ScheduledEvent.getLastLag.
+ *    <p>
  * Configuration file settings:
  *    <ul>
- * <li>SchedulerSleepSeconds - Sets the number of seconds to sleep the
- *     Scheduler's thread before checking for events that need to be run.
+ * <li>SchedulerSleepSeconds - Sets the number of seconds after which an
+ *     event that was disabled or still executing when it came due is 
+ *     checked again.  Default: 5.
  * <li>SchedulerEnabled - Defaults to true; if set to false, the Scheduler
  *     will not run any events.
+ * <li>SchedulerThreads - The maximum number of event runner threads used
+ *     for events that require their own thread.  Default: 8.
+ * <li>SchedulerLagWarningMillis - Events starting more than this long after
+ *     their scheduled time are logged as warnings.  Default: 5000.
  *    </ul>
  *
  * @see ScheduledEvent
@@ -76,6 +92,10 @@ public class Scheduler
   public static final int    DEFAULT_SLEEP_TIME = 5000;      // five seconds
   public static final int    MINIMUM_SLEEP_TIME_SECONDS = 0;
   public static final int    MAXIMUM_SLEEP_TIME_SECONDS = 600;  // 10 minutes.
+  public static final int    DEFAULT_RUNNER_THREADS = 8;
+  public static final long   DEFAULT_LAG_WARNING = 5000L;
+  
+  private static final long  MINIMUM_RECHECK_TIME = 100L;
 
   //
   // Member variables.
@@ -84,9 +104,15 @@ public class Scheduler
   private final KhulnaSoftApplication  application;
   private final Logger                  log = LoggerFactory.getLogger(getClass());
   private final List<ScheduledEvent>    scheduledEvents  = new ArrayList<>();
+  private final PriorityQueue<Timer>    timeline         = new PriorityQueue<>();
+  private final Map<ScheduledEvent, Timer> timers        = new IdentityHashMap<>();
+  private final AtomicLong              timerSequence    = new AtomicLong();
   private final SchedulerThread         schedulerThread;
+  private final ThreadPoolExecutor      runners;
   private       long                    sleepTime        = DEFAULT_SLEEP_TIME;
+  private       long                    lagWarning       = DEFAULT_LAG_WARNING;
   private       boolean                 schedulerEnabled = true;
+  private volatile Leadership           leadership;
 
   //
   // Member methods.
@@ -99,6 +125,10 @@ public class Scheduler
   {
     this.application     = application;
     this.schedulerThread = new SchedulerThread(this);
+    this.runners         = new ThreadPoolExecutor(DEFAULT_RUNNER_THREADS, 
+        DEFAULT_RUNNER_THREADS, 60L, TimeUnit.SECONDS, 
+        new LinkedBlockingQueue<>(), new RunnerThreadFactory());
+    this.runners.allowCoreThreadTimeOut(true);
     
     // Register as an asynchronous resource.
     application.addAsynchronous(this);
@@ -112,8 +142,22 @@ public class Scheduler
   {
     // Configure the Scheduler.
     setSleepTime(props.getInt("SchedulerSleepSeconds", 
-        (int)(getSleepTime() * UtilityConstants.SECOND)));
+        (int)(getSleepTime() / UtilityConstants.SECOND)));
     setEnabled(props.getBoolean("SchedulerEnabled", true));
+    lagWarning = props.getLong("SchedulerLagWarningMillis", DEFAULT_LAG_WARNING);
+    
+    final int threads = Math.max(1, props.getInt("SchedulerThreads", 
+        DEFAULT_RUNNER_THREADS));
+    if (threads > runners.getMaximumPoolSize())
+    {
+      runners.setMaximumPoolSize(threads);
+      runners.setCorePoolSize(threads);
+    }
+    else
+    {
+      runners.setCorePoolSize(threads);
+      runners.setMaximumPoolSize(threads);
+    }
   }
 
   /**
@@ -134,6 +178,7 @@ public class Scheduler
   public synchronized void scheduleEvent(ScheduledEvent event, long whenToInvoke)
   {
     event.setScheduledTime(whenToInvoke);
+    queue(event, whenToInvoke);
 
     if (scheduledEvents.contains(event))
     {
@@ -167,6 +212,8 @@ public class Scheduler
   public synchronized void clear()
   {
     scheduledEvents.clear();
+    timers.clear();
+    timeline.clear();
   }
 
   /**
@@ -178,6 +225,10 @@ public class Scheduler
     if (event != null)
     {
       scheduledEvents.remove(event);
+      
+      // The event's timer is left in the timeline and discarded when it
+      // comes due.
+      timers.remove(event);
     }
   }
 
@@ -212,6 +263,7 @@ public class Scheduler
   public synchronized void end()
   {
     schedulerThread.setKeepRunning(false);
+    runners.shutdown();
   }
 
   /**
@@ -253,6 +305,10 @@ public class Scheduler
     else
     {
       log.info("Scheduler enabled.");
+      synchronized (this)
+      {
+        notifyAll();
+      }
     }
   }
 
@@ -267,7 +323,9 @@ public class Scheduler
 
   /**
    * Sets the sleep time of the scheduler, in seconds.  Default is FIVE
-   * SECONDS.  Only values between 1 and 600 are allowed.
+   * SECONDS.  Only values between 1 and 600 are allowed.  Events that are
+   * disabled or still executing when they come due are checked again after
+   * the sleep time.
    */
   public void setSleepTime(int seconds)
   {
@@ -277,6 +335,68 @@ public class Scheduler
     log.info("Sleep time set to {} second{}.",
         newSeconds, StringHelper.pluralize(newSeconds));
   }
+  
+  /**
+   * Sets the Leadership consulted before running cluster singleton events.
+   * If none is set, every instance runs them.
+   */
+  public void setLeadership(Leadership leadership)
+  {
+    this.leadership = leadership;
+  }
+  
+  /**
+   * Gets the Leadership consulted before running cluster singleton events,
+   * or null if none has been set.
+   */
+  public Leadership getLeadership()
+  {
+    return leadership;
+  }
+  
+  /**
+   * Gets the number of event runner threads currently executing events.
+   */
+  public int getActiveRunnerCount()
+  {
+    return runners.getActiveCount();
+  }
+  
+  /**
+   * Gets the number of events waiting for an event runner thread.
+   */
+  public int getWaitingRunnerCount()
+  {
+    return runners.getQueue().size();
+  }
+  
+  /**
+   * Gets the time of the next scheduled event, or Long.MAX_VALUE if there
+   * is none.
+   */
+  public synchronized long getNextEventTime()
+  {
+    discardStaleTimers();
+    final Timer next = timeline.peek();
+    return next == null ? Long.MAX_VALUE : next.time;
+  }
+  
+  /**
+   * Blocks the calling thread until an event is due, the sleep time 
+   * elapses, or the thread is interrupted.  Called by the SchedulerThread.
+   */
+  protected synchronized void awaitNextEvent()
+    throws InterruptedException
+  {
+    final long now = System.currentTimeMillis();
+    final long wait = isEnabled() 
+        ? getNextEventTime() - now
+        : Math.max(getSleepTime(), MINIMUM_RECHECK_TIME);
+    if (wait > 0L)
+    {
+      wait(wait);
+    }
+  }
 
   /**
    * Checks the schedule and executes events that are due.
@@ -288,29 +408,62 @@ public class Scheduler
     {
       // Get the current date and time.
       final long now = System.currentTimeMillis();
-
-      // Get an iterator over the events.
-      final List<ScheduledEvent> events = getEvents();
+      
+      // Take the events that are due.
+      final List<ScheduledEvent> events = takeDueEvents(now);
       final Iterator<ScheduledEvent> iter = events.iterator();
       
       ScheduledEvent event;
 
-      while (  (iter.hasNext())
-            && (isEnabled())  // Stop looping if the scheduler becomes disabled.
-            )
+      while (iter.hasNext())
       {
         event = iter.next();
-
-        // If the event is enabled, is not currently executing, and its 
-        // scheduled time has passed, then let's go.
-        if (  (event.isEnabled())
-           && (!event.isExecuting())
-           && (event.getScheduledTime() <= now)
-           )
+        
+        // Put the remaining events back if the scheduler becomes disabled.
+        if (!isEnabled())
         {
+          recheckLater(event, now);
+          continue;
+        }
+        
+        // Disabled events are checked again later.
+        if (!event.isEnabled())
+        {
+          recheckLater(event, now);
+        }
+        
+        // The event is still running from when it was last due.
+        else if (event.isExecuting())
+        {
+          event.recordOverrun();
+          log.warn("{} is due but still executing (overrun {}); started {}ms ago.",
+              event.getName(), event.getOverruns(), now - event.getLastRunTime());
+          recheckLater(event, now);
+        }
+        
+        // Cluster singleton events only run on the leader.  Others skip
+        // the execution as though it had run.
+        else if (event.isClusterSingleton() 
+            && leadership != null
+            && !leadership.isLeader())
+        {
+          log.debug("Skipping singleton {} on a non-leader instance.", event.getName());
+          skip(event, now);
+        }
+        
+        else
+        {
+          final long lag = now - event.getScheduledTime();
+          event.recordLag(lag);
+          if (lag > lagWarning)
+          {
+            log.warn("{} started {}ms after its scheduled time.", 
+                event.getName(), lag);
+          }
+          
           if (event.requiresOwnThread())
           {
-            // Start a thread if the event requires it.
+            // Run on a pooled thread if the event requires it.
             executeEventNewThread(event, false);
           }
           else
@@ -324,23 +477,53 @@ public class Scheduler
   }
 
   /**
-   * Executes a provided event on a new EventRunnerThread.  Returns true if
-   * an EventRunnerThread was started.
+   * Executes a provided event on an EventRunnerThread from the pool.  
+   * Returns true if the event was handed to the pool.
    *
    * @param event The ScheduledEvent to run.
    * @param onDemandExecution Whether this execution is the result of
    *   an administrative request.
    */
-  public boolean executeEventNewThread(ScheduledEvent event, boolean onDemandExecution)
+  public boolean executeEventNewThread(final ScheduledEvent event, 
+      final boolean onDemandExecution)
   {
     if (!event.isExecuting())
     {
       // Set executing flag.
       event.setExecuting(true);
 
-      log.info("Executing {} on new thread.", event.getName());
-      final EventRunnerThread ert = new EventRunnerThread(event, this, onDemandExecution);
-      ert.start();
+      log.info("Executing {} on runner thread.", event.getName());
+      try
+      {
+        runners.execute(new Runnable() {
+          @Override
+          public void run()
+          {
+            final EventRunnerThread runner = EventRunnerThread.getCurrentThread();
+            if (runner != null)
+            {
+              runner.setEvent(event);
+            }
+            try
+            {
+              runEvent(event, onDemandExecution);
+            }
+            finally
+            {
+              if (runner != null)
+              {
+                runner.setEvent(null);
+              }
+            }
+          }
+        });
+      }
+      catch (RejectedExecutionException reexc)
+      {
+        log.info("Scheduler stopped; not executing {}.", event.getName());
+        event.setExecuting(false);
+        return false;
+      }
 
       return true;
     }
@@ -365,28 +548,7 @@ public class Scheduler
       // Set executing flag.
       event.setExecuting(true);
       log.info("Executing {}", event);
-      final Chronograph chrono = new Chronograph();
-      try
-      {
-        event.execute(this, onDemandExecution);
-      }
-      catch (Exception exc)
-      {
-        log.info("Exception while executing {}", event, exc);
-        return false;
-      }
-      catch (Error error)
-      {
-        log.error("Error while executing {}", event, error);
-        return false;
-      }
-      finally
-      {
-        event.setExecuting(false);
-        log.info("{} complete. {}", event.getName(), chrono);
-      }
-
-      return true;
+      return runEvent(event, onDemandExecution);
     }
     else
     {
@@ -395,6 +557,133 @@ public class Scheduler
       return false;
     }
   }
+  
+  /**
+   * Runs an event whose executing flag has been set, clearing the flag
+   * afterward.  Returns true if the execution completed; false if there was
+   * an exception.
+   */
+  private boolean runEvent(ScheduledEvent event, boolean onDemandExecution)
+  {
+    final Chronograph chrono = new Chronograph();
+    try
+    {
+      event.execute(this, onDemandExecution);
+      return true;
+    }
+    catch (Exception exc)
+    {
+      log.info("Exception while executing {}", event, exc);
+      return false;
+    }
+    catch (Error error)
+    {
+      log.error("Error while executing {}", event, error);
+      return false;
+    }
+    finally
+    {
+      event.setExecuting(false);
+      log.info("{} complete. {}", event.getName(), chrono);
+      if (!onDemandExecution)
+      {
+        afterExecution(event);
+      }
+    }
+  }
+  
+  /**
+   * Called after a scheduled execution.  An event that neither rescheduled
+   * nor removed itself is checked again after the sleep time, as it would
+   * have been when the Scheduler polled.
+   */
+  private synchronized void afterExecution(ScheduledEvent event)
+  {
+    if (!timers.containsKey(event) && scheduledEvents.contains(event))
+    {
+      recheckLater(event, System.currentTimeMillis());
+    }
+  }
+  
+  /**
+   * Skips a due execution of an event by rescheduling it to its default 
+   * time, or checking again later if that time has passed.
+   */
+  private synchronized void skip(ScheduledEvent event, long now)
+  {
+    final long next = event.getDefaultScheduledTime();
+    if (next > now)
+    {
+      scheduleEvent(event, next);
+    }
+    else
+    {
+      recheckLater(event, now);
+    }
+  }
+  
+  /**
+   * Queues an event to be checked again after the sleep time without 
+   * changing its scheduled time, so that the eventual lag is measured from
+   * when it was originally due.
+   */
+  private synchronized void recheckLater(ScheduledEvent event, long now)
+  {
+    if (scheduledEvents.contains(event))
+    {
+      queue(event, now + Math.max(getSleepTime(), MINIMUM_RECHECK_TIME));
+    }
+  }
+  
+  /**
+   * Adds a timer for an event, replacing any previous timer, and wakes the
+   * Scheduler thread in case the new time is sooner.
+   */
+  private synchronized void queue(ScheduledEvent event, long time)
+  {
+    final Timer timer = new Timer(event, time, timerSequence.incrementAndGet());
+    timers.put(event, timer);
+    timeline.add(timer);
+    
+    // Rebuild the timeline if replaced timers have piled up in it.
+    if (timeline.size() > 2 * timers.size() + 64)
+    {
+      timeline.clear();
+      timeline.addAll(timers.values());
+    }
+    notifyAll();
+  }
+  
+  /**
+   * Removes and returns the events whose timers have come due.
+   */
+  private synchronized List<ScheduledEvent> takeDueEvents(long now)
+  {
+    final List<ScheduledEvent> due = new ArrayList<>();
+    Timer next;
+    while ((next = timeline.peek()) != null && next.time <= now)
+    {
+      timeline.poll();
+      if (timers.get(next.event) == next)
+      {
+        timers.remove(next.event);
+        due.add(next.event);
+      }
+    }
+    return due;
+  }
+  
+  /**
+   * Removes replaced and removed timers from the head of the timeline.
+   */
+  private synchronized void discardStaleTimers()
+  {
+    Timer next;
+    while ((next = timeline.peek()) != null && timers.get(next.event) != next)
+    {
+      timeline.poll();
+    }
+  }
 
   /**
    * Standard toString.
@@ -404,5 +693,63 @@ public class Scheduler
   {
     return "[Scheduler: " + scheduledEvents.size() + " event(s)]";
   }
+  
+  /**
+   * Decides whether this instance of a clustered application should run
+   * cluster singleton events.  Exactly one instance should be the leader at
+   * any time, though brief overlaps during failover are tolerable.
+   */
+  public interface Leadership
+  {
+    /**
+     * Returns true if this instance should run cluster singleton events.
+     */
+    boolean isLeader();
+  }
+  
+  /**
+   * A due time for an event in the timeline.  Rescheduling an event 
+   * replaces its Timer rather than removing the old one from the timeline,
+   * which is discarded when it reaches the head.
+   */
+  private static final class Timer
+    implements Comparable<Timer>
+  {
+    private final ScheduledEvent event;
+    private final long           time;
+    private final long           sequence;
+    
+    private Timer(ScheduledEvent event, long time, long sequence)
+    {
+      this.event = event;
+      this.time = time;
+      this.sequence = sequence;
+    }
+    
+    @Override
+    public int compareTo(Timer other)
+    {
+      final int byTime = Long.compare(time, other.time);
+      return byTime != 0 ? byTime : Long.compare(sequence, other.sequence);
+    }
+  }
+  
+  /**
+   * Creates pooled, low-priority EventRunnerThreads.
+   */
+  private final class RunnerThreadFactory
+    implements ThreadFactory
+  {
+    private final AtomicInteger number = new AtomicInteger();
+    
+    @Override
+    public Thread newThread(Runnable runnable)
+    {
+      final EventRunnerThread thread = new EventRunnerThread(Scheduler.this, 
+          runnable, number.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
 
 }   // End Scheduler.
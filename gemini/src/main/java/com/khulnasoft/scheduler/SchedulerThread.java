@@ -32,7 +32,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * The thread that runs the scheduler event checks.
+ * The thread that runs the scheduler event checks.  Sleeps until the next
+ * event is due.
  *   
  * @see Scheduler
  */
@@ -81,10 +82,18 @@ public class SchedulerThread
     {
       scheduler.checkSchedule();
 
-      // Sleep for a while.  This sleep time, of course, specifies the
-      // clarity of the scheduler.
-      nextCheck = System.currentTimeMillis() + scheduler.getSleepTime(); 
-      simpleSleep(scheduler.getSleepTime());
+      // Wait until the next event is due.  Scheduling an earlier event
+      // wakes this thread.
+      nextCheck = scheduler.getNextEventTime();
+      try
+      {
+        scheduler.awaitNextEvent();
+      }
+      catch (InterruptedException iexc)
+      {
+        // Interrupted by setKeepRunning; checkPause will tell us whether
+        // to continue.
+      }
     }
 
     log.info("Scheduler thread stopped [{}; {}].",
@@ -93,7 +102,8 @@ public class SchedulerThread
   }
   
   /**
-   * Gets the time of the next schedule check.
+   * Gets the time of the next schedule check, or Long.MAX_VALUE if no
+   * events were scheduled as of the last check.
    */
   public long getNextCheckTime()
   {
@@ -0,0 +1,241 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.security;
+
+import java.util.*;
+
+import com.google.common.net.*;
+
+/**
+ * Matches IP addresses against a list of CIDR blocks (e.g., "10.0.0.0/8"
+ * or "2001:db8::/32").  For compatibility with older configuration, list
+ * entries without a prefix length are treated as substrings of the
+ * address (e.g., "192.168." matches any address containing that text).
+ *   <p>
+ * CIDR blocks are parsed once at construction and matched by comparing
+ * address bytes, so matching performs no DNS lookups and no string
+ * scanning of CIDR entries.
+ */
+public class AddressMatcher
+{
+
+  private final List<Block>      blocks = new ArrayList<>();
+  private final SubstringMatcher substrings;
+
+  /**
+   * Constructor.
+   *
+   * @param entries CIDR blocks and/or legacy substring patterns.
+   * @throws IllegalArgumentException if a CIDR block is malformed.
+   */
+  public AddressMatcher(String... entries)
+  {
+    final List<String> legacy = new ArrayList<>();
+    if (entries != null)
+    {
+      for (String entry : entries)
+      {
+        if (entry == null || entry.trim().isEmpty())
+        {
+          continue;
+        }
+        final String trimmed = entry.trim();
+        final int slash = trimmed.indexOf('/');
+        if (slash > 0)
+        {
+          blocks.add(parseBlock(trimmed, slash));
+        }
+        else
+        {
+          legacy.add(trimmed);
+        }
+      }
+    }
+    this.substrings = SubstringMatcher.of(legacy);
+  }
+
+  /**
+   * Returns true if the address is within any CIDR block or contains any
+   * legacy substring pattern.
+   */
+  public boolean matches(String address)
+  {
+    if (address == null)
+    {
+      return false;
+    }
+    if (substrings.matches(address))
+    {
+      return true;
+    }
+    if (!blocks.isEmpty())
+    {
+      final byte[] bytes = toBytes(address);
+      if (bytes != null)
+      {
+        for (Block block : blocks)
+        {
+          if (block.contains(bytes))
+          {
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns true if there are no entries, in which case nothing matches.
+   */
+  public boolean isEmpty()
+  {
+    return blocks.isEmpty() && substrings.isEmpty();
+  }
+
+  /**
+   * Parses a CIDR block.
+   */
+  private static Block parseBlock(String cidr, int slash)
+  {
+    final byte[] network = toBytes(cidr.substring(0, slash));
+    if (network == null)
+    {
+      throw new IllegalArgumentException("Invalid CIDR block: " + cidr);
+    }
+    final int prefix;
+    try
+    {
+      prefix = Integer.parseInt(cidr.substring(slash + 1));
+    }
+    catch (NumberFormatException exc)
+    {
+      throw new IllegalArgumentException("Invalid CIDR block: " + cidr);
+    }
+    if (prefix < 0 || prefix > network.length * 8)
+    {
+      throw new IllegalArgumentException("Invalid CIDR block: " + cidr);
+    }
+    return new Block(network, prefix);
+  }
+
+  /**
+   * Converts a literal IPv4 or IPv6 address to bytes, or returns null if
+   * the string is not an address literal.  Host names are never resolved.
+   */
+  private static byte[] toBytes(String address)
+  {
+    if (address.indexOf(':') >= 0)
+    {
+      // InetAddress.getByName would resolve anything that is not a literal,
+      // so IPv6 addresses are parsed by Guava instead.  A scope ID does not
+      // affect matching.
+      final int percent = address.indexOf('%');
+      final String literal = percent >= 0 
+          ? address.substring(0, percent) 
+          : address;
+      return InetAddresses.isInetAddress(literal)
+          ? InetAddresses.forString(literal).getAddress()
+          : null;
+    }
+
+    final byte[] bytes = new byte[4];
+    int octet = 0;
+    int value = -1;
+    for (int i = 0; i < address.length(); i++)
+    {
+      final char c = address.charAt(i);
+      if (c >= '0' && c <= '9')
+      {
+        value = (value < 0 ? 0 : value * 10) + (c - '0');
+        if (value > 255)
+        {
+          return null;
+        }
+      }
+      else if (c == '.' && value >= 0 && octet < 3)
+      {
+        bytes[octet++] = (byte)value;
+        value = -1;
+      }
+      else
+      {
+        return null;
+      }
+    }
+    if (octet != 3 || value < 0)
+    {
+      return null;
+    }
+    bytes[3] = (byte)value;
+    return bytes;
+  }
+
+  //
+  // Inner classes.
+  //
+
+  /**
+   * A parsed CIDR block.
+   */
+  private static final class Block
+  {
+    private final byte[] network;
+    private final int    prefix;
+
+    private Block(byte[] network, int prefix)
+    {
+      this.network = network;
+      this.prefix = prefix;
+    }
+
+    private boolean contains(byte[] address)
+    {
+      if (address.length != network.length)
+      {
+        return false;
+      }
+      final int whole = prefix / 8;
+      for (int i = 0; i < whole; i++)
+      {
+        if (address[i] != network[i])
+        {
+          return false;
+        }
+      }
+      final int remaining = prefix % 8;
+      if (remaining == 0)
+      {
+        return true;
+      }
+      final int mask = (0xFF << (8 - remaining)) & 0xFF;
+      return (address[whole] & mask) == (network[whole] & mask);
+    }
+  }
+
+}   // End AddressMatcher.
@@ -0,0 +1,439 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.security;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A sharded, lock-free sliding-window rate limiter.  Each key (typically a
+ * prefixed client IP address, username, or route, such as "ip:10.0.0.1")
+ * is permitted at most {@code limit} permits within any window of
+ * {@code windowMillis} milliseconds.
+ *   <p>
+ * The sliding window is approximated in the usual fashion with two fixed
+ * windows: the count from the previous window is weighted by the fraction
+ * of it that still overlaps the sliding window and added to the count of
+ * the current window.  Each key's state is a small immutable value updated
+ * by compare-and-set, so no locks are held on the request path.
+ *   <p>
+ * Keys are spread across a power-of-two number of shards.  Each shard
+ * sweeps out keys that have been idle for more than two windows at most
+ * once per window, piggybacking on ordinary calls, so no background thread
+ * is needed and no daily reset is required.  Eviction is approximate: a
+ * permit recorded concurrently with the eviction of its key may be lost.
+ *   <p>
+ * An optional Synchronizer may be set to broadcast recorded permits and
+ * reset keys to other instances in a cluster; received permits are applied
+ * with {@link #recordRemote(String, int)} and resets with 
+ * {@link #resetRemote(String)}.  Since every recorded permit is
+ * broadcast, cluster synchronization is intended for low-volume limiters
+ * such as failed login attempts rather than per-request throttling.
+ *
+ * <pre>
+ * RateLimiter limiter = new RateLimiter("login", 5, 5 * UtilityConstants.MINUTE);
+ * if (limiter.tryAcquire("ip:" + address)) { ... }
+ * </pre>
+ */
+public class RateLimiter
+{
+
+  //
+  // Constants.
+  //
+
+  public static final int DEFAULT_SHARDS = 16;
+
+  private static final State EMPTY = new State(0L, 0, 0);
+
+  //
+  // Member variables.
+  //
+
+  private final String name;
+  private final int    limit;
+  private final long   windowMillis;
+  private final int    shardMask;
+  private final Shard[] shards;
+
+  private volatile Synchronizer synchronizer;
+
+  //
+  // Member methods.
+  //
+
+  /**
+   * Constructor.
+   *
+   * @param name a name that identifies this limiter, used to route
+   *        synchronization messages between instances.
+   * @param limit the number of permits allowed per window.
+   * @param windowMillis the length of the sliding window in milliseconds.
+   * @param shards the number of shards; rounded up to a power of two.
+   */
+  public RateLimiter(String name, int limit, long windowMillis, int shards)
+  {
+    if (limit < 1)
+    {
+      throw new IllegalArgumentException(
+          "The limit must be greater than zero.");
+    }
+    if (windowMillis < 1L)
+    {
+      throw new IllegalArgumentException(
+          "The window must be greater than zero.");
+    }
+
+    int count = 1;
+    while (count < shards)
+    {
+      count <<= 1;
+    }
+
+    this.name = name;
+    this.limit = limit;
+    this.windowMillis = windowMillis;
+    this.shardMask = count - 1;
+    this.shards = new Shard[count];
+    for (int i = 0; i < count; i++)
+    {
+      this.shards[i] = new Shard();
+    }
+  }
+
+  /**
+   * Constructor.  Uses the default number of shards.
+   */
+  public RateLimiter(String name, int limit, long windowMillis)
+  {
+    this(name, limit, windowMillis, DEFAULT_SHARDS);
+  }
+
+  /**
+   * Gets the name of this limiter.
+   */
+  public String getName()
+  {
+    return name;
+  }
+
+  /**
+   * Gets the number of permits allowed per window.
+   */
+  public int getLimit()
+  {
+    return limit;
+  }
+
+  /**
+   * Gets the window length in milliseconds.
+   */
+  public long getWindowMillis()
+  {
+    return windowMillis;
+  }
+
+  /**
+   * Sets the Synchronizer used to broadcast recorded permits to other
+   * instances.  Set to null to operate in local-only mode.
+   */
+  public void setSynchronizer(Synchronizer synchronizer)
+  {
+    this.synchronizer = synchronizer;
+  }
+
+  /**
+   * Attempts to acquire a single permit for the key.  Returns true and
+   * records the permit if doing so keeps the key within its limit;
+   * otherwise returns false and records nothing.
+   */
+  public boolean tryAcquire(String key)
+  {
+    return tryAcquire(key, 1);
+  }
+
+  /**
+   * Attempts to acquire permits for the key.  Returns true and records the
+   * permits if doing so keeps the key within its limit; otherwise returns
+   * false and records nothing.
+   */
+  public boolean tryAcquire(String key, int permits)
+  {
+    return update(key, permits, true, true);
+  }
+
+  /**
+   * Records a permit for the key regardless of whether the key is already
+   * over its limit.  This suits counting events after the fact, such as a
+   * failed login attempt.
+   */
+  public void record(String key)
+  {
+    update(key, 1, false, true);
+  }
+
+  /**
+   * Records permits that were recorded by another instance.  These are not
+   * re-broadcast.
+   */
+  public void recordRemote(String key, int permits)
+  {
+    update(key, permits, false, false);
+  }
+
+  /**
+   * Returns true if the key has reached its limit within the current
+   * sliding window.  Does not record anything.
+   */
+  public boolean isLimited(String key)
+  {
+    return estimate(key) >= limit;
+  }
+
+  /**
+   * Gets the estimated number of permits recorded for the key within the
+   * current sliding window.
+   */
+  public double estimate(String key)
+  {
+    final AtomicReference<State> ref = shard(key).states.get(key);
+    if (ref == null)
+    {
+      return 0.0;
+    }
+    final long now = System.currentTimeMillis();
+    return ref.get().roll(now / windowMillis).estimate(now, windowMillis);
+  }
+
+  /**
+   * Forgets any permits recorded for the key, e.g., after a successful
+   * login.
+   */
+  public void reset(String key)
+  {
+    final boolean removed = shard(key).states.remove(key) != null;
+    final Synchronizer sync = synchronizer;
+    if (removed && sync != null)
+    {
+      sync.keyReset(this, key);
+    }
+  }
+
+  /**
+   * Forgets any permits recorded for the key because another instance
+   * reset it.  This is not re-broadcast.
+   */
+  public void resetRemote(String key)
+  {
+    shard(key).states.remove(key);
+  }
+
+  /**
+   * Forgets all recorded permits.
+   */
+  public void resetAll()
+  {
+    for (Shard shard : shards)
+    {
+      shard.states.clear();
+    }
+  }
+
+  /**
+   * Gets the number of keys currently tracked.
+   */
+  public int size()
+  {
+    int size = 0;
+    for (Shard shard : shards)
+    {
+      size += shard.states.size();
+    }
+    return size;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "RateLimiter [" + name + "; " + limit + " per " + windowMillis
+        + "ms; keys: " + size() + "]";
+  }
+
+  /**
+   * Records permits for a key, optionally checking the limit first.
+   */
+  private boolean update(String key, int permits, boolean checkLimit,
+    boolean broadcast)
+  {
+    final Shard shard = shard(key);
+    final long now = System.currentTimeMillis();
+    final long window = now / windowMillis;
+    shard.sweepIfDue(window);
+
+    final AtomicReference<State> ref = shard.states.computeIfAbsent(key,
+        k -> new AtomicReference<>(EMPTY));
+    while (true)
+    {
+      final State current = ref.get();
+      final State rolled = current.roll(window);
+      if (  (checkLimit)
+         && (rolled.estimate(now, windowMillis) + permits > limit)
+         )
+      {
+        return false;
+      }
+      if (ref.compareAndSet(current, rolled.add(permits)))
+      {
+        break;
+      }
+    }
+
+    final Synchronizer sync = synchronizer;
+    if (broadcast && sync != null)
+    {
+      sync.permitsRecorded(this, key, permits);
+    }
+    return true;
+  }
+
+  /**
+   * Selects the shard for a key.
+   */
+  private Shard shard(String key)
+  {
+    final int hash = key.hashCode();
+    return shards[(hash ^ (hash >>> 16)) & shardMask];
+  }
+
+  //
+  // Inner classes.
+  //
+
+  /**
+   * Broadcasts recorded permits to other instances.
+   */
+  @FunctionalInterface
+  public interface Synchronizer
+  {
+    /**
+     * Called after permits have been recorded locally.  Implementations
+     * should deliver the permits to the same-named limiter on other
+     * instances via {@link RateLimiter#recordRemote(String, int)}, and
+     * should not block.
+     */
+    void permitsRecorded(RateLimiter limiter, String key, int permits);
+
+    /**
+     * Called after a key with recorded permits has been reset locally.
+     * Implementations should reset the key of the same-named limiter on
+     * other instances via {@link RateLimiter#resetRemote(String)}, and 
+     * should not block.  By default, resets are not shared.
+     */
+    default void keyReset(RateLimiter limiter, String key)
+    {
+      // Does nothing by default.
+    }
+  }
+
+  /**
+   * The counts for one key: the current fixed window's index and the
+   * counts for it and the window before it.
+   */
+  private static final class State
+  {
+    private final long window;
+    private final int  previous;
+    private final int  current;
+
+    private State(long window, int previous, int current)
+    {
+      this.window = window;
+      this.previous = previous;
+      this.current = current;
+    }
+
+    /**
+     * Returns the state as of the given window index.
+     */
+    private State roll(long now)
+    {
+      if (now == window)
+      {
+        return this;
+      }
+      else if (now == window + 1)
+      {
+        return new State(now, current, 0);
+      }
+      else if (now > window)
+      {
+        return new State(now, 0, 0);
+      }
+      // A state from the future (clock moved backwards); leave it be.
+      return this;
+    }
+
+    private State add(int permits)
+    {
+      return new State(window, previous, current + permits);
+    }
+
+    private double estimate(long nowMillis, long windowMillis)
+    {
+      final double elapsed = (double)(nowMillis % windowMillis) / windowMillis;
+      return previous * (1.0 - elapsed) + current;
+    }
+  }
+
+  /**
+   * One shard of keys along with its sweep schedule.
+   */
+  private static final class Shard
+  {
+    private final ConcurrentHashMap<String, AtomicReference<State>> states
+        = new ConcurrentHashMap<>();
+    private final AtomicLong nextSweepWindow = new AtomicLong();
+
+    /**
+     * Removes keys idle for more than two windows, at most once per window.
+     * Only the thread that wins the compare-and-set does the sweep.
+     */
+    private void sweepIfDue(long window)
+    {
+      final long due = nextSweepWindow.get();
+      if (  (window >= due)
+         && (nextSweepWindow.compareAndSet(due, window + 1))
+         )
+      {
+        states.entrySet().removeIf(
+            entry -> entry.getValue().get().window < window - 1);
+      }
+    }
+  }
+
+}   // End RateLimiter.
@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.security;
+
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ * Matches strings that contain any of a fixed set of substrings, ignoring
+ * case.  The substrings are compiled once into a single pattern so that a
+ * match costs one scan of the input rather than one scan per substring and
+ * no lower-cased copy of the input is created.  Suitable for User-Agent
+ * and URI lists such as those used by request throttling.
+ */
+public class SubstringMatcher
+{
+
+  private static final SubstringMatcher NONE = new SubstringMatcher(null);
+
+  private final Pattern pattern;
+
+  /**
+   * Constructor.
+   */
+  private SubstringMatcher(Pattern pattern)
+  {
+    this.pattern = pattern;
+  }
+
+  /**
+   * Compiles a matcher for the given substrings.  Null and empty
+   * substrings are ignored; a matcher with no substrings matches nothing.
+   */
+  public static SubstringMatcher of(String... substrings)
+  {
+    if (substrings == null)
+    {
+      return NONE;
+    }
+    return of(Arrays.asList(substrings));
+  }
+
+  /**
+   * Compiles a matcher for the given substrings.  Null and empty
+   * substrings are ignored; a matcher with no substrings matches nothing.
+   */
+  public static SubstringMatcher of(Collection<String> substrings)
+  {
+    final StringJoiner alternation = new StringJoiner("|");
+    for (String substring : substrings)
+    {
+      if (substring != null && !substring.isEmpty())
+      {
+        alternation.add(Pattern.quote(substring));
+      }
+    }
+    if (alternation.length() == 0)
+    {
+      return NONE;
+    }
+    return new SubstringMatcher(Pattern.compile(alternation.toString(),
+        Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE));
+  }
+
+  /**
+   * Returns true if the value contains any of the substrings.
+   */
+  public boolean matches(CharSequence value)
+  {
+    return (pattern != null)
+        && (value != null)
+        && (pattern.matcher(value).find());
+  }
+
+  /**
+   * Returns true if this matcher has no substrings and therefore never
+   * matches.
+   */
+  public boolean isEmpty()
+  {
+    return pattern == null;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "SubstringMatcher [" + (pattern == null ? "" : pattern.pattern())
+        + "]";
+  }
+
+}   // End SubstringMatcher.
@@ -0,0 +1,199 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.text;
+
+import java.time.*;
+import java.time.format.*;
+import java.util.*;
+
+/**
+ * Translates SimpleDateFormat patterns into immutable, thread-safe 
+ * java.time DateTimeFormatters for formatting.  Only patterns whose output
+ * is identical under both APIs are translated: those composed of the
+ * letters y, M, d, H, h, k, K, m, s, E, a, XX or XXX, and exactly three S, plus 
+ * quoted text and punctuation.  Other patterns yield null and should be
+ * handled with a SimpleDateFormat.
+ *   <p>
+ * The two APIs also agree only within the proleptic Gregorian range in 
+ * which years have four digits; see {@link #isFormattable(long)}.
+ */
+public final class DateTimePatterns
+{
+
+  //
+  // Constants.
+  //
+
+  /**
+   * The instant of the Gregorian cutover (1582-10-15) plus a year, before
+   * which SimpleDateFormat uses the Julian calendar.
+   */
+  private static final long EARLIEST_FORMATTABLE = 
+      LocalDate.of(1583, 1, 1).atStartOfDay(ZoneOffset.ofHours(14)).toInstant().toEpochMilli();
+  
+  /**
+   * The latest instant at which years have four digits in any time zone.
+   */
+  private static final long LATEST_FORMATTABLE = 
+      LocalDate.of(9999, 12, 31).atStartOfDay(ZoneOffset.ofHours(-12)).toInstant().toEpochMilli();
+
+  /** This class may not be instantiated. */
+  private DateTimePatterns() { }
+
+  /**
+   * Translates a SimpleDateFormat pattern into a DateTimeFormatter for the
+   * given Locale, or returns null if the pattern cannot be translated 
+   * exactly.
+   */
+  public static DateTimeFormatter toFormatter(String simplePattern, Locale locale)
+  {
+    final String pattern = translate(simplePattern);
+    if (pattern == null)
+    {
+      return null;
+    }
+    try
+    {
+      return DateTimeFormatter.ofPattern(pattern, locale)
+          .withDecimalStyle(DecimalStyle.of(locale));
+    }
+    catch (IllegalArgumentException iaexc)
+    {
+      return null;
+    }
+  }
+
+  /**
+   * Can an instant, in milliseconds since the epoch, be formatted by a 
+   * translated formatter with the same result as a SimpleDateFormat?
+   */
+  public static boolean isFormattable(long epochMillis)
+  {
+    return epochMillis >= EARLIEST_FORMATTABLE 
+        && epochMillis <= LATEST_FORMATTABLE;
+  }
+
+  /**
+   * Translates a SimpleDateFormat pattern to a DateTimeFormatter pattern,
+   * or returns null if it cannot be translated exactly.
+   */
+  static String translate(String simplePattern)
+  {
+    final StringBuilder out = new StringBuilder(simplePattern.length());
+    int i = 0;
+    while (i < simplePattern.length())
+    {
+      final char c = simplePattern.charAt(i);
+      
+      // Quoted text is quoted identically.
+      if (c == '\'')
+      {
+        final int end = simplePattern.indexOf('\'', i + 1);
+        if (end < 0)
+        {
+          return null;
+        }
+        out.append(simplePattern, i, end + 1);
+        i = end + 1;
+        continue;
+      }
+      
+      if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z'))
+      {
+        int count = 1;
+        while (i + count < simplePattern.length() 
+            && simplePattern.charAt(i + count) == c)
+        {
+          count++;
+        }
+        
+        final String field = translateField(c, count);
+        if (field == null)
+        {
+          return null;
+        }
+        out.append(field);
+        i += count;
+        continue;
+      }
+      
+      // These have special meaning to DateTimeFormatter only.
+      if (c == '[' || c == ']' || c == '{' || c == '}' || c == '#')
+      {
+        return null;
+      }
+      out.append(c);
+      i++;
+    }
+    return out.toString();
+  }
+
+  /**
+   * Translates one run of a pattern letter.
+   */
+  private static String translateField(char letter, int count)
+  {
+    switch (letter)
+    {
+      case 'y':
+        // Formatting agrees for two-digit years and, within four-digit
+        // years, for any other width up to four.
+        return count <= 4 ? repeat(letter, count) : null;
+      case 'M':
+      case 'E':
+        return count <= 4 ? repeat(letter, count) : null;
+      case 'd':
+      case 'H':
+      case 'h':
+      case 'k':
+      case 'K':
+      case 'm':
+      case 's':
+        return count <= 2 ? repeat(letter, count) : null;
+      case 'a':
+        return "a";
+      case 'S':
+        // SimpleDateFormat's S is milliseconds and DateTimeFormatter's is
+        // a fraction of a second; they coincide only at three digits.
+        return count == 3 ? "SSS" : null;
+      case 'X':
+        // A single X differs for offsets with minutes.
+        return (count == 2 || count == 3) ? repeat(letter, count) : null;
+      default:
+        return null;
+    }
+  }
+
+  private static String repeat(char letter, int count)
+  {
+    final char[] chars = new char[count];
+    Arrays.fill(chars, letter);
+    return new String(chars);
+  }
+
+}   // End DateTimePatterns.
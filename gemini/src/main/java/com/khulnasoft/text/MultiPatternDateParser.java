@@ -0,0 +1,219 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.text;
+
+import java.text.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Parses dates that may be in any of several SimpleDateFormat patterns,
+ * without locking.  Each thread parses with its own SimpleDateFormat
+ * copies, created as each pattern is first needed.
+ *   <p>
+ * Rather than trying every pattern in turn, the parser scans the input once
+ * to note which separator characters (/ - : . ,) and whether any letters
+ * are present, and skips patterns whose literal separators or text fields
+ * cannot match.  The remaining candidates are tried in order and the first
+ * that parses is used, as with a plain list of SimpleDateFormats, so the 
+ * result never depends on what was parsed before.
+ */
+public class MultiPatternDateParser
+{
+
+  //
+  // Constants.
+  //
+
+  private static final String SEPARATORS = "/-:.,";
+  private static final int    LETTERS = 1 << SEPARATORS.length();
+
+  //
+  // Member variables.
+  //
+
+  private final String[]                   patterns;
+  private final int[]                      required;
+  private final boolean                    lenient;
+  private final ThreadLocal<SimpleDateFormat[]> formats;
+
+  //
+  // Member methods.
+  //
+
+  /**
+   * Constructor.
+   *
+   * @param lenient Whether the SimpleDateFormats are lenient.
+   * @param patterns The SimpleDateFormat patterns, in order of preference.
+   */
+  public MultiPatternDateParser(boolean lenient, String... patterns)
+  {
+    this.patterns = patterns.clone();
+    this.lenient = lenient;
+    this.required = new int[patterns.length];
+    for (int i = 0; i < patterns.length; i++)
+    {
+      this.required[i] = requirements(patterns[i]);
+    }
+    this.formats = ThreadLocal.withInitial(() -> new SimpleDateFormat[this.patterns.length]);
+  }
+
+  /**
+   * Gets the patterns, in order of preference.
+   */
+  public String[] getPatterns()
+  {
+    return this.patterns.clone();
+  }
+
+  /**
+   * Parses a date, returning null if no pattern matches.
+   *
+   * @param text The text to parse.
+   * @param timeZone The TimeZone in which to interpret the text, or null
+   *        for the default.
+   * @param matched If not null, receives the index of the pattern that
+   *        matched, or -1.
+   */
+  public Date parse(String text, TimeZone timeZone, AtomicInteger matched)
+  {
+    int index = -1;
+    Date result = null;
+    if (text != null)
+    {
+      final int present = features(text);
+      final SimpleDateFormat[] threadFormats = this.formats.get();
+      
+      for (int i = 0; result == null && i < this.patterns.length; i++)
+      {
+        if ((this.required[i] & ~present) == 0)
+        {
+          result = parse(threadFormats, i, text, new ParsePosition(0), timeZone);
+          if (result != null)
+          {
+            index = i;
+          }
+        }
+      }
+    }
+    
+    if (matched != null)
+    {
+      matched.set(index);
+    }
+    return result;
+  }
+
+  /**
+   * Parses with one pattern, using this thread's copy.
+   */
+  private Date parse(SimpleDateFormat[] threadFormats, int index, String text,
+      ParsePosition position, TimeZone timeZone)
+  {
+    SimpleDateFormat format = threadFormats[index];
+    if (format == null)
+    {
+      format = new SimpleDateFormat(this.patterns[index]);
+      format.setLenient(this.lenient);
+      threadFormats[index] = format;
+    }
+    if (timeZone == null)
+    {
+      return format.parse(text, position);
+    }
+    
+    final TimeZone origTimeZone = format.getTimeZone();
+    format.setTimeZone(timeZone);
+    try
+    {
+      return format.parse(text, position);
+    }
+    finally
+    {
+      format.setTimeZone(origTimeZone);
+    }
+  }
+
+  /**
+   * Gets the features present in some text.
+   */
+  private static int features(String text)
+  {
+    int present = 0;
+    for (int i = 0; i < text.length(); i++)
+    {
+      final char c = text.charAt(i);
+      final int separator = SEPARATORS.indexOf(c);
+      if (separator >= 0)
+      {
+        present |= (1 << separator);
+      }
+      else if (Character.isLetter(c))
+      {
+        present |= LETTERS;
+      }
+    }
+    return present;
+  }
+
+  /**
+   * Gets the features that text must have to match a pattern: its literal
+   * separators, and letters if it has text fields or quoted letters.
+   */
+  private static int requirements(String pattern)
+  {
+    int required = 0;
+    boolean quoted = false;
+    for (int i = 0; i < pattern.length(); i++)
+    {
+      final char c = pattern.charAt(i);
+      if (c == '\'')
+      {
+        quoted = !quoted;
+        continue;
+      }
+      final int separator = SEPARATORS.indexOf(c);
+      if (separator >= 0)
+      {
+        required |= (1 << separator);
+      }
+      else if (quoted && Character.isLetter(c))
+      {
+        required |= LETTERS;
+      }
+      else if (!quoted && (c == 'E' || c == 'a' || c == 'G'
+          || (c == 'M' && pattern.startsWith("MMM", i))))
+      {
+        required |= LETTERS;
+      }
+    }
+    return required;
+  }
+
+}   // End MultiPatternDateParser.
@@ -32,6 +32,10 @@ import java.text.*;
 /**
  * Provides a simple thread-safe wrapper for the "format" method provided
  * by DecimalFormat.
+ *   <p>
+ * Each thread formats with its own copy of the DecimalFormat, so calls do
+ * not contend for a lock.  The format(..., StringBuilder) variants append
+ * to a caller's buffer, avoiding an intermediate String.
  */
 public class SynchronizedDecimalFormat
 {
@@ -40,6 +44,7 @@ public class SynchronizedDecimalFormat
   //
   
   private final DecimalFormat decimalFormat;
+  private final ThreadLocal<Copy> copies;
 
   //
   // Member methods.
@@ -51,6 +56,8 @@ public class SynchronizedDecimalFormat
   public SynchronizedDecimalFormat(String numberFormat)
   {
     this.decimalFormat = new DecimalFormat(numberFormat);
+    this.copies = ThreadLocal.withInitial(() -> new Copy(
+        (DecimalFormat)this.decimalFormat.clone()));
   }
 
   /**
@@ -64,33 +71,70 @@ public class SynchronizedDecimalFormat
   /**
    * Formats a float to a String.
    */
-  public synchronized String format(float number)
+  public String format(float number)
   {
-    return this.decimalFormat.format(number);
+    return this.copies.get().format.format(number);
   }
 
   /**
    * Formats a long to a String.
    */
-  public synchronized String format(long number)
+  public String format(long number)
   {
-    return this.decimalFormat.format(number);
+    return this.copies.get().format.format(number);
   }
 
   /**
    * Formats a double to a String.
    */
-  public synchronized String format(double number)
+  public String format(double number)
   {
-    return this.decimalFormat.format(number);
+    return this.copies.get().format.format(number);
   }
 
   /**
    * Formats an int to a String.
    */
-  public synchronized String format(int number)
+  public String format(int number)
   {
-    return this.decimalFormat.format(number);
+    return this.copies.get().format.format(number);
+  }
+
+  /**
+   * Formats a double, appending to a StringBuilder.
+   */
+  public StringBuilder format(double number, StringBuilder out)
+  {
+    final Copy copy = this.copies.get();
+    copy.buffer.setLength(0);
+    copy.format.format(number, copy.buffer, copy.position);
+    return out.append(copy.buffer);
+  }
+
+  /**
+   * Formats a long, appending to a StringBuilder.
+   */
+  public StringBuilder format(long number, StringBuilder out)
+  {
+    final Copy copy = this.copies.get();
+    copy.buffer.setLength(0);
+    copy.format.format(number, copy.buffer, copy.position);
+    return out.append(copy.buffer);
+  }
+
+  /**
+   * A thread's copy of the DecimalFormat and reusable buffers.
+   */
+  private static final class Copy
+  {
+    private final DecimalFormat format;
+    private final StringBuffer  buffer = new StringBuffer(32);
+    private final FieldPosition position = new FieldPosition(0);
+    
+    private Copy(DecimalFormat format)
+    {
+      this.format = format;
+    }
   }
 
 } // End SynchronizedDecimalFormat.
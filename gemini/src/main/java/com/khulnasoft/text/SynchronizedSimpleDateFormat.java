@@ -28,12 +28,21 @@
 package com.khulnasoft.text;
 
 import java.text.*;
+import java.time.*;
+import java.time.format.*;
 import java.util.*;
 
 /**
  * Extends SimpleDateFormat and provides thread-safe access to the format()
  * and parse() methods.
  *   <p>
+ * Despite the name, calls do not contend for a lock.  Formatting uses an
+ * immutable java.time DateTimeFormatter when the pattern can be translated
+ * exactly (see {@link DateTimePatterns}), which covers the common numeric
+ * and month/day-name patterns.  Otherwise, and for all parsing, each thread
+ * uses its own copy of this SimpleDateFormat, refreshed whenever this 
+ * object's pattern, time zone, symbols or other settings are changed.
+ *   <p>
  * This class is preferred to the similar (now deprecated) DateFormatter
  * class.
  */
@@ -44,6 +53,12 @@ public class SynchronizedSimpleDateFormat
   // Member variables.
   //
 
+  private transient volatile int               version;
+  private transient volatile boolean           translated;
+  private transient volatile DateTimeFormatter formatter;
+  private transient volatile ZoneId            zone;
+  private transient volatile ThreadLocal<Copy> copies;
+
   //
   // Member methods.
   //
@@ -93,38 +108,17 @@ public class SynchronizedSimpleDateFormat
    */
   public String format(Date date, TimeZone tz)
   {
-    synchronized (this)
+    final DateTimeFormatter dtf = formatter(date);
+    if (dtf != null)
     {
-      // Save the currently set TimeZone.
-      TimeZone origTimeZone = this.getTimeZone();
-      // Use the default TimeZone if this one is null (should never happen).
-      if (origTimeZone == null)
-      {
-        origTimeZone = TimeZone.getDefault();
-      }
-
-      // If a TimeZone is set, then use it.
-      if (tz != null)
-      {
-        this.setTimeZone(tz);
-      }
-
-      // Call the super-class version.
-      String toReturn = super.format(date);
-
-      // If a TimeZone was set, then switch back to the original.
-      if (tz != null)
-      {
-        this.setTimeZone(origTimeZone);
-      }
-
-      return toReturn;
+      return dtf.format(date.toInstant().atZone(tz != null ? tz.toZoneId() : this.zone));
     }
+    return format(date, new StringBuffer(), new FieldPosition(0), tz).toString();
   }
 
   /**
-   * Override format() so that all calls first go to the synchronized version containing
-   * the TimeZone param.
+   * Override format() so that all calls first go to the thread-safe version 
+   * containing the TimeZone param.
    */
   @Override
   public StringBuffer format(Date date, StringBuffer toAppendTo, FieldPosition pos)
@@ -141,32 +135,34 @@ public class SynchronizedSimpleDateFormat
    */
   public StringBuffer format(Date date, StringBuffer toAppendTo, FieldPosition pos, TimeZone tz)
   {
-    synchronized (this)
+    // The DateTimeFormatter cannot report field positions.
+    final DateTimeFormatter dtf = (pos.getFieldAttribute() == null && pos.getField() == 0)
+        ? formatter(date) 
+        : null;
+    if (dtf != null)
     {
-      // Save the currently set TimeZone.
-      TimeZone origTimeZone = this.getTimeZone();
-      // Use the default TimeZone if this one is null (should never happen).
-      if (origTimeZone == null)
-      {
-        origTimeZone = TimeZone.getDefault();
-      }
-
-      // If a TimeZone is set, then use it.
-      if (tz != null)
-      {
-        this.setTimeZone(tz);
-      }
-
-      // Call the super-class version.
-      StringBuffer toReturn = super.format(date, toAppendTo, pos);
-
-      // If a TimeZone was set, then switch back to the original.
-      if (tz != null)
-      {
-        this.setTimeZone(origTimeZone);
-      }
-
-      return toReturn;
+      dtf.formatTo(date.toInstant().atZone(tz != null ? tz.toZoneId() : this.zone), 
+          toAppendTo);
+      return toAppendTo;
+    }
+    
+    final SimpleDateFormat copy = copy();
+    if (tz == null)
+    {
+      return copy.format(date, toAppendTo, pos);
+    }
+    
+    // The copy is confined to this thread, so its TimeZone can be changed 
+    // temporarily.
+    final TimeZone origTimeZone = copy.getTimeZone();
+    copy.setTimeZone(tz);
+    try
+    {
+      return copy.format(date, toAppendTo, pos);
+    }
+    finally
+    {
+      copy.setTimeZone(origTimeZone);
     }
   }
 
@@ -213,8 +209,8 @@ public class SynchronizedSimpleDateFormat
   }
 
   /**
-   * Override parse() so that all calls first go to the synchronized version containing
-   * the TimeZone param.
+   * Override parse() so that all calls first go to the thread-safe version 
+   * containing the TimeZone param.
    *
    * Parses a date string using the underlying SimpleDateFormat code.  Note that
    * this method is thread-safe, unlike the normal SimpleDateFormat.parse
@@ -234,33 +230,107 @@ public class SynchronizedSimpleDateFormat
    * @param tz The TimeZone which the given source string should be interpreted in.
    */
   public Date parse(String source, ParsePosition pos, TimeZone tz)
+  {
+    final SimpleDateFormat copy = copy();
+    if (tz == null)
+    {
+      return copy.parse(source, pos);
+    }
+    
+    final TimeZone origTimeZone = copy.getTimeZone();
+    copy.setTimeZone(tz);
+    try
+    {
+      return copy.parse(source, pos);
+    }
+    finally
+    {
+      copy.setTimeZone(origTimeZone);
+    }
+  }
+
+  //
+  // Changes to this object's settings invalidate the translated formatter
+  // and the per-thread copies.
+  //
+
+  @Override
+  public void applyPattern(String pattern)
   {
     synchronized (this)
     {
-      // Save the currently set TimeZone.
-      TimeZone origTimeZone = this.getTimeZone();
-      // Use the default TimeZone if this one is null (should never happen).
-      if (origTimeZone == null)
-      {
-        origTimeZone = TimeZone.getDefault();
-      }
+      super.applyPattern(pattern);
+      changed();
+    }
+  }
 
-      // If a TimeZone is set, then use it.
-      if (tz != null)
-      {
-        this.setTimeZone(tz);
-      }
+  @Override
+  public void applyLocalizedPattern(String pattern)
+  {
+    synchronized (this)
+    {
+      super.applyLocalizedPattern(pattern);
+      changed();
+    }
+  }
 
-      // Call the super-class version.
-      Date toReturn = super.parse(source, pos);
+  @Override
+  public void set2DigitYearStart(Date startDate)
+  {
+    synchronized (this)
+    {
+      super.set2DigitYearStart(startDate);
+      changed();
+    }
+  }
 
-      // If a TimeZone was set, then switch back to the original.
-      if (tz != null)
-      {
-        this.setTimeZone(origTimeZone);
-      }
+  @Override
+  public void setDateFormatSymbols(DateFormatSymbols newFormatSymbols)
+  {
+    synchronized (this)
+    {
+      super.setDateFormatSymbols(newFormatSymbols);
+      changed();
+    }
+  }
 
-      return toReturn;
+  @Override
+  public void setTimeZone(TimeZone zone)
+  {
+    synchronized (this)
+    {
+      super.setTimeZone(zone);
+      changed();
+    }
+  }
+
+  @Override
+  public void setLenient(boolean lenient)
+  {
+    synchronized (this)
+    {
+      super.setLenient(lenient);
+      changed();
+    }
+  }
+
+  @Override
+  public void setCalendar(Calendar newCalendar)
+  {
+    synchronized (this)
+    {
+      super.setCalendar(newCalendar);
+      changed();
+    }
+  }
+
+  @Override
+  public void setNumberFormat(NumberFormat newNumberFormat)
+  {
+    synchronized (this)
+    {
+      super.setNumberFormat(newNumberFormat);
+      changed();
     }
   }
 
@@ -270,4 +340,101 @@ public class SynchronizedSimpleDateFormat
     return super.toPattern();
   }
 
+  /**
+   * Records a change to this object's settings.
+   */
+  private void changed()
+  {
+    this.translated = false;
+    this.formatter = null;
+    this.version++;
+  }
+
+  /**
+   * Gets the DateTimeFormatter equivalent to this object for formatting a
+   * Date, or null if a SimpleDateFormat must be used.
+   */
+  private DateTimeFormatter formatter(Date date)
+  {
+    if (!this.translated)
+    {
+      synchronized (this)
+      {
+        if (!this.translated)
+        {
+          // Translation assumes default symbols and a Gregorian calendar,
+          // which is how the constructors leave a SimpleDateFormat.
+          final Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+          final NumberFormat numberFormat = getNumberFormat();
+          final boolean standard = getCalendar() instanceof GregorianCalendar
+              && getDateFormatSymbols().equals(DateFormatSymbols.getInstance(locale))
+              && numberFormat instanceof DecimalFormat
+              && ((DecimalFormat)numberFormat).getDecimalFormatSymbols().getZeroDigit()
+                  == DecimalStyle.of(locale).getZeroDigit();
+          this.zone = super.getTimeZone().toZoneId();
+          this.formatter = standard 
+              ? DateTimePatterns.toFormatter(toPattern(), locale) 
+              : null;
+          this.translated = true;
+        }
+      }
+    }
+    final DateTimeFormatter dtf = this.formatter;
+    return (dtf != null && DateTimePatterns.isFormattable(date.getTime())) ? dtf : null;
+  }
+
+  /**
+   * Gets this thread's copy of this SimpleDateFormat, creating or
+   * refreshing it as necessary.
+   */
+  private SimpleDateFormat copy()
+  {
+    ThreadLocal<Copy> threadCopies = this.copies;
+    if (threadCopies == null)
+    {
+      synchronized (this)
+      {
+        if (this.copies == null)
+        {
+          this.copies = new ThreadLocal<>();
+        }
+        threadCopies = this.copies;
+      }
+    }
+    
+    final int currentVersion = this.version;
+    Copy copy = threadCopies.get();
+    if (copy == null || copy.version != currentVersion)
+    {
+      synchronized (this)
+      {
+        final SimpleDateFormat format = new SimpleDateFormat(toPattern(), 
+            getDateFormatSymbols());
+        format.setCalendar((Calendar)getCalendar().clone());
+        format.setNumberFormat((NumberFormat)getNumberFormat().clone());
+        format.set2DigitYearStart(get2DigitYearStart());
+        format.setLenient(isLenient());
+        copy = new Copy(format, this.version);
+      }
+      threadCopies.set(copy);
+    }
+    return copy.format;
+  }
+
+  /**
+   * A thread's copy of the SimpleDateFormat and the version of this 
+   * object's settings it reflects.
+   */
+  private static final class Copy
+  {
+    private final SimpleDateFormat format;
+    private final int version;
+    
+    private Copy(SimpleDateFormat format, int version)
+    {
+      this.format = format;
+      this.version = version;
+    }
+  }
+
 } // End SynchronizedSimpleDateFormat.
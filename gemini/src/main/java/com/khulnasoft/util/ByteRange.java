@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.util;
+
+import java.time.*;
+import java.time.format.*;
+
+/**
+ * A single range of bytes within a resource of known length, as requested
+ * by an HTTP Range header.  Only single ranges are supported; requests for
+ * multiple ranges are answered with the whole resource, which RFC 7233
+ * permits.
+ *
+ * <pre>
+ * ByteRange range = ByteRange.parse(request.getHeader("Range"), 
+ *     request.getHeader("If-Range"), etag, file.lastModified(), file.length());
+ * if (range == ByteRange.UNSATISFIABLE) { ... 416 ... }
+ * else if (range != null) { ... 206 ... }
+ * </pre>
+ */
+public final class ByteRange
+{
+  
+  //
+  // Constants.
+  //
+  
+  /**
+   * Returned by parse for a syntactically valid range that lies entirely
+   * beyond the end of the resource.
+   */
+  public static final ByteRange UNSATISFIABLE = new ByteRange(-1L, -1L);
+  
+  //
+  // Member variables.
+  //
+  
+  public final long start;
+  public final long end;    // Inclusive.
+  
+  //
+  // Member methods.
+  //
+  
+  /**
+   * Constructor.
+   */
+  private ByteRange(long start, long end)
+  {
+    this.start = start;
+    this.end = end;
+  }
+  
+  /**
+   * Parses a Range header value such as "bytes=0-499", "bytes=500-", or 
+   * "bytes=-500" against a resource length.  Returns null if the header is
+   * absent, malformed, or requests multiple ranges, in which case the whole
+   * resource should be sent; or UNSATISFIABLE if the range starts beyond
+   * the end of the resource.
+   */
+  public static ByteRange parse(String header, long length)
+  {
+    if (header == null || !header.startsWith("bytes="))
+    {
+      return null;
+    }
+    final String spec = header.substring(6).trim();
+    if (spec.indexOf(',') >= 0)
+    {
+      return null;
+    }
+    final int dash = spec.indexOf('-');
+    if (dash < 0)
+    {
+      return null;
+    }
+    
+    try
+    {
+      final String first = spec.substring(0, dash).trim();
+      final String last = spec.substring(dash + 1).trim();
+      
+      // A suffix range: the last N bytes.
+      if (first.isEmpty())
+      {
+        if (last.isEmpty())
+        {
+          return null;
+        }
+        final long suffix = Long.parseLong(last);
+        if (suffix <= 0L)
+        {
+          return UNSATISFIABLE;
+        }
+        if (length == 0L)
+        {
+          return UNSATISFIABLE;
+        }
+        return new ByteRange(Math.max(0L, length - suffix), length - 1);
+      }
+      
+      final long start = Long.parseLong(first);
+      final long end = last.isEmpty() 
+          ? length - 1 
+          : Math.min(Long.parseLong(last), length - 1);
+      if (start < 0L || (!last.isEmpty() && Long.parseLong(last) < start))
+      {
+        return null;
+      }
+      if (start >= length)
+      {
+        return UNSATISFIABLE;
+      }
+      return new ByteRange(start, end);
+    }
+    catch (NumberFormatException nfexc)
+    {
+      return null;
+    }
+  }
+  
+  /**
+   * Parses a Range header as {@link #parse(String, long)} does, but only if
+   * an If-Range header, when present, still matches the resource: it must
+   * be either the resource's strong entity tag or an HTTP date equal to its
+   * last-modified time to the second.  Otherwise returns null, so that a
+   * client resuming a download of a changed resource receives all of it.
+   *
+   * @param header the Range header, or null.
+   * @param ifRange the If-Range header, or null.
+   * @param etag the resource's entity tag, including its quotes.
+   * @param lastModified the resource's last-modified time in milliseconds.
+   * @param length the resource's length.
+   */
+  public static ByteRange parse(String header, String ifRange, String etag,
+      long lastModified, long length)
+  {
+    if (ifRange != null && !ifRangeMatches(ifRange.trim(), etag, lastModified))
+    {
+      return null;
+    }
+    return parse(header, length);
+  }
+  
+  /**
+   * Determines whether an If-Range validator matches a resource.  Weak
+   * entity tags never match, per RFC 7233.
+   */
+  private static boolean ifRangeMatches(String ifRange, String etag, 
+      long lastModified)
+  {
+    if (ifRange.startsWith("\"") || ifRange.startsWith("W/"))
+    {
+      return ifRange.equals(etag) && !etag.startsWith("W/");
+    }
+    try
+    {
+      final long date = ZonedDateTime.parse(ifRange, 
+          DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+      return date / 1000L == lastModified / 1000L;
+    }
+    catch (DateTimeException dtexc)
+    {
+      return false;
+    }
+  }
+  
+  /**
+   * Gets the number of bytes in the range.
+   */
+  public long length()
+  {
+    return end - start + 1;
+  }
+  
+  /**
+   * Gets the value of a Content-Range header for this range of a resource
+   * of the provided total length.
+   */
+  public String toContentRange(long totalLength)
+  {
+    if (this == UNSATISFIABLE)
+    {
+      return "bytes */" + totalLength;
+    }
+    return "bytes " + start + "-" + end + "/" + totalLength;
+  }
+  
+  @Override
+  public String toString()
+  {
+    return "ByteRange [" + start + "-" + end + "]";
+  }
+
+}  // End ByteRange.
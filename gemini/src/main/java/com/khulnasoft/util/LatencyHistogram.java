@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.util;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * A fixed-size, thread-safe histogram of latencies in microseconds.  Values
+ * are counted in log-linear buckets: exact below 128, and within 1/64 
+ * (about 1.6%) of the true value above, up to roughly 19 hours.  Recording
+ * is a few atomic increments, so many threads may record concurrently.
+ */
+public class LatencyHistogram
+{
+
+  //
+  // Constants.
+  //
+
+  private static final int  SUB_BITS     = 7;
+  private static final int  SUB_COUNT    = 1 << SUB_BITS;      // 128
+  private static final int  HALF_COUNT   = SUB_COUNT / 2;      // 64
+  private static final int  MAX_BITS     = 36;
+  private static final long MAX_VALUE    = (1L << MAX_BITS) - 1;
+  private static final int  BUCKET_COUNT = SUB_COUNT 
+      + (MAX_BITS - SUB_BITS) * HALF_COUNT;
+
+  //
+  // Member variables.
+  //
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong      count  = new AtomicLong();
+  private final AtomicLong      total  = new AtomicLong();
+  private final AtomicLong      max    = new AtomicLong();
+
+  //
+  // Member methods.
+  //
+
+  /**
+   * Records one latency, in microseconds.  Negative values are recorded as
+   * zero and very large values are capped.
+   */
+  public void record(long micros)
+  {
+    final long value = Math.min(MAX_VALUE, Math.max(0L, micros));
+    counts.incrementAndGet(indexOf(value));
+    count.incrementAndGet();
+    total.addAndGet(value);
+    max.accumulateAndGet(value, Math::max);
+  }
+
+  /**
+   * Adds the counts of another histogram to this one.
+   */
+  public void add(LatencyHistogram other)
+  {
+    for (int i = 0; i < BUCKET_COUNT; i++)
+    {
+      final long c = other.counts.get(i);
+      if (c > 0)
+      {
+        counts.addAndGet(i, c);
+      }
+    }
+    count.addAndGet(other.count.get());
+    total.addAndGet(other.total.get());
+    max.accumulateAndGet(other.max.get(), Math::max);
+  }
+
+  /**
+   * Gets the number of values recorded.
+   */
+  public long getCount()
+  {
+    return count.get();
+  }
+
+  /**
+   * Gets the largest value recorded, in microseconds.
+   */
+  public long getMax()
+  {
+    return max.get();
+  }
+
+  /**
+   * Gets the mean of the values recorded, in microseconds.
+   */
+  public double getMean()
+  {
+    final long n = count.get();
+    return n == 0 ? 0d : (double)total.get() / n;
+  }
+
+  /**
+   * Gets the value, in microseconds, at or below which the provided 
+   * percentage of recorded values fall.  The result is the top of the 
+   * bucket holding that value, so it errs high rather than low.
+   *
+   * @param percentile from 0 to 100.
+   */
+  public long getValueAtPercentile(double percentile)
+  {
+    final long n = count.get();
+    if (n == 0)
+    {
+      return 0L;
+    }
+    final long rank = Math.max(1L, 
+        (long)Math.ceil(Math.min(100d, Math.max(0d, percentile)) / 100d * n));
+    long seen = 0L;
+    for (int i = 0; i < BUCKET_COUNT; i++)
+    {
+      seen += counts.get(i);
+      if (seen >= rank)
+      {
+        return Math.min(highestEquivalentValue(i), getMax());
+      }
+    }
+    return getMax();
+  }
+
+  /**
+   * Returns the bucket index for a value.
+   */
+  private static int indexOf(long value)
+  {
+    if (value < SUB_COUNT)
+    {
+      return (int)value;
+    }
+    // Keep the top SUB_BITS - 1 bits below the leading one.
+    final int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BITS - 1);
+    final int sub = (int)(value >>> shift);   // HALF_COUNT <= sub < SUB_COUNT
+    return SUB_COUNT + (shift - 1) * HALF_COUNT + (sub - HALF_COUNT);
+  }
+
+  /**
+   * Returns the largest value that falls in a bucket.
+   */
+  private static long highestEquivalentValue(int index)
+  {
+    if (index < SUB_COUNT)
+    {
+      return index;
+    }
+    final int offset = index - SUB_COUNT;
+    final int shift = offset / HALF_COUNT + 1;
+    final long sub = offset % HALF_COUNT + HALF_COUNT;
+    return ((sub + 1) << shift) - 1;
+  }
+
+}   // End LatencyHistogram.
@@ -0,0 +1,333 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.cache;
+
+import static org.junit.Assert.*;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+import java.util.stream.*;
+
+import org.junit.*;
+
+import com.khulnasoft.cache.annotation.*;
+import com.khulnasoft.data.*;
+import com.khulnasoft.util.*;
+import gnu.trove.map.*;
+import gnu.trove.map.hash.*;
+
+/**
+ * Tests for EntityQuery.
+ */
+public class EntityQueryTest {
+
+  private static final Comparator<Item> BY_SCORE = 
+      Comparator.comparingInt(Item::getScore).thenComparingLong(Item::getId);
+
+  private EntityStore store;
+  private Items group;
+
+  @Before
+  public void setUp() {
+    store = new EntityStore(null, new ConnectorFactory() {
+      @Override
+      public ConnectionMonitor getConnectionMonitor() throws SQLException {
+        throw new SQLException("No database.");
+      }
+
+      @Override
+      public void determineIdentifierQuoteString() {
+      }
+
+      @Override
+      public String getIdentifierQuoteString() {
+        return "\"";
+      }
+
+      @Override
+      public DatabaseAffinity getDatabaseAffinity() {
+        return DatabaseAffinity.MYSQL;
+      }
+
+      @Override
+      public boolean isEnabled() {
+        return false;
+      }
+
+      @Override
+      public void configure(EnhancedProperties props) {
+      }
+    });
+    group = new Items(store);
+    store.register(group);
+
+    final Random random = new Random(41L);
+    for (long id = 1; id <= 200; id++) {
+      group.hold(new Item(id, (int)(id % 5), random.nextInt(100)));
+    }
+  }
+
+  private static List<Long> ids(List<Item> items) {
+    return items.stream().map(Item::getId).collect(Collectors.toList());
+  }
+
+  private List<Item> expected(Predicate<Item> filter,
+      Comparator<Item> order) {
+    final Stream<Item> stream = group.items.values().stream().filter(filter);
+    return (order == null ? stream : stream.sorted(order))
+        .collect(Collectors.toList());
+  }
+
+  @Test
+  public void indexedCriteriaUseTheIndex() {
+    final List<Item> first = store.query(Item.class)
+        .where("getCategory", 3)
+        .list();
+    // Indexed results are put in the group's order.
+    assertEquals(ids(expected(item -> item.getCategory() == 3, null)), ids(first));
+
+    // Once the index is built, the group is not scanned again.
+    final int scans = group.scans.get();
+    assertEquals(ids(first), ids(store.query(Item.class)
+        .where("getCategory", 3)
+        .list()));
+    assertEquals(40, store.query(Item.class).where("getCategory", 3).count());
+    assertEquals(scans, group.scans.get());
+
+    // A criterion on a method that is not indexed scans the group.
+    final List<Item> scanned = store.query(Item.class)
+        .where("getScore", 42)
+        .list();
+    assertEquals(ids(expected(item -> item.getScore() == 42, null)), ids(scanned));
+    assertEquals(scans + 1, group.scans.get());
+  }
+
+  @Test
+  public void indexedAndOtherCriteriaCombine() {
+    final List<Item> results = store.query(Item.class)
+        .where("getScore", 50)
+        .where("getCategory", 1)
+        .where(item -> item.getId() % 2 == 0)
+        .list();
+    assertEquals(ids(expected(item -> item.getCategory() == 1 
+        && item.getScore() == 50 && item.getId() % 2 == 0, null)), 
+        ids(results));
+  }
+
+  @Test
+  public void topNMatchesAFullSort() {
+    final List<Item> sorted = expected(item -> item.getCategory() != 0, BY_SCORE);
+    for (int limit : new int[] { 1, 5, 17, 159, 160, 500 }) {
+      for (int offset : new int[] { 0, 3, 150 }) {
+        final List<Item> results = store.query(Item.class)
+            .where(item -> item.getCategory() != 0)
+            .orderBy(BY_SCORE)
+            .offset(offset)
+            .limit(limit)
+            .list();
+        final List<Item> page = sorted.stream().skip(offset).limit(limit)
+            .collect(Collectors.toList());
+        assertEquals(offset + "/" + limit, ids(page), ids(results));
+      }
+    }
+
+    final List<Item> descending = store.query(Item.class)
+        .orderBy(BY_SCORE)
+        .descending()
+        .page(3, 10)
+        .list();
+    final List<Item> all = expected(item -> true, BY_SCORE.reversed());
+    assertEquals(ids(all.subList(20, 30)), ids(descending));
+    assertEquals(0, store.query(Item.class).orderBy(BY_SCORE).limit(0).list().size());
+  }
+
+  @Test
+  public void firstAndCount() {
+    final Item best = store.query(Item.class)
+        .where("getCategory", 2)
+        .orderBy(BY_SCORE)
+        .descending()
+        .first();
+    assertEquals(expected(item -> item.getCategory() == 2, BY_SCORE.reversed())
+        .get(0).getId(), best.getId());
+    assertNull(store.query(Item.class).where("getCategory", 9).first());
+
+    // first() leaves the query's own limit in place.
+    final EntityQuery<Item> query = store.query(Item.class)
+        .orderBy(BY_SCORE).limit(5);
+    assertNotNull(query.first());
+    assertEquals(5, query.list().size());
+
+    assertEquals(200, store.query(Item.class).count());
+    assertEquals(200, store.query(Item.class).limit(3).offset(10).count());
+    assertEquals(expected(item -> item.getScore() < 30, null).size(),
+        store.query(Item.class).where(item -> item.getScore() < 30).count());
+  }
+
+  @Test
+  public void offsetAndLimitDoNotOverflow() {
+    final List<Item> sorted = expected(item -> true, BY_SCORE);
+    assertEquals(ids(sorted.subList(2, sorted.size())), ids(store.query(Item.class)
+        .orderBy(BY_SCORE)
+        .offset(2)
+        .limit(Integer.MAX_VALUE)
+        .list()));
+    assertTrue(store.query(Item.class)
+        .orderBy(BY_SCORE)
+        .offset(Integer.MAX_VALUE)
+        .limit(Integer.MAX_VALUE)
+        .list().isEmpty());
+    assertTrue(store.query(Item.class)
+        .where(item -> true)
+        .offset(Integer.MAX_VALUE)
+        .limit(Integer.MAX_VALUE)
+        .list().isEmpty());
+  }
+
+  @Test(timeout = 30000)
+  public void runsInParallelAboveTheThreshold() throws InterruptedException {
+    store.configure(new EnhancedProperties()
+        .put("EntityStore.QueryParallelThreshold", 100));
+    assertEquals(100, store.getQueryParallelThreshold());
+
+    // The first element evaluated waits until some other thread evaluates
+    // another, which happens only if the query runs in parallel.
+    final AtomicReference<Thread> waiting = new AtomicReference<>();
+    final CountDownLatch other = new CountDownLatch(1);
+    final List<Item> results = store.query(Item.class)
+        .where(item -> {
+          if (waiting.compareAndSet(null, Thread.currentThread())) {
+            try {
+              other.await(20, TimeUnit.SECONDS);
+            } catch (InterruptedException exc) {
+              Thread.currentThread().interrupt();
+            }
+          } else if (waiting.get() != Thread.currentThread()) {
+            other.countDown();
+          }
+          return item.getScore() >= 50;
+        })
+        .orderBy(BY_SCORE)
+        .limit(10)
+        .list();
+    assertEquals(0, other.getCount());
+    assertEquals(ids(expected(item -> item.getScore() >= 50, BY_SCORE)
+        .subList(0, 10)), ids(results));
+
+    assertEquals(ids(expected(item -> item.getScore() >= 50, BY_SCORE)),
+        ids(store.query(Item.class)
+            .where(item -> item.getScore() >= 50)
+            .orderBy(BY_SCORE)
+            .list()));
+    assertEquals(expected(item -> item.getScore() >= 50, null).size(),
+        store.query(Item.class).where(item -> item.getScore() >= 50).count());
+  }
+
+  /**
+   * An entity with an indexed category and a score.
+   */
+  public static final class Item implements Identifiable {
+    private long id;
+    private final int category;
+    private final int score;
+
+    Item(long id, int category, int score) {
+      this.id = id;
+      this.category = category;
+      this.score = score;
+    }
+
+    @Override
+    public long getId() {
+      return id;
+    }
+
+    @Override
+    public void setId(long id) {
+      this.id = id;
+    }
+
+    @Indexed
+    public int getCategory() {
+      return category;
+    }
+
+    public int getScore() {
+      return score;
+    }
+  }
+
+  /**
+   * A group held in memory, standing in for one loaded from a database.
+   * Counts the times it is listed in full.
+   */
+  private static final class Items extends CacheGroup<Item> {
+    private final Map<Long, Item> items = new TreeMap<>();
+    private final AtomicInteger scans = new AtomicInteger();
+
+    Items(EntityStore store) {
+      super(store, Item.class, null, null, null, 
+          Comparator.comparingLong(Item::getId), null, null, false, false);
+    }
+
+    void hold(Item item) {
+      items.put(item.getId(), item);
+    }
+
+    @Override
+    public Item get(long id) {
+      return items.get(id);
+    }
+
+    @Override
+    public List<Item> list() {
+      scans.incrementAndGet();
+      return new ArrayList<>(items.values());
+    }
+
+    @Override
+    public int size() {
+      return items.size();
+    }
+
+    @Override
+    public TLongObjectMap<Item> map(Collection<Long> ids) {
+      final TLongObjectMap<Item> map = new TLongObjectHashMap<>(ids.size());
+      for (long id : ids) {
+        final Item item = items.get(id);
+        if (item != null) {
+          map.put(id, item);
+        }
+      }
+      return map;
+    }
+  }
+}
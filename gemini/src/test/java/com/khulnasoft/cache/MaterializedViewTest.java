@@ -0,0 +1,312 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.cache;
+
+import static org.junit.Assert.*;
+
+import java.sql.*;
+import java.util.*;
+import java.util.stream.*;
+
+import org.junit.*;
+
+import com.khulnasoft.data.*;
+import com.khulnasoft.util.*;
+
+/**
+ * Tests for MaterializedView.
+ */
+public class MaterializedViewTest {
+
+  private static final Comparator<Item> BY_SCORE = 
+      Comparator.comparingInt((Item item) -> item.score).reversed();
+
+  private static EntityStore store;
+
+  private Items group;
+  private MaterializedView<Item> view;
+
+  @BeforeClass
+  public static void createStore() {
+    store = new EntityStore(null, new ConnectorFactory() {
+      @Override
+      public ConnectionMonitor getConnectionMonitor() throws SQLException {
+        throw new SQLException("No database.");
+      }
+
+      @Override
+      public void determineIdentifierQuoteString() {
+      }
+
+      @Override
+      public String getIdentifierQuoteString() {
+        return "\"";
+      }
+
+      @Override
+      public DatabaseAffinity getDatabaseAffinity() {
+        return DatabaseAffinity.MYSQL;
+      }
+
+      @Override
+      public boolean isEnabled() {
+        return false;
+      }
+
+      @Override
+      public void configure(EnhancedProperties props) {
+      }
+    });
+  }
+
+  @Before
+  public void setUp() {
+    group = new Items(store);
+    group.hold(new Item(1, 10, true));
+    group.hold(new Item(2, 30, true));
+    group.hold(new Item(3, 20, false));
+    group.hold(new Item(4, 40, true));
+    view = group.registerView("active", item -> item.active, BY_SCORE);
+  }
+
+  @After
+  public void tearDown() {
+    group.unregisterView("active");
+  }
+
+  private static List<Long> ids(List<Item> items) {
+    return items.stream().map(Item::getId).collect(Collectors.toList());
+  }
+
+  @Test
+  public void buildsFilteredAndSorted() {
+    assertEquals(Arrays.asList(4L, 2L, 1L), ids(view.list()));
+    assertEquals(3, view.size());
+    assertEquals(1L, view.getRebuildCount());
+    assertEquals("active", view.getName());
+    assertSame(group, view.getGroup());
+  }
+
+  @Test
+  public void insertsNewEntitiesInOrder() {
+    view.list();
+    group.hold(new Item(5, 25, true));
+    view.cacheObjectExpired(Item.class, 5);
+    assertEquals(Arrays.asList(4L, 2L, 5L, 1L), ids(view.list()));
+    assertEquals(1L, view.getUpdateCount());
+    assertEquals(1L, view.getRebuildCount());
+  }
+
+  @Test
+  public void insertsAfterEqualEntities() {
+    view.list();
+    group.hold(new Item(5, 30, true));
+    view.cacheObjectExpired(Item.class, 5);
+    assertEquals(Arrays.asList(4L, 2L, 5L, 1L), ids(view.list()));
+  }
+
+  @Test
+  public void repositionsEntitiesModifiedInPlace() {
+    view.list();
+    group.get(1).score = 50;
+    view.cacheObjectExpired(Item.class, 1);
+    assertEquals(Arrays.asList(1L, 4L, 2L), ids(view.list()));
+  }
+
+  @Test
+  public void followsTheFilter() {
+    view.list();
+    group.get(2).active = false;
+    view.cacheObjectExpired(Item.class, 2);
+    group.get(3).active = true;
+    view.cacheObjectExpired(Item.class, 3);
+    assertEquals(Arrays.asList(4L, 3L, 1L), ids(view.list()));
+  }
+
+  @Test
+  public void dropsRemovedEntities() {
+    view.list();
+    group.drop(4);
+    view.removeFromCache(Item.class, 4);
+    assertEquals(Arrays.asList(2L, 1L), ids(view.list()));
+    // Removing an entity not in the view changes nothing.
+    view.removeFromCache(Item.class, 3);
+    assertEquals(1L, view.getUpdateCount());
+  }
+
+  @Test
+  public void ignoresOtherTypes() {
+    view.list();
+    view.removeFromCache(Other.class, 4);
+    view.cacheTypeReset(Other.class);
+    assertEquals(3, view.size());
+    assertEquals(0L, view.getUpdateCount());
+    assertEquals(1L, view.getRebuildCount());
+  }
+
+  @Test
+  public void rebuildsAfterReset() {
+    view.list();
+    group.hold(new Item(6, 35, true));
+    view.cacheTypeReset(Item.class);
+    assertEquals(1L, view.getRebuildCount());
+    assertEquals(Arrays.asList(4L, 6L, 2L, 1L), ids(view.list()));
+    assertEquals(2L, view.getRebuildCount());
+    view.cacheFullReset();
+    view.size();
+    assertEquals(3L, view.getRebuildCount());
+  }
+
+  @Test
+  public void listsAreSnapshots() {
+    final List<Item> before = view.list();
+    group.drop(4);
+    view.removeFromCache(Item.class, 4);
+    assertEquals(Arrays.asList(4L, 2L, 1L), ids(before));
+    try {
+      before.clear();
+      fail("Expected the list to be unmodifiable.");
+    } catch (UnsupportedOperationException expected) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void pagesAndPositions() {
+    assertEquals(Arrays.asList(2L, 1L), ids(view.page(1, 5)));
+    assertEquals(Collections.emptyList(), view.page(5, 2));
+    assertEquals(Arrays.asList(4L), ids(view.page(-1, 1)));
+    assertEquals(Collections.emptyList(), view.page(0, -1));
+    assertEquals(2L, view.get(1).getId());
+    assertNull(view.get(3));
+    assertNull(view.get(-1));
+    assertEquals(0, view.indexOf(4));
+    assertEquals(-1, view.indexOf(3));
+    assertEquals(16L + 8L * 3, view.getEstimatedBytes());
+  }
+
+  @Test
+  public void incrementalUpdatesMatchARebuild() {
+    final Random random = new Random(46L);
+    view.list();
+    for (int i = 0; i < 2000; i++) {
+      final long id = 1 + random.nextInt(30);
+      final int action = random.nextInt(3);
+      if (action == 0) {
+        group.drop(id);
+        view.removeFromCache(Item.class, id);
+      } else if (action == 1 && group.get(id) != null) {
+        final Item item = group.get(id);
+        item.score = random.nextInt(50);
+        item.active = random.nextBoolean();
+        view.cacheObjectExpired(Item.class, id);
+      } else {
+        group.hold(new Item(id, random.nextInt(50), random.nextBoolean()));
+        view.cacheObjectExpired(Item.class, id);
+      }
+    }
+    final List<Item> expected = group.list().stream()
+        .filter(item -> item.active)
+        .sorted(BY_SCORE)
+        .collect(Collectors.toList());
+    final List<Item> actual = view.list();
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i).score, actual.get(i).score);
+    }
+    assertEquals(new HashSet<>(ids(expected)), new HashSet<>(ids(actual)));
+  }
+
+  /**
+   * An entity with a score and a flag.
+   */
+  public static final class Item implements Identifiable {
+    private long id;
+    int score;
+    boolean active;
+
+    Item(long id, int score, boolean active) {
+      this.id = id;
+      this.score = score;
+      this.active = active;
+    }
+
+    @Override
+    public long getId() {
+      return id;
+    }
+
+    @Override
+    public void setId(long id) {
+      this.id = id;
+    }
+  }
+
+  /**
+   * An unrelated entity type.
+   */
+  public static final class Other implements Identifiable {
+    @Override
+    public long getId() {
+      return 0;
+    }
+
+    @Override
+    public void setId(long id) {
+    }
+  }
+
+  /**
+   * A group held in memory, standing in for one loaded from a database.
+   */
+  private static final class Items extends CacheGroup<Item> {
+    private final Map<Long, Item> items = new TreeMap<>();
+
+    Items(EntityStore store) {
+      super(store, Item.class, null, null, null, null, null, null, false, false);
+    }
+
+    void hold(Item item) {
+      items.put(item.getId(), item);
+    }
+
+    void drop(long id) {
+      items.remove(id);
+    }
+
+    @Override
+    public Item get(long id) {
+      return items.get(id);
+    }
+
+    @Override
+    public List<Item> list() {
+      return new ArrayList<>(items.values());
+    }
+  }
+}
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.junit.*;
+
+/**
+ * Tests for ParallelOperations.
+ */
+public class ParallelOperationsTest {
+
+  private static final int SIZE = 50000;
+
+  private ParallelOperations operations;
+
+  @Before
+  public void setUp() {
+    operations = new ParallelOperations();
+    // A dedicated pool, so that work runs in parallel on any machine.
+    operations.configure(1000, 4, 256);
+  }
+
+  @After
+  public void tearDown() {
+    operations.configure(ParallelOperations.DEFAULT_THRESHOLD, 0,
+        ParallelOperations.DEFAULT_CHUNK_SIZE);
+  }
+
+  @Test
+  public void sortIsStable() {
+    final Random random = new Random(42);
+    final List<int[]> list = new ArrayList<>(SIZE);
+    for (int i = 0; i < SIZE; i++) {
+      // Few distinct keys, so there are many ties.
+      list.add(new int[] { random.nextInt(50), i });
+    }
+    final List<int[]> expected = new ArrayList<>(list);
+    expected.sort(Comparator.comparingInt(pair -> pair[0]));
+
+    operations.sort("sort", list, Comparator.comparingInt(pair -> pair[0]), null);
+
+    assertEquals(1L, operations.getStatistics().get("sort").getParallelCount());
+    for (int i = 0; i < SIZE; i++) {
+      assertSame(expected.get(i), list.get(i));
+    }
+  }
+
+  @Test
+  public void sortHandlesOrderedAndReversedInput() {
+    final List<Integer> ascending = new ArrayList<>(SIZE);
+    final List<Integer> descending = new ArrayList<>(SIZE);
+    for (int i = 0; i < SIZE; i++) {
+      ascending.add(i);
+      descending.add(SIZE - i);
+    }
+    operations.sort("ascending", ascending, Comparator.naturalOrder(), null);
+    operations.sort("descending", descending, Comparator.naturalOrder(), null);
+    for (int i = 0; i < SIZE; i++) {
+      assertEquals(i, ascending.get(i).intValue());
+      assertEquals(i + 1, descending.get(i).intValue());
+    }
+  }
+
+  @Test
+  public void sortIsCancellable() {
+    final List<Integer> list = new ArrayList<>(SIZE);
+    final Random random = new Random(7);
+    for (int i = 0; i < SIZE; i++) {
+      list.add(random.nextInt());
+    }
+    final List<Integer> original = new ArrayList<>(list);
+    final ParallelOperations.Cancellation cancellation = 
+        new ParallelOperations.Cancellation();
+    final AtomicInteger comparisons = new AtomicInteger();
+    try {
+      operations.sort("sort", list, (a, b) -> {
+        if (comparisons.incrementAndGet() == 10000) {
+          cancellation.cancel();
+        }
+        return a.compareTo(b);
+      }, cancellation);
+      fail("Expected the sort to be cancelled.");
+    } catch (CancellationException expected) {
+      // Expected.
+    }
+    assertEquals(1L, operations.getStatistics().get("sort").getCancelledCount());
+    // A cancelled sort leaves the list untouched.
+    assertEquals(original, list);
+  }
+
+  @Test
+  public void filterIsCancelledThroughBoundCancellation() {
+    final List<Integer> list = new ArrayList<>(SIZE);
+    for (int i = 0; i < SIZE; i++) {
+      list.add(i);
+    }
+    final ParallelOperations.Cancellation cancellation = 
+        new ParallelOperations.Cancellation();
+    cancellation.bind();
+    try {
+      operations.filter("filter", list, i -> {
+        if (i == 100) {
+          cancellation.cancel();
+        }
+        return true;
+      });
+      fail("Expected the filter to be cancelled.");
+    } catch (CancellationException expected) {
+      // Expected.
+    } finally {
+      cancellation.unbind();
+    }
+  }
+
+  @Test
+  public void filterAndMapReduceKeepOrderAndTotals() {
+    final List<Integer> list = new ArrayList<>(SIZE);
+    for (int i = 0; i < SIZE; i++) {
+      list.add(i);
+    }
+    final List<Integer> even = operations.filter("filter", list, i -> i % 2 == 0);
+    assertEquals(SIZE / 2, even.size());
+    for (int i = 0; i < even.size(); i++) {
+      assertEquals(i * 2, even.get(i).intValue());
+    }
+    final long sum = operations.mapReduce("sum", list, i -> (long)i, 0L, Long::sum);
+    assertEquals((long)SIZE * (SIZE - 1) / 2, sum);
+  }
+
+}
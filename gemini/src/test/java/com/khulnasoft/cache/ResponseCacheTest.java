@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.cache;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+import org.junit.*;
+
+/**
+ * Tests for ResponseCache.
+ */
+public class ResponseCacheTest {
+
+  private static final String BODY = String.join("", Collections.nCopies(200, "cached body "));
+
+  @Test
+  public void storesPlainAndCompressedBodies() throws IOException {
+    final ResponseCache cache = new ResponseCache();
+    final ResponseCache.Entry entry = cache.getEntry("k", "text/plain", () -> BODY);
+    assertTrue(entry.isCompressed());
+    assertTrue(entry.getLength(true) < entry.getLength(false));
+
+    final ByteArrayOutputStream plain = new ByteArrayOutputStream();
+    entry.writeTo(plain, false);
+    assertEquals(BODY, new String(plain.toByteArray(), StandardCharsets.UTF_8));
+    assertEquals(entry.getLength(false), plain.size());
+
+    final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    entry.writeTo(compressed, true);
+    assertEquals(entry.getLength(true), compressed.size());
+    assertArrayEquals(entry.getCompressedBytes(), compressed.toByteArray());
+    try (InputStream in = new GZIPInputStream(
+        new ByteArrayInputStream(compressed.toByteArray()))) {
+      final ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+      final byte[] buffer = new byte[1024];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        inflated.write(buffer, 0, read);
+      }
+      assertEquals(BODY, new String(inflated.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    // Only the compressed form is kept; the others are inflated from it.
+    assertEquals(BODY, entry.getText());
+    assertEquals(BODY, new String(entry.getBytes(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void storesSmallBodiesUncompressed() throws IOException {
+    final ResponseCache cache = new ResponseCache();
+    final ResponseCache.Entry entry = cache.getEntry("k", null, () -> "short");
+    assertFalse(entry.isCompressed());
+    assertNull(entry.getCompressedBytes());
+    assertEquals(5, entry.getLength(true));
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    entry.writeTo(out, true);
+    assertEquals("short", new String(out.toByteArray(), StandardCharsets.UTF_8));
+  }
+
+  @Test(timeout = 10000)
+  public void reentrantRenderDoesNotDeadlock() {
+    final ResponseCache cache = new ResponseCache();
+    final ResponseCache.Entry entry = cache.getEntry("k", null,
+        () -> "outer:" + cache.getEntry("k", null, () -> "inner").getText());
+    assertEquals("outer:inner", entry.getText());
+  }
+
+  @Test(timeout = 10000)
+  public void boundedWaitForInFlightRender() throws Exception {
+    final ResponseCache cache = new ResponseCache();
+    cache.configure(ResponseCache.DEFAULT_MAXIMUM_BYTES, 60L, 0L, 1L);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final Thread slow = new Thread(() -> cache.getEntry("k", null, () -> {
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return "slow";
+    }));
+    slow.start();
+    try {
+      started.await();
+      assertEquals("fast", cache.getEntry("k", null, () -> "fast").getText());
+    } finally {
+      release.countDown();
+      slow.join();
+    }
+  }
+
+}
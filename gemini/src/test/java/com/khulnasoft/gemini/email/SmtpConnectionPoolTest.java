@@ -0,0 +1,253 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.gemini.email;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import javax.mail.*;
+import javax.mail.internet.*;
+
+import org.junit.*;
+
+/**
+ * Tests for SmtpConnectionPool, against an in-process SMTP stand-in.
+ */
+public class SmtpConnectionPoolTest {
+
+  private FakeSmtpServer server;
+
+  @Before
+  public void start() throws IOException {
+    server = new FakeSmtpServer();
+  }
+
+  @After
+  public void stop() throws IOException {
+    server.close();
+  }
+
+  private Session session() {
+    final Properties properties = new Properties();
+    properties.put("mail.smtp.host", "127.0.0.1");
+    properties.put("mail.smtp.port", String.valueOf(server.getPort()));
+    properties.put("mail.smtp.connectiontimeout", "5000");
+    properties.put("mail.smtp.timeout", "5000");
+    return Session.getInstance(properties);
+  }
+
+  private static Message message(Session session, int number) throws MessagingException {
+    final MimeMessage message = new MimeMessage(session);
+    message.setFrom(new InternetAddress("from@example.com"));
+    message.setRecipient(Message.RecipientType.TO, new InternetAddress("to@example.com"));
+    message.setSubject("Message " + number);
+    message.setText("Body " + number);
+    return message;
+  }
+
+  @Test
+  public void reusesConnection() throws Exception {
+    final Session session = session();
+    final SmtpConnectionPool pool = new SmtpConnectionPool("test", session, 2, 100, 30_000L, 5_000L);
+    for (int i = 0; i < 5; i++) {
+      pool.send(message(session, i));
+    }
+    pool.close();
+
+    assertEquals(5, server.messages.get());
+    assertEquals(1, server.connections.get());
+    assertEquals(5, pool.getSentCount());
+    assertEquals(1, pool.getConnectionsOpened());
+    assertEquals(4, pool.getConnectionsReused());
+  }
+
+  @Test
+  public void retiresConnectionAfterMessageLimit() throws Exception {
+    final Session session = session();
+    final SmtpConnectionPool pool = new SmtpConnectionPool("test", session, 1, 2, 30_000L, 5_000L);
+    for (int i = 0; i < 5; i++) {
+      pool.send(message(session, i));
+    }
+    pool.close();
+
+    assertEquals(5, server.messages.get());
+    assertEquals(3, server.connections.get());
+  }
+
+  @Test
+  public void retriesOnStaleConnection() throws Exception {
+    final Session session = session();
+    final SmtpConnectionPool pool = new SmtpConnectionPool("test", session, 1, 100, 30_000L, 5_000L);
+    server.dropAfterMessages = 1;
+    pool.send(message(session, 1));
+    pool.send(message(session, 2));
+    pool.close();
+
+    assertEquals(2, server.messages.get());
+    assertEquals(2, server.connections.get());
+    assertEquals(2, pool.getSentCount());
+    assertEquals(0, pool.getFailedCount());
+    // The stale connection passed the health check and failed in use.
+    assertEquals(1, pool.getConnectionsReused());
+    assertEquals(2, pool.getConnectionsOpened());
+  }
+
+  @Test
+  public void boundsConnections() throws Exception {
+    final Session session = session();
+    final SmtpConnectionPool pool = new SmtpConnectionPool("test", session, 2, 100, 30_000L, 10_000L);
+    server.dataDelayMillis = 20;
+    final ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      final List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < 24; i++) {
+        final int number = i;
+        futures.add(executor.submit(() -> {
+          pool.send(message(session, number));
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get(30, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+      pool.close();
+    }
+
+    assertEquals(24, server.messages.get());
+    assertEquals(24, pool.getSentCount());
+    assertTrue("Concurrent sessions: " + server.maxConcurrent.get(), server.maxConcurrent.get() <= 2);
+    assertTrue("Connections: " + server.connections.get(), server.connections.get() <= 2);
+  }
+
+  /**
+   * A minimal SMTP server that accepts every message.  It can be told to 
+   * reset each connection once it has carried a number of messages, as a 
+   * server dropping an idle connection would, and to delay its reply to 
+   * each message.
+   */
+  private static final class FakeSmtpServer implements Closeable {
+
+    final AtomicInteger connections = new AtomicInteger();
+    final AtomicInteger messages = new AtomicInteger();
+    final AtomicInteger concurrent = new AtomicInteger();
+    final AtomicInteger maxConcurrent = new AtomicInteger();
+    volatile int dropAfterMessages = Integer.MAX_VALUE;
+    volatile long dataDelayMillis = 0;
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    FakeSmtpServer() throws IOException {
+      serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+      executor.execute(this::accept);
+    }
+
+    int getPort() {
+      return serverSocket.getLocalPort();
+    }
+
+    private void accept() {
+      while (!serverSocket.isClosed()) {
+        try {
+          final Socket socket = serverSocket.accept();
+          connections.incrementAndGet();
+          executor.execute(() -> converse(socket));
+        } catch (IOException e) {
+          // Closed.
+        }
+      }
+    }
+
+    private void converse(Socket socket) {
+      final int active = concurrent.incrementAndGet();
+      maxConcurrent.accumulateAndGet(active, Math::max);
+      try (Socket s = socket) {
+        final BufferedReader in = new BufferedReader(
+            new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII));
+        final Writer out = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.US_ASCII);
+        reply(out, "220 localhost ESMTP");
+        int delivered = 0;
+        String line;
+        while ((line = in.readLine()) != null) {
+          final String command = line.length() >= 4 ? line.substring(0, 4).toUpperCase() : line;
+          if (command.equals("MAIL") && delivered >= dropAfterMessages) {
+            // Drop the connection abruptly, as a server that has timed out
+            // an idle client would.
+            s.setSoLinger(true, 0);
+            return;
+          }
+          switch (command) {
+            case "EHLO":
+              reply(out, "250-localhost\r\n250 8BITMIME");
+              break;
+            case "DATA":
+              reply(out, "354 End data with <CR><LF>.<CR><LF>");
+              while ((line = in.readLine()) != null && !line.equals(".")) {
+                // Discard the message.
+              }
+              if (dataDelayMillis > 0) {
+                Thread.sleep(dataDelayMillis);
+              }
+              delivered++;
+              messages.incrementAndGet();
+              reply(out, "250 OK");
+              break;
+            case "QUIT":
+              reply(out, "221 Bye");
+              return;
+            default:
+              reply(out, "250 OK");
+          }
+        }
+      } catch (IOException | InterruptedException e) {
+        // Connection closed.
+      } finally {
+        concurrent.decrementAndGet();
+      }
+    }
+
+    private static void reply(Writer out, String reply) throws IOException {
+      out.write(reply + "\r\n");
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      serverSocket.close();
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.gemini.email.outbound;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+
+import org.junit.*;
+import org.junit.rules.*;
+
+import com.khulnasoft.gemini.email.*;
+
+/**
+ * Tests for EmailJournal.
+ */
+public class EmailJournalTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static OutboundEmailQueue.Entry entry(long id) {
+    return new OutboundEmailQueue.Entry(id, 
+        new EmailPackage("Subject " + id, "Body", "to@example.com", "from@example.com"),
+        System.currentTimeMillis());
+  }
+
+  @Test
+  public void refusesCustomAttributes() {
+    final EmailPackage email = new EmailPackage("Subject", "Body", "to@example.com", "from@example.com");
+    assertTrue(EmailJournal.isJournalable(email));
+    email.setCustomAttribute("username", "someone");
+    assertFalse(EmailJournal.isJournalable(email));
+  }
+
+  @Test
+  public void createsJournalOwnerOnly() throws IOException {
+    final File directory = new File(folder.getRoot(), "journal");
+    final EmailJournal journal = new EmailJournal(directory, false);
+    journal.replay();
+    journal.enqueued(entry(1L));
+    journal.close();
+
+    final Path path = journal.getFile().toPath();
+    Assume.assumeTrue(path.getFileSystem().supportedFileAttributeViews().contains("posix"));
+    assertEquals(PosixFilePermissions.fromString("rw-------"), 
+        Files.getPosixFilePermissions(path));
+    assertEquals(PosixFilePermissions.fromString("rwx------"), 
+        Files.getPosixFilePermissions(directory.toPath()));
+  }
+
+  @Test
+  public void compactionKeepsRecordsAppendedWhileWriting() throws IOException {
+    final EmailJournal journal = new EmailJournal(folder.getRoot(), false);
+    journal.replay();
+    final OutboundEmailQueue.Entry first = entry(1L);
+    final OutboundEmailQueue.Entry second = entry(2L);
+    journal.enqueued(first);
+    journal.enqueued(second);
+    journal.completed(second.id);
+
+    final EmailJournal.Compaction compaction = journal.startCompaction(
+        Collections.singletonList(first), Collections.emptyList());
+    assertNull(journal.startCompaction(
+        Collections.singletonList(first), Collections.emptyList()));
+    compaction.write();
+    journal.enqueued(entry(3L));
+    journal.completed(first.id);
+    compaction.finish();
+    assertEquals(3, journal.getRecordCount());
+    journal.close();
+
+    final EmailJournal reopened = new EmailJournal(folder.getRoot(), false);
+    final EmailJournal.Replay replay = reopened.replay();
+    reopened.close();
+    assertEquals(1, replay.pending.size());
+    assertEquals(3L, replay.pending.get(0).id);
+    assertEquals(3L, replay.lastId);
+    assertFalse(new File(folder.getRoot(), EmailJournal.FILE_NAME + ".tmp").exists());
+  }
+
+  @Test
+  public void abandonedCompactionLeavesJournal() throws IOException {
+    final EmailJournal journal = new EmailJournal(folder.getRoot(), false);
+    journal.replay();
+    final OutboundEmailQueue.Entry first = entry(1L);
+    journal.enqueued(first);
+    final EmailJournal.Compaction compaction = journal.startCompaction(
+        Collections.emptyList(), Collections.emptyList());
+    compaction.write();
+    journal.close();
+    compaction.finish();
+
+    final EmailJournal reopened = new EmailJournal(folder.getRoot(), false);
+    final EmailJournal.Replay replay = reopened.replay();
+    reopened.close();
+    assertEquals(1, replay.pending.size());
+    assertFalse(new File(folder.getRoot(), EmailJournal.FILE_NAME + ".tmp").exists());
+  }
+}
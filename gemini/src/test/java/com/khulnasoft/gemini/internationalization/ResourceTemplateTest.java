@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.gemini.internationalization;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+import com.khulnasoft.helper.*;
+
+/**
+ * Tests for ResourceTemplate.
+ */
+public class ResourceTemplateTest {
+
+  private static final String[] INDICATORS = {
+    "$S1", "$S2", "$S3", "$S4", "$S5", "$S6", "$S7", "$S8", "$S9", "$SA",
+    "$SB", "$SC", "$SD", "$SE", "$SF", "$SG", "$SH", "$SI", "$SJ", "$SK", 
+    "$SL", "$SM", "$SN", "$SO", "$SP", "$SQ", "$SR", "$SS", "$ST", "$SU"
+  };
+
+  @Test
+  public void plainValue() {
+    final ResourceTemplate template = ResourceTemplate.compile("Hello, world.");
+    assertFalse(template.hasMacros());
+    assertFalse(template.isEmpty());
+    assertEquals("Hello, world.", template.render("ignored"));
+    assertEquals("Hello, world.", template.getValue());
+  }
+
+  @Test
+  public void expandsMacros() {
+    final ResourceTemplate template = ResourceTemplate.compile("$S1 has $S2 new $S3.");
+    assertTrue(template.hasMacros());
+    assertEquals("Ann has 3 new messages.", template.render("Ann", "3", "messages"));
+  }
+
+  @Test
+  public void expandsLetterMacrosAndRepeats() {
+    final ResourceTemplate template = ResourceTemplate.compile("[$SA|$SU|$S1$S1]");
+    final String[] values = new String[30];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = "v" + (i + 1);
+    }
+    assertEquals("[v10|v30|v1v1]", template.render(values));
+  }
+
+  @Test
+  public void leavesMissingMacrosInPlace() {
+    final ResourceTemplate template = ResourceTemplate.compile("$S1 and $S2 and $SB");
+    assertEquals("one and $S2 and $SB", template.render("one"));
+    assertEquals("$S1 and $S2 and $SB", template.render((String[])null));
+    assertEquals("$S1 and $S2 and $SB", template.render());
+  }
+
+  @Test
+  public void ignoresNonMacros() {
+    final ResourceTemplate template = ResourceTemplate.compile("$SV $Sx $$S1 $S");
+    assertEquals("$SV $Sx $one $S", template.render("one"));
+  }
+
+  @Test
+  public void doesNotExpandValuesAgain() {
+    final ResourceTemplate template = ResourceTemplate.compile("$S1-$S2");
+    assertEquals("$S2-b", template.render("$S2", "b"));
+  }
+
+  @Test
+  public void emptyValues() {
+    assertTrue(ResourceTemplate.compile("").isEmpty());
+    assertTrue(ResourceTemplate.compile("  \t").isEmpty());
+    assertEquals("", ResourceTemplate.compile("").render("a"));
+  }
+
+  @Test
+  public void appendsToStringBuilder() {
+    final ResourceTemplate template = ResourceTemplate.compile("<$S1>");
+    final StringBuilder out = new StringBuilder("x");
+    assertSame(out, template.render(out, "y"));
+    assertEquals("x<y>", out.toString());
+  }
+
+  @Test
+  public void matchesUncompiledExpansion() {
+    final String[] sources = {
+        "No macros",
+        "$S1",
+        "Start $S1 middle $S2 end",
+        "$S9$SA$S1",
+        "Trailing $S",
+        "Dollar $ and $S0 and $S3"
+    };
+    final String[][] valueSets = {
+        {},
+        { "a" },
+        { "a", "b", "c" },
+        { "1", "2", "3", "4", "5", "6", "7", "8", "9", "ten" }
+    };
+    for (String source : sources) {
+      for (String[] values : valueSets) {
+        final String[] find = new String[values.length];
+        System.arraycopy(INDICATORS, 0, find, 0, values.length);
+        assertEquals(source, 
+            StringHelper.replaceSubstrings(source, find, values),
+            ResourceTemplate.compile(source).render(values));
+      }
+    }
+  }
+}
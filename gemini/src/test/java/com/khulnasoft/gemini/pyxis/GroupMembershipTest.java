@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.gemini.pyxis;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+
+/**
+ * Tests for GroupMembership.
+ */
+public class GroupMembershipTest {
+
+  @Test
+  public void containsDenseAndSparseIds() {
+    final GroupMembership groups = GroupMembership.of(0, 1, 63, 64, 4095, 4096, 1_000_000L, -7L);
+    for (long id : new long[] { 0, 1, 63, 64, 4095, 4096, 1_000_000L, -7L }) {
+      assertTrue(String.valueOf(id), groups.contains(id));
+    }
+    for (long id : new long[] { 2, 62, 65, 4094, 4097, 999_999L, -1L, 100_000L }) {
+      assertFalse(String.valueOf(id), groups.contains(id));
+    }
+  }
+
+  @Test
+  public void emptyMembership() {
+    assertSame(GroupMembership.EMPTY, GroupMembership.of());
+    assertSame(GroupMembership.EMPTY, GroupMembership.of((long[])null));
+    assertTrue(GroupMembership.EMPTY.isEmpty());
+    assertFalse(GroupMembership.EMPTY.contains(0));
+    assertFalse(GroupMembership.of(1).isEmpty());
+    assertFalse(GroupMembership.of(5000).isEmpty());
+  }
+
+  @Test
+  public void containsAnyAndAll() {
+    final GroupMembership user = GroupMembership.of(1, 3, 200, 5000);
+    assertTrue(user.containsAny(GroupMembership.of(3)));
+    assertTrue(user.containsAny(GroupMembership.of(2, 5000)));
+    assertFalse(user.containsAny(GroupMembership.of(2, 4, 6000)));
+    assertFalse(user.containsAny(GroupMembership.EMPTY));
+    assertTrue(user.containsAll(GroupMembership.of(1, 200)));
+    assertTrue(user.containsAll(GroupMembership.of(3, 5000)));
+    assertFalse(user.containsAll(GroupMembership.of(1, 2)));
+    assertFalse(user.containsAll(GroupMembership.of(1, 6000)));
+    assertTrue(user.containsAll(GroupMembership.EMPTY));
+    // A shorter bitset against a longer one.
+    assertFalse(GroupMembership.of(1).containsAll(GroupMembership.of(1, 3000)));
+    assertTrue(GroupMembership.of(1, 3000).containsAll(GroupMembership.of(1)));
+  }
+
+  @Test
+  public void agreesWithASet() {
+    final Random random = new Random(46L);
+    for (int trial = 0; trial < 500; trial++) {
+      final long[] first = randomIds(random);
+      final long[] second = randomIds(random);
+      final Set<Long> firstSet = toSet(first);
+      final Set<Long> secondSet = toSet(second);
+      final GroupMembership a = GroupMembership.of(first);
+      final GroupMembership b = GroupMembership.of(second);
+
+      final Set<Long> intersection = new HashSet<>(firstSet);
+      intersection.retainAll(secondSet);
+      assertEquals(!intersection.isEmpty(), a.containsAny(b));
+      assertEquals(firstSet.containsAll(secondSet), a.containsAll(b));
+      assertEquals(firstSet.isEmpty(), a.isEmpty());
+      for (long id : second) {
+        assertEquals(firstSet.contains(id), a.contains(id));
+      }
+    }
+  }
+
+  @Test
+  public void equalsAndHashCode() {
+    final GroupMembership a = GroupMembership.of(3, 1, 5000, 2);
+    final GroupMembership b = GroupMembership.of(1, 2, 3, 5000, 5000, 1);
+    assertEquals(a, b);
+    assertEquals(a.hashCode(), b.hashCode());
+    assertNotEquals(a, GroupMembership.of(1, 2, 3));
+    assertNotEquals(a, GroupMembership.of(1, 2, 3, 5001));
+    assertEquals("GroupMembership [1, 2, 3, 5000]", b.toString());
+  }
+
+  @Test
+  public void doesNotRetainTheArray() {
+    final long[] ids = { 1, 5000 };
+    final GroupMembership groups = GroupMembership.of(ids);
+    ids[0] = 2;
+    ids[1] = 6000;
+    assertTrue(groups.contains(1));
+    assertTrue(groups.contains(5000));
+    assertFalse(groups.contains(6000));
+  }
+
+  private static long[] randomIds(Random random) {
+    final long[] ids = new long[random.nextInt(8)];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = random.nextBoolean() 
+          ? random.nextInt(300) 
+          : GroupMembership.DENSE_LIMIT + random.nextInt(20);
+    }
+    return ids;
+  }
+
+  private static Set<Long> toSet(long[] ids) {
+    final Set<Long> set = new HashSet<>();
+    for (long id : ids) {
+      set.add(id);
+    }
+    return set;
+  }
+}
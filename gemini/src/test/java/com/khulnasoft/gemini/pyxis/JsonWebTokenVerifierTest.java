@@ -0,0 +1,196 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.gemini.pyxis;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.*;
+import java.util.*;
+
+import javax.crypto.*;
+
+import org.junit.*;
+
+import com.khulnasoft.gemini.*;
+import com.khulnasoft.util.*;
+import io.jsonwebtoken.*;
+
+/**
+ * Tests for JsonWebTokenVerifier.
+ */
+public class JsonWebTokenVerifierTest {
+
+  private static final String HS256_HEADER = "eyJhbGciOiJIUzI1NiJ9";
+
+  private PyxisSettings settings;
+  private SecretKey key;
+  private JsonWebTokenVerifier verifier;
+
+  @Before
+  public void setUp() {
+    final byte[] secret = new byte[64];
+    for (int i = 0; i < secret.length; i++) {
+      secret[i] = (byte)(i * 7 + 3);
+    }
+    settings = new PyxisSettings(null);
+    settings.configure(new EnhancedProperties()
+        .put("Pyxis.MacSigningKey", Base64.getEncoder().encodeToString(secret)));
+    key = settings.getMacSecretKey();
+    verifier = new JsonWebTokenVerifier(application(settings));
+  }
+
+  @Test
+  public void verifiesValidToken() {
+    final String token = token(SignatureAlgorithm.HS256, 7L, 0L);
+    assertTrue(token.startsWith(HS256_HEADER + "."));
+
+    for (int i = 0; i < 2; i++) {
+      final JsonWebToken verified = verifier.verify(token);
+      assertNotNull(verified);
+      assertEquals(7L, verified.getUserId());
+      assertEquals(1000L, verified.getIssuedAt());
+      assertEquals(2000L, verified.getUserLastPasswordChange());
+      assertEquals("hash", verified.getUserValidationHash());
+    }
+  }
+
+  @Test
+  public void rejectsWrongSignature() {
+    final String token = token(SignatureAlgorithm.HS256, 7L, 0L);
+    final int dot = token.lastIndexOf('.');
+    final char last = token.charAt(token.length() - 1);
+    final String altered = token.substring(0, token.length() - 1)
+        + (last == 'A' ? 'B' : 'A');
+    assertMalformed(altered);
+    assertMalformed(token.substring(0, dot + 1) + "AAAA");
+  }
+
+  @Test
+  public void rejectsSignatureMovedToAnotherPayload() {
+    final String first = token(SignatureAlgorithm.HS256, 7L, 0L);
+    final String second = token(SignatureAlgorithm.HS256, 8L, 0L);
+
+    // Verify the first token so that its signature is cached.
+    assertNotNull(verifier.verify(first));
+
+    final String forged = second.substring(0, second.lastIndexOf('.'))
+        + first.substring(first.lastIndexOf('.'));
+    assertMalformed(forged);
+    assertEquals(8L, verifier.verify(second).getUserId());
+  }
+
+  @Test
+  public void expiresInSecondsAndMilliseconds() {
+    final long now = System.currentTimeMillis();
+    assertNull(verifier.verify(
+        token(SignatureAlgorithm.HS256, 7L, now / 1000L - 60L)));
+    assertNull(verifier.verify(
+        token(SignatureAlgorithm.HS256, 7L, now - 60_000L)));
+    assertNotNull(verifier.verify(
+        token(SignatureAlgorithm.HS256, 7L, now / 1000L + 3600L)));
+    assertNotNull(verifier.verify(
+        token(SignatureAlgorithm.HS256, 7L, now + 3_600_000L)));
+  }
+
+  @Test
+  public void verifiesOtherAlgorithmsWithParser() {
+    final String token = token(SignatureAlgorithm.HS512, 9L, 0L);
+    assertFalse(token.startsWith(HS256_HEADER + "."));
+    assertEquals(9L, verifier.verify(token).getUserId());
+
+    final long now = System.currentTimeMillis();
+    assertNull(verifier.verify(
+        token(SignatureAlgorithm.HS512, 9L, now / 1000L - 60L)));
+
+    final String other = token(SignatureAlgorithm.HS512, 10L, 0L);
+    assertMalformedOrSignature(token.substring(0, token.lastIndexOf('.'))
+        + other.substring(other.lastIndexOf('.')));
+  }
+
+  @Test
+  public void rejectsMalformedSegmentCounts() {
+    final String token = token(SignatureAlgorithm.HS256, 7L, 0L);
+    final String[] parts = token.split("\\.");
+    assertEquals(3, parts.length);
+
+    assertMalformed("nodots");
+    assertMalformed(HS256_HEADER + ".abc");
+    assertMalformed(HS256_HEADER + "." + parts[2]);
+    assertMalformed(HS256_HEADER + ".." + parts[2]);
+    assertMalformed(parts[0] + "." + parts[1] + ".");
+    assertMalformed(parts[0] + "." + parts[1] + "." + parts[1] + "." + parts[2]);
+    assertMalformed(parts[0] + ".x." + parts[1] + "." + parts[2]);
+  }
+
+  private String token(SignatureAlgorithm algorithm, long userId, long exp) {
+    final JwtBuilder builder = Jwts.builder()
+        .claim(JsonWebToken.ISSUED_AT, 1000L)
+        .claim(JsonWebToken.BEARER_ID, userId)
+        .claim(JsonWebToken.USER_ID, userId)
+        .claim(JsonWebToken.LAST_PASSWORD_CHANGED, 2000L)
+        .claim(JsonWebToken.VALIDATION_HASH, "hash");
+    if (exp != 0L) {
+      builder.claim(JsonWebToken.EXPIRATION, exp);
+    }
+    return builder.signWith(key, algorithm).compact();
+  }
+
+  private void assertMalformed(String token) {
+    try {
+      verifier.verify(token);
+      fail("Expected MalformedJwtException for " + token);
+    } catch (MalformedJwtException expected) {
+      // Expected.
+    }
+  }
+
+  private void assertMalformedOrSignature(String token) {
+    try {
+      verifier.verify(token);
+      fail("Expected rejection of " + token);
+    } catch (MalformedJwtException | SignatureException expected) {
+      // Expected.
+    }
+  }
+
+  private static GeminiApplicationInterface application(PyxisSettings settings) {
+    final PyxisSecurity security = proxy(PyxisSecurity.class,
+        (proxy, method, args) -> "getSettings".equals(method.getName())
+            ? settings : null);
+    return proxy(GeminiApplicationInterface.class,
+        (proxy, method, args) -> "getSecurity".equals(method.getName())
+            ? security : null);
+  }
+
+  private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+    return type.cast(Proxy.newProxyInstance(
+        JsonWebTokenVerifierTest.class.getClassLoader(),
+        new Class<?>[] { type }, handler));
+  }
+
+}
@@ -0,0 +1,285 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.gemini.session;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.*;
+import java.sql.*;
+import java.util.*;
+
+import org.junit.*;
+
+import com.khulnasoft.data.*;
+import com.khulnasoft.gemini.*;
+import com.khulnasoft.gemini.monitor.*;
+import com.khulnasoft.gemini.mustache.*;
+import com.khulnasoft.util.*;
+
+/**
+ * Tests for StoredSessionManager.
+ */
+public class StoredSessionManagerTest {
+
+  private static GeminiApplication application;
+
+  private RecordingStore store;
+  private StoredSessionManager first;
+  private StoredSessionManager second;
+  private String cookie;
+  private boolean cookieHttpOnly;
+
+  @BeforeClass
+  public static void createApplication() {
+    application = new TestApplication();
+  }
+
+  @Before
+  public void setUp() {
+    store = new RecordingStore();
+    // Two managers sharing a store stand in for two instances.
+    first = manager();
+    second = manager();
+  }
+
+  private StoredSessionManager manager() {
+    final StoredSessionManager manager = new StoredSessionManager(application, store);
+    manager.configure(new EnhancedProperties()
+        .put("StoredSessions.LazyAttributeBytes", 64)
+        .put("StoredSessions.TouchIntervalSeconds", 0));
+    return manager;
+  }
+
+  @Test
+  public void setsHttpOnlyCookie() {
+    final Session session = first.getSession(request(), true);
+    assertNotNull(session);
+    assertEquals(session.getId(), cookie);
+    assertTrue(cookieHttpOnly);
+    assertSame(session, first.getSession(request(), false));
+  }
+
+  @Test
+  public void writesOnlyChangedAttributes() {
+    Session session = first.getSession(request(), true);
+    session.setAttribute("a", "one");
+    session.setAttribute("b", new ArrayList<>(Arrays.asList(1, 2)));
+    session.requestComplete();
+    assertTrue(store.written.contains("a"));
+    assertTrue(store.written.contains("b"));
+
+    store.written.clear();
+    session = first.getSession(request(), false);
+    session.setAttribute("a", "two");
+    session.requestComplete();
+    assertEquals(Collections.singleton("a"), store.written);
+
+    // Reading a mutable attribute without changing it writes nothing.
+    store.written.clear();
+    session = first.getSession(request(), false);
+    assertEquals(Arrays.asList(1, 2), session.getAttribute("b"));
+    session.requestComplete();
+    assertTrue(store.written.isEmpty());
+
+    // Changing it in place is noticed.
+    session = first.getSession(request(), false);
+    @SuppressWarnings("unchecked")
+    final List<Integer> list = (List<Integer>)session.getAttribute("b");
+    list.add(3);
+    session.requestComplete();
+    assertEquals(Collections.singleton("b"), store.written);
+  }
+
+  @Test
+  public void readsLargeAttributesWhenUsed() {
+    final byte[] large = new byte[1024];
+    Arrays.fill(large, (byte)7);
+    final Session session = first.getSession(request(), true);
+    session.setAttribute("small", "value");
+    session.setAttribute("large", large);
+    session.requestComplete();
+
+    final Session other = second.getSession(request(), false);
+    assertNotNull(other);
+    assertEquals(1L, second.getStoreReads());
+    assertEquals("value", other.getAttribute("small"));
+    assertEquals(0, store.attributeReads);
+    assertArrayEquals(large, (byte[])other.getAttribute("large"));
+    assertEquals(1, store.attributeReads);
+    assertArrayEquals(large, (byte[])other.getAttribute("large"));
+    assertEquals(1, store.attributeReads);
+  }
+
+  @Test
+  public void reloadsSessionChangedElsewhere() {
+    Session session = first.getSession(request(), true);
+    session.setAttribute("count", 1);
+    session.requestComplete();
+
+    session = first.getSession(request(), false);
+    assertEquals(1, session.getAttribute("count"));
+    session.requestComplete();
+    assertEquals(1L, first.getNearCacheHits());
+
+    final Session other = second.getSession(request(), false);
+    assertEquals(1, other.getAttribute("count"));
+    other.setAttribute("count", 2);
+    other.requestComplete();
+
+    final long reads = first.getStoreReads();
+    session = first.getSession(request(), false);
+    assertEquals(reads + 1, first.getStoreReads());
+    assertEquals(2, session.getAttribute("count"));
+    session.requestComplete();
+
+    // Once invalidated on one instance, the session is gone on the other.
+    second.getSession(request(), false).invalidate();
+    assertNull(first.getSession(request(), false));
+  }
+
+  /**
+   * Creates a request that carries the current session cookie, if any, and
+   * records a new one.
+   */
+  private Request request() {
+    final Map<String, Object> attributes = new HashMap<>();
+    return proxy(Request.class, (proxy, method, args) -> {
+      switch (method.getName()) {
+        case "getAttribute":
+          return attributes.get(args[0]);
+        case "setAttribute":
+          attributes.put((String)args[0], args[1]);
+          return null;
+        case "getCookie":
+          return cookie == null ? null : cookie((String)args[0], cookie);
+        case "setCookie":
+          cookie = (String)args[1];
+          cookieHttpOnly = args.length > 6 && (Boolean)args[6];
+          return null;
+        default:
+          throw new UnsupportedOperationException(method.getName());
+      }
+    });
+  }
+
+  private static Cookie cookie(String name, String value) {
+    return proxy(Cookie.class, (proxy, method, args) ->
+        "getName".equals(method.getName()) ? name : value);
+  }
+
+  private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+    return type.cast(Proxy.newProxyInstance(
+        StoredSessionManagerTest.class.getClassLoader(),
+        new Class<?>[] { type }, handler));
+  }
+
+  /**
+   * A MemorySessionStore that records what is written and read.
+   */
+  private static final class RecordingStore extends MemorySessionStore {
+    private final Set<String> written = new HashSet<>();
+    private int attributeReads;
+
+    @Override
+    public void write(SessionRecord record, Collection<String> removed) {
+      written.addAll(record.getValues().keySet());
+      written.addAll(removed);
+      super.write(record, removed);
+    }
+
+    @Override
+    public byte[] readAttribute(String id, String name) {
+      attributeReads++;
+      return super.readAttribute(id, name);
+    }
+  }
+
+  /**
+   * An application with no database, templates, or dispatcher.
+   */
+  private static final class TestApplication extends GeminiApplication {
+    @Override
+    protected Dispatcher constructDispatcher() {
+      return null;
+    }
+
+    @Override
+    protected ConnectorFactory constructConnectorFactory() {
+      return new ConnectorFactory() {
+        @Override
+        public ConnectionMonitor getConnectionMonitor() throws SQLException {
+          throw new SQLException("No database.");
+        }
+
+        @Override
+        public void determineIdentifierQuoteString() {
+        }
+
+        @Override
+        public String getIdentifierQuoteString() {
+          return "\"";
+        }
+
+        @Override
+        public DatabaseAffinity getDatabaseAffinity() {
+          return DatabaseAffinity.MYSQL;
+        }
+
+        @Override
+        public boolean isEnabled() {
+          return false;
+        }
+
+        @Override
+        public void configure(EnhancedProperties props) {
+        }
+      };
+    }
+
+    @Override
+    protected MustacheManager constructMustacheManager() {
+      return null;
+    }
+
+    @Override
+    protected SessionManager constructSessionManager() {
+      return null;
+    }
+
+    @Override
+    protected GeminiMonitor constructMonitor() {
+      return null;
+    }
+
+    @Override
+    public Context getContext(Request request) {
+      return null;
+    }
+  }
+
+}
@@ -213,6 +213,31 @@ public class DateHelperTest {
     // TODO
   }
   
+  @Test
+  public void parseAmbiguousShortYears() {
+    // Parse inputs that match later, four-digit-year patterns first, so
+    // that a parser remembering the last matched pattern would prefer them.
+    assertNotNull(DateHelper.parse("2012-07-01"));
+    assertNotNull(DateHelper.parse("2008/06/18 00:49"));
+    assertNotNull(DateHelper.parse("2009-03-11"));
+
+    // Ambiguous inputs still parse with the first pattern in list order.
+    assertDate(DateHelper.parse("12-07-01"), 2001, Calendar.DECEMBER, 7);
+    assertDate(DateHelper.parse("08/06/18 00:49"), 2018, Calendar.AUGUST, 6);
+    assertDate(DateHelper.parse("09-03-11"), 2011, Calendar.SEPTEMBER, 3);
+
+    // And the result does not depend on what was parsed before.
+    assertDate(DateHelper.parse("2012-07-01"), 2012, Calendar.JULY, 1);
+    assertDate(DateHelper.parse("12-07-01"), 2001, Calendar.DECEMBER, 7);
+  }
+
+  private static void assertDate(Calendar calendar, int year, int month, int day) {
+    assertNotNull(calendar);
+    assertEquals(year, calendar.get(Calendar.YEAR));
+    assertEquals(month, calendar.get(Calendar.MONTH));
+    assertEquals(day, calendar.get(Calendar.DAY_OF_MONTH));
+  }
+  
   @Test
   public void getDayOfWeek() {
     assertEquals(Calendar.MONDAY, DateHelper.getDayOfWeek("MONday"));
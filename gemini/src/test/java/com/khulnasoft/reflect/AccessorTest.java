@@ -0,0 +1,326 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.reflect;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+
+import com.khulnasoft.collection.*;
+
+/**
+ * Tests for Accessor.
+ */
+public class AccessorTest {
+
+  private static final String[] MEMBERS = { "getIntValue", "getLongValue",
+      "getDoubleValue", "getFloatValue", "getCharValue", "getShortValue",
+      "getByteValue", "getName", "getBoxed" };
+
+  private static List<Bean> beans() {
+    final List<Bean> beans = new ArrayList<>();
+    final Random random = new Random(49L);
+    final String[] names = { "alpha", "Beta", "beta", "Gamma", null };
+    for (int i = 0; i < 60; i++) {
+      beans.add(new Bean(random.nextInt(21) - 10, random.nextLong(),
+          i % 11 == 0 ? Double.NaN : i % 13 == 0 ? -0.0 : random.nextInt(7) - 3.5,
+          random.nextFloat() - 0.5f, (char)('a' + random.nextInt(5)),
+          (short)(random.nextInt(9) - 4), (byte)(random.nextInt(9) - 4),
+          names[random.nextInt(names.length)],
+          i % 7 == 0 ? null : random.nextInt(5)));
+    }
+    return beans;
+  }
+
+  @Test
+  public void comparatorsMatchReflectiveComparatorOrder() {
+    final List<Bean> beans = beans();
+    for (String member : MEMBERS) {
+      for (int ordering : new int[] { ReflectiveComparator.ASCENDING,
+          ReflectiveComparator.DESCENDING }) {
+        for (boolean ignoreCase : new boolean[] { false, true }) {
+          final ReflectiveComparator<Bean> reflective = new ReflectiveComparator<>(
+              member, Bean.class, ReflectiveComparator.BY_METHOD, ordering);
+          reflective.setIgnoreCase(ignoreCase);
+          final Accessor accessor = Accessor.method(Bean.class, member);
+
+          // The reference order compares boxed values, as
+          // ReflectiveComparator did before it used Accessors.
+          final List<Bean> expected = new ArrayList<>(beans);
+          expected.sort((a, b) -> reflective.compareTwoObjects(
+              accessor.get(a), accessor.get(b)));
+          final List<Bean> byReflective = new ArrayList<>(beans);
+          byReflective.sort(reflective);
+          final List<Bean> byAccessor = new ArrayList<>(beans);
+          byAccessor.sort(accessor.comparator(
+              ordering == ReflectiveComparator.DESCENDING, ignoreCase));
+
+          final String label = member + "/" + ordering + "/" + ignoreCase;
+          assertEquals(label, expected, byReflective);
+          assertEquals(label, expected, byAccessor);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void primitiveMembersAreCompiled() {
+    for (String member : MEMBERS) {
+      assertTrue(member, Accessor.method(Bean.class, member).isCompiled());
+    }
+    assertEquals(int.class, Accessor.method(Bean.class, "getIntValue").getValueType());
+  }
+
+  @Test
+  public void equalToFollowsBoxedEquality() {
+    final Bean bean = new Bean(7, 7L, 0.0, Float.NaN, 'x', (short)7, (byte)7,
+        "Seven", null);
+
+    final Accessor ints = Accessor.method(Bean.class, "getIntValue");
+    assertTrue(ints.equalTo(7).test(bean));
+    assertFalse(ints.equalTo(8).test(bean));
+    // Integer.valueOf(7).equals(Long.valueOf(7)) is false.
+    assertFalse(ints.equalTo(7L).test(bean));
+    assertFalse(ints.equalTo((short)7).test(bean));
+    assertFalse(ints.equalTo("7").test(bean));
+    assertFalse(ints.equalTo(null).test(bean));
+
+    final Accessor longs = Accessor.method(Bean.class, "getLongValue");
+    assertTrue(longs.equalTo(7L).test(bean));
+    assertFalse(longs.equalTo(7).test(bean));
+
+    final Accessor shorts = Accessor.method(Bean.class, "getShortValue");
+    assertTrue(shorts.equalTo((short)7).test(bean));
+    assertFalse(shorts.equalTo(7).test(bean));
+
+    final Accessor chars = Accessor.method(Bean.class, "getCharValue");
+    assertTrue(chars.equalTo('x').test(bean));
+    assertFalse(chars.equalTo((int)'x').test(bean));
+
+    // Double.equals distinguishes -0.0 from 0.0 and equates NaNs.
+    final Accessor doubles = Accessor.method(Bean.class, "getDoubleValue");
+    assertTrue(doubles.equalTo(0.0).test(bean));
+    assertFalse(doubles.equalTo(-0.0).test(bean));
+    assertFalse(doubles.equalTo(0.0f).test(bean));
+    final Accessor floats = Accessor.method(Bean.class, "getFloatValue");
+    assertTrue(floats.equalTo(Float.NaN).test(bean));
+
+    final Accessor names = Accessor.method(Bean.class, "getName");
+    assertTrue(names.equalTo("Seven").test(bean));
+    assertFalse(names.equalTo("seven").test(bean));
+    final Accessor boxed = Accessor.method(Bean.class, "getBoxed");
+    assertTrue(boxed.equalTo(null).test(bean));
+    assertFalse(boxed.equalTo(0).test(bean));
+  }
+
+  @Test
+  public void resolvesInheritedMembers() {
+    final Child child = new Child();
+    assertEquals(3, Accessor.method(Child.class, "getInherited").getInt(child));
+    assertEquals(4L, Accessor.method(Child.class, "getOverridden").getLong(child));
+    assertEquals("parent", Accessor.field(Child.class, "parentField").get(child));
+    assertEquals("child", Accessor.field(Child.class, "childField").get(child));
+  }
+
+  @Test
+  public void readsPublicMembersOfNonPublicClasses() {
+    final Hidden hidden = new Hidden();
+    assertEquals("hidden", Accessor.method(Hidden.class, "getValue").get(hidden));
+    assertEquals(5, Accessor.field(Hidden.class, "count").getInt(hidden));
+    assertEquals(5.0, Accessor.field(Hidden.class, "count").getDouble(hidden), 0.0);
+  }
+
+  @Test
+  public void resolvesNonPublicMembersOnlyOnRequest() {
+    final Child child = new Child();
+    assertNull(Accessor.findMethod(Child.class, "secret"));
+    assertNull(Accessor.findField(Child.class, "privateField"));
+    assertNull(Accessor.findMethod(Child.class, "parentSecret"));
+    try {
+      Accessor.method(Child.class, "secret");
+      fail("Expected a private method to be rejected.");
+    } catch (IllegalArgumentException expected) {
+      // Expected.
+    }
+    try {
+      Accessor.field(Child.class, "privateField");
+      fail("Expected a private field to be rejected.");
+    } catch (IllegalArgumentException expected) {
+      // Expected.
+    }
+
+    assertEquals("secret", Accessor.declaredMethod(Child.class, "secret").get(child));
+    assertEquals(11, Accessor.declaredField(Child.class, "privateField").getInt(child));
+    assertEquals("parent secret",
+        Accessor.declaredMethod(Child.class, "parentSecret").get(child));
+
+    // Asking for non-public members first does not change public resolution.
+    assertNull(Accessor.findMethod(Child.class, "secret"));
+  }
+
+  @Test
+  public void readsFields() {
+    final Bean bean = new Bean(1, 2L, 3.5, 4.5f, 'c', (short)5, (byte)6, "n", 8);
+    final Accessor field = Accessor.field(Bean.class, "publicLong");
+    assertEquals(long.class, field.getValueType());
+    assertEquals(2L, field.get(bean));
+    assertEquals(2L, field.getLong(bean));
+    assertEquals(2.0, field.getDouble(bean), 0.0);
+    assertTrue(field.equalTo(2L).test(bean));
+    assertFalse(field.equalTo(2).test(bean));
+    assertEquals("publicLong", field.getName());
+    assertSame(field, Accessor.field(Bean.class, "publicLong"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsMissingMethods() {
+    Accessor.method(Bean.class, "getMissing");
+  }
+
+  /**
+   * A bean with a member of each kind.
+   */
+  public static final class Bean {
+    public final long publicLong;
+    private final int intValue;
+    private final double doubleValue;
+    private final float floatValue;
+    private final char charValue;
+    private final short shortValue;
+    private final byte byteValue;
+    private final String name;
+    private final Integer boxed;
+
+    Bean(int intValue, long longValue, double doubleValue, float floatValue,
+        char charValue, short shortValue, byte byteValue, String name,
+        Integer boxed) {
+      this.intValue = intValue;
+      this.publicLong = longValue;
+      this.doubleValue = doubleValue;
+      this.floatValue = floatValue;
+      this.charValue = charValue;
+      this.shortValue = shortValue;
+      this.byteValue = byteValue;
+      this.name = name;
+      this.boxed = boxed;
+    }
+
+    public int getIntValue() {
+      return intValue;
+    }
+
+    public long getLongValue() {
+      return publicLong;
+    }
+
+    public double getDoubleValue() {
+      return doubleValue;
+    }
+
+    public float getFloatValue() {
+      return floatValue;
+    }
+
+    public char getCharValue() {
+      return charValue;
+    }
+
+    public short getShortValue() {
+      return shortValue;
+    }
+
+    public byte getByteValue() {
+      return byteValue;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public Integer getBoxed() {
+      return boxed;
+    }
+
+    @Override
+    public String toString() {
+      return "Bean [" + intValue + "]";
+    }
+  }
+
+  /**
+   * A superclass with public and private members.
+   */
+  public static class Parent {
+    public String parentField = "parent";
+
+    public int getInherited() {
+      return 3;
+    }
+
+    public long getOverridden() {
+      return 1L;
+    }
+
+    @SuppressWarnings("unused")
+    private String parentSecret() {
+      return "parent secret";
+    }
+  }
+
+  /**
+   * A subclass with public and private members.
+   */
+  public static class Child extends Parent {
+    public String childField = "child";
+    @SuppressWarnings("unused")
+    private int privateField = 11;
+
+    @Override
+    public long getOverridden() {
+      return 4L;
+    }
+
+    @SuppressWarnings("unused")
+    private String secret() {
+      return "secret";
+    }
+  }
+
+  /**
+   * A class that is not public, with public members.
+   */
+  private static final class Hidden {
+    public int count = 5;
+
+    public String getValue() {
+      return "hidden";
+    }
+  }
+}
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.security;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+/**
+ * Tests for AddressMatcher.
+ */
+public class AddressMatcherTest {
+
+  @Test
+  public void matchesIpv4Blocks() {
+    final AddressMatcher matcher = new AddressMatcher("10.0.0.0/8", "192.168.1.0/24", "172.16.0.0/12");
+    assertTrue(matcher.matches("10.1.2.3"));
+    assertTrue(matcher.matches("192.168.1.255"));
+    assertFalse(matcher.matches("192.168.2.1"));
+    assertTrue(matcher.matches("172.31.255.255"));
+    assertFalse(matcher.matches("172.32.0.0"));
+    assertFalse(matcher.matches("11.0.0.1"));
+  }
+
+  @Test
+  public void partialBytePrefixes() {
+    final AddressMatcher matcher = new AddressMatcher("192.168.1.64/26");
+    assertFalse(matcher.matches("192.168.1.63"));
+    assertTrue(matcher.matches("192.168.1.64"));
+    assertTrue(matcher.matches("192.168.1.127"));
+    assertFalse(matcher.matches("192.168.1.128"));
+  }
+
+  @Test
+  public void wholeAndSingleAddressBlocks() {
+    assertTrue(new AddressMatcher("0.0.0.0/0").matches("8.8.8.8"));
+    final AddressMatcher single = new AddressMatcher("127.0.0.1/32");
+    assertTrue(single.matches("127.0.0.1"));
+    assertFalse(single.matches("127.0.0.2"));
+  }
+
+  @Test
+  public void matchesIpv6Blocks() {
+    final AddressMatcher matcher = new AddressMatcher("2001:db8::/32", "::1/128");
+    assertTrue(matcher.matches("2001:db8::1"));
+    assertTrue(matcher.matches("2001:0db8:ffff::"));
+    assertFalse(matcher.matches("2001:db9::1"));
+    assertTrue(matcher.matches("::1"));
+    // IPv4 addresses do not match IPv6 blocks.
+    assertFalse(matcher.matches("32.1.13.184"));
+  }
+
+  @Test
+  public void legacySubstrings() {
+    final AddressMatcher matcher = new AddressMatcher("192.168.", " 10.0.0.5 ");
+    assertTrue(matcher.matches("192.168.7.7"));
+    assertTrue(matcher.matches("10.0.0.50"));
+    assertFalse(matcher.matches("10.0.1.5"));
+  }
+
+  @Test
+  public void rejectsNonAddresses() {
+    final AddressMatcher matcher = new AddressMatcher("0.0.0.0/0", "::/0");
+    assertFalse(matcher.matches(null));
+    assertFalse(matcher.matches("localhost"));
+    assertFalse(matcher.matches("1.2.3"));
+    assertFalse(matcher.matches("1.2.3.4.5"));
+    assertFalse(matcher.matches("1.2.3.256"));
+    assertFalse(matcher.matches("1..2.3"));
+    assertFalse(matcher.matches("not:an:address"));
+    // Host names containing a colon must not be resolved.
+    assertFalse(matcher.matches("x:y"));
+    assertFalse(matcher.matches("localhost:8080"));
+    assertFalse(matcher.matches("[::1]"));
+  }
+
+  @Test
+  public void ignoresIpv6ScopeIds() {
+    final AddressMatcher matcher = new AddressMatcher("fe80::/10");
+    assertTrue(matcher.matches("fe80::1%eth0"));
+    assertTrue(matcher.matches("fe80:0:0:0:0:0:0:1%1"));
+  }
+
+  @Test
+  public void emptyMatcher() {
+    assertTrue(new AddressMatcher().isEmpty());
+    assertTrue(new AddressMatcher((String[])null).isEmpty());
+    assertTrue(new AddressMatcher("", "  ", null).isEmpty());
+    assertFalse(new AddressMatcher().matches("10.0.0.1"));
+    assertFalse(new AddressMatcher("10.0.0.0/8").isEmpty());
+  }
+
+  @Test
+  public void rejectsMalformedBlocks() {
+    final String[] malformed = { "10.0.0.0/33", "10.0.0.0/-1", "10.0.0.0/x", 
+        "host.example.com/8", "2001:db8::/129" };
+    for (String block : malformed) {
+      try {
+        new AddressMatcher(block);
+        fail("Expected " + block + " to be rejected.");
+      } catch (IllegalArgumentException expected) {
+        // Expected.
+      }
+    }
+  }
+}
@@ -0,0 +1,188 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.security;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.junit.*;
+
+/**
+ * Tests for RateLimiter.
+ */
+public class RateLimiterTest {
+
+  private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+  @Test
+  public void allowsUpToTheLimit() {
+    final RateLimiter limiter = new RateLimiter("test", 3, HOUR);
+    assertTrue(limiter.tryAcquire("a"));
+    assertTrue(limiter.tryAcquire("a"));
+    assertTrue(limiter.tryAcquire("a"));
+    assertFalse(limiter.tryAcquire("a"));
+    assertTrue(limiter.isLimited("a"));
+    // Other keys are independent.
+    assertTrue(limiter.tryAcquire("b"));
+    assertFalse(limiter.isLimited("b"));
+  }
+
+  @Test
+  public void rejectedAcquisitionsRecordNothing() {
+    final RateLimiter limiter = new RateLimiter("test", 5, HOUR);
+    assertTrue(limiter.tryAcquire("a", 3));
+    assertFalse(limiter.tryAcquire("a", 3));
+    assertEquals(3.0, limiter.estimate("a"), 0.01);
+    assertTrue(limiter.tryAcquire("a", 2));
+    assertFalse(limiter.tryAcquire("a"));
+  }
+
+  @Test
+  public void recordIgnoresTheLimit() {
+    final RateLimiter limiter = new RateLimiter("test", 2, HOUR);
+    limiter.record("a");
+    limiter.record("a");
+    limiter.record("a");
+    assertEquals(3.0, limiter.estimate("a"), 0.01);
+    assertTrue(limiter.isLimited("a"));
+  }
+
+  @Test
+  public void permitsExpireWithTheWindow() throws InterruptedException {
+    final RateLimiter limiter = new RateLimiter("test", 1, 50L);
+    assertTrue(limiter.tryAcquire("a"));
+    assertFalse(limiter.tryAcquire("a"));
+    // Two full windows later, nothing of the first window remains.
+    Thread.sleep(150L);
+    assertEquals(0.0, limiter.estimate("a"), 0.0);
+    assertTrue(limiter.tryAcquire("a"));
+  }
+
+  @Test
+  public void idleKeysAreSwept() throws InterruptedException {
+    final RateLimiter limiter = new RateLimiter("test", 10, 50L, 1);
+    limiter.record("a");
+    limiter.record("b");
+    assertEquals(2, limiter.size());
+    Thread.sleep(200L);
+    limiter.record("c");
+    assertEquals(1, limiter.size());
+  }
+
+  @Test
+  public void resets() {
+    final RateLimiter limiter = new RateLimiter("test", 1, HOUR);
+    limiter.record("a");
+    limiter.record("b");
+    limiter.reset("a");
+    assertFalse(limiter.isLimited("a"));
+    assertTrue(limiter.isLimited("b"));
+    limiter.resetAll();
+    assertEquals(0, limiter.size());
+  }
+
+  @Test
+  public void synchronizesRecordedPermitsAndResets() {
+    final List<String> events = new ArrayList<>();
+    final RateLimiter limiter = new RateLimiter("login", 5, HOUR);
+    final RateLimiter peer = new RateLimiter("login", 5, HOUR);
+    limiter.setSynchronizer(new RateLimiter.Synchronizer() {
+      @Override
+      public void permitsRecorded(RateLimiter source, String key, int permits) {
+        events.add("record " + key + " " + permits);
+        peer.recordRemote(key, permits);
+      }
+
+      @Override
+      public void keyReset(RateLimiter source, String key) {
+        events.add("reset " + key);
+        peer.resetRemote(key);
+      }
+    });
+    // The peer broadcasts anything it records itself, but not what it
+    // receives.
+    peer.setSynchronizer((source, key, permits) -> events.add("echo " + key));
+
+    limiter.record("a");
+    assertTrue(limiter.tryAcquire("a", 2));
+    assertFalse(limiter.tryAcquire("a", 5));
+    assertEquals(3.0, peer.estimate("a"), 0.01);
+
+    limiter.reset("a");
+    assertEquals(0.0, peer.estimate("a"), 0.0);
+    // Resetting a key with nothing recorded is not broadcast.
+    limiter.reset("a");
+
+    assertEquals(Arrays.asList("record a 1", "record a 2", "reset a"), events);
+  }
+
+  @Test
+  public void neverExceedsTheLimitUnderContention() throws Exception {
+    final RateLimiter limiter = new RateLimiter("test", 1000, HOUR);
+    final AtomicInteger acquired = new AtomicInteger();
+    final ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      final List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        futures.add(executor.submit(() -> {
+          for (int i = 0; i < 500; i++) {
+            if (limiter.tryAcquire("shared")) {
+              acquired.incrementAndGet();
+            }
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get(30, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(1000, acquired.get());
+  }
+
+  @Test
+  public void roundsShardsUpAndRejectsBadArguments() {
+    assertEquals(3, new RateLimiter("test", 3, HOUR, 5).getLimit());
+    try {
+      new RateLimiter("test", 0, HOUR);
+      fail("Expected a zero limit to be rejected.");
+    } catch (IllegalArgumentException expected) {
+      // Expected.
+    }
+    try {
+      new RateLimiter("test", 1, 0L);
+      fail("Expected a zero window to be rejected.");
+    } catch (IllegalArgumentException expected) {
+      // Expected.
+    }
+  }
+}
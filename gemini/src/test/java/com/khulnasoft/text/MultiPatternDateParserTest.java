@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.text;
+
+import static org.junit.Assert.*;
+
+import java.text.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.junit.*;
+
+/**
+ * Tests for MultiPatternDateParser.
+ */
+public class MultiPatternDateParserTest {
+
+  private static final String[] PATTERNS = {
+      "yyyy-MM-dd'T'HH:mm:ss",
+      "yyyy-MM-dd HH:mm",
+      "yyyy-MM-dd",
+      "MM/dd/yyyy hh:mm a",
+      "MM/dd/yyyy",
+      "dd.MM.yyyy",
+      "MMM d, yyyy",
+      "EEE, d MMM yyyy HH:mm:ss",
+      "yyyyMMdd"
+  };
+
+  private static final String[] INPUTS = {
+      "2018-03-04T05:06:07",
+      "2018-03-04 05:06",
+      "2018-03-04",
+      "03/04/2018 05:06 PM",
+      "03/04/2018",
+      "04.03.2018",
+      "Mar 4, 2018",
+      "Sun, 4 Mar 2018 05:06:07",
+      "20180304",
+      "not a date",
+      "",
+      "2018/03"
+  };
+
+  private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+  private final MultiPatternDateParser parser = new MultiPatternDateParser(false, PATTERNS);
+
+  /**
+   * Parses the way a plain list of SimpleDateFormats would, trying every
+   * pattern in order.
+   */
+  private static int naiveIndex(String text, TimeZone timeZone) {
+    for (int i = 0; i < PATTERNS.length; i++) {
+      final SimpleDateFormat format = new SimpleDateFormat(PATTERNS[i]);
+      format.setLenient(false);
+      format.setTimeZone(timeZone);
+      if (format.parse(text, new ParsePosition(0)) != null) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Test
+  public void matchesAsATrialOfEveryPatternWould() {
+    for (String input : INPUTS) {
+      final AtomicInteger matched = new AtomicInteger();
+      parser.parse(input, UTC, matched);
+      assertEquals(input, naiveIndex(input, UTC), matched.get());
+    }
+  }
+
+  @Test
+  public void prefersEarlierPatterns() {
+    final AtomicInteger matched = new AtomicInteger();
+    // "yyyy-MM-dd" also matches the prefix of this text.
+    final Date date = parser.parse("2018-03-04 05:06", UTC, matched);
+    assertEquals(1, matched.get());
+    final Calendar calendar = Calendar.getInstance(UTC);
+    calendar.setTime(date);
+    assertEquals(5, calendar.get(Calendar.HOUR_OF_DAY));
+    assertEquals(6, calendar.get(Calendar.MINUTE));
+  }
+
+  @Test
+  public void returnsNullWithoutAMatch() {
+    final AtomicInteger matched = new AtomicInteger(99);
+    assertNull(parser.parse("not a date", UTC, matched));
+    assertEquals(-1, matched.get());
+    assertNull(parser.parse(null, UTC, matched));
+    assertEquals(-1, matched.get());
+    assertNull(parser.parse("", null, null));
+  }
+
+  @Test
+  public void interpretsInTimeZone() {
+    final Date utc = parser.parse("2018-03-04", UTC, null);
+    final Date tokyo = parser.parse("2018-03-04", TimeZone.getTimeZone("Asia/Tokyo"), null);
+    assertEquals(TimeUnit.HOURS.toMillis(9), utc.getTime() - tokyo.getTime());
+    // The time zone does not stick to the thread's format.
+    assertEquals(utc, parser.parse("2018-03-04", UTC, null));
+  }
+
+  @Test
+  public void quotedLettersAndTextFieldsRequireLetters() {
+    final MultiPatternDateParser quoted = new MultiPatternDateParser(false, 
+        "yyyy'x'MMdd", "yyyyMMdd");
+    final AtomicInteger matched = new AtomicInteger();
+    assertNotNull(quoted.parse("20180304", UTC, matched));
+    assertEquals(1, matched.get());
+    assertNotNull(quoted.parse("2018x0304", UTC, matched));
+    assertEquals(0, matched.get());
+  }
+
+  @Test
+  public void getPatternsReturnsACopy() {
+    final String[] patterns = parser.getPatterns();
+    assertArrayEquals(PATTERNS, patterns);
+    patterns[0] = "changed";
+    assertEquals(PATTERNS[0], parser.getPatterns()[0]);
+  }
+
+  @Test
+  public void parsesConcurrently() throws Exception {
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      final List<Future<Boolean>> futures = new ArrayList<>();
+      for (int t = 0; t < 4; t++) {
+        futures.add(executor.submit(() -> {
+          for (int i = 0; i < 2000; i++) {
+            final String input = INPUTS[i % INPUTS.length];
+            final AtomicInteger matched = new AtomicInteger();
+            parser.parse(input, UTC, matched);
+            if (matched.get() != naiveIndex(input, UTC)) {
+              return false;
+            }
+          }
+          return true;
+        }));
+      }
+      for (Future<Boolean> future : futures) {
+        assertTrue(future.get(30, TimeUnit.SECONDS));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+/**
+ * Tests for ByteRange.
+ */
+public class ByteRangeTest {
+
+  private static final String ETAG = "\"3e8-16b4f\"";
+  // Tue, 15 Nov 1994 08:12:31 GMT, plus some milliseconds.
+  private static final long LAST_MODIFIED = 784887151000L + 250L;
+
+  @Test
+  public void absentOrMalformed() {
+    assertNull(ByteRange.parse(null, 1000));
+    assertNull(ByteRange.parse("", 1000));
+    assertNull(ByteRange.parse("items=0-10", 1000));
+    assertNull(ByteRange.parse("bytes=", 1000));
+    assertNull(ByteRange.parse("bytes=10", 1000));
+    assertNull(ByteRange.parse("bytes=-", 1000));
+    assertNull(ByteRange.parse("bytes=a-b", 1000));
+    assertNull(ByteRange.parse("bytes=500-100", 1000));
+  }
+
+  @Test
+  public void multipleRangesSendWholeResource() {
+    assertNull(ByteRange.parse("bytes=0-10,20-30", 1000));
+  }
+
+  @Test
+  public void closedRange() {
+    ByteRange range = ByteRange.parse("bytes=0-499", 1000);
+    assertEquals(0, range.start);
+    assertEquals(499, range.end);
+    assertEquals(500, range.length());
+    assertEquals("bytes 0-499/1000", range.toContentRange(1000));
+  }
+
+  @Test
+  public void closedRangeIsClampedToLength() {
+    ByteRange range = ByteRange.parse("bytes=900-5000", 1000);
+    assertEquals(900, range.start);
+    assertEquals(999, range.end);
+    assertEquals(100, range.length());
+  }
+
+  @Test
+  public void openRange() {
+    ByteRange range = ByteRange.parse("bytes=500-", 1000);
+    assertEquals(500, range.start);
+    assertEquals(999, range.end);
+  }
+
+  @Test
+  public void suffixRange() {
+    ByteRange range = ByteRange.parse("bytes=-200", 1000);
+    assertEquals(800, range.start);
+    assertEquals(999, range.end);
+
+    range = ByteRange.parse("bytes=-5000", 1000);
+    assertEquals(0, range.start);
+    assertEquals(999, range.end);
+  }
+
+  @Test
+  public void unsatisfiable() {
+    assertSame(ByteRange.UNSATISFIABLE, ByteRange.parse("bytes=1000-", 1000));
+    assertSame(ByteRange.UNSATISFIABLE, ByteRange.parse("bytes=2000-3000", 1000));
+    assertSame(ByteRange.UNSATISFIABLE, ByteRange.parse("bytes=-0", 1000));
+    assertSame(ByteRange.UNSATISFIABLE, ByteRange.parse("bytes=-10", 0));
+    assertEquals("bytes */1000", ByteRange.UNSATISFIABLE.toContentRange(1000));
+  }
+
+  @Test
+  public void ifRangeAbsent() {
+    ByteRange range = ByteRange.parse("bytes=0-9", null, ETAG, LAST_MODIFIED, 1000);
+    assertEquals(10, range.length());
+  }
+
+  @Test
+  public void ifRangeMatchingEtag() {
+    ByteRange range = ByteRange.parse("bytes=0-9", ETAG, ETAG, LAST_MODIFIED, 1000);
+    assertEquals(10, range.length());
+  }
+
+  @Test
+  public void ifRangeChangedEtagSendsWholeResource() {
+    assertNull(ByteRange.parse("bytes=0-9", "\"other\"", ETAG, LAST_MODIFIED, 1000));
+  }
+
+  @Test
+  public void ifRangeWeakEtagNeverMatches() {
+    assertNull(ByteRange.parse("bytes=0-9", "W/" + ETAG, ETAG, LAST_MODIFIED, 1000));
+    assertNull(ByteRange.parse("bytes=0-9", "W/" + ETAG, "W/" + ETAG, LAST_MODIFIED, 1000));
+  }
+
+  @Test
+  public void ifRangeMatchingDate() {
+    ByteRange range = ByteRange.parse("bytes=0-9", 
+        "Tue, 15 Nov 1994 08:12:31 GMT", ETAG, LAST_MODIFIED, 1000);
+    assertEquals(10, range.length());
+  }
+
+  @Test
+  public void ifRangeChangedDateSendsWholeResource() {
+    assertNull(ByteRange.parse("bytes=0-9", 
+        "Tue, 15 Nov 1994 08:12:30 GMT", ETAG, LAST_MODIFIED, 1000));
+  }
+
+  @Test
+  public void ifRangeMalformedSendsWholeResource() {
+    assertNull(ByteRange.parse("bytes=0-9", "yesterday", ETAG, LAST_MODIFIED, 1000));
+  }
+
+  @Test
+  public void ifRangeDoesNotAffectUnsatisfiable() {
+    assertSame(ByteRange.UNSATISFIABLE, 
+        ByteRange.parse("bytes=5000-", ETAG, ETAG, LAST_MODIFIED, 1000));
+  }
+}
@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright (c) 2018, KhulnaSoft, Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name KhulnaSoft, Ltd. nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL TECHEMPOWER, INC. BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY
+ * OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.khulnasoft.util;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+
+/**
+ * Tests for LatencyHistogram.
+ */
+public class LatencyHistogramTest {
+
+  @Test
+  public void emptyHistogram() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0L, histogram.getCount());
+    assertEquals(0L, histogram.getMax());
+    assertEquals(0d, histogram.getMean(), 0d);
+    assertEquals(0L, histogram.getValueAtPercentile(99));
+  }
+
+  @Test
+  public void smallValuesAreExact() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(i);
+    }
+    assertEquals(100L, histogram.getCount());
+    assertEquals(100L, histogram.getMax());
+    assertEquals(50.5d, histogram.getMean(), 1e-9);
+    assertEquals(1L, histogram.getValueAtPercentile(0));
+    assertEquals(1L, histogram.getValueAtPercentile(1));
+    assertEquals(50L, histogram.getValueAtPercentile(50));
+    assertEquals(90L, histogram.getValueAtPercentile(90));
+    assertEquals(99L, histogram.getValueAtPercentile(99));
+    assertEquals(100L, histogram.getValueAtPercentile(100));
+  }
+
+  @Test
+  public void bucketBoundsAreWithinOneSixtyFourth() {
+    final Random random = new Random(46L);
+    for (int i = 0; i < 10000; i++) {
+      final long value = 128L + (long)(Math.pow(2, random.nextDouble() * 35));
+      final long top = bucketTop(value);
+      assertTrue(value + " reported as " + top, top >= value);
+      assertTrue(value + " reported as " + top, top - value <= value / 64);
+    }
+  }
+
+  @Test
+  public void bucketsAreContiguous() {
+    // Each bucket starts just above the top of the one before it.
+    long value = 0L;
+    while (value < 1L << 24) {
+      final long top = bucketTop(value);
+      assertTrue(top >= value);
+      if (value > 0L) {
+        assertEquals(value - 1, bucketTop(value - 1));
+      }
+      assertEquals(top, bucketTop(top));
+      value = top + 1;
+    }
+  }
+
+  /**
+   * Returns the top of the bucket holding a value.
+   */
+  private static long bucketTop(long value) {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(value);
+    histogram.record(Long.MAX_VALUE);
+    return histogram.getValueAtPercentile(50);
+  }
+
+  @Test
+  public void percentileIsCappedByMaximum() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(1000L);
+    assertEquals(1000L, histogram.getValueAtPercentile(50));
+    assertEquals(1000L, histogram.getValueAtPercentile(100));
+  }
+
+  @Test
+  public void clampsOutOfRangeValues() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-5L);
+    assertEquals(0L, histogram.getMax());
+    assertEquals(0L, histogram.getValueAtPercentile(100));
+    histogram.record(Long.MAX_VALUE);
+    assertEquals((1L << 36) - 1, histogram.getMax());
+    assertEquals((1L << 36) - 1, histogram.getValueAtPercentile(100));
+  }
+
+  @Test
+  public void tailPercentiles() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 0; i < 990; i++) {
+      histogram.record(1000L);
+    }
+    for (int i = 0; i < 10; i++) {
+      histogram.record(1_000_000L);
+    }
+    final long p99 = histogram.getValueAtPercentile(99);
+    assertTrue(p99 >= 1000L && p99 <= 1000L + 1000L / 64);
+    final long p999 = histogram.getValueAtPercentile(99.9);
+    assertEquals(1_000_000L, p999);
+  }
+
+  @Test
+  public void addMergesCounts() {
+    final LatencyHistogram first = new LatencyHistogram();
+    final LatencyHistogram second = new LatencyHistogram();
+    for (int i = 1; i <= 50; i++) {
+      first.record(i);
+      second.record(i + 50);
+    }
+    first.add(second);
+    assertEquals(100L, first.getCount());
+    assertEquals(100L, first.getMax());
+    assertEquals(50.5d, first.getMean(), 1e-9);
+    assertEquals(75L, first.getValueAtPercentile(75));
+    assertEquals(50L, second.getCount());
+  }
+}